@@ -0,0 +1,196 @@
+package com.reactnativebitchat;
+
+import java.util.ArrayDeque;
+
+// A fixed set of advertising slots that frames rotate through, instead of a new advertisement per frame
+// that is never stopped. Each slot is opened once and then has its payload replaced; a frame stays on
+// air for at least holdMs so scanners get a few advertising events to catch it before it is replaced.
+// Frames wait in a bounded queue while every slot is holding, and the oldest is dropped when it is full.
+// A slot the controller refuses to open is disabled, so a controller with fewer sets than slots still
+// works with what it has. Backend calls are made under the pool lock and must not block; completions
+// are reported back through onStarted and onUpdated.
+public class AdvertisingPool {
+    public static final int LEGACY_FRAME_SIZE = 27; // 31-byte legacy payload less the 16-bit service data header
+    public static final int EXTENDED_FRAME_SIZE = 250; // Fits one AD structure in an extended advertisement
+    public static final int FRAME_OVERHEAD = 4; // AD length, AD type and 16-bit service UUID
+
+    public interface Backend {
+        void start(int slot, byte[] frame);
+
+        void update(int slot, byte[] frame);
+
+        void stop(int slot);
+    }
+
+    private static final int CLOSED = 0;
+    private static final int PENDING = 1; // Start or payload update in flight
+    private static final int ON_AIR = 2;
+    private static final int DISABLED = 3;
+
+    private final Backend backend;
+    private final int maxQueued;
+    private long holdMs;
+    private final Clock clock;
+    private final int[] states;
+    private final long[] onAirSince;
+    private final byte[][] frames; // Frame in flight per slot, re-queued if the controller rejects it
+    private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+    private long sent, dropped, failures;
+    private boolean paused;
+
+    public AdvertisingPool(Backend backend, int slots, int maxQueued, long holdMs, Clock clock) {
+        if (slots <= 0) throw new IllegalArgumentException("Need at least one slot");
+        this.backend = backend;
+        this.maxQueued = maxQueued;
+        this.holdMs = holdMs;
+        this.clock = clock;
+        states = new int[slots];
+        onAirSince = new long[slots];
+        frames = new byte[slots][];
+    }
+
+    // Queues a frame and puts it on air if a slot is free. Returns false when no slot is usable.
+    public synchronized boolean send(byte[] frame) {
+        if (getUsableSlots() == 0) {
+            dropped++;
+            return false;
+        }
+        if (queue.size() >= maxQueued) {
+            queue.pollFirst();
+            dropped++;
+        }
+        queue.addLast(frame);
+        pump();
+        return true;
+    }
+
+    // Moves queued frames onto slots whose current frame has been on air long enough. Called on every
+    // send and completion, and periodically so holding slots are reused without new traffic.
+    public synchronized void pump() {
+        if (paused) return;
+        long now = clock.nowMillis();
+        for (int slot = 0; slot < states.length && !queue.isEmpty(); slot++) {
+            if (states[slot] == CLOSED) {
+                states[slot] = PENDING;
+                frames[slot] = queue.pollFirst();
+                backend.start(slot, frames[slot]);
+            } else if (states[slot] == ON_AIR && now - onAirSince[slot] >= holdMs) {
+                states[slot] = PENDING;
+                frames[slot] = queue.pollFirst();
+                backend.update(slot, frames[slot]);
+            }
+        }
+    }
+
+    public synchronized void onStarted(int slot, boolean success) {
+        if (states[slot] != PENDING) return; // Closed meanwhile
+        if (success) {
+            confirm(slot);
+        } else {
+            states[slot] = DISABLED;
+            failures++;
+            requeue(slot);
+            if (getUsableSlots() == 0) {
+                dropped += queue.size();
+                queue.clear();
+            }
+        }
+        pump();
+    }
+
+    // A failed update leaves the set open with its previous payload, so the slot stays usable; the frame
+    // is dropped rather than retried, since the controller may reject that payload every time.
+    public synchronized void onUpdated(int slot, boolean success) {
+        if (states[slot] != PENDING) return;
+        if (success) {
+            confirm(slot);
+        } else {
+            failures++;
+            dropped++;
+            states[slot] = ON_AIR;
+            onAirSince[slot] = clock.nowMillis();
+            frames[slot] = null;
+        }
+        pump();
+    }
+
+    // Takes every slot off air, e.g. while the radio is off or to reopen slots with new settings. Frames
+    // whose start or update was in flight go back to the front of the queue, and sends keep queueing
+    // until resume.
+    public synchronized void pause() {
+        if (paused) return;
+        paused = true;
+        for (int slot = states.length - 1; slot >= 0; slot--) { // Earlier slots took earlier frames
+            if (states[slot] != PENDING && states[slot] != ON_AIR) continue;
+            backend.stop(slot);
+            states[slot] = CLOSED;
+            requeue(slot);
+        }
+    }
+
+    public synchronized void resume() {
+        if (!paused) return;
+        paused = false;
+        pump();
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    // Minimum time on air for frames put up from now on, e.g. a few events at a new interval.
+    public synchronized void setHoldMs(long holdMs) {
+        this.holdMs = holdMs;
+    }
+
+    // Stops every open slot and drops queued frames; disabled slots get another chance afterwards.
+    public synchronized void close() {
+        for (int slot = 0; slot < states.length; slot++) {
+            if (states[slot] == PENDING || states[slot] == ON_AIR) backend.stop(slot);
+            states[slot] = CLOSED;
+            frames[slot] = null;
+        }
+        dropped += queue.size();
+        queue.clear();
+    }
+
+    public synchronized int getUsableSlots() {
+        int usable = 0;
+        for (int state : states) if (state != DISABLED) usable++;
+        return usable;
+    }
+
+    public synchronized int getOpenSlots() {
+        int open = 0;
+        for (int state : states) if (state == PENDING || state == ON_AIR) open++;
+        return open;
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    public synchronized long getSent() {
+        return sent;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    private void confirm(int slot) {
+        states[slot] = ON_AIR;
+        onAirSince[slot] = clock.nowMillis();
+        frames[slot] = null;
+        sent++;
+    }
+
+    private void requeue(int slot) {
+        if (frames[slot] != null) queue.addFirst(frames[slot]);
+        frames[slot] = null;
+    }
+}
@@ -0,0 +1,225 @@
+package com.reactnativebitchat;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.reactnativebitchat.Message.BitchatMessage;
+import com.reactnativebitchat.Message.BitchatPacket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class AdvertisingPoolTests {
+    private static final class ManualClock implements Clock {
+        long now = 1000;
+
+        @Override
+        public long nowMillis() {
+            return now;
+        }
+    }
+
+    // Records calls; completions are delivered by the test, like controller callbacks.
+    private static final class RecordingBackend implements AdvertisingPool.Backend {
+        final List<String> calls = new ArrayList<>();
+        int starts, updates, stops;
+
+        @Override
+        public void start(int slot, byte[] frame) {
+            starts++;
+            calls.add("start " + slot + " " + frame[0]);
+        }
+
+        @Override
+        public void update(int slot, byte[] frame) {
+            updates++;
+            calls.add("update " + slot + " " + frame[0]);
+        }
+
+        @Override
+        public void stop(int slot) {
+            stops++;
+        }
+    }
+
+    private static byte[] frame(int id) {
+        return new byte[]{(byte) id, 0, 0};
+    }
+
+    @Test
+    public void testSlotsAreReused() {
+        ManualClock clock = new ManualClock();
+        RecordingBackend backend = new RecordingBackend();
+        AdvertisingPool[] holder = new AdvertisingPool[1];
+        // Completes every call immediately, as a fast controller would
+        AdvertisingPool pool = new AdvertisingPool(new AdvertisingPool.Backend() {
+            @Override
+            public void start(int slot, byte[] frame) {
+                backend.start(slot, frame);
+                holder[0].onStarted(slot, true);
+            }
+
+            @Override
+            public void update(int slot, byte[] frame) {
+                backend.update(slot, frame);
+                holder[0].onUpdated(slot, true);
+            }
+
+            @Override
+            public void stop(int slot) {
+                backend.stop(slot);
+            }
+        }, 4, 256, 300, clock);
+        holder[0] = pool;
+        for (int i = 0; i < 100; i++) assertTrue(pool.send(frame(i)));
+        assertEquals(4, backend.starts);
+        assertEquals(96, pool.getQueued());
+        for (int beat = 0; beat < 100 && pool.getQueued() > 0; beat++) {
+            clock.now += 300;
+            pool.pump();
+        }
+        assertEquals(0, pool.getQueued());
+        assertEquals(4, backend.starts); // Never more sets than slots
+        assertEquals(96, backend.updates);
+        assertEquals(100, pool.getSent());
+        assertEquals("update 0 4", backend.calls.get(4)); // First in, first on air
+        pool.close();
+        assertEquals(4, backend.stops);
+        assertEquals(0, pool.getOpenSlots());
+    }
+
+    @Test
+    public void testFramesHoldUntilTheyHaveBeenOnAir() {
+        ManualClock clock = new ManualClock();
+        RecordingBackend backend = new RecordingBackend();
+        AdvertisingPool pool = new AdvertisingPool(backend, 1, 2, 300, clock);
+        pool.send(frame(1));
+        pool.send(frame(2));
+        pool.pump();
+        assertEquals(1, backend.calls.size()); // Start still in flight
+        pool.onStarted(0, true);
+        clock.now += 299;
+        pool.pump();
+        assertEquals(1, backend.calls.size());
+        clock.now += 1;
+        pool.pump();
+        assertEquals("update 0 2", backend.calls.get(1));
+
+        pool.send(frame(3));
+        pool.send(frame(4));
+        pool.send(frame(5)); // Queue holds 2; frame 3 is dropped
+        assertEquals(1, pool.getDropped());
+        pool.onUpdated(0, true);
+        clock.now += 300;
+        pool.pump();
+        assertEquals("update 0 4", backend.calls.get(2));
+    }
+
+    @Test
+    public void testPauseHoldsFramesAndReopensSlots() {
+        ManualClock clock = new ManualClock();
+        RecordingBackend backend = new RecordingBackend();
+        AdvertisingPool pool = new AdvertisingPool(backend, 2, 16, 300, clock);
+        pool.send(frame(1));
+        pool.send(frame(2));
+        pool.onStarted(0, true); // Frame 2 still starting on slot 1
+        pool.pause();
+        assertEquals(2, backend.stops);
+        assertEquals(0, pool.getOpenSlots());
+        assertEquals(1, pool.getQueued()); // Frame 2 goes back to the queue
+        pool.send(frame(3));
+        pool.onStarted(1, true); // Late completion of the stopped start
+        clock.now += 1000;
+        pool.pump();
+        assertEquals(2, backend.starts); // Nothing goes on air while paused
+
+        pool.setHoldMs(3000); // e.g. a slower interval
+        pool.resume();
+        assertEquals("start 0 2", backend.calls.get(2));
+        assertEquals("start 1 3", backend.calls.get(3));
+        pool.onStarted(0, true);
+        pool.send(frame(4));
+        clock.now += 2999;
+        pool.pump();
+        assertEquals(4, backend.calls.size());
+        clock.now += 1;
+        pool.pump();
+        assertEquals("update 0 4", backend.calls.get(4));
+    }
+
+    @Test
+    public void testRefusedSlotsAreDisabled() {
+        ManualClock clock = new ManualClock();
+        RecordingBackend backend = new RecordingBackend();
+        AdvertisingPool pool = new AdvertisingPool(backend, 3, 16, 300, clock);
+        pool.send(frame(1));
+        pool.send(frame(2));
+        pool.send(frame(3));
+        pool.onStarted(0, true);
+        pool.onStarted(1, false); // Controller is out of sets
+        pool.onStarted(2, false);
+        assertEquals(1, pool.getUsableSlots());
+        assertEquals(2, pool.getQueued()); // Both frames wait for the working slot
+        clock.now += 300;
+        pool.pump();
+        assertTrue(backend.calls.get(backend.calls.size() - 1).startsWith("update 0 "));
+
+        pool.onUpdated(0, false); // Payload rejected: dropped, slot kept
+        assertEquals(1, pool.getDropped());
+        assertEquals(1, pool.getUsableSlots());
+
+        AdvertisingPool broken = new AdvertisingPool(backend, 1, 16, 300, clock);
+        broken.send(frame(1));
+        broken.send(frame(2));
+        broken.onStarted(0, false);
+        assertEquals(0, broken.getUsableSlots());
+        assertEquals(2, broken.getDropped());
+        assertFalse(broken.send(frame(3)));
+        broken.close(); // Disabled slots get another chance
+        assertTrue(broken.send(frame(4)));
+    }
+
+    // Frames per packet for a full 1 KB payload and a short chat line, at the old 20-byte fragments,
+    // legacy frames and extended frames.
+    @Test
+    public void testExtendedFramesCutFragmentCount() {
+        int[] lengths = {packetLength(1024), packetLength(120)};
+        for (int length : lengths) {
+            int old = frames(length, 20);
+            int legacy = frames(length, AdvertisingPool.LEGACY_FRAME_SIZE);
+            int extended = frames(length, AdvertisingPool.EXTENDED_FRAME_SIZE);
+            assertTrue(extended < legacy);
+            assertTrue(legacy < old);
+        }
+        assertTrue(frames(lengths[0], 20) > 10 * frames(lengths[0], AdvertisingPool.EXTENDED_FRAME_SIZE));
+        assertTrue(AdvertisingPool.EXTENDED_FRAME_SIZE + AdvertisingPool.FRAME_OVERHEAD <= 255); // One AD structure
+        assertEquals(31, AdvertisingPool.LEGACY_FRAME_SIZE + AdvertisingPool.FRAME_OVERHEAD);
+    }
+
+    @Test
+    public void benchmarkFramesPerPacket() {
+        Benchmarks.assumeEnabled();
+        for (int length : new int[]{packetLength(1024), packetLength(120)}) {
+            System.out.printf("Packet of %d bytes: %d frames at 20 bytes, %d legacy, %d extended%n", length, frames(length, 20),
+                    frames(length, AdvertisingPool.LEGACY_FRAME_SIZE), frames(length, AdvertisingPool.EXTENDED_FRAME_SIZE));
+        }
+    }
+
+    private static int packetLength(int contentLength) {
+        BitchatMessage msg = new BitchatMessage();
+        Random random = new Random(contentLength);
+        StringBuilder content = new StringBuilder();
+        while (content.length() < contentLength) content.append((char) ('!' + random.nextInt(94))); // Incompressible
+        msg.content = content.toString();
+        msg.senderPeerID = "peer1234";
+        BitchatPacket packet = new BitchatPacket();
+        packet.payload = Protocol.encodeMessage(msg);
+        packet.ttl = 5;
+        return Protocol.encodePacket(packet).length;
+    }
+
+    private static int frames(int length, int frameSize) {
+        return (length + frameSize - 1) / frameSize;
+    }
+}
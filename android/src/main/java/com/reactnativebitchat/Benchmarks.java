@@ -0,0 +1,17 @@
+package com.reactnativebitchat;
+
+import org.junit.Assume;
+
+// Switch for the benchmarks kept beside the unit tests. They time code and print what they measure, so
+// they are skipped unless the JVM runs with -Dbitchat.benchmarks=true.
+final class Benchmarks {
+    static final boolean ENABLED = Boolean.getBoolean("bitchat.benchmarks");
+
+    private Benchmarks() {
+    }
+
+    // Skips the calling test unless benchmarks are switched on.
+    static void assumeEnabled() {
+        Assume.assumeTrue("Benchmarks run with -Dbitchat.benchmarks=true", ENABLED);
+    }
+}
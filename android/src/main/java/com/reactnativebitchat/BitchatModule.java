@@ -1,34 +1,220 @@
 package com.reactnativebitchat;
 
+import com.bitchat.NativeBitchatSpec;
+import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.ReactApplicationContext;
-import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
-import com.facebook.react.bridge.Callback;
+import com.facebook.react.bridge.LifecycleEventListener;
 import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
+import com.reactnativebitchat.DeliveryTracker.DeliveryAck;
+import com.reactnativebitchat.Message.BitchatMessage;
+import com.reactnativebitchat.Message.BitchatPacket;
 
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.os.BatteryManager;
+import android.util.Base64;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
-public class BitchatModule extends ReactContextBaseJavaModule {
-    private final Channel channel = new Channel();
-    private final BleService bleService = new BleService();
+public class BitchatModule extends NativeBitchatSpec implements LifecycleEventListener {
+    public static final String NAME = "Bitchat";
+    private final Keychain keychain = new Keychain();
+    private final Keychain historyKeychain = new Keychain(); // Seals private messages in the log, see MessageLog
+    private final Channel channel = new Channel(keychain);
+    private final BleService bleService;
     private final Encryption encryption = new Encryption();
-    private Callback messageCallback, peerConnectedCallback, peerDisconnectedCallback, deliveryAckCallback,
-            readReceiptCallback, deliveryStatusUpdateCallback;
     private static final String PREFS_NAME = "BitchatPrefs";
     private static final String FAVORITES_KEY = "Favorites";
+    private static final long FAVORITES_FLUSH_DELAY_MS = 500; // Write-behind window for favorite changes
+    private static final long EVENT_FLUSH_INTERVAL_MS = 50;
+    private static final int EVENT_MAX_BATCH_SIZE = 64;
+    private static final int EVENT_MAX_IN_FLIGHT = 2;
+    private static final int EVENT_MAX_BUFFERED = 2048;
+    private static final String MESSAGE_LOG_FILE = "bitchat/messages.log";
+    private static final int MESSAGE_LOG_MAX_MESSAGES = 50000; // Oldest dropped beyond this, see MessageLog
+    private static final String MESSAGE_INDEX_FILE = "bitchat/messages.idx";
+    private static final int INDEX_SAVE_EVERY = 4096; // Messages re-indexed from the log at most after a crash
+    private static final String SYSTEM_LOG_FILE = "bitchat/system.log"; // System messages evicted from the channel ring
+    private static final int SYSTEM_LOG_ROTATE_AT = 4096; // Messages per generation; one previous generation is kept
+    private static final String STATE_FILE = "bitchat/state.bin";
+    private static final long ROUTE_SNAPSHOT_INTERVAL_MS = 30000;
+    private static final long SCAN_DURATION_MS = 5000;
+    private static final long RADIO_TICK_MS = 250; // How quickly pending sends switch the radio to burst
+    private static final long BATTERY_POLL_MS = 60000;
+    private static final long DEFAULT_SHAPING_INTERVAL_MS = 100; // One frame per slot, within the advertising pool's rate
+    private static final long READ_RECEIPT_DELAY_MS = 10000; // Time a read watermark waits for a reply or ack to ride on
+    private static final long PRESENCE_CHECK_MS = 10000; // How often silent neighbours are reported gone
+    private static final int PRESENCE_CAPACITY = 256;
+    private static final Object DEFERRED = new Object(); // Task resolves the promise itself later
+    private final EventBatcher<WritableMap> eventBatcher;
+    private final FavoritesStore favorites;
+    private final ModuleExecutors executors = new ModuleExecutors();
+    private MessageLog messageLog, systemLog;
+    private volatile boolean systemLogEnabled; // Off unless JS opts in; system messages name channels and peers
+    private MessageIndex messageIndex;
+    private StateStore stateStore;
+    private ScheduledFuture<?> metricsTask, shapingTask;
+    private final RadioScheduler radioScheduler = new RadioScheduler(Clock.SYSTEM);
+    private final HistorySync historySync;
+    private final DeliveryTracker deliveryTracker = new DeliveryTracker(); // State lane only
+    private final ReadWatermarks readWatermarks;
+    private final PrivateSessions privateSessions;
+    private final NeighbourPresence neighbourPresence;
+    private long batteryPolledAt = Long.MIN_VALUE / 2; // Radio lane only
 
     public BitchatModule(ReactApplicationContext context) {
         super(context);
+        bleService = new BleService(context);
+        bleService.setChannelFilter(channel);
+        bleService.setPacketListener(this::onPacket);
+        historySync = new HistorySync(new HistorySync.Store() {
+            @Override
+            public boolean isJoined(String name) {
+                return channel.isJoined(name);
+            }
+
+            @Override
+            public long[] keysBetween(String name, long from, long to) throws IOException {
+                return messageLog().keysBetween(name, from, to);
+            }
+
+            @Override
+            public List<BitchatMessage> findByKeys(String name, long from, long to, long[] sortedKeys) throws IOException {
+                return messageLog().findByKeys(name, from, to, sortedKeys);
+            }
+        }, new HistorySync.Transport() {
+            @Override
+            public void sendSync(long neighbour, String name, byte[] payload) {
+                sendToNeighbour(() -> bleService.sendSync(neighbour, name, payload));
+            }
+
+            @Override
+            public void sendMessage(long neighbour, BitchatMessage message) {
+                sendToNeighbour(() -> bleService.sendHistoryMessage(neighbour, message));
+            }
+        }, Clock.SYSTEM);
+        // Gone after the same silence that makes HistorySync treat a neighbour as rediscovered
+        neighbourPresence = new NeighbourPresence((neighbour, connected) -> emitPeerChange(BleService.peerIDFromBytes(Router.longToId(neighbour)), connected),
+                Clock.SYSTEM, HistorySync.REJOIN_GAP_MS, PRESENCE_CAPACITY);
+        bleService.setNeighbourListener(this::onNeighbourHeard);
+        readWatermarks = new ReadWatermarks(bleService::sendReadReceipt,
+                (task, delayMs) -> executors.schedule(ModuleExecutors.Lane.RADIO, task, delayMs), READ_RECEIPT_DELAY_MS);
+        bleService.setReadWatermarks(readWatermarks);
+        privateSessions = new PrivateSessions(Clock.SYSTEM, new PrivateSessions.Transport() {
+            @Override
+            public void sendHandshake(long peer, byte[] payload) {
+                sendToNeighbour(() -> bleService.sendHandshake(peer, payload));
+            }
+
+            @Override
+            public void sendMessage(long peer, BitchatMessage sealed) {
+                sendToNeighbour(() -> bleService.sendMessage(sealed, BleService.peerIDFromBytes(Router.longToId(peer))));
+            }
+        }, (task, delayMs) -> executors.schedule(ModuleExecutors.Lane.CRYPTO, task, delayMs));
+        channel.setSystemMessageSpill((sequence, timestamp, content) -> {
+            if (systemLogEnabled) spillSystemMessage(timestamp, content);
+        });
+        channel.setStateListener(this::persistChannel);
+        favorites = new FavoritesStore(new FavoritesStore.Backend() {
+            @Override
+            public Set<String> load() {
+                return preferences().getStringSet(FAVORITES_KEY, null);
+            }
+
+            @Override
+            public void save(Set<String> values) {
+                preferences().edit().putStringSet(FAVORITES_KEY, values).apply();
+            }
+        }, (task, delayMs) -> executors.schedule(ModuleExecutors.Lane.STATE, task, delayMs), FAVORITES_FLUSH_DELAY_MS);
+        // First task on the state lane, so channel calls from JS queue behind the restore
+        executors.execute(ModuleExecutors.Lane.STATE, this::restoreState);
+        executors.execute(ModuleExecutors.Lane.STATE, favorites::load);
+        executors.scheduleAtFixedRate(ModuleExecutors.Lane.STATE, this::persistRoutes, ROUTE_SNAPSHOT_INTERVAL_MS);
+        executors.scheduleAtFixedRate(ModuleExecutors.Lane.STATE, neighbourPresence::expire, PRESENCE_CHECK_MS);
+        bleService.setRadioScheduler(radioScheduler);
+        // Runs on the radio thread itself rather than through the lane, so it never counts as a pending send
+        executors.radio().scheduleAtFixedRate(this::tickRadio, RADIO_TICK_MS, RADIO_TICK_MS, TimeUnit.MILLISECONDS);
+        setTrafficShapingInterval(DEFAULT_SHAPING_INTERVAL_MS);
+        context.addLifecycleEventListener(this);
+        eventBatcher = new EventBatcher<>((eventName, batch) -> {
+            WritableArray array = Arguments.createArray();
+            for (WritableMap event : batch) array.pushMap(event);
+            getReactApplicationContext().getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class).emit(eventName, array);
+        },
+                EVENT_FLUSH_INTERVAL_MS, EVENT_MAX_BATCH_SIZE, EVENT_MAX_IN_FLIGHT, EVENT_MAX_BUFFERED);
     }
 
     @Override
     public String getName() {
-        return "Bitchat";
+        return NAME;
+    }
+
+    @Override
+    protected Map<String, Object> getTypedExportedConstants() {
+        Map<String, Object> constants = new HashMap<>();
+        constants.put("EVENT_MESSAGES", EventBatcher.EVENT_MESSAGES);
+        constants.put("EVENT_DELIVERY_ACKS", EventBatcher.EVENT_DELIVERY_ACKS);
+        constants.put("EVENT_READ_RECEIPTS", EventBatcher.EVENT_READ_RECEIPTS);
+        constants.put("EVENT_DELIVERY_STATUS", EventBatcher.EVENT_DELIVERY_STATUS);
+        constants.put("EVENT_PEERS", EventBatcher.EVENT_PEERS);
+        constants.put("EVENT_METRICS", EventBatcher.EVENT_METRICS);
+        return constants;
+    }
+
+    @Override
+    public void onHostResume() {
+        radioScheduler.setForeground(true);
+    }
+
+    @Override
+    public void onHostPause() {
+        radioScheduler.setForeground(false);
+    }
+
+    @Override
+    public void onHostDestroy() {
+        radioScheduler.setForeground(false);
+    }
+
+    @Override
+    public void invalidate() {
+        getReactApplicationContext().removeLifecycleEventListener(this);
+        eventBatcher.shutdown();
+        executors.shutdown();
+        bleService.shutdown();
+        favorites.flush();
+        synchronized (this) {
+            persistRoutes();
+            saveIndex();
+            closeQuietly(messageLog);
+            closeQuietly(systemLog);
+            closeQuietly(stateStore);
+            messageLog = null;
+            messageIndex = null;
+            systemLog = null;
+            stateStore = null;
+        }
+        super.invalidate();
     }
 
     @ReactMethod
@@ -37,145 +223,719 @@ public class BitchatModule extends ReactContextBaseJavaModule {
             promise.reject("INVALID_PEER_ID", "Peer ID must be 8 bytes");
             return;
         }
-        try {
+        dispatch(ModuleExecutors.Lane.RADIO, promise, "ADVERTISE_ERROR", () -> {
             bleService.startAdvertising(peerID);
-            bleService.sendCoverTraffic(peerID); // Include cover traffic
-            promise.resolve(null);
-        } catch (Exception e) {
-            promise.reject("ADVERTISE_ERROR", e.getMessage());
-        }
+            return null;
+        });
     }
 
     @ReactMethod
     public void scanPeers(Promise promise) {
-        try {
-            String[] peers = bleService.scanPeers();
-            WritableArray result = new WritableNativeArray();
-            for (String peer : peers) result.pushString(peer);
-            promise.resolve(result);
-        } catch (Exception e) {
-            promise.reject("SCAN_ERROR", e.getMessage());
-        }
+        dispatch(ModuleExecutors.Lane.RADIO, promise, "SCAN_ERROR", () -> {
+            bleService.scanPeers(SCAN_DURATION_MS, executors.radio(), peers -> {
+                WritableArray result = new WritableNativeArray();
+                for (String peer : peers) result.pushString(peer);
+                promise.resolve(result);
+            });
+            return DEFERRED;
+        });
     }
 
     @ReactMethod
     public void sendMessage(ReadableMap message, String recipient, Promise promise) {
+        BitchatMessage msg;
         try {
-            BitchatMessage msg = mapToBitchatMessage(message);
-            msg.deliveryStatus = "PENDING";
-            if (recipient != null) msg.recipientNickname = recipient;
-            bleService.sendMessage(msg, recipient);
-            promise.resolve(null);
+            msg = mapToBitchatMessage(message);
         } catch (Exception e) {
             promise.reject("SEND_ERROR", e.getMessage());
+            return;
         }
+        msg.deliveryStatus = "PENDING";
+        if (recipient != null) {
+            msg.recipientNickname = recipient;
+            dispatch(ModuleExecutors.Lane.CRYPTO, promise, "SEND_ERROR", () -> {
+                sendPrivate(msg, recipient);
+                return null;
+            });
+            return;
+        }
+        dispatch(ModuleExecutors.Lane.RADIO, promise, "SEND_ERROR", () -> {
+            bleService.sendMessage(msg, null);
+            recordMessage(msg);
+            return null;
+        });
+    }
+
+    @ReactMethod
+    public void sendMessages(String batch, Promise promise) {
+        dispatch(ModuleExecutors.Lane.RADIO, promise, "SEND_ERROR", () -> {
+            List<MessageBatch.Entry> entries = MessageBatch.decode(Base64.decode(batch, Base64.NO_WRAP));
+            for (MessageBatch.Entry entry : entries) MessageBatch.validate(entry.message); // All or nothing
+            List<BitchatMessage> privates = new ArrayList<>();
+            for (MessageBatch.Entry entry : entries) {
+                BitchatMessage msg = entry.message;
+                msg.deliveryStatus = "PENDING";
+                if (msg.isPrivate && msg.recipientNickname != null) {
+                    privates.add(msg);
+                    continue;
+                }
+                bleService.sendMessage(msg, null);
+                recordMessage(msg);
+            }
+            if (privates.isEmpty()) return entries.size();
+            int broadcasts = entries.size() - privates.size();
+            // Resolved once the private messages are queued, with only those a session queue took
+            dispatch(ModuleExecutors.Lane.CRYPTO, promise, "SEND_ERROR", () -> {
+                int accepted = broadcasts;
+                for (BitchatMessage msg : privates) {
+                    try {
+                        sendPrivate(msg, msg.recipientNickname);
+                        accepted++;
+                    } catch (IllegalStateException ignored) {
+                        // Queue for that peer is full; the message is never logged as sent
+                    }
+                }
+                return accepted;
+            });
+            return DEFERRED;
+        });
+    }
+
+    // The conversation with peerID has been read up to messageID, sent at timestamp. Coalesced into one
+    // watermark per conversation, see ReadWatermarks.
+    @ReactMethod
+    public void markRead(String peerID, String messageID, double timestamp) {
+        if (peerID == null || messageID == null || timestamp <= 0) return;
+        readWatermarks.markRead(BleService.peerKey(peerID), Trace.messageKey(messageID), (long) timestamp);
+    }
+
+    @ReactMethod
+    public void getHistory(String channel, double afterSequence, double limit, Promise promise) {
+        dispatch(ModuleExecutors.Lane.STATE, promise, "HISTORY_ERROR", () -> {
+            List<MessageBatch.Entry> entries = messageLog().read(channel, (long) afterSequence, (int) limit);
+            return Base64.encodeToString(MessageBatch.encode(entries), Base64.NO_WRAP);
+        });
+    }
+
+    // Newest messages holding every term of query: words, "@name" mentions and "#channel" names.
+    @ReactMethod
+    public void searchHistory(String query, double beforeSequence, double limit, Promise promise) {
+        dispatch(ModuleExecutors.Lane.STATE, promise, "SEARCH_ERROR", () -> {
+            long[] sequences = messageIndex().search(query, (long) beforeSequence, (int) limit);
+            List<MessageBatch.Entry> entries = new ArrayList<>(sequences.length);
+            for (long sequence : sequences) {
+                BitchatMessage message = messageLog().get(sequence);
+                if (message != null) entries.add(new MessageBatch.Entry(sequence, message));
+            }
+            return Base64.encodeToString(MessageBatch.encode(entries), Base64.NO_WRAP);
+        });
     }
 
     @ReactMethod
     public void sendEncryptedChannelMessage(ReadableMap message, String channel, Promise promise) {
+        BitchatMessage msg;
         try {
-            BitchatMessage msg = mapToBitchatMessage(message);
-            byte[] key = encryption.deriveChannelKey(channel, channel); // Use channel as password for simplicity
-            msg.encryptedContent = encryption.encryptContent(msg.content, key);
-            msg.isEncrypted = true;
-            msg.channel = channel;
-            bleService.sendEncryptedChannelMessage(msg, channel);
-            promise.resolve(null);
+            msg = mapToBitchatMessage(message);
         } catch (Exception e) {
             promise.reject("ENCRYPT_SEND_ERROR", e.getMessage());
+            return;
         }
+        dispatch(ModuleExecutors.Lane.CRYPTO, promise, "ENCRYPT_SEND_ERROR", () -> {
+            byte[] key = this.channel.getChannelKey(channel); // Restored or derived on join
+            if (key == null) key = encryption.deriveChannelKey(channel, channel); // Use channel as password for simplicity
+            msg.encryptedContent = encryption.encryptContent(msg.content, key);
+            msg.isEncrypted = true;
+            msg.channel = channel;
+            dispatch(ModuleExecutors.Lane.RADIO, promise, "ENCRYPT_SEND_ERROR", () -> {
+                bleService.sendEncryptedChannelMessage(msg, channel);
+                recordMessage(msg);
+                return null;
+            });
+            return DEFERRED;
+        });
     }
 
     @ReactMethod
-    public void onMessageReceived(Callback callback) {
-        messageCallback = callback;
+    public void getQueueMetrics(Promise promise) {
+        WritableMap result = Arguments.createMap();
+        for (Map.Entry<ModuleExecutors.Lane, long[]> lane : executors.snapshot().entrySet()) {
+            WritableMap metrics = Arguments.createMap();
+            metrics.putDouble("queued", lane.getValue()[0]);
+            metrics.putDouble("active", lane.getValue()[1]);
+            metrics.putDouble("completed", lane.getValue()[2]);
+            result.putMap(lane.getKey().name().toLowerCase(), metrics);
+        }
+        WritableMap drops = Arguments.createMap();
+        for (Map.Entry<RateLimiter.DropReason, Long> drop : bleService.getDropCounts().entrySet()) {
+            drops.putDouble(drop.getKey().name().toLowerCase(), drop.getValue());
+        }
+        result.putMap("drops", drops);
+        AdvertisingPool pool = bleService.getAdvertisingPool();
+        WritableMap advertising = Arguments.createMap();
+        advertising.putDouble("queued", pool.getQueued());
+        advertising.putDouble("sent", pool.getSent());
+        advertising.putDouble("dropped", pool.getDropped());
+        advertising.putDouble("slots", pool.getUsableSlots());
+        advertising.putDouble("frameSize", bleService.getFrameSize());
+        TrafficShaper shaper = bleService.getTrafficShaper();
+        advertising.putDouble("shaperQueued", shaper.getQueued());
+        advertising.putDouble("realFrames", shaper.getRealFrames());
+        advertising.putDouble("coverFrames", shaper.getCoverFrames());
+        advertising.putDouble("shaperDropped", shaper.getDropped());
+        result.putMap("advertising", advertising);
+        promise.resolve(result);
     }
 
     @ReactMethod
-    public void onPeerConnected(Callback callback) {
-        peerConnectedCallback = callback;
+    public void getMetrics(Promise promise) {
+        promise.resolve(toWritableMap(Metrics.snapshot()));
     }
 
+    // Emits a metrics snapshot as a BitchatMetrics event every intervalMs; 0 stops it.
     @ReactMethod
-    public void onPeerDisconnected(Callback callback) {
-        peerDisconnectedCallback = callback;
+    public synchronized void setMetricsInterval(double intervalMs) {
+        if (metricsTask != null) metricsTask.cancel(false);
+        metricsTask = intervalMs > 0 ? executors.scheduleAtFixedRate(ModuleExecutors.Lane.STATE,
+                () -> eventBatcher.enqueue(EventBatcher.EVENT_METRICS, toWritableMap(Metrics.snapshot())), (long) intervalMs) : null;
     }
 
+    // Emits one frame every intervalMs, real data when queued and cover otherwise; 0 sends fragments as
+    // soon as they are produced, without cover.
     @ReactMethod
-    public void onDeliveryAck(Callback callback) {
-        deliveryAckCallback = callback;
+    public synchronized void setTrafficShapingInterval(double intervalMs) {
+        if (shapingTask != null) shapingTask.cancel(false);
+        shapingTask = null;
+        long period = (long) intervalMs;
+        if (period > 0) {
+            bleService.setTrafficShaping(true, period);
+            shapingTask = executors.radio().scheduleAtFixedRate(this::shapeTraffic, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            bleService.setTrafficShaping(false, 0);
+        }
     }
 
+    // Repair frames sized to the measured loss of each link; off sends data frames only.
     @ReactMethod
-    public void onReadReceipt(Callback callback) {
-        readReceiptCallback = callback;
+    public void setErrorCorrection(boolean enabled) {
+        bleService.setErrorCorrection(enabled);
     }
 
+    // Keeps system messages evicted from the channel ring on disk, in two bounded generations; off
+    // deletes what was kept.
     @ReactMethod
-    public void onDeliveryStatusUpdate(Callback callback) {
-        deliveryStatusUpdateCallback = callback;
+    public void setSystemLogEnabled(boolean enabled) {
+        systemLogEnabled = enabled;
+        if (enabled) return;
+        runOn(ModuleExecutors.Lane.STATE, () -> {
+            synchronized (this) {
+                closeQuietly(systemLog);
+                systemLog = null;
+                File path = new File(getReactApplicationContext().getFilesDir(), SYSTEM_LOG_FILE);
+                path.delete();
+                new File(path.getPath() + ".1").delete();
+            }
+        });
     }
 
+    // Fraction of the packets we originate that carry the trace flag; relays trace whatever arrives flagged.
     @ReactMethod
-    public void decryptChannelMessage(String encryptedContent, String channel, Promise promise) {
+    public void setTraceSampleRate(double rate, Promise promise) {
         try {
-            byte[] key = encryption.deriveChannelKey(channel, channel); // Use channel as password
-            String decrypted = encryption.decryptContent(encryptedContent.getBytes(), key);
-            promise.resolve(decrypted);
-        } catch (Exception e) {
-            promise.reject("DECRYPT_ERROR", e.getMessage());
+            Trace.setSampleRate(rate);
+            promise.resolve(null);
+        } catch (IllegalArgumentException e) {
+            promise.reject("TRACE_ERROR", e.getMessage());
         }
     }
 
+    // Retained trace events as base64 of the binary format described in Trace.export.
+    @ReactMethod
+    public void exportTraces(Promise promise) {
+        dispatch(ModuleExecutors.Lane.STATE, promise, "TRACE_ERROR",
+                () -> Base64.encodeToString(Trace.export(bleService.getLocalID()), Base64.NO_WRAP));
+    }
+
+    // Current radio mode and time and estimated charge spent in each mode since start.
+    @ReactMethod
+    public void getRadioReport(Promise promise) {
+        RadioScheduler.Report report = radioScheduler.getReport();
+        WritableMap result = Arguments.createMap();
+        result.putString("mode", radioScheduler.getMode().name);
+        WritableMap modes = Arguments.createMap();
+        for (RadioScheduler.Mode mode : RadioScheduler.MODES) modes.putDouble(mode.name, report.getMillis(mode));
+        result.putMap("millis", modes);
+        result.putDouble("milliampHours", report.getMilliampHours());
+        result.putDouble("averageMilliamps", report.getAverageMilliamps());
+        promise.resolve(result);
+    }
+
+    @ReactMethod
+    public void addListener(String eventName) {
+        eventBatcher.addListener(eventName);
+    }
+
+    @ReactMethod
+    public void removeListeners(double count) {
+        eventBatcher.removeListeners((int) count);
+    }
+
+    @ReactMethod
+    public void acknowledgeEvents(String eventName, double batches) {
+        eventBatcher.acknowledge(eventName, (int) batches);
+    }
+
+    public void emitMessage(BitchatMessage message) {
+        recordMessage(message);
+        eventBatcher.enqueue(EventBatcher.EVENT_MESSAGES, bitchatMessageToMap(message));
+    }
+
+    public void emitDeliveryAck(DeliveryAck ack) {
+        WritableMap map = Arguments.createMap();
+        map.putString("messageID", ack.messageID);
+        map.putString("recipientID", ack.recipientID);
+        map.putString("nickname", ack.nickname);
+        map.putInt("hopCount", ack.hopCount);
+        map.putDouble("timestamp", ack.timestamp);
+        eventBatcher.enqueue(EventBatcher.EVENT_DELIVERY_ACKS, map);
+    }
+
+    public void emitReadReceipt(String messageID, String readerID, long timestamp) {
+        WritableMap map = Arguments.createMap();
+        map.putString("messageID", messageID);
+        map.putString("readerID", readerID);
+        map.putDouble("timestamp", timestamp);
+        eventBatcher.enqueue(EventBatcher.EVENT_READ_RECEIPTS, map);
+    }
+
+    public void emitDeliveryStatus(String messageID, String status) {
+        WritableMap map = Arguments.createMap();
+        map.putString("messageID", messageID);
+        map.putString("status", status);
+        eventBatcher.enqueue(EventBatcher.EVENT_DELIVERY_STATUS, map);
+    }
+
+    public void emitPeerChange(String peerID, boolean connected) {
+        WritableMap map = Arguments.createMap();
+        map.putString("peerID", peerID);
+        map.putBoolean("connected", connected);
+        eventBatcher.enqueue(EventBatcher.EVENT_PEERS, map);
+    }
+
+    @ReactMethod
+    public void decryptChannelMessage(String encryptedContent, String channel, Promise promise) {
+        dispatch(ModuleExecutors.Lane.CRYPTO, promise, "DECRYPT_ERROR", () -> {
+            byte[] key = this.channel.getChannelKey(channel); // Restored or derived on join
+            if (key == null) key = encryption.deriveChannelKey(channel, channel); // Use channel as password, as when sending
+            return encryption.decryptContent(Base64.decode(encryptedContent, Base64.NO_WRAP), key);
+        });
+    }
+
     @ReactMethod
     public void isFavorite(String fingerprint, Promise promise) {
         if (fingerprint == null || fingerprint.isEmpty()) {
             promise.reject("INVALID_FINGERPRINT", "Fingerprint cannot be empty");
             return;
         }
-        SharedPreferences prefs = getReactApplicationContext().getSharedPreferences(PREFS_NAME, 0);
-        Set<String> favorites = prefs.getStringSet(FAVORITES_KEY, null);
-        boolean isFavorite = favorites != null && favorites.contains(fingerprint);
-        promise.resolve(isFavorite);
+        if (favorites.isLoaded()) {
+            promise.resolve(favorites.contains(fingerprint)); // In-memory lookup, no need to queue
+            return;
+        }
+        dispatch(ModuleExecutors.Lane.STATE, promise, "FAVORITE_ERROR", () -> favorites.contains(fingerprint));
     }
 
     @ReactMethod
-    public void joinChannel(String channel, String password, Promise promise) {
-        try {
-            boolean success = channel.joinChannel(channel, password, "peerID");
-            promise.resolve(success);
-        } catch (Exception e) {
-            promise.reject("JOIN_ERROR", e.getMessage());
+    public void addFavorite(String fingerprint, Promise promise) {
+        if (fingerprint == null || fingerprint.isEmpty()) {
+            promise.reject("INVALID_FINGERPRINT", "Fingerprint cannot be empty");
+            return;
         }
+        dispatch(ModuleExecutors.Lane.STATE, promise, "FAVORITE_ERROR", () -> favorites.add(fingerprint));
+    }
+
+    @ReactMethod
+    public void removeFavorite(String fingerprint, Promise promise) {
+        dispatch(ModuleExecutors.Lane.STATE, promise, "FAVORITE_ERROR", () -> favorites.remove(fingerprint));
+    }
+
+    // Adds and removes many fingerprints in one call and one write; resolves with how many changed.
+    @ReactMethod
+    public void updateFavorites(ReadableArray additions, ReadableArray removals, Promise promise) {
+        List<String> add = toStringList(additions);
+        List<String> remove = toStringList(removals);
+        dispatch(ModuleExecutors.Lane.STATE, promise, "FAVORITE_ERROR", () -> (double) favorites.update(add, remove));
+    }
+
+    @ReactMethod
+    public void getFavorites(Promise promise) {
+        dispatch(ModuleExecutors.Lane.STATE, promise, "FAVORITE_ERROR", () -> {
+            WritableArray result = Arguments.createArray();
+            for (String fingerprint : favorites.getAll()) result.pushString(fingerprint);
+            return result;
+        });
+    }
+
+    // PBKDF2 runs on the crypto lane and its result is applied on the state lane, so channel calls queued
+    // on the state lane do not wait out a key derivation.
+    @ReactMethod
+    public void joinChannel(String channel, String password, Promise promise) {
+        dispatch(ModuleExecutors.Lane.CRYPTO, promise, "JOIN_ERROR", () -> {
+            boolean derive = password != null && password.equals(this.channel.getChannelPassword(channel)) && !this.channel.isJoined(channel);
+            byte[] key = derive ? encryption.deriveChannelKey(password, channel) : null; // Null derives on join if still needed
+            dispatch(ModuleExecutors.Lane.STATE, promise, "JOIN_ERROR", () -> this.channel.joinChannel(channel, password, "peerID", key));
+            return DEFERRED;
+        });
     }
 
     @ReactMethod
     public void setChannelPassword(String channel, String password, Promise promise) {
-        try {
-            channel.setChannelPassword(channel, password, "peerID");
-            promise.resolve(null);
-        } catch (Exception e) {
-            promise.reject("SET_PASSWORD_ERROR", e.getMessage());
-        }
+        dispatch(ModuleExecutors.Lane.CRYPTO, promise, "SET_PASSWORD_ERROR", () -> {
+            boolean derive = password != null && "peerID".equals(this.channel.getChannelCreator(channel));
+            byte[] key = derive ? encryption.deriveChannelKey(password, channel) : null; // Others are refused on the state lane
+            dispatch(ModuleExecutors.Lane.STATE, promise, "SET_PASSWORD_ERROR", () -> {
+                this.channel.setChannelPassword(channel, password, "peerID", key);
+                return null;
+            });
+            return DEFERRED;
+        });
     }
 
     @ReactMethod
     public void removeChannelPassword(String channel, Promise promise) {
-        try {
-            channel.removeChannelPassword(channel, "peerID");
-            promise.resolve(null);
-        } catch (Exception e) {
-            promise.reject("REMOVE_PASSWORD_ERROR", e.getMessage());
-        }
+        dispatch(ModuleExecutors.Lane.STATE, promise, "REMOVE_PASSWORD_ERROR", () -> {
+            this.channel.removeChannelPassword(channel, "peerID");
+            return null;
+        });
     }
 
     @ReactMethod
     public void transferChannelOwnership(String channel, String newOwnerID, Promise promise) {
+        dispatch(ModuleExecutors.Lane.STATE, promise, "TRANSFER_ERROR", () -> {
+            this.channel.transferOwnership(channel, newOwnerID, "peerID");
+            return null;
+        });
+    }
+
+    private interface Task {
+        Object run() throws Exception;
+    }
+
+    // Accepts the call immediately and resolves the promise from the lane's thread.
+    private void dispatch(ModuleExecutors.Lane lane, Promise promise, String errorCode, Task task) {
         try {
-            channel.transferOwnership(channel, newOwnerID, "peerID");
-            promise.resolve(null);
-        } catch (Exception e) {
-            promise.reject("TRANSFER_ERROR", e.getMessage());
+            executors.execute(lane, () -> {
+                try {
+                    Object result = task.run();
+                    if (result != DEFERRED) promise.resolve(result);
+                } catch (Exception e) {
+                    promise.reject(errorCode, e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            promise.reject("BUSY", e.getMessage());
+        }
+    }
+
+    // Packets arrive on the link thread; decoding and channel bookkeeping run on the state lane.
+    private void onPacket(BitchatPacket packet) {
+        try {
+            executors.execute(ModuleExecutors.Lane.STATE, () -> {
+                if (packet.readUpTo != 0) applyReadMark(packet);
+                if (packet.type == Protocol.READ_RECEIPT) return;
+                if (packet.type == Protocol.DELIVERY_ACK) {
+                    applyDeliveryAck(packet);
+                    return;
+                }
+                if (packet.type == Protocol.HANDSHAKE) {
+                    boolean broadcast = Router.idToLong(packet.recipientID) == 0;
+                    runOn(ModuleExecutors.Lane.CRYPTO, () -> privateSessions.onHandshake(Router.idToLong(packet.senderID), packet.payload, broadcast));
+                    return;
+                }
+                if (packet.type == Protocol.SYNC) {
+                    try {
+                        historySync.onPayload(Router.idToLong(packet.senderID), packet.payload);
+                    } catch (IOException ignored) {
+                    }
+                    return;
+                }
+                BitchatMessage msg = Protocol.decodeMessage(packet.payload);
+                if (msg == null) return;
+                if (msg.isPrivate && msg.encryptedContent != null) {
+                    long sender = Router.idToLong(packet.senderID);
+                    runOn(ModuleExecutors.Lane.CRYPTO, () -> {
+                        if (!privateSessions.open(sender, msg)) return;
+                        emitMessage(msg);
+                        if (msg.id != null) sendToNeighbour(() -> bleService.sendDeliveryAck(sender, Trace.messageKey(msg.id)));
+                    });
+                    return;
+                }
+                if (msg.channel != null) channel.receiveMessage(msg);
+                emitMessage(msg);
+            });
+        } catch (RejectedExecutionException ignored) {
+            // Dropped under overload, like any other lost radio packet
+        }
+    }
+
+    // One watermark moves every message we sent the reader up to it to READ; JS gets a single receipt
+    // naming the newest message covered.
+    private void applyReadMark(BitchatPacket packet) {
+        String reader = BleService.peerIDFromBytes(packet.senderID);
+        if (!deliveryTracker.processReadWatermark(reader, packet.readUpTo)) return;
+        String messageID = deliveryTracker.findMessage(packet.readKey);
+        emitReadReceipt(messageID, reader, packet.readUpTo);
+        if (messageID != null) emitDeliveryStatus(messageID, "READ");
+    }
+
+    // Only the recipient acks, so any matching ack means delivered; the ttl left tells how many relays
+    // carried it back.
+    private void applyDeliveryAck(BitchatPacket packet) {
+        if (packet.payload == null || packet.payload.length != 8) return;
+        String messageID = deliveryTracker.findMessage(ByteBuffer.wrap(packet.payload).getLong());
+        if (messageID == null) {
+            Metrics.increment(Metrics.Counter.ACKS_UNMATCHED);
+            return;
+        }
+        String before = deliveryTracker.getStatus(messageID);
+        DeliveryAck ack = deliveryTracker.generateAck(messageID, BleService.peerIDFromBytes(packet.senderID), null,
+                Math.max(0, BleService.ACK_TTL - 1 - packet.ttl));
+        deliveryTracker.processAck(ack);
+        emitDeliveryAck(ack);
+        String status = deliveryTracker.getStatus(messageID);
+        if (!status.equals(before)) emitDeliveryStatus(messageID, status);
+    }
+
+    // Sealed under the session with the recipient, or queued until the handshake completes; the log
+    // keeps the plaintext. Crypto lane only.
+    private void sendPrivate(BitchatMessage message, String recipient) {
+        message.isPrivate = true;
+        if (!privateSessions.send(BleService.peerKey(recipient), message)) {
+            throw new IllegalStateException("Too many messages waiting for a session with " + recipient);
+        }
+        recordMessage(message);
+        trackSent(message, recipient);
+    }
+
+    private void trackSent(BitchatMessage message, String recipient) {
+        if (message.id == null) return;
+        try {
+            executors.execute(ModuleExecutors.Lane.STATE,
+                    () -> deliveryTracker.trackMessage(message.id, "PENDING", recipient, (long) message.timestamp));
+        } catch (RejectedExecutionException ignored) {
+        }
+    }
+
+    // JS hears of a neighbour coming into range, a neighbour without a private session is announced to,
+    // and one back in range after a silence is offered the channel history it may have missed.
+    private void onNeighbourHeard(long neighbour) {
+        neighbourPresence.onNeighbourHeard(neighbour);
+        privateSessions.onNeighbourHeard(neighbour);
+        if (!historySync.onNeighbourHeard(neighbour, bleService.getLocalID())) return;
+        try {
+            executors.execute(ModuleExecutors.Lane.STATE, () -> {
+                try {
+                    historySync.start(neighbour, channel.getJoinedChannels());
+                } catch (IOException ignored) {
+                }
+            });
+        } catch (RejectedExecutionException ignored) {
+            // Skipped under overload; the next rediscovery tries again
+        }
+    }
+
+    private void sendToNeighbour(Runnable send) {
+        runOn(ModuleExecutors.Lane.RADIO, send);
+    }
+
+    private void runOn(ModuleExecutors.Lane lane, Runnable task) {
+        try {
+            executors.execute(lane, task);
+        } catch (RejectedExecutionException ignored) {
+            // Dropped under overload, like a lost packet
+        }
+    }
+
+    // History writes are serialized on the state lane and are best effort. The index follows the log; a
+    // save it misses is made up for by re-indexing the log's tail when it is next opened.
+    private void recordMessage(BitchatMessage message) {
+        try {
+            executors.execute(ModuleExecutors.Lane.STATE, () -> {
+                try {
+                    MessageLog log = messageLog();
+                    long first = log.getFirstSequence();
+                    long sequence = log.append(message);
+                    MessageIndex index = messageIndex();
+                    if (log.getFirstSequence() != first) index.dropBefore(log.getFirstSequence()); // Compacted
+                    index.add(sequence, message);
+                    if (index.getUnsaved() >= INDEX_SAVE_EVERY) index.save();
+                } catch (IOException | RuntimeException ignored) {
+                    // Unloggable, e.g. a field too long for a record; the message itself was handled
+                }
+            });
+        } catch (RejectedExecutionException ignored) {
+        }
+    }
+
+    private void spillSystemMessage(long timestamp, String content) {
+        try {
+            executors.execute(ModuleExecutors.Lane.STATE, () -> {
+                try {
+                    if (!systemLogEnabled) return; // Turned off while this was queued
+                    systemLog().append(Channel.systemMessage(timestamp, content));
+                } catch (IOException ignored) {
+                }
+            });
+        } catch (RejectedExecutionException ignored) {
+            // The ring already dropped it; losing the spill copy under overload is acceptable
+        }
+    }
+
+    private void restoreState() {
+        try {
+            stateStore().restore(channel, bleService.getRouter());
+        } catch (IOException ignored) {
+            // Start empty; channels are rejoined and routes relearned as before
+        }
+    }
+
+    private void persistChannel(String name) {
+        try {
+            executors.execute(ModuleExecutors.Lane.STATE, () -> {
+                try {
+                    stateStore().saveChannel(channel, name);
+                } catch (IOException ignored) {
+                }
+            });
+        } catch (RejectedExecutionException ignored) {
+        }
+    }
+
+    // Feeds the scheduler what it cannot observe itself and applies its decision to presence and the
+    // receive scan. Runs on the radio thread, between sends.
+    private void tickRadio() {
+        try {
+            radioScheduler.setPendingPackets(executors.getPendingRadioTasks() + bleService.getQueuedFrames());
+            radioScheduler.setNeighbourCount(bleService.getRouter().countNeighbours());
+            long now = System.currentTimeMillis();
+            if (now - batteryPolledAt >= BATTERY_POLL_MS) {
+                batteryPolledAt = now;
+                pollBattery();
+            }
+            bleService.applyRadioMode(radioScheduler.getMode(), radioScheduler.isRadioOn());
+            bleService.getAdvertisingPool().pump(); // Frames queued behind slots that are still holding
+        } catch (RuntimeException ignored) {
+            // A failed tick must not cancel the timer; the next one retries
+        }
+    }
+
+    private void shapeTraffic() {
+        try {
+            bleService.shapeTraffic();
+        } catch (RuntimeException ignored) {
+            // Keep the cadence; a lost frame is like any other lost radio packet
+        }
+    }
+
+    // ACTION_BATTERY_CHANGED is sticky, so reading it needs no receiver.
+    private void pollBattery() {
+        Intent battery = getReactApplicationContext().registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) return;
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        if (level < 0 || scale <= 0) return;
+        boolean charging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        radioScheduler.setBattery(level * 100 / scale, charging);
+    }
+
+    private synchronized void persistRoutes() {
+        try {
+            if (stateStore != null) stateStore.saveRoutes(bleService.getRouter());
+        } catch (IOException ignored) {
+        }
+    }
+
+    private SharedPreferences preferences() {
+        return getReactApplicationContext().getSharedPreferences(PREFS_NAME, 0);
+    }
+
+    private static List<String> toStringList(ReadableArray array) {
+        List<String> result = new ArrayList<>();
+        if (array == null) return result;
+        for (int i = 0; i < array.size(); i++) result.add(array.getString(i));
+        return result;
+    }
+
+    private synchronized StateStore stateStore() throws IOException {
+        if (stateStore == null) {
+            stateStore = new StateStore(new File(getReactApplicationContext().getFilesDir(), STATE_FILE), keychain);
+        }
+        return stateStore;
+    }
+
+    private synchronized MessageLog messageLog() throws IOException {
+        if (messageLog == null) {
+            messageLog = new MessageLog(new File(getReactApplicationContext().getFilesDir(), MESSAGE_LOG_FILE), historyKeychain, MESSAGE_LOG_MAX_MESSAGES);
+        }
+        return messageLog;
+    }
+
+    // Opens the index saved next to the log and indexes whatever was logged after that save.
+    private synchronized MessageIndex messageIndex() throws IOException {
+        if (messageIndex == null) {
+            MessageLog log = messageLog();
+            MessageIndex index = new MessageIndex(new File(getReactApplicationContext().getFilesDir(), MESSAGE_INDEX_FILE));
+            if (index.getLastSequence() > log.getLastSequence()) index.clear(); // Saved against another log
+            index.dropBefore(log.getFirstSequence());
+            List<MessageBatch.Entry> entries;
+            while (!(entries = log.read(null, index.getLastSequence(), 1024)).isEmpty()) {
+                for (MessageBatch.Entry entry : entries) index.add(entry.sequence, entry.message);
+            }
+            messageIndex = index;
+        }
+        return messageIndex;
+    }
+
+    private void saveIndex() {
+        if (messageIndex == null || messageIndex.getUnsaved() == 0) return;
+        try {
+            messageIndex.save();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // A full log becomes system.log.1, replacing the previous one, and a fresh one starts.
+    private synchronized MessageLog systemLog() throws IOException {
+        File path = new File(getReactApplicationContext().getFilesDir(), SYSTEM_LOG_FILE);
+        if (systemLog != null && systemLog.getLastSequence() >= SYSTEM_LOG_ROTATE_AT) {
+            closeQuietly(systemLog);
+            systemLog = null;
+            File previous = new File(path.getPath() + ".1");
+            if (previous.exists() && !previous.delete() || !path.renameTo(previous)) throw new IOException("Cannot rotate " + path);
+        }
+        if (systemLog == null) systemLog = new MessageLog(path);
+        return systemLog;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static WritableMap toWritableMap(Map<String, Object> values) {
+        WritableMap map = Arguments.createMap();
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Map) {
+                map.putMap(entry.getKey(), toWritableMap((Map<String, Object>) value));
+            } else if (value instanceof Number) {
+                map.putDouble(entry.getKey(), ((Number) value).doubleValue());
+            } else if (value != null) {
+                map.putString(entry.getKey(), value.toString());
+            }
+        }
+        return map;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
         }
     }
 
@@ -191,6 +951,27 @@ public class BitchatModule extends ReactContextBaseJavaModule {
         if (map.hasKey("recipientNickname")) msg.recipientNickname = map.getString("recipientNickname");
         msg.senderPeerID = map.getString("senderPeerID");
         // Handle mentions, channel, encryptedContent, isEncrypted, deliveryStatus as needed
+        MessageBatch.validate(msg);
         return msg;
     }
+
+    private WritableMap bitchatMessageToMap(BitchatMessage msg) {
+        WritableMap map = Arguments.createMap();
+        map.putString("id", msg.id);
+        map.putString("sender", msg.sender);
+        map.putString("content", msg.content);
+        map.putDouble("timestamp", msg.timestamp);
+        map.putBoolean("isRelay", msg.isRelay);
+        if (msg.originalSender != null) map.putString("originalSender", msg.originalSender);
+        map.putBoolean("isPrivate", msg.isPrivate);
+        if (msg.recipientNickname != null) map.putString("recipientNickname", msg.recipientNickname);
+        map.putString("senderPeerID", msg.senderPeerID);
+        WritableArray mentions = Arguments.createArray();
+        for (String mention : msg.mentions) mentions.pushString(mention);
+        map.putArray("mentions", mentions);
+        if (msg.channel != null) map.putString("channel", msg.channel);
+        map.putBoolean("isEncrypted", msg.isEncrypted);
+        map.putString("deliveryStatus", msg.deliveryStatus != null ? msg.deliveryStatus : "PENDING");
+        return map;
+    }
 }
\ No newline at end of file
@@ -1,131 +1,735 @@
 package com.reactnativebitchat;
 
+import android.annotation.TargetApi;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.le.AdvertiseCallback;
 import android.bluetooth.le.AdvertiseData;
 import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.AdvertisingSet;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
 import android.bluetooth.le.BluetoothLeAdvertiser;
 import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
 import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
 import android.content.Context;
+import android.os.Build;
 import android.os.ParcelUuid;
 
-import java.util.ArrayList;
+import com.reactnativebitchat.Message.BitchatMessage;
+import com.reactnativebitchat.Message.BitchatPacket;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class BleService {
+    private static final ParcelUuid FRAME_SERVICE_UUID = ParcelUuid.fromString("0000b17c-0000-1000-8000-00805f9b34fb"); // 16-bit, to keep frames large
+    private static final ParcelUuid PRESENCE_SERVICE_UUID = ParcelUuid.fromString("0000b17b-0000-1000-8000-00805f9b34fb"); // Peer ID as service data
+    private static final int ADVERTISING_SLOTS = 4; // Most controllers support at least this many sets
+    private static final int ADVERTISING_QUEUE = 256;
+    private static final int FRAME_HOLD_EVENTS = 3; // Advertising events a frame stays on air for
+    private static final long[] ADVERTISE_INTERVAL_MS = {1000, 250, 100}; // Low power, balanced, low latency
+    // Advertising set equivalents of RadioScheduler's advertise modes and TX power levels
+    private static final int[] SET_INTERVALS = {AdvertisingSetParameters.INTERVAL_HIGH, AdvertisingSetParameters.INTERVAL_MEDIUM,
+            AdvertisingSetParameters.INTERVAL_LOW};
+    private static final int[] SET_TX_POWERS = {AdvertisingSetParameters.TX_POWER_ULTRA_LOW, AdvertisingSetParameters.TX_POWER_LOW,
+            AdvertisingSetParameters.TX_POWER_MEDIUM, AdvertisingSetParameters.TX_POWER_HIGH};
+    private static final long MAX_SHAPING_DELAY_MS = 5000; // Longest a frame should wait for a shaping slot
+    private static final int ROUTE_CAPACITY = 256;
+    private static final long ROUTE_LIFETIME_MS = 5 * 60 * 1000;
+    private static final int SEEN_PACKET_CAPACITY = 4096; // Packets per generation of the relay dedup filter
+    private static final int RATE_LIMITED_PEERS = 1024;
+    static final int ACK_TTL = Router.DEFAULT_TTL; // An ack arrives with ACK_TTL - 1 minus its relays left
+    private static final RateLimiter.Limit ORIGIN_LIMIT = new RateLimiter.Limit(10, 30); // Packets a neighbour sends itself
+    private static final RateLimiter.Limit RELAY_LIMIT = new RateLimiter.Limit(30, 90); // Packets relayed on a sender's behalf
+    private static final RateLimiter.Limit NEW_PEER_LIMIT = new RateLimiter.Limit(50, 200);
     private final BluetoothManager bluetoothManager;
     private final BluetoothAdapter bluetoothAdapter;
     private BluetoothLeAdvertiser advertiser;
     private BluetoothLeScanner scanner;
     private final Map<String, byte[]> fragmentBuffers = new HashMap<>();
     private final Protocol protocol = new Protocol();
+    private volatile ChannelFilter channelFilter;
+    private volatile PacketListener packetListener;
+    private volatile NeighbourListener neighbourListener;
+    private volatile ReadWatermarks readWatermarks;
+    private volatile byte[] localPeerID = peerIDToBytes("senderID"); // Until startAdvertising assigns one
+    private final Router router = new Router(ROUTE_CAPACITY, ROUTE_LIFETIME_MS, Clock.SYSTEM);
+    private BloomFilter seenPackets = new BloomFilter(SEEN_PACKET_CAPACITY, 0.001); // Guarded by seenLock
+    private BloomFilter previouslySeen = new BloomFilter(SEEN_PACKET_CAPACITY, 0.001);
+    private final Object seenLock = new Object();
+    private final RateLimiter rateLimiter = new RateLimiter(RATE_LIMITED_PEERS, ORIGIN_LIMIT, RELAY_LIMIT, NEW_PEER_LIMIT, Clock.SYSTEM);
+    private volatile RadioScheduler radioScheduler;
+    private final AdvertisingPool advertisingPool;
+    private final int frameSize;
+    private final TrafficShaper trafficShaper;
+    private volatile boolean shaping = true;
+    private final FecFramer fecFramer = new FecFramer(Clock.SYSTEM);
+    private volatile boolean errorCorrection = true;
+    private String advertisedPeerID; // Presence advertisement state, guarded by this
+    private AdvertiseCallback presenceCallback;
+    private ScanCallback frameScanCallback; // Receive scan, guarded by this
+    private RadioScheduler.Mode radioMode = RadioScheduler.BURST;
+    private volatile RadioScheduler.Mode frameMode = RadioScheduler.BURST; // Read by the pool backends under the pool lock
+    private boolean radioOn = true;
+    private long lastTimestamp; // Guarded by this
+
+    public interface PeerScanCallback {
+        void onScanComplete(String[] peers);
+    }
+
+    // Decides from the header tag alone whether channel traffic is for us, see ChannelTag.
+    public interface ChannelFilter {
+        int tagFor(String channel);
+
+        boolean acceptsTag(int tag);
+    }
 
-    public BleService() {
-        Context context = null; // Replace with actual context from ReactApplicationContext
+    public interface PacketListener {
+        void onPacket(BitchatPacket packet);
+    }
+
+    // Told of the neighbour that transmitted each packet heard, e.g. to notice it coming back into range.
+    public interface NeighbourListener {
+        void onNeighbourHeard(long neighbour);
+    }
+
+    public BleService(Context context) {
         bluetoothManager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
         bluetoothAdapter = bluetoothManager.getAdapter();
         advertiser = bluetoothAdapter.getBluetoothLeAdvertiser();
         scanner = bluetoothAdapter.getBluetoothLeScanner();
+        boolean extended = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && supportsExtendedFrames();
+        frameSize = extended ? AdvertisingPool.EXTENDED_FRAME_SIZE : AdvertisingPool.LEGACY_FRAME_SIZE;
+        AdvertisingPool.Backend backend = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                ? new AdvertisingSetBackend(extended) : new LegacyAdvertisingBackend();
+        advertisingPool = new AdvertisingPool(backend, ADVERTISING_SLOTS, ADVERTISING_QUEUE, frameHoldMs(RadioScheduler.BURST), Clock.SYSTEM);
+        trafficShaper = new TrafficShaper(frameSize, Integer.MAX_VALUE); // Bounded once shaping starts
+    }
+
+    @TargetApi(Build.VERSION_CODES.O)
+    private boolean supportsExtendedFrames() {
+        return bluetoothAdapter.isLeExtendedAdvertisingSupported()
+                && bluetoothAdapter.getLeMaximumAdvertisingDataLength() >= AdvertisingPool.EXTENDED_FRAME_SIZE + AdvertisingPool.FRAME_OVERHEAD;
+    }
+
+    // Bytes of packet data per advertisement: about 250 with LE extended advertising, 27 on legacy controllers.
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public AdvertisingPool getAdvertisingPool() {
+        return advertisingPool;
+    }
+
+    // Stops every advertisement this service started.
+    public synchronized void shutdown() {
+        stopPresence();
+        stopReceiving();
+        advertisedPeerID = null;
+        advertisingPool.close();
     }
 
     public void startAdvertising(String peerID) {
         if (peerID.length() != 8) throw new IllegalArgumentException("Peer ID must be 8 bytes");
+        localPeerID = peerIDToBytes(peerID);
+        synchronized (this) {
+            advertisedPeerID = peerID;
+            if (radioOn) {
+                stopPresence(); // A new peer ID replaces the old advertisement
+                startPresence();
+                if (frameScanCallback == null) startReceiving();
+            }
+        }
+    }
+
+    // Moves presence, the frame pool and the receive scan to the mode's settings, or stops them while the
+    // duty cycle has the radio off. Called on every scheduler tick; each part is restarted only when a
+    // setting it uses changed, so a tick that changes nothing leaves the radio alone.
+    public synchronized void applyRadioMode(RadioScheduler.Mode mode, boolean on) {
+        RadioScheduler.Mode previous = radioMode;
+        boolean toggled = on != radioOn;
+        boolean advertising = toggled || mode.advertiseMode != previous.advertiseMode || mode.txPower != previous.txPower;
+        boolean scanning = toggled || mode.scanMode != previous.scanMode;
+        radioMode = mode;
+        radioOn = on;
+        if (advertising) {
+            // Open slots keep the settings they were started with, so they are reopened under the new ones
+            advertisingPool.pause();
+            frameMode = mode;
+            advertisingPool.setHoldMs(frameHoldMs(mode));
+            if (on) advertisingPool.resume();
+        }
+        if (advertisedPeerID == null) return;
+        if (advertising) {
+            stopPresence();
+            if (on) startPresence();
+        }
+        if (scanning) {
+            stopReceiving();
+            if (on) startReceiving();
+        }
+    }
+
+    private static long frameHoldMs(RadioScheduler.Mode mode) {
+        return FRAME_HOLD_EVENTS * ADVERTISE_INTERVAL_MS[mode.advertiseMode];
+    }
+
+    public void setRadioScheduler(RadioScheduler scheduler) {
+        radioScheduler = scheduler;
+    }
+
+    public synchronized RadioScheduler.Mode getRadioMode() {
+        return radioMode;
+    }
+
+    private void startPresence() {
+        String peerID = advertisedPeerID;
         AdvertiseSettings settings = new AdvertiseSettings.Builder()
-                .setAdvertiseMode(AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY)
-                .setTxPowerLevel(AdvertiseSettings.ADVERTISE_TX_POWER_HIGH)
+                .setAdvertiseMode(radioMode.advertiseMode)
+                .setTxPowerLevel(radioMode.txPower)
                 .setConnectable(false)
                 .build();
         AdvertiseData data = new AdvertiseData.Builder()
-                .addServiceUuid(new ParcelUuid(UUID.randomUUID())) // Unique service UUID
-                .addServiceData(new ParcelUuid(UUID.randomUUID()), peerID.getBytes())
+                .addServiceData(PRESENCE_SERVICE_UUID, peerIDToBytes(peerID)) // 12 bytes, within the 31-byte legacy payload
                 .build();
-        advertiser.startAdvertising(settings, data, new AdvertiseCallback() {
-            @Override
-            public void onStartSuccess(AdvertiseSettings settingsInEffect) {
-                sendCoverTraffic(peerID);
-            }
+        presenceCallback = new AdvertiseCallback() {
             @Override
             public void onStartFailure(int errorCode) {
-                throw new RuntimeException("Advertising failed: " + errorCode);
+                // Reported on a binder thread; the next mode change starts it again
+                Metrics.increment(Metrics.Counter.PRESENCE_FAILURES);
             }
-        });
+        };
+        advertiser.startAdvertising(settings, data, presenceCallback);
+    }
+
+    private void stopPresence() {
+        if (presenceCallback == null) return;
+        advertiser.stopAdvertising(presenceCallback);
+        presenceCallback = null;
     }
 
-    public void sendCoverTraffic(String peerID) {
-        byte[] coverData = new byte[20]; // Example cover traffic
-        new java.util.Random().nextBytes(coverData);
-        AdvertiseData cover = new AdvertiseData.Builder()
-                .addServiceData(new ParcelUuid(UUID.randomUUID()), coverData)
+    // Listens for neighbours' frames at the mode's scan setting. Results arrive on the link thread and go
+    // to onFrameReceived; one that fails to parse is counted as malformed rather than thrown at the binder.
+    private void startReceiving() {
+        ScanSettings settings = new ScanSettings.Builder()
+                .setScanMode(radioMode.scanMode)
+                .setCallbackType(ScanSettings.CALLBACK_TYPE_ALL_MATCHES) // Every rotation of a neighbour's sets
                 .build();
-        advertiser.startAdvertising(new AdvertiseSettings.Builder().build(), cover, new AdvertiseCallback() {});
+        frameScanCallback = new ScanCallback() {
+            @Override
+            public void onScanResult(int callbackType, ScanResult result) {
+                ScanRecord record = result.getScanRecord();
+                byte[] frame = record != null ? record.getServiceData(FRAME_SERVICE_UUID) : null;
+                if (frame == null) return;
+                try {
+                    onFrameReceived(frame);
+                } catch (RuntimeException e) {
+                    drop(RateLimiter.DropReason.MALFORMED);
+                }
+            }
+
+            @Override
+            public void onBatchScanResults(List<ScanResult> results) {
+                for (ScanResult result : results) onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, result);
+            }
+        };
+        scanner.startScan(serviceDataFilter(FRAME_SERVICE_UUID), settings, frameScanCallback);
+    }
+
+    private void stopReceiving() {
+        if (frameScanCallback == null) return;
+        scanner.stopScan(frameScanCallback);
+        frameScanCallback = null;
+    }
+
+    // Called once per shaping slot: puts the next queued fragment, or a cover frame, into the advertising
+    // pool. While the radio is off nothing is sent and fragments wait in the shaper.
+    public void shapeTraffic() {
+        synchronized (this) {
+            if (!radioOn) return;
+        }
+        byte[] frame = trafficShaper.next(true);
+        if (frame != null) advertisingPool.send(frame);
+    }
+
+    // With shaping off, fragments go straight to the advertising pool and no cover is sent. On, the shaper
+    // holds as many frames as it sends in MAX_SHAPING_DELAY_MS at one frame per intervalMs.
+    public void setTrafficShaping(boolean enabled, long intervalMs) {
+        if (enabled) trafficShaper.setMaxQueued((int) Math.max(1, MAX_SHAPING_DELAY_MS / intervalMs));
+        shaping = enabled;
+        if (!enabled) {
+            for (byte[] fragment : trafficShaper.drain()) advertisingPool.send(fragment);
+        }
     }
 
-    public String[] scanPeers() {
-        List<String> peers = new ArrayList<>();
-        scanner.startScan(new ScanCallback() {
+    public TrafficShaper getTrafficShaper() {
+        return trafficShaper;
+    }
+
+    // Fragments waiting for a shaping slot, which the radio scheduler counts as pending sends.
+    public int getQueuedFrames() {
+        return trafficShaper.getQueued();
+    }
+
+    // Scans for durationMs for presence advertisements; the scan is stopped and reported on the
+    // scheduler's thread. Frames and cover traffic carry other service data and are not peers.
+    public void scanPeers(long durationMs, ScheduledExecutorService scheduler, PeerScanCallback callback) {
+        Set<String> peers = new LinkedHashSet<>();
+        ScanCallback scanCallback = new ScanCallback() {
             @Override
             public void onScanResult(int callbackType, ScanResult result) {
-                byte[] scanData = result.getScanRecord().getServiceData().values().stream().findFirst().orElse(null);
-                if (scanData != null && scanData.length >= 8) {
-                    String peerID = new String(Arrays.copyOfRange(scanData, 0, 8));
-                    peers.add(peerID);
+                ScanRecord record = result.getScanRecord();
+                byte[] id = record != null ? record.getServiceData(PRESENCE_SERVICE_UUID) : null;
+                if (id == null || id.length != 8) return;
+                synchronized (peers) {
+                    peers.add(peerIDFromBytes(id));
                 }
             }
-        });
-        try {
-            Thread.sleep(5000); // Scan for 5 seconds
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+        };
+        ScanSettings settings = new ScanSettings.Builder().setScanMode(getRadioMode().scanMode).build();
+        scanner.startScan(serviceDataFilter(PRESENCE_SERVICE_UUID), settings, scanCallback);
+        scheduler.schedule(() -> {
+            scanner.stopScan(scanCallback);
+            synchronized (peers) {
+                callback.onScanComplete(peers.toArray(new String[0]));
+            }
+        }, durationMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static List<ScanFilter> serviceDataFilter(ParcelUuid uuid) {
+        return Collections.singletonList(new ScanFilter.Builder().setServiceData(uuid, new byte[0]).build());
+    }
+
+    public void setChannelFilter(ChannelFilter filter) {
+        channelFilter = filter;
+    }
+
+    public void setPacketListener(PacketListener listener) {
+        packetListener = listener;
+    }
+
+    public void setNeighbourListener(NeighbourListener listener) {
+        neighbourListener = listener;
+    }
+
+    // Pending read watermarks ride along on the packets we send to the peer they are for.
+    public void setReadWatermarks(ReadWatermarks watermarks) {
+        readWatermarks = watermarks;
+    }
+
+    public long getLocalID() {
+        return Router.idToLong(localPeerID);
+    }
+
+    public Router getRouter() {
+        return router;
+    }
+
+    // Drop counts by reason, for metrics.
+    public Map<RateLimiter.DropReason, Long> getDropCounts() {
+        Map<RateLimiter.DropReason, Long> result = new EnumMap<>(RateLimiter.DropReason.class);
+        for (RateLimiter.DropReason reason : RateLimiter.DropReason.values()) result.put(reason, Metrics.get(reason.counter));
+        return result;
+    }
+
+    // Entry point for complete packets from the link layer. Duplicates and senders over their rate are
+    // dropped from the raw header fields before any decoding or reassembly. Channel traffic whose tag is
+    // not joined is forwarded as raw bytes and never decoded.
+    public void onDataReceived(byte[] data) {
+        long local = Router.idToLong(localPeerID);
+        int ttl = Protocol.peekTtl(data);
+        if (ttl < 0) {
+            drop(RateLimiter.DropReason.MALFORMED);
+            return;
+        }
+        long source = Protocol.peekSenderID(data);
+        long packetId = Protocol.peekPacketId(data);
+        if (source == local) return; // Our own packet echoed back
+        RadioScheduler scheduler = radioScheduler;
+        if (scheduler != null) scheduler.onTraffic();
+        if (Protocol.peekTraced(data)) Trace.record(Trace.Event.RECEIVE, packetId, ttl);
+        if (seen(packetId)) {
+            drop(RateLimiter.DropReason.DUPLICATE);
+            return;
+        }
+        RateLimiter.DropReason limited = rateLimiter.acquire(source, ttl < Router.DEFAULT_TTL - 1);
+        if (limited != null) {
+            drop(limited);
+            return;
+        }
+        ChannelFilter filter = channelFilter;
+        int tag = Protocol.peekChannelTag(data);
+        if (tag != 0 && filter != null && !filter.acceptsTag(tag)) {
+            if (firstSighting(packetId) && Protocol.relayInPlace(data, local)) {
+                Metrics.increment(Metrics.Counter.RAW_RELAYS);
+                if (Protocol.peekTraced(data)) Trace.record(Trace.Event.RELAY, packetId, 0);
+                sendRaw(data);
+            }
+            return;
+        }
+        BitchatPacket packet = Protocol.decodePacket(data);
+        if (packet == null) {
+            // Fragments also decode to null until the last one arrives
+            if ((data[1] & Protocol.TYPE_MASK) < Protocol.FRAGMENT_START) drop(RateLimiter.DropReason.MALFORMED);
+            return;
+        }
+        if (packet.lastHop != 0) {
+            router.observe(source, packet.lastHop, packet.ttl);
+            NeighbourListener neighbours = neighbourListener;
+            if (neighbours != null) neighbours.onNeighbourHeard(packet.lastHop);
+        }
+        long recipient = Router.idToLong(packet.recipientID);
+        // Overheard a directed packet meant for another relay: learn from it but leave it unmarked, so a
+        // flooded copy that follows a route miss downstream is still handled.
+        if (packet.nextHop != 0 && packet.nextHop != local && recipient != local) return;
+        if (!firstSighting(packetId)) return;
+        PacketListener listener = packetListener;
+        if ((recipient == 0 || recipient == local) && listener != null) listener.onPacket(packet);
+        if (recipient != local) forward(packet, recipient, local);
+    }
+
+    // Directed packets are only forwarded by their designated next hop, along a known route if we have
+    // one; everything else floods until the TTL runs out.
+    private void forward(BitchatPacket packet, long recipient, long local) {
+        if (packet.ttl <= 0) return;
+        packet.lastHop = local;
+        packet.nextHop = recipient != 0 ? router.nextHop(recipient) : 0;
+        Metrics.increment(Metrics.Counter.RELAYS);
+        if (packet.traced) Trace.record(Trace.Event.RELAY, Protocol.packetId(packet), packet.nextHop);
+        sendPacket(packet);
+    }
+
+    private void drop(RateLimiter.DropReason reason) {
+        Metrics.increment(reason.counter);
+    }
+
+    private boolean seen(long packetId) {
+        synchronized (seenLock) {
+            return seenPackets.mightContain(packetId) || previouslySeen.mightContain(packetId);
+        }
+    }
+
+    // Two generations: when the current one is full it becomes the previous one and a fresh one starts,
+    // so the last SEEN_PACKET_CAPACITY packets are always remembered and a full filter never forgets
+    // everything at once.
+    private boolean firstSighting(long packetId) {
+        synchronized (seenLock) {
+            if (seenPackets.mightContain(packetId) || previouslySeen.mightContain(packetId)) return false;
+            if (seenPackets.getCount() >= SEEN_PACKET_CAPACITY) {
+                BloomFilter full = seenPackets;
+                seenPackets = previouslySeen;
+                seenPackets.reset();
+                previouslySeen = full;
+            }
+            seenPackets.insert(packetId);
+            return true;
         }
-        scanner.stopScan(null);
-        return peers.toArray(new String[0]);
     }
 
     public void sendMessage(BitchatMessage message, String recipient) {
         BitchatPacket packet = new BitchatPacket();
-        packet.version = 1;
+        packet.version = Protocol.VERSION;
         packet.type = 0; // Message type
-        packet.senderID = peerIDToBytes("senderID"); // Replace with actual peerID
+        packet.senderID = localPeerID;
         packet.recipientID = recipient != null ? peerIDToBytes(recipient) : new byte[8]; // Broadcast if null
+        packet.lastHop = Router.idToLong(localPeerID);
+        if (recipient != null) {
+            packet.nextHop = router.nextHop(Router.idToLong(packet.recipientID)); // 0 floods on a miss
+            Metrics.increment(packet.nextHop != 0 ? Metrics.Counter.DIRECTED_SENDS : Metrics.Counter.FLOODED_SENDS);
+            attachReadMark(packet);
+        }
+        ChannelFilter filter = channelFilter;
+        if (message.channel != null && filter != null) packet.channelTag = filter.tagFor(message.channel);
         packet.timestamp = System.currentTimeMillis();
         packet.payload = protocol.encodeMessage(message);
         packet.ttl = 5;
+        packet.traced = Trace.sample();
+        if (packet.traced) Trace.recordSend(Protocol.packetId(packet), message.id);
         sendPacket(packet);
     }
 
     public void sendEncryptedChannelMessage(BitchatMessage message, String channel) {
         BitchatPacket packet = new BitchatPacket();
-        packet.version = 1;
+        packet.version = Protocol.VERSION;
         packet.type = 1; // Encrypted channel message type
-        packet.senderID = peerIDToBytes("senderID"); // Replace with actual peerID
+        packet.senderID = localPeerID;
         packet.recipientID = new byte[8]; // Broadcast to channel
+        packet.lastHop = Router.idToLong(localPeerID);
+        ChannelFilter filter = channelFilter;
+        if (filter != null) packet.channelTag = filter.tagFor(channel);
         packet.timestamp = System.currentTimeMillis();
         packet.payload = protocol.encodeMessage(message);
         packet.ttl = 5;
+        packet.traced = Trace.sample();
+        if (packet.traced) Trace.recordSend(Protocol.packetId(packet), message.id);
         sendPacket(packet);
     }
 
+    // History sync traffic goes to one neighbour and is never relayed.
+    public void sendSync(long neighbour, String channel, byte[] payload) {
+        sendPacket(neighbourPacket(Protocol.SYNC, neighbour, channel, payload));
+    }
+
+    // A stored channel message resent to a neighbour that missed it, see HistorySync.
+    public void sendHistoryMessage(long neighbour, BitchatMessage message) {
+        sendPacket(neighbourPacket(0, neighbour, message.channel, protocol.encodeMessage(message)));
+    }
+
+    private BitchatPacket neighbourPacket(int type, long neighbour, String channel, byte[] payload) {
+        BitchatPacket packet = new BitchatPacket();
+        packet.version = Protocol.VERSION;
+        packet.type = type;
+        packet.senderID = localPeerID;
+        packet.recipientID = Router.longToId(neighbour);
+        packet.lastHop = Router.idToLong(localPeerID);
+        packet.nextHop = neighbour;
+        ChannelFilter filter = channelFilter;
+        if (channel != null && filter != null) packet.channelTag = filter.tagFor(channel);
+        packet.timestamp = nextTimestamp(); // Sync sends come in bursts; equal timestamps would read as duplicates
+        packet.payload = payload;
+        packet.ttl = 1; // Arrives with no hops left
+        attachReadMark(packet);
+        return packet;
+    }
+
+    // A read watermark no packet to the peer picked up within the debounce goes out on its own.
+    public void sendReadReceipt(long peer, long messageKey, long readUpTo) {
+        BitchatPacket packet = new BitchatPacket();
+        packet.version = Protocol.VERSION;
+        packet.type = Protocol.READ_RECEIPT;
+        packet.senderID = localPeerID;
+        packet.recipientID = Router.longToId(peer);
+        packet.lastHop = Router.idToLong(localPeerID);
+        packet.nextHop = router.nextHop(peer);
+        packet.timestamp = nextTimestamp();
+        packet.readKey = messageKey;
+        packet.readUpTo = readUpTo;
+        packet.ttl = 5;
+        sendPacket(packet);
+    }
+
+    // Tells the sender of a private message that it arrived. Retraces the route the message came in on.
+    public void sendDeliveryAck(long peer, long messageKey) {
+        BitchatPacket packet = new BitchatPacket();
+        packet.version = Protocol.VERSION;
+        packet.type = Protocol.DELIVERY_ACK;
+        packet.senderID = localPeerID;
+        packet.recipientID = Router.longToId(peer);
+        packet.lastHop = Router.idToLong(localPeerID);
+        packet.nextHop = router.nextHop(peer);
+        packet.timestamp = nextTimestamp();
+        packet.payload = ByteBuffer.allocate(8).putLong(messageKey).array();
+        packet.ttl = ACK_TTL;
+        attachReadMark(packet);
+        sendPacket(packet);
+    }
+
+    // PrivateSessions handshakes. Peer 0 reaches every neighbour in range and is not relayed.
+    public void sendHandshake(long peer, byte[] payload) {
+        if (peer == 0) {
+            sendPacket(neighbourPacket(Protocol.HANDSHAKE, 0, null, payload));
+            return;
+        }
+        BitchatPacket packet = new BitchatPacket();
+        packet.version = Protocol.VERSION;
+        packet.type = Protocol.HANDSHAKE;
+        packet.senderID = localPeerID;
+        packet.recipientID = Router.longToId(peer);
+        packet.lastHop = Router.idToLong(localPeerID);
+        packet.nextHop = router.nextHop(peer);
+        packet.timestamp = nextTimestamp();
+        packet.payload = payload;
+        packet.ttl = 5;
+        attachReadMark(packet);
+        sendPacket(packet);
+    }
+
+    private void attachReadMark(BitchatPacket packet) {
+        ReadWatermarks watermarks = readWatermarks;
+        long[] mark = watermarks != null ? watermarks.take(Router.idToLong(packet.recipientID)) : null;
+        if (mark == null) return;
+        packet.readKey = mark[0];
+        packet.readUpTo = mark[1];
+    }
+
+    private synchronized long nextTimestamp() {
+        lastTimestamp = Math.max(lastTimestamp + 1, System.currentTimeMillis());
+        return lastTimestamp;
+    }
+
     private void sendPacket(BitchatPacket packet) {
-        byte[] data = protocol.encodePacket(packet);
-        int fragmentSize = 20; // Example fragment size
-        for (int i = 0; i < data.length; i += fragmentSize) {
-            int end = Math.min(i + fragmentSize, data.length);
-            byte[] fragment = Arrays.copyOfRange(data, i, end);
-            packet.type = i == 0 ? Protocol.FRAGMENT_START : (end == data.length ? Protocol.FRAGMENT_END : Protocol.FRAGMENT_CONTINUE);
-            AdvertiseData fragmentData = new AdvertiseData.Builder()
-                    .addServiceData(new ParcelUuid(UUID.randomUUID()), fragment)
+        sendRaw(protocol.encodePacket(packet));
+    }
+
+    // Frames an encoded packet for the radio, with repair frames sized to the loss on the link it goes
+    // out on, see FecFramer.
+    private void sendRaw(byte[] data) {
+        long neighbour = Protocol.peekNextHop(data);
+        int repair = errorCorrection ? fecFramer.repairFor(FecFramer.dataFrames(data.length, frameSize), neighbour) : 0;
+        byte[][] frames = FecFramer.encode(data, frameSize, repair);
+        if (shaping) {
+            if (!trafficShaper.enqueue(frames)) return; // Whole packet turned away, counted by the shaper
+        } else {
+            for (byte[] frame : frames) advertisingPool.send(frame);
+        }
+        Metrics.add(Metrics.Counter.FRAGMENTS_SENT, frames.length);
+        RadioScheduler scheduler = radioScheduler;
+        if (scheduler != null) scheduler.onTraffic();
+        if (Protocol.peekTraced(data)) Trace.record(Trace.Event.TRANSMIT, Protocol.peekPacketId(data), frames.length);
+    }
+
+    // Entry point for single radio frames: once a frame completes its group the packet goes on to
+    // onDataReceived, and the group's frame loss feeds the estimate for the neighbour that sent it.
+    public void onFrameReceived(byte[] frame) {
+        FecFramer.Assembled assembled = fecFramer.accept(frame);
+        if (assembled == null) return;
+        fecFramer.observe(Protocol.peekLastHop(assembled.data), assembled.framesReceived, assembled.framesExpected);
+        onDataReceived(assembled.data);
+    }
+
+    // Repair frames on or off; off still frames packets the same way, with no repair frames.
+    public void setErrorCorrection(boolean enabled) {
+        errorCorrection = enabled;
+    }
+
+    public FecFramer getFecFramer() {
+        return fecFramer;
+    }
+
+    private static AdvertiseData frameData(byte[] frame) {
+        return new AdvertiseData.Builder().addServiceData(FRAME_SERVICE_UUID, frame).build();
+    }
+
+    // Reusable advertising sets (API 26+): opened once per slot, then only their payload is replaced. Sets
+    // are published from the start callback before the pool hears of them, and the pool only updates a
+    // slot after that, under its lock.
+    @TargetApi(Build.VERSION_CODES.O)
+    private final class AdvertisingSetBackend implements AdvertisingPool.Backend {
+        private final boolean extended;
+        private final AdvertisingSet[] sets = new AdvertisingSet[ADVERTISING_SLOTS];
+        private final AdvertisingSetCallback[] callbacks = new AdvertisingSetCallback[ADVERTISING_SLOTS];
+
+        AdvertisingSetBackend(boolean extended) {
+            this.extended = extended;
+        }
+
+        @Override
+        public void start(int slot, byte[] frame) {
+            RadioScheduler.Mode mode = frameMode;
+            AdvertisingSetParameters parameters = new AdvertisingSetParameters.Builder()
+                    .setLegacyMode(!extended)
+                    .setConnectable(false)
+                    .setScannable(false)
+                    .setInterval(SET_INTERVALS[mode.advertiseMode])
+                    .setTxPowerLevel(SET_TX_POWERS[mode.txPower])
                     .build();
-            advertiser.startAdvertising(new AdvertiseSettings.Builder().build(), fragmentData, new AdvertiseCallback() {});
+            callbacks[slot] = new AdvertisingSetCallback() {
+                @Override
+                public void onAdvertisingSetStarted(AdvertisingSet set, int txPower, int status) {
+                    sets[slot] = set;
+                    advertisingPool.onStarted(slot, status == AdvertisingSetCallback.ADVERTISE_SUCCESS);
+                }
+
+                @Override
+                public void onAdvertisingDataSet(AdvertisingSet set, int status) {
+                    advertisingPool.onUpdated(slot, status == AdvertisingSetCallback.ADVERTISE_SUCCESS);
+                }
+            };
+            advertiser.startAdvertisingSet(parameters, frameData(frame), null, null, null, callbacks[slot]);
+        }
+
+        @Override
+        public void update(int slot, byte[] frame) {
+            AdvertisingSet set = sets[slot];
+            if (set == null) {
+                advertisingPool.onUpdated(slot, false);
+                return;
+            }
+            set.setAdvertisingData(frameData(frame));
+        }
+
+        @Override
+        public void stop(int slot) {
+            if (callbacks[slot] != null) advertiser.stopAdvertisingSet(callbacks[slot]);
+            callbacks[slot] = null;
+            sets[slot] = null;
         }
     }
 
-    private byte[] peerIDToBytes(String peerID) {
+    // Before API 26 an advertisement's payload cannot be changed, so a slot rotates by stopping its
+    // advertisement and starting the next; the number on air is still bounded by the pool.
+    private final class LegacyAdvertisingBackend implements AdvertisingPool.Backend {
+        private final AdvertiseCallback[] callbacks = new AdvertiseCallback[ADVERTISING_SLOTS];
+
+        @Override
+        public void start(int slot, byte[] frame) {
+            advertise(slot, frame, false);
+        }
+
+        @Override
+        public void update(int slot, byte[] frame) {
+            stop(slot);
+            advertise(slot, frame, true);
+        }
+
+        @Override
+        public void stop(int slot) {
+            if (callbacks[slot] != null) advertiser.stopAdvertising(callbacks[slot]);
+            callbacks[slot] = null;
+        }
+
+        private void advertise(int slot, byte[] frame, boolean update) {
+            RadioScheduler.Mode mode = frameMode;
+            AdvertiseSettings settings = new AdvertiseSettings.Builder()
+                    .setAdvertiseMode(mode.advertiseMode)
+                    .setTxPowerLevel(mode.txPower)
+                    .setConnectable(false)
+                    .build();
+            callbacks[slot] = new AdvertiseCallback() {
+                @Override
+                public void onStartSuccess(AdvertiseSettings settingsInEffect) {
+                    report(true);
+                }
+
+                @Override
+                public void onStartFailure(int errorCode) {
+                    report(false);
+                }
+
+                private void report(boolean success) {
+                    if (update) advertisingPool.onUpdated(slot, success);
+                    else advertisingPool.onStarted(slot, success);
+                }
+            };
+            advertiser.startAdvertising(settings, frameData(frame), callbacks[slot]);
+        }
+    }
+
+    // Peer IDs as JS sees them, keyed the way the router and read watermarks key them.
+    public static long peerKey(String peerID) {
+        return Router.idToLong(peerIDToBytes(peerID));
+    }
+
+    public static String peerIDFromBytes(byte[] id) {
+        int length = id.length;
+        while (length > 0 && id[length - 1] == 0) length--;
+        return new String(id, 0, length);
+    }
+
+    private static byte[] peerIDToBytes(String peerID) {
         byte[] bytes = new byte[8];
         byte[] idBytes = peerID.getBytes();
         System.arraycopy(idBytes, 0, bytes, 0, Math.min(idBytes.length, 8));
@@ -0,0 +1,128 @@
+package com.reactnativebitchat;
+
+import java.util.ArrayList;
+
+// Scalable Bloom filter: once a stage reaches its expected item count a new stage with twice the
+// capacity and half the false positive rate is added, which keeps the overall rate near the target.
+// Used to recognise packets that were already relayed.
+public class BloomFilter {
+    private static final class Stage {
+        final long[] bits;
+        final int bitCount;
+        final int hashCount;
+        final int capacity;
+        int count;
+
+        Stage(int capacity, double falsePositiveRate) {
+            this.capacity = capacity;
+            double ln2 = Math.log(2);
+            bitCount = Math.max(64, (int) Math.ceil(-capacity * Math.log(falsePositiveRate) / (ln2 * ln2)));
+            hashCount = Math.max(1, (int) Math.round((double) bitCount / capacity * ln2));
+            bits = new long[(bitCount + 63) >>> 6];
+        }
+
+        int index(long hash, int i) {
+            int h1 = (int) hash, h2 = (int) (hash >>> 32) | 1;
+            return ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+        }
+    }
+
+    private final int expectedItems;
+    private final double falsePositiveRate;
+    private final ArrayList<Stage> stages = new ArrayList<>();
+    private int count;
+
+    public BloomFilter(int expectedItems, double falsePositiveRate) {
+        if (expectedItems <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Invalid Bloom filter parameters");
+        }
+        this.expectedItems = expectedItems;
+        this.falsePositiveRate = falsePositiveRate;
+        reset();
+    }
+
+    public void insert(String item) {
+        insert(hash(item));
+    }
+
+    public boolean mightContain(String item) {
+        return mightContain(hash(item));
+    }
+
+    public synchronized void insert(long key) {
+        long hash = mix(key);
+        Stage stage = stages.get(stages.size() - 1);
+        if (stage.count >= stage.capacity) {
+            stage = new Stage(stage.capacity * 2, falsePositiveRate / (2L << stages.size()));
+            stages.add(stage);
+        }
+        for (int i = 0; i < stage.hashCount; i++) {
+            int index = stage.index(hash, i);
+            stage.bits[index >>> 6] |= 1L << index;
+        }
+        stage.count++;
+        count++;
+    }
+
+    public synchronized boolean mightContain(long key) {
+        long hash = mix(key);
+        for (int s = stages.size() - 1; s >= 0; s--) {
+            Stage stage = stages.get(s);
+            boolean all = true;
+            for (int i = 0; i < stage.hashCount && all; i++) {
+                int index = stage.index(hash, i);
+                all = (stage.bits[index >>> 6] & (1L << index)) != 0;
+            }
+            if (all) return true;
+        }
+        return false;
+    }
+
+    public synchronized void reset() {
+        stages.clear();
+        stages.add(new Stage(expectedItems, falsePositiveRate / 2));
+        count = 0;
+    }
+
+    // Bit positions item maps to in the newest stage.
+    public synchronized int[] getHashes(String item) {
+        Stage stage = stages.get(stages.size() - 1);
+        long hash = mix(hash(item));
+        int[] result = new int[stage.hashCount];
+        for (int i = 0; i < result.length; i++) result[i] = stage.index(hash, i);
+        return result;
+    }
+
+    public synchronized int getHashCount() {
+        return stages.get(stages.size() - 1).hashCount;
+    }
+
+    // Total number of items the filter can hold at its target rate before adding another stage.
+    public synchronized int getSize() {
+        int size = 0;
+        for (Stage stage : stages) size += stage.capacity;
+        return size;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    private static long hash(String item) {
+        long hash = 0xcbf29ce484222325L; // FNV-1a
+        for (int i = 0; i < item.length(); i++) {
+            hash ^= item.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb3e98a2b7c53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -1,92 +1,201 @@
 package com.reactnativebitchat;
 
+import com.reactnativebitchat.Message.BitchatMessage;
+
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
-public class Channel {
-    private HashSet<String> joinedChannels = new HashSet<>();
-    private String currentChannel;
-    private HashSet<String> passwordProtectedChannels = new HashSet<>();
-    private HashMap<String, byte[]> channelKeys = new HashMap<>();
-    private HashMap<String, String> channelPasswords = new HashMap<>();
-    private HashMap<String, String> channelCreators = new HashMap<>();
-    private HashMap<String, byte[]> channelKeyCommitments = new HashMap<>();
-    private ArrayList<BitchatMessage> systemMessages = new ArrayList<>();
+// Channel state lives in one record per channel inside a ConcurrentHashMap. Reads (membership, keys,
+// commitments) are lock-free volatile loads; writes lock only the record they change, so traffic on
+// one channel never waits for a join or password change on another.
+public class Channel implements BleService.ChannelFilter {
+    static final class ChannelState {
+        final String name;
+        volatile boolean joined;
+        volatile String creator;
+        volatile Secret secret; // Null for channels without a password
+        volatile int tag; // Header tag while joined, 0 otherwise
+
+        ChannelState(String name) {
+            this.name = name;
+        }
+    }
+
+    // Password, derived key and commitment are swapped as one immutable unit so readers never see a
+    // key paired with another key's commitment. Any key change installs a new Secret, which is what
+    // invalidates the cached verification result.
+    static final class Secret {
+        final String password;
+        final byte[] key;
+        final byte[] commitment;
+        volatile boolean verified; // Key has been checked against the commitment once
+
+        Secret(String password, byte[] key, byte[] commitment, boolean verified) {
+            this.password = password;
+            this.key = key;
+            this.commitment = commitment;
+            this.verified = verified;
+        }
+    }
+
+    // Persisted form of one channel, see StateStore. Key and password are null for open channels.
+    static final class Snapshot {
+        final String name;
+        final boolean joined;
+        final String creator;
+        final String password;
+        final byte[] key;
+        final byte[] commitment;
+
+        Snapshot(String name, boolean joined, String creator, String password, byte[] key, byte[] commitment) {
+            this.name = name;
+            this.joined = joined;
+            this.creator = creator;
+            this.password = password;
+            this.key = key;
+            this.commitment = commitment;
+        }
+    }
+
+    // Told after a channel's membership, owner or password changed, so its state can be persisted.
+    public interface StateListener {
+        void onChannelChanged(String channel);
+    }
+
+    private final ConcurrentHashMap<String, ChannelState> channels = new ConcurrentHashMap<>();
+    private volatile String currentChannel;
+    private static final int SYSTEM_MESSAGE_CAPACITY = 512;
+    private final MessageRing systemMessages = new MessageRing(SYSTEM_MESSAGE_CAPACITY);
+    private final ChannelTagSet joinedTags = new ChannelTagSet();
 
+    private static final ThreadLocal<MessageDigest> SHA256 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException("SHA-256 algorithm not available", e);
+            }
+        }
+    };
     private static final Pattern CHANNEL_PATTERN = Pattern.compile("^#[a-zA-Z0-9-]+$");
-    private Keychain keychain = new Keychain();
+    private final Keychain keychain;
     private Encryption encryption = new Encryption();
+    private volatile StateListener stateListener;
+
+    public Channel() {
+        this(new Keychain());
+    }
+
+    public Channel(Keychain keychain) {
+        this.keychain = keychain;
+    }
 
     public void createChannel(String channel, String password, String creatorID) {
         if (!CHANNEL_PATTERN.matcher(channel).matches()) {
             throw new IllegalArgumentException("Invalid channel name");
         }
-        if (!joinedChannels.contains(channel)) {
-            joinedChannels.add(channel);
-            currentChannel = channel;
-            channelCreators.put(channel, creatorID);
-            if (password != null && !password.isEmpty()) {
-                passwordProtectedChannels.add(channel);
-                channelPasswords.put(channel, password);
-                byte[] key = encryption.deriveChannelKey(password, channel);
-                channelKeys.put(channel, key);
+        boolean protect = password != null && !password.isEmpty();
+        byte[] key = protect ? encryption.deriveChannelKey(password, channel) : null; // Outside any lock
+        ChannelState state = record(channel);
+        synchronized (state) {
+            if (state.joined) return;
+            state.joined = true;
+            state.creator = creatorID;
+            if (protect) {
+                state.secret = new Secret(password, key, generateCommitment(key), true);
                 keychain.storeKey(key, "channel_" + channel);
-                byte[] commitment = generateCommitment(key);
-                channelKeyCommitments.put(channel, commitment);
-                addSystemMessage("Channel " + channel + " created with password protection.");
-            } else {
-                addSystemMessage("Channel " + channel + " created.");
             }
+            retag(state);
         }
+        currentChannel = channel;
+        changed(channel);
+        addSystemMessage(protect ? "Channel " + channel + " created with password protection." : "Channel " + channel + " created.");
     }
 
     public boolean joinChannel(String channel, String password, String peerID) {
+        return joinChannel(channel, password, peerID, null);
+    }
+
+    // key is password's derived key when the caller derived it ahead of time, e.g. on another thread;
+    // null derives it here if the join needs it.
+    public boolean joinChannel(String channel, String password, String peerID, byte[] key) {
         if (!CHANNEL_PATTERN.matcher(channel).matches()) {
             addSystemMessage("Invalid channel name: " + channel);
             return false;
         }
-        if (joinedChannels.contains(channel)) {
-            currentChannel = channel;
+        ChannelState state = channels.get(channel); // Not recorded until the join goes ahead
+        Secret secret = state != null ? state.secret : null;
+        if (state != null && state.joined) {
+            if (secret != null && password != null && !secret.password.equals(password)) {
+                addSystemMessage("Incorrect password for " + channel);
+                return false;
+            }
+            if (!channel.equals(currentChannel)) {
+                currentChannel = channel;
+                changed(channel);
+            }
             return true;
         }
-        if (passwordProtectedChannels.contains(channel)) {
-            String storedPassword = channelPasswords.get(channel);
-            if (storedPassword == null || !storedPassword.equals(password)) {
+        if (secret != null) {
+            if (!secret.password.equals(password)) {
                 addSystemMessage("Incorrect password for " + channel);
                 return false;
             }
-            byte[] key = encryption.deriveChannelKey(password, channel);
-            if (!verifyCommitment(channel, key)) {
+            if (key == null) key = encryption.deriveChannelKey(password, channel);
+            if (!verifyCommitment(secret, key)) {
                 addSystemMessage("Key commitment verification failed for " + channel);
                 return false;
             }
-            channelKeys.put(channel, key);
-            keychain.storeKey(key, "channel_" + channel);
+            synchronized (state) {
+                if (state.secret != secret) {
+                    addSystemMessage("Password for " + channel + " changed while joining");
+                    return false;
+                }
+                state.secret = new Secret(secret.password, key, secret.commitment, true);
+                keychain.storeKey(key, "channel_" + channel);
+                state.joined = true;
+                retag(state);
+            }
+        } else {
+            if (state == null) state = record(channel);
+            synchronized (state) {
+                if (state.secret != null) { // Protected since it was read above
+                    addSystemMessage("Password for " + channel + " changed while joining");
+                    return false;
+                }
+                state.joined = true;
+                retag(state);
+            }
         }
-        joinedChannels.add(channel);
         currentChannel = channel;
+        changed(channel);
         addSystemMessage(peerID + " joined " + channel);
         return true;
     }
 
     public void setChannelPassword(String channel, String password, String peerID) {
+        setChannelPassword(channel, password, peerID, null);
+    }
+
+    public void setChannelPassword(String channel, String password, String peerID, byte[] key) {
         if (!CHANNEL_PATTERN.matcher(channel).matches()) {
             throw new IllegalArgumentException("Invalid channel name");
         }
-        if (!joinedChannels.contains(channel) || !channelCreators.get(channel).equals(peerID)) {
-            throw new SecurityException("Only creator can set password");
+        ChannelState state = requireCreator(channel, peerID, "Only creator can set password");
+        if (key == null) key = encryption.deriveChannelKey(password, channel);
+        synchronized (state) {
+            requireCreator(channel, peerID, "Only creator can set password"); // Ownership may have moved meanwhile
+            state.secret = new Secret(password, key, generateCommitment(key), true);
+            keychain.storeKey(key, "channel_" + channel);
+            retag(state);
         }
-        passwordProtectedChannels.add(channel);
-        channelPasswords.put(channel, password);
-        byte[] key = encryption.deriveChannelKey(password, channel);
-        channelKeys.put(channel, key);
-        keychain.storeKey(key, "channel_" + channel);
-        byte[] commitment = generateCommitment(key);
-        channelKeyCommitments.put(channel, commitment);
+        changed(channel);
         addSystemMessage("Password set for " + channel);
     }
 
@@ -94,33 +203,48 @@ public class Channel {
         if (!CHANNEL_PATTERN.matcher(channel).matches()) {
             throw new IllegalArgumentException("Invalid channel name");
         }
-        if (!joinedChannels.contains(channel) || !channelCreators.get(channel).equals(peerID)) {
-            throw new SecurityException("Only creator can remove password");
+        ChannelState state = requireCreator(channel, peerID, "Only creator can remove password");
+        synchronized (state) {
+            requireCreator(channel, peerID, "Only creator can remove password");
+            state.secret = null;
+            retag(state);
         }
-        passwordProtectedChannels.remove(channel);
-        channelPasswords.remove(channel);
-        channelKeys.remove(channel);
-        channelKeyCommitments.remove(channel);
+        changed(channel);
         addSystemMessage("Password removed from " + channel);
     }
 
     public void receiveMessage(BitchatMessage message) {
-        if (message.channel != null && joinedChannels.contains(message.channel)) {
-            if (message.isEncrypted) {
-                String channel = message.channel;
-                byte[] key = channelKeys.get(channel);
-                if (key != null && verifyCommitment(channel, key)) {
-                    // Decryption logic would go here
-                    addSystemMessage("Received encrypted message in " + channel);
-                } else {
-                    addSystemMessage("Unable to decrypt message in " + channel);
+        if (message.channel == null) return;
+        ChannelState state = channels.get(message.channel);
+        if (state == null || !state.joined) return;
+        Metrics.increment(Metrics.Counter.CHANNEL_MESSAGES);
+        if (message.isEncrypted) {
+            Secret secret = state.secret;
+            if (secret != null && secret.key != null && (secret.verified || verifyCommitment(secret, secret.key))) {
+                if (message.encryptedContent != null) {
+                    try {
+                        message.content = Encryption.decryptContent(message.encryptedContent, secret.key);
+                    } catch (GeneralSecurityException e) {
+                        addSystemMessage("Unable to decrypt message in " + state.name);
+                        return;
+                    }
+                    parseMentions(message);
                 }
+                addSystemMessage("Received encrypted message in " + state.name);
             } else {
-                addSystemMessage("Received message in " + currentChannel + ": " + message.content);
+                addSystemMessage("Unable to decrypt message in " + state.name);
             }
+        } else {
+            parseMentions(message);
+            addSystemMessage("Received message in " + currentChannel + ": " + message.content);
         }
     }
 
+    // Mentions the sender did not list, read from the plaintext once it is known.
+    private static void parseMentions(BitchatMessage message) {
+        if (message.mentions != null && message.mentions.isEmpty()) message.mentions.addAll(MessageIndex.parseMentions(message.content));
+    }
+
     public void processCommand(String command, String peerID) {
         String[] parts = command.split(" ", 2);
         if (parts.length < 1) return;
@@ -137,46 +261,179 @@ public class Channel {
         }
     }
 
+    // Retained system messages as BitchatMessages; at most SYSTEM_MESSAGE_CAPACITY of them. Prefer
+    // readSystemMessages for incremental consumption.
     public ArrayList<BitchatMessage> getSystemMessages() {
-        return new ArrayList<>(systemMessages);
+        ArrayList<BitchatMessage> result = new ArrayList<>(systemMessages.size());
+        systemMessages.read(0, SYSTEM_MESSAGE_CAPACITY, (sequence, timestamp, content) -> result.add(systemMessage(timestamp, content)));
+        return result;
+    }
+
+    public long readSystemMessages(long afterSequence, int limit, MessageRing.Visitor visitor) {
+        return systemMessages.read(afterSequence, limit, visitor);
+    }
+
+    public long getLastSystemSequence() {
+        return systemMessages.getLastSequence();
+    }
+
+    // Receives system messages as they age out of the ring, e.g. to append them to a MessageLog.
+    public void setSystemMessageSpill(MessageRing.Spill spill) {
+        systemMessages.setSpill(spill);
     }
 
     public void transferOwnership(String channel, String newOwnerID, String peerID) {
         if (!CHANNEL_PATTERN.matcher(channel).matches()) {
             throw new IllegalArgumentException("Invalid channel name");
         }
-        if (!joinedChannels.contains(channel) || !channelCreators.get(channel).equals(peerID)) {
-            throw new SecurityException("Only creator can transfer ownership");
+        ChannelState state = requireCreator(channel, peerID, "Only creator can transfer ownership");
+        synchronized (state) {
+            requireCreator(channel, peerID, "Only creator can transfer ownership");
+            state.creator = newOwnerID;
         }
-        channelCreators.put(channel, newOwnerID);
+        changed(channel);
         addSystemMessage("Ownership of " + channel + " transferred to " + newOwnerID);
     }
 
+    public void setStateListener(StateListener listener) {
+        stateListener = listener;
+    }
+
+    List<String> getChannelNames() {
+        return new ArrayList<>(channels.keySet());
+    }
+
+    // Consistent copy of one channel's persistent state, null if it is unknown.
+    Snapshot snapshot(String channel) {
+        ChannelState state = channels.get(channel);
+        if (state == null) return null;
+        synchronized (state) {
+            Secret secret = state.secret;
+            return secret != null
+                    ? new Snapshot(state.name, state.joined, state.creator, secret.password, secret.key, secret.commitment)
+                    : new Snapshot(state.name, state.joined, state.creator, null, null, null);
+        }
+    }
+
+    // Reinstates a persisted channel without key derivation. A key that does not match its commitment is
+    // refused, and so is a snapshot for a channel that already exists, which is newer by definition.
+    boolean restore(Snapshot snapshot, boolean current) {
+        if (!CHANNEL_PATTERN.matcher(snapshot.name).matches()) return false;
+        Secret secret = null;
+        if (snapshot.key != null) {
+            secret = new Secret(snapshot.password, snapshot.key, snapshot.commitment, false);
+            if (!verifyCommitment(secret, secret.key)) return false;
+        }
+        ChannelState state = new ChannelState(snapshot.name);
+        if (channels.putIfAbsent(snapshot.name, state) != null) return false;
+        synchronized (state) {
+            state.joined = snapshot.joined;
+            state.creator = snapshot.creator;
+            state.secret = secret;
+            if (secret != null) keychain.storeKey(secret.key, "channel_" + snapshot.name);
+            retag(state);
+        }
+        if (current && snapshot.joined) currentChannel = snapshot.name;
+        return true;
+    }
+
+    public List<String> getJoinedChannels() {
+        List<String> joined = new ArrayList<>();
+        for (ChannelState state : channels.values()) if (state.joined) joined.add(state.name);
+        return joined;
+    }
+
+    public boolean isJoined(String channel) {
+        ChannelState state = channels.get(channel);
+        return state != null && state.joined;
+    }
+
+    public String getCurrentChannel() {
+        return currentChannel;
+    }
+
+    byte[] getChannelKey(String channel) {
+        ChannelState state = channels.get(channel);
+        Secret secret = state != null ? state.secret : null;
+        return secret != null ? secret.key : null;
+    }
+
+    String getChannelPassword(String channel) {
+        ChannelState state = channels.get(channel);
+        Secret secret = state != null ? state.secret : null;
+        return secret != null ? secret.password : null;
+    }
+
+    String getChannelCreator(String channel) {
+        ChannelState state = channels.get(channel);
+        return state != null ? state.creator : null;
+    }
+
+    @Override
+    public int tagFor(String channel) {
+        ChannelState state = channels.get(channel);
+        return state != null ? state.tag : 0;
+    }
+
+    @Override
+    public boolean acceptsTag(int tag) {
+        return joinedTags.contains(tag);
+    }
+
+    // Recomputes the header tag after membership or the key changed. Caller holds the record's lock.
+    private void retag(ChannelState state) {
+        Secret secret = state.secret;
+        int tag = state.joined ? ChannelTag.compute(state.name, secret != null ? secret.key : null) : 0;
+        if (tag == state.tag) return;
+        if (state.tag != 0) joinedTags.remove(state.tag);
+        if (tag != 0) joinedTags.add(tag);
+        state.tag = tag;
+    }
+
+    // Adds the channel if it is unknown, so only for creating or joining it; lookups use channels.get.
+    private ChannelState record(String channel) {
+        ChannelState state = channels.get(channel);
+        return state != null ? state : channels.computeIfAbsent(channel, ChannelState::new);
+    }
+
+    private ChannelState requireCreator(String channel, String peerID, String error) {
+        ChannelState state = channels.get(channel);
+        if (state == null || !state.joined || state.creator == null || !state.creator.equals(peerID)) {
+            throw new SecurityException(error);
+        }
+        return state;
+    }
+
+    private void changed(String channel) {
+        StateListener listener = stateListener;
+        if (listener != null) listener.onChannelChanged(channel);
+    }
+
     private void addSystemMessage(String content) {
+        systemMessages.add(System.currentTimeMillis(), content);
+    }
+
+    static BitchatMessage systemMessage(long timestamp, String content) {
         BitchatMessage msg = new BitchatMessage();
         msg.sender = "system";
         msg.content = content;
-        msg.timestamp = System.currentTimeMillis();
+        msg.timestamp = timestamp;
         msg.isEncrypted = false;
         msg.senderPeerID = "system";
-        msg.mentions = new String[0];
         msg.deliveryStatus = "DELIVERED";
-        systemMessages.add(msg);
+        return msg;
     }
 
     private byte[] generateCommitment(byte[] key) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            return digest.digest(key);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("SHA-256 algorithm not available", e);
-        }
+        return SHA256.get().digest(key);
     }
 
-    private boolean verifyCommitment(String channel, byte[] key) {
-        byte[] commitment = channelKeyCommitments.get(channel);
-        if (commitment == null) return false;
-        byte[] computedCommitment = generateCommitment(key);
-        return java.util.Arrays.equals(commitment, computedCommitment);
+    // Hashes and compares in constant time; a match for the secret's own key is remembered on the secret.
+    private boolean verifyCommitment(Secret secret, byte[] key) {
+        if (secret.commitment == null) return false;
+        Metrics.increment(Metrics.Counter.COMMITMENT_CHECKS);
+        boolean valid = MessageDigest.isEqual(secret.commitment, generateCommitment(key));
+        if (valid && key == secret.key) secret.verified = true;
+        return valid;
     }
-}
\ No newline at end of file
+}
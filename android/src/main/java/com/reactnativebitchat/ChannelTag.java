@@ -0,0 +1,40 @@
+package com.reactnativebitchat;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// Four-byte tag carried in the header of channel packets so relays can skip traffic for channels they
+// have not joined without decoding it. Protected channels key the tag with the channel key, so the
+// channel name cannot be confirmed by nodes that do not hold it.
+public final class ChannelTag {
+    private static final byte[] PUBLIC_KEY = "bitchat-channel-tag".getBytes(StandardCharsets.UTF_8);
+    private static final ThreadLocal<Mac> MAC = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                return Mac.getInstance("HmacSHA256");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 not available", e);
+            }
+        }
+    };
+
+    private ChannelTag() {
+    }
+
+    // Truncated HMAC-SHA256 of the channel name. Never returns 0, which marks untagged packets.
+    public static int compute(String channel, byte[] channelKey) {
+        Mac mac = MAC.get();
+        try {
+            mac.init(new SecretKeySpec(channelKey != null ? channelKey : PUBLIC_KEY, "HmacSHA256"));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Invalid channel tag key", e);
+        }
+        byte[] digest = mac.doFinal(channel.getBytes(StandardCharsets.UTF_8));
+        int tag = ((digest[0] & 0xFF) << 24) | ((digest[1] & 0xFF) << 16) | ((digest[2] & 0xFF) << 8) | (digest[3] & 0xFF);
+        return tag != 0 ? tag : 1;
+    }
+}
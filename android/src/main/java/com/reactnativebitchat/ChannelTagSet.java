@@ -0,0 +1,39 @@
+package com.reactnativebitchat;
+
+import java.util.Arrays;
+
+// Tags of the joined channels as a sorted int array. Lookups are a lock-free binary search over the
+// current array; the rare join or leave swaps in a new copy. Duplicate tags are kept, so two channels
+// that happen to collide do not unregister each other.
+public class ChannelTagSet {
+    private volatile int[] tags = new int[0];
+
+    public synchronized void add(int tag) {
+        int[] current = tags;
+        int index = Arrays.binarySearch(current, tag);
+        if (index < 0) index = -index - 1;
+        int[] next = new int[current.length + 1];
+        System.arraycopy(current, 0, next, 0, index);
+        next[index] = tag;
+        System.arraycopy(current, index, next, index + 1, current.length - index);
+        tags = next;
+    }
+
+    public synchronized void remove(int tag) {
+        int[] current = tags;
+        int index = Arrays.binarySearch(current, tag);
+        if (index < 0) return;
+        int[] next = new int[current.length - 1];
+        System.arraycopy(current, 0, next, 0, index);
+        System.arraycopy(current, index + 1, next, index, current.length - index - 1);
+        tags = next;
+    }
+
+    public boolean contains(int tag) {
+        return Arrays.binarySearch(tags, tag) >= 0;
+    }
+
+    public int size() {
+        return tags.length;
+    }
+}
@@ -1,14 +1,22 @@
 package com.reactnativebitchat;
 
+import com.reactnativebitchat.Message.BitchatMessage;
+
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 public class ChannelTests {
     @Test
     public void testKeyDerivation() {
         Channel channel = new Channel();
         channel.createChannel("#test", "password", "creator");
-        byte[] key = channel.channelKeys.get("#test");
+        byte[] key = channel.getChannelKey("#test");
         assertNotNull(key);
         assertEquals(32, key.length); // 32 bytes from PBKDF2
     }
@@ -28,6 +36,21 @@ public class ChannelTests {
         assertFalse(channel.joinChannel("#secure", "wrong", "peer"));
     }
 
+    // A key derived ahead of the join, as the module does on the crypto lane, is checked and used as is
+    @Test
+    public void testJoinWithDerivedKey() {
+        Channel creator = new Channel();
+        creator.createChannel("#pre", "pass", "creator");
+        Channel.Snapshot created = creator.snapshot("#pre");
+        Channel channel = new Channel();
+        assertTrue(channel.restore(new Channel.Snapshot("#pre", false, "creator", "pass", created.key, created.commitment), false));
+        long derivations = Metrics.get(Metrics.Counter.KEY_DERIVATIONS);
+        assertFalse(channel.joinChannel("#pre", "pass", "peer", new byte[32]));
+        assertTrue(channel.joinChannel("#pre", "pass", "peer", Encryption.deriveChannelKey("pass", "#pre")));
+        assertEquals(derivations + 1, Metrics.get(Metrics.Counter.KEY_DERIVATIONS));
+        assertArrayEquals(created.key, channel.getChannelKey("#pre"));
+    }
+
     @Test
     public void testEncryptionDecryption() {
         Channel channel = new Channel();
@@ -47,9 +70,9 @@ public class ChannelTests {
         Channel channel = new Channel();
         channel.createChannel("#pass", "old", "creator");
         channel.setChannelPassword("#pass", "new", "creator");
-        assertEquals("new", channel.channelPasswords.get("#pass"));
+        assertEquals("new", channel.getChannelPassword("#pass"));
         channel.removeChannelPassword("#pass", "creator");
-        assertNull(channel.channelPasswords.get("#pass"));
+        assertNull(channel.getChannelPassword("#pass"));
     }
 
     @Test
@@ -57,13 +80,130 @@ public class ChannelTests {
         Channel channel = new Channel();
         channel.createChannel("#own", "pass", "creator");
         channel.transferOwnership("#own", "newOwner", "creator");
-        assertEquals("newOwner", channel.channelCreators.get("#own"));
+        assertEquals("newOwner", channel.getChannelCreator("#own"));
     }
 
     @Test
     public void testCommands() {
         Channel channel = new Channel();
         channel.processCommand("/join #cmd", "peer");
-        assertTrue(channel.joinedChannels.contains("#cmd"));
+        assertTrue(channel.isJoined("#cmd"));
+    }
+
+    @Test
+    public void testConcurrentChannelStress() throws Exception {
+        Channel channel = new Channel();
+        channel.createChannel("#busy", "pass", "creator");
+        final int readers = 4, joiners = 4, rounds = 2000;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicInteger received = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < readers; t++) {
+            threads.add(new Thread(() -> {
+                BitchatMessage msg = new BitchatMessage();
+                msg.isEncrypted = true;
+                msg.channel = "#busy";
+                try {
+                    start.await();
+                    for (int i = 0; i < rounds; i++) {
+                        channel.receiveMessage(msg);
+                        assertTrue(channel.isJoined("#busy"));
+                        received.incrementAndGet();
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (int t = 0; t < joiners; t++) {
+            final int id = t;
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < rounds; i++) {
+                        String name = "#room-" + id + "-" + (i % 50);
+                        assertTrue(channel.joinChannel(name, null, "peer" + id));
+                        channel.processCommand("/join #shared-" + (i % 10), "peer" + id);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        threads.add(new Thread(() -> {
+            try {
+                start.await();
+                for (int i = 0; i < 5; i++) {
+                    channel.setChannelPassword("#busy", "pass" + i, "creator");
+                    channel.removeChannelPassword("#busy", "creator");
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+        }));
+        for (Thread thread : threads) thread.start();
+        start.countDown();
+        for (Thread thread : threads) thread.join();
+        if (failure.get() != null) throw new AssertionError(failure.get());
+
+        assertEquals(readers * rounds, received.get());
+        for (int t = 0; t < joiners; t++) {
+            for (int i = 0; i < 50; i++) assertTrue(channel.isJoined("#room-" + t + "-" + i));
+        }
+        for (int i = 0; i < 10; i++) assertTrue(channel.isJoined("#shared-" + i));
+        assertNull(channel.getChannelPassword("#busy"));
+        assertEquals("creator", channel.getChannelCreator("#busy"));
+    }
+
+    @Test
+    public void testChannelTagFilter() {
+        Channel channel = new Channel();
+        channel.createChannel("#open", null, "creator");
+        int openTag = channel.tagFor("#open");
+        assertNotEquals(0, openTag);
+        assertEquals(ChannelTag.compute("#open", null), openTag);
+        assertTrue(channel.acceptsTag(openTag));
+        assertFalse(channel.acceptsTag(ChannelTag.compute("#other", null)));
+        assertEquals(0, channel.tagFor("#other"));
+
+        channel.setChannelPassword("#open", "pass", "creator");
+        int keyedTag = channel.tagFor("#open");
+        assertNotEquals(openTag, keyedTag); // Outsiders cannot derive the tag of a protected channel
+        assertTrue(channel.acceptsTag(keyedTag));
+        assertFalse(channel.acceptsTag(openTag));
+    }
+
+    // A key restored from storage is checked against its commitment once, not again for every message.
+    @Test
+    public void testCommitmentCheckedOncePerSecret() {
+        Channel source = new Channel();
+        source.createChannel("#fast", "pass", "creator");
+        Channel channel = new Channel();
+        long checks = Metrics.get(Metrics.Counter.COMMITMENT_CHECKS);
+        assertTrue(channel.restore(source.snapshot("#fast"), true));
+        BitchatMessage msg = new BitchatMessage();
+        msg.isEncrypted = true;
+        msg.channel = "#fast";
+        for (int i = 0; i < 10000; i++) channel.receiveMessage(msg);
+        String last = channel.getSystemMessages().get(channel.getSystemMessages().size() - 1).content;
+        assertEquals("Received encrypted message in #fast", last);
+        assertEquals(checks + 1, Metrics.get(Metrics.Counter.COMMITMENT_CHECKS));
+    }
+
+    @Test
+    public void benchmarkEncryptedReceive() {
+        Benchmarks.assumeEnabled();
+        Channel channel = new Channel();
+        channel.createChannel("#fast", "pass", "creator");
+        BitchatMessage msg = new BitchatMessage();
+        msg.isEncrypted = true;
+        msg.channel = "#fast";
+        int messages = 10000;
+        for (int i = 0; i < messages; i++) channel.receiveMessage(msg); // Warm up
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) channel.receiveMessage(msg);
+        long elapsed = System.nanoTime() - start;
+        System.out.println("Encrypted receive: " + (long) (messages * 1e9 / elapsed) + " msgs/s, " + (elapsed / messages) + " ns/message");
     }
-}
\ No newline at end of file
+}
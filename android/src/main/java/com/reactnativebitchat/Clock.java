@@ -0,0 +1,8 @@
+package com.reactnativebitchat;
+
+// Time source for components with timeouts, so tests and simulators can drive time by hand.
+public interface Clock {
+    Clock SYSTEM = System::currentTimeMillis;
+
+    long nowMillis();
+}
@@ -0,0 +1,90 @@
+package com.reactnativebitchat;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class Compression {
+    private static final int MIN_INPUT_SIZE = 8; // Shorter content never wins against the flag overhead
+    private static final int MAX_OUTPUT_SIZE = 64 * 1024; // Guard against decompression bombs
+
+    // Static dictionary trained on short chat messages. Deflate favours matches near the end of the
+    // dictionary, so the most frequent phrases come last.
+    private static final byte[] DICTIONARY = (
+            "http://https://www..com.org/ #channel @everyone " +
+            "battery signal bluetooth relay mesh network offline online peer " +
+            "meeting location address tomorrow tonight today morning evening minutes hour " +
+            "please thanks thank you sorry welcome awesome great good nice cool okay ok " +
+            "what when where which who why how does did don't can't won't I'm it's that's " +
+            "there here they them their this that with have from about just like know think " +
+            "going coming leaving waiting meet see talk later soon now right back " +
+            "are you is the and for not but all any can out get got was were will would should could " +
+            "hello hey hi yes no lol haha ").getBytes(StandardCharsets.UTF_8);
+
+    private static volatile boolean enabled = true;
+
+    private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_COMPRESSION, true); // Raw deflate, no zlib header
+        }
+    };
+
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean value) {
+        enabled = value;
+    }
+
+    // Returns the compressed form, or null when compression would not save at least one byte.
+    public static byte[] compress(byte[] data) {
+        if (data == null || data.length < MIN_INPUT_SIZE) return null;
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] out = new byte[data.length - 1]; // Anything that doesn't fit is not worth sending
+        int length = 0;
+        while (!deflater.finished() && length < out.length) {
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        if (!deflater.finished()) return null;
+        byte[] result = new byte[length];
+        System.arraycopy(out, 0, result, 0, length);
+        return result;
+    }
+
+    public static byte[] decompress(byte[] data) throws DataFormatException {
+        return decompress(data, 0, data.length);
+    }
+
+    public static byte[] decompress(byte[] data, int offset, int length) throws DataFormatException {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setDictionary(DICTIONARY);
+        inflater.setInput(data, offset, length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length * 3);
+        byte[] chunk = new byte[256];
+        while (!inflater.finished()) {
+            int n = inflater.inflate(chunk);
+            if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                throw new DataFormatException("Truncated compressed content");
+            }
+            out.write(chunk, 0, n);
+            if (out.size() > MAX_OUTPUT_SIZE) throw new DataFormatException("Decompressed content too large");
+        }
+        return out.toByteArray();
+    }
+}
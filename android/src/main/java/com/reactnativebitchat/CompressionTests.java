@@ -0,0 +1,116 @@
+package com.reactnativebitchat;
+
+import com.reactnativebitchat.Message.BitchatMessage;
+import com.reactnativebitchat.Message.BitchatPacket;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+public class CompressionTests {
+    private static final String[] CHAT_CORPUS = {
+            "hey are you coming tonight?",
+            "yes, I'm on my way",
+            "lol",
+            "where is everyone? I'm at the main stage",
+            "battery at 12%, going offline soon",
+            "meet at the north gate in 10 minutes",
+            "ok see you there",
+            "does anyone have a charger? mine is dead and I need to call a cab later",
+            "thanks!",
+            "the relay near the food trucks keeps dropping, try moving closer to the tent",
+            "@alice can you share the location of the medical tent please",
+            "haha that's great",
+            "who is going to the after party? we are leaving from the parking lot around midnight, message me if you want a ride",
+            "signal is terrible here, messages take forever to arrive through the mesh",
+            "sorry, I can't make it today. let's talk tomorrow morning",
+            "good morning everyone, the first talk starts at 9 in hall B, doors open at 8:30",
+            "just arrived",
+            "is the wifi working for anyone? the mesh is the only thing that works for me right now",
+            "I think they moved the meeting to the other room, the one next to the entrance",
+            "👍",
+    };
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] data = "hey are you coming tonight? we are meeting at the north gate".getBytes();
+        byte[] compressed = Compression.compress(data);
+        assertNotNull(compressed);
+        assertTrue(compressed.length < data.length);
+        assertArrayEquals(data, Compression.decompress(compressed));
+    }
+
+    @Test
+    public void testIncompressibleContentIsSkipped() {
+        byte[] data = new byte[200];
+        new Random(42).nextBytes(data);
+        assertNull(Compression.compress(data));
+        assertNull(Compression.compress("hi".getBytes())); // Too short to be worth a flag
+    }
+
+    @Test
+    public void testCompressedMessageEncodingDecoding() {
+        BitchatMessage msg = new BitchatMessage();
+        msg.content = "does anyone have a charger? mine is dead and I need to call a cab later";
+        msg.isEncrypted = true;
+        BitchatMessage decoded = Protocol.decodeMessage(Protocol.encodeMessage(msg));
+        assertEquals(msg.content, decoded.content);
+        assertTrue(decoded.isEncrypted);
+    }
+
+    @Test
+    public void testDisabledCompression() {
+        Compression.setEnabled(false);
+        try {
+            BitchatMessage msg = new BitchatMessage();
+            msg.content = "meet at the north gate in 10 minutes";
+            assertEquals(msg.content, Protocol.decodeMessage(Protocol.encodeMessage(msg)).content);
+        } finally {
+            Compression.setEnabled(true);
+        }
+    }
+
+    @Test
+    public void testFragmentsSavedOnChatCorpus() {
+        int[] totals = corpusTotals();
+        assertTrue(totals[1] < totals[0]);
+        assertTrue(totals[3] <= totals[2]);
+    }
+
+    @Test
+    public void benchmarkFragmentsSaved() {
+        Benchmarks.assumeEnabled();
+        int[] totals = corpusTotals();
+        double savedPerMessage = (totals[2] - totals[3]) / (double) CHAT_CORPUS.length;
+        System.out.printf("Compression: content %d -> %d bytes, %d -> %d fragments over %d messages (%.2f saved per message)%n",
+                totals[0], totals[1], totals[2], totals[3], CHAT_CORPUS.length, savedPerMessage);
+    }
+
+    // {plain bytes, compressed bytes, plain fragments, compressed fragments} over the chat corpus.
+    private static int[] corpusTotals() {
+        int[] totals = new int[4];
+        for (String line : CHAT_CORPUS) {
+            byte[] raw = line.getBytes();
+            byte[] compressed = Compression.compress(raw);
+            totals[0] += raw.length;
+            totals[1] += compressed != null ? compressed.length : raw.length;
+            Compression.setEnabled(false);
+            totals[2] += fragmentCount(line);
+            Compression.setEnabled(true);
+            totals[3] += fragmentCount(line);
+        }
+        return totals;
+    }
+
+    private static int fragmentCount(String content) {
+        BitchatMessage msg = new BitchatMessage();
+        msg.content = content;
+        msg.senderPeerID = "peer1234";
+        BitchatPacket packet = new BitchatPacket();
+        packet.payload = Protocol.encodeMessage(msg);
+        packet.ttl = 5;
+        int length = Protocol.encodePacket(packet).length;
+        return (length + AdvertisingPool.LEGACY_FRAME_SIZE - 1) / AdvertisingPool.LEGACY_FRAME_SIZE;
+    }
+}
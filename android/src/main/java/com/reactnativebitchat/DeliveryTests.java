@@ -45,4 +45,36 @@ public class DeliveryTests {
         tracker.processAck(ack);
         assertEquals("DELIVERED", tracker.getStatus("msg1"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testReadWatermarkCoversConversation() {
+        DeliveryTracker tracker = new DeliveryTracker();
+        for (int i = 0; i < 10000; i++) tracker.trackMessage("a" + i, "PENDING", "alice", 1000 + i);
+        tracker.trackMessage("b0", "PENDING", "bob", 1000);
+        assertFalse(tracker.processReadWatermark("carol", 5000)); // Nothing sent there
+
+        assertTrue(tracker.processReadWatermark("alice", 1000 + 4999));
+        assertEquals("READ", tracker.getStatus("a0"));
+        assertEquals("READ", tracker.getStatus("a4999"));
+        assertEquals("PENDING", tracker.getStatus("a5000"));
+        assertEquals("PENDING", tracker.getStatus("b0")); // Other conversation
+
+        assertFalse(tracker.processReadWatermark("alice", 1000)); // Watermarks never move back
+        assertEquals("READ", tracker.getStatus("a4999"));
+        tracker.processAck(tracker.generateAck("a10", "alice", "Alice", 0));
+        assertEquals("READ", tracker.getStatus("a10")); // A late ack does not downgrade it
+        assertEquals("a4999", tracker.findMessage(Trace.messageKey("a4999")));
+    }
+
+    @Test
+    public void testTrackingIsBounded() {
+        DeliveryTracker tracker = new DeliveryTracker();
+        int count = DeliveryTracker.TRACKED_MESSAGES + 100;
+        for (int i = 0; i < count; i++) tracker.trackMessage("m" + i, "PENDING", "alice", i);
+        assertEquals(DeliveryTracker.TRACKED_MESSAGES, tracker.getTrackedCount());
+        assertNull(tracker.findMessage(Trace.messageKey("m0"))); // Oldest forgotten
+        assertEquals("m" + (count - 1), tracker.findMessage(Trace.messageKey("m" + (count - 1))));
+        tracker.processAck(tracker.generateAck("m" + (count - 1), "alice", "Alice", 2));
+        assertEquals("DELIVERED", tracker.getStatus("m" + (count - 1))); // Through relays too
+    }
+}
@@ -6,16 +6,73 @@ import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
+// Status of the messages we sent. Per-message state is kept for the most recent TRACKED_MESSAGES only,
+// keyed by Trace.messageKey as it is named on the wire; older messages read as PENDING again.
 public class DeliveryTracker {
-    private final Map<String, String> messageStatuses = new HashMap<>();
-    private final Map<String, List<DeliveryAck>> messageAcks = new HashMap<>();
+    static final int TRACKED_MESSAGES = 16384;
+
+    private final LongLruCache<Tracked> messages = new LongLruCache<>(TRACKED_MESSAGES);
+    private final Map<String, Conversation> conversations = new HashMap<>(); // One per peer written to
+
+    // Read state of one conversation: every message we sent in it up to readUpTo has been read. Messages
+    // are not moved to READ one by one; getStatus compares against the watermark.
+    private static final class Conversation {
+        long readUpTo = Long.MIN_VALUE;
+    }
+
+    private static final class Tracked {
+        final String messageID;
+        String status;
+        long pendingSince; // For the delivery latency metric, 0 once acked
+        Conversation conversation;
+        long timestamp;
+        List<DeliveryAck> acks;
+
+        Tracked(String messageID) {
+            this.messageID = messageID;
+        }
+    }
 
     public void trackMessage(String messageID, String status) {
         if (status.equals("PENDING") || status.equals("DELIVERED") || status.equals("READ")) {
-            messageStatuses.put(messageID, status);
+            Tracked tracked = find(messageID);
+            if (tracked == null) {
+                tracked = new Tracked(messageID);
+                messages.put(Trace.messageKey(messageID), tracked);
+            }
+            tracked.status = status;
+            if (status.equals("PENDING")) tracked.pendingSince = System.nanoTime();
         }
     }
 
+    // Tracks a message sent in a conversation, so that read watermarks from the other side cover it.
+    public void trackMessage(String messageID, String status, String conversation, long timestamp) {
+        trackMessage(messageID, status);
+        Tracked tracked = find(messageID);
+        if (tracked == null) return;
+        tracked.conversation = conversations.computeIfAbsent(conversation, k -> new Conversation());
+        tracked.timestamp = timestamp;
+    }
+
+    // Moves every message of the conversation sent at or before readUpTo to READ in one step. Returns
+    // false for an unknown conversation or a watermark that does not move forward.
+    public boolean processReadWatermark(String conversation, long readUpTo) {
+        Conversation state = conversations.get(conversation);
+        if (state == null || readUpTo <= state.readUpTo) return false;
+        state.readUpTo = readUpTo;
+        return true;
+    }
+
+    // ID of a tracked message from its Trace.messageKey, null if unknown.
+    public String findMessage(long messageKey) {
+        Tracked tracked = messages.peek(messageKey);
+        return tracked != null ? tracked.messageID : null;
+    }
+
+    public int getTrackedCount() {
+        return messages.size();
+    }
+
     public DeliveryAck generateAck(String messageID, String recipientID, String nickname, int hopCount) {
         DeliveryAck ack = new DeliveryAck();
         ack.messageID = messageID;
@@ -27,21 +84,38 @@ public class DeliveryTracker {
         return ack;
     }
 
+    // Acks come from the recipient only, however many relays carried them back.
     public void processAck(DeliveryAck ack) {
-        if (messageStatuses.containsKey(ack.messageID)) {
-            if (ack.hopCount == 0) {
-                trackMessage(ack.messageID, "DELIVERED");
-            }
-            messageAcks.computeIfAbsent(ack.messageID, k -> new ArrayList<>()).add(ack);
+        Tracked tracked = find(ack.messageID);
+        if (tracked != null) {
+            tracked.status = "DELIVERED";
+            if (tracked.acks == null) tracked.acks = new ArrayList<>();
+            tracked.acks.add(ack);
+            Metrics.increment(Metrics.Counter.ACKS_PROCESSED);
+            if (tracked.pendingSince != 0) Metrics.record(Metrics.Timer.DELIVERY_LATENCY, System.nanoTime() - tracked.pendingSince);
+            tracked.pendingSince = 0;
+            Trace.recordAck(ack.messageID, ack.hopCount);
+        } else {
+            Metrics.increment(Metrics.Counter.ACKS_UNMATCHED);
         }
     }
 
     public String getStatus(String messageID) {
-        return messageStatuses.getOrDefault(messageID, "PENDING");
+        Tracked tracked = find(messageID);
+        if (tracked == null) return "PENDING";
+        if (tracked.conversation != null && tracked.timestamp <= tracked.conversation.readUpTo) return "READ";
+        return tracked.status;
     }
 
     public List<DeliveryAck> getAcks(String messageID) {
-        return new ArrayList<>(messageAcks.getOrDefault(messageID, new ArrayList<>()));
+        Tracked tracked = find(messageID);
+        return tracked != null && tracked.acks != null ? new ArrayList<>(tracked.acks) : new ArrayList<>();
+    }
+
+    private Tracked find(String messageID) {
+        if (messageID == null) return null;
+        Tracked tracked = messages.get(Trace.messageKey(messageID));
+        return tracked != null && tracked.messageID.equals(messageID) ? tracked : null;
     }
 
     public static class DeliveryAck {
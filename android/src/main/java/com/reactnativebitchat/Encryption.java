@@ -1,12 +1,34 @@
 package com.reactnativebitchat;
 
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
 import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
+import java.util.Arrays;
 
 public class Encryption {
+    static final int IV_SIZE = 12;
+    static final int TAG_SIZE = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final ThreadLocal<Cipher> AES_GCM = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance("AES/GCM/NoPadding");
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException("AES-GCM not available", e);
+            }
+        }
+    };
+
     public static byte[] deriveChannelKey(String password, String channel) {
         try {
             String algorithm = "PBKDF2WithHmacSHA256";
@@ -14,11 +36,65 @@ public class Encryption {
             int iterations = 100000;
             byte[] salt = channel.getBytes();
 
+            long start = System.nanoTime();
             KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, keyLength * 8);
             SecretKeyFactory factory = SecretKeyFactory.getInstance(algorithm);
-            return factory.generateSecret(spec).getEncoded();
+            byte[] key = factory.generateSecret(spec).getEncoded();
+            Metrics.increment(Metrics.Counter.KEY_DERIVATIONS);
+            Metrics.record(Metrics.Timer.KEY_DERIVATION, System.nanoTime() - start);
+            return key;
         } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
             throw new RuntimeException("Key derivation failed", e);
         }
     }
+
+    public static byte[] encryptContent(String content, byte[] key) throws GeneralSecurityException {
+        return seal(key, content != null ? content.getBytes(StandardCharsets.UTF_8) : new byte[0], null);
+    }
+
+    public static String decryptContent(byte[] sealed, byte[] key) throws GeneralSecurityException {
+        return new String(open(key, sealed, 0, sealed.length, null), StandardCharsets.UTF_8);
+    }
+
+    // AES-GCM with a random IV: iv(12) ciphertext tag(16). aad may be null.
+    static byte[] seal(byte[] key, byte[] plaintext, byte[] aad) throws GeneralSecurityException {
+        byte[] sealed = new byte[IV_SIZE + plaintext.length + TAG_SIZE];
+        byte[] iv = new byte[IV_SIZE];
+        RANDOM.nextBytes(iv);
+        System.arraycopy(iv, 0, sealed, 0, IV_SIZE);
+        Cipher cipher = AES_GCM.get();
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(TAG_SIZE * 8, iv));
+        if (aad != null) cipher.updateAAD(aad);
+        cipher.doFinal(plaintext, 0, plaintext.length, sealed, IV_SIZE);
+        return sealed;
+    }
+
+    // Opens length bytes of seal output at offset; throws AEADBadTagException if they were altered.
+    static byte[] open(byte[] key, byte[] data, int offset, int length, byte[] aad) throws GeneralSecurityException {
+        if (length < IV_SIZE + TAG_SIZE) throw new GeneralSecurityException("Sealed content too short");
+        Cipher cipher = AES_GCM.get();
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(TAG_SIZE * 8, data, offset, IV_SIZE));
+        if (aad != null) cipher.updateAAD(aad);
+        return cipher.doFinal(data, offset + IV_SIZE, length - IV_SIZE);
+    }
+
+    // HKDF-SHA256 (RFC 5869).
+    static byte[] hkdf(byte[] salt, byte[] secret, byte[] info, int length) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(salt != null && salt.length > 0 ? salt : new byte[32], "HmacSHA256"));
+        byte[] prk = mac.doFinal(secret);
+        mac.init(new SecretKeySpec(prk, "HmacSHA256"));
+        byte[] okm = new byte[length];
+        byte[] block = new byte[0];
+        for (int offset = 0, counter = 1; offset < length; counter++) {
+            mac.update(block);
+            mac.update(info);
+            mac.update((byte) counter);
+            block = mac.doFinal();
+            System.arraycopy(block, 0, okm, offset, Math.min(block.length, length - offset));
+            offset += block.length;
+        }
+        Arrays.fill(prk, (byte) 0);
+        return okm;
+    }
 }
\ No newline at end of file
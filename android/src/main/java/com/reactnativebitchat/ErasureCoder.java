@@ -0,0 +1,124 @@
+package com.reactnativebitchat;
+
+// Systematic Reed-Solomon erasure code over GF(256). The k data shards are sent as they are and m repair
+// shards are rows of a Cauchy matrix times the data; every square submatrix of a Cauchy matrix is
+// invertible, so any k of the k + m shards rebuild the data. Shards are equal length; k + m <= 256.
+public final class ErasureCoder {
+    public static final int MAX_SHARDS = 256;
+    private static final int POLYNOMIAL = 0x11D; // x^8 + x^4 + x^3 + x^2 + 1
+    private static final byte[] EXP = new byte[510];
+    private static final int[] LOG = new int[256];
+
+    static {
+        int value = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = (byte) value;
+            LOG[value] = i;
+            value <<= 1;
+            if (value >= 256) value ^= POLYNOMIAL;
+        }
+        for (int i = 255; i < EXP.length; i++) EXP[i] = EXP[i - 255]; // No modulo in multiply
+    }
+
+    private ErasureCoder() {
+    }
+
+    // Repair shards for the given data shards.
+    public static byte[][] encode(byte[][] data, int repair) {
+        int k = data.length;
+        if (k == 0 || k + repair > MAX_SHARDS) throw new IllegalArgumentException("Bad shard counts " + k + "+" + repair);
+        int length = data[0].length;
+        byte[][] parity = new byte[repair][length];
+        for (int r = 0; r < repair; r++) {
+            for (int c = 0; c < k; c++) multiplyAdd(parity[r], data[c], cauchy(k + r, c));
+        }
+        return parity;
+    }
+
+    // Rebuilds missing data shards in place. shards has k + m entries, null where lost; returns false if
+    // fewer than k are present.
+    public static boolean decode(byte[][] shards, int k) {
+        int present = 0;
+        boolean dataMissing = false;
+        for (int i = 0; i < shards.length; i++) {
+            if (shards[i] != null) present++;
+            else if (i < k) dataMissing = true;
+        }
+        if (present < k) return false;
+        if (!dataMissing) return true;
+
+        // Take the first k shards present; their generator rows form the matrix to invert
+        int[] rows = new int[k];
+        for (int i = 0, n = 0; n < k; i++) if (shards[i] != null) rows[n++] = i;
+        byte[][] matrix = new byte[k][k];
+        for (int r = 0; r < k; r++) {
+            for (int c = 0; c < k; c++) matrix[r][c] = rows[r] < k ? (byte) (rows[r] == c ? 1 : 0) : cauchy(rows[r], c);
+        }
+        byte[][] inverse = invert(matrix);
+        int length = shards[rows[0]].length;
+        for (int missing = 0; missing < k; missing++) {
+            if (shards[missing] != null) continue;
+            byte[] rebuilt = new byte[length];
+            for (int c = 0; c < k; c++) multiplyAdd(rebuilt, shards[rows[c]], inverse[missing][c]);
+            shards[missing] = rebuilt;
+        }
+        return true;
+    }
+
+    // Generator entry for repair row (row >= k) and data column (col < k): 1 / (x_row + y_col) with
+    // x_row = row and y_col = col, which are disjoint sets, and addition in GF(256) being XOR.
+    private static byte cauchy(int row, int col) {
+        return inverse(row ^ col);
+    }
+
+    static byte multiply(byte a, byte b) {
+        if (a == 0 || b == 0) return 0;
+        return EXP[LOG[a & 0xFF] + LOG[b & 0xFF]];
+    }
+
+    static byte inverse(int a) {
+        if (a == 0) throw new ArithmeticException("No inverse of 0");
+        return EXP[255 - LOG[a & 0xFF]];
+    }
+
+    // target ^= source * factor
+    private static void multiplyAdd(byte[] target, byte[] source, byte factor) {
+        if (factor == 0) return;
+        int logFactor = LOG[factor & 0xFF];
+        for (int i = 0; i < target.length; i++) {
+            int value = source[i] & 0xFF;
+            if (value != 0) target[i] ^= EXP[LOG[value] + logFactor];
+        }
+    }
+
+    // Gauss-Jordan elimination; the matrix is always invertible for shard rows of this code.
+    private static byte[][] invert(byte[][] matrix) {
+        int n = matrix.length;
+        byte[][] inverse = new byte[n][n];
+        for (int i = 0; i < n; i++) inverse[i][i] = 1;
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            while (matrix[pivot][col] == 0) pivot++;
+            byte[] swap = matrix[pivot];
+            matrix[pivot] = matrix[col];
+            matrix[col] = swap;
+            swap = inverse[pivot];
+            inverse[pivot] = inverse[col];
+            inverse[col] = swap;
+            byte scale = inverse(matrix[col][col]);
+            for (int c = 0; c < n; c++) {
+                matrix[col][c] = multiply(matrix[col][c], scale);
+                inverse[col][c] = multiply(inverse[col][c], scale);
+            }
+            for (int r = 0; r < n; r++) {
+                byte factor = matrix[r][col];
+                if (r == col || factor == 0) continue;
+                for (int c = 0; c < n; c++) {
+                    matrix[r][c] ^= multiply(factor, matrix[col][c]);
+                    inverse[r][c] ^= multiply(factor, inverse[col][c]);
+                }
+            }
+        }
+        return inverse;
+    }
+}
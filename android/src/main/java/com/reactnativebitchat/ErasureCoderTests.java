@@ -0,0 +1,61 @@
+package com.reactnativebitchat;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+public class ErasureCoderTests {
+    @Test
+    public void testFieldArithmetic() {
+        for (int a = 1; a < 256; a++) {
+            assertEquals(1, ErasureCoder.multiply((byte) a, ErasureCoder.inverse(a)));
+            assertEquals(0, ErasureCoder.multiply((byte) a, (byte) 0));
+        }
+        assertEquals((byte) 0x1D, ErasureCoder.multiply((byte) 0x80, (byte) 2)); // Reduced by the polynomial
+    }
+
+    // Every way of losing m of the k + m shards is recoverable.
+    @Test
+    public void testAnyKShardsRebuildTheData() {
+        Random random = new Random(44);
+        int k = 5, m = 3, length = 17;
+        byte[][] data = new byte[k][length];
+        for (byte[] shard : data) random.nextBytes(shard);
+        byte[][] parity = ErasureCoder.encode(data, m);
+        int n = k + m;
+        int patterns = 0;
+        for (int lost = 0; lost < 1 << n; lost++) {
+            if (Integer.bitCount(lost) > m) continue;
+            byte[][] shards = new byte[n][];
+            for (int i = 0; i < n; i++) if ((lost & 1 << i) == 0) shards[i] = (i < k ? data[i] : parity[i - k]).clone();
+            assertTrue(ErasureCoder.decode(shards, k));
+            for (int i = 0; i < k; i++) assertArrayEquals(data[i], shards[i]);
+            patterns++;
+        }
+        assertEquals(1 + 8 + 28 + 56, patterns);
+
+        byte[][] tooFew = new byte[n][];
+        for (int i = 0; i < k - 1; i++) tooFew[i] = data[i];
+        assertFalse(ErasureCoder.decode(tooFew, k));
+    }
+
+    @Test
+    public void testLargeGroups() {
+        Random random = new Random(45);
+        int k = 200, m = 56;
+        byte[][] data = new byte[k][18];
+        for (byte[] shard : data) random.nextBytes(shard);
+        byte[][] parity = ErasureCoder.encode(data, m);
+        byte[][] shards = new byte[k + m][];
+        for (int i = 0; i < k + m; i++) shards[i] = i < k ? data[i].clone() : parity[i - k];
+        for (int i = 0; i < m; i++) shards[i * 3] = null; // Lose 56 data shards, spread out
+        assertTrue(ErasureCoder.decode(shards, k));
+        for (int i = 0; i < k; i++) assertArrayEquals(data[i], shards[i]);
+        try {
+            ErasureCoder.encode(data, 57);
+            fail("More than 256 shards accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
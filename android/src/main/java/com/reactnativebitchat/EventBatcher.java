@@ -0,0 +1,173 @@
+package com.reactnativebitchat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Coalesces native events into arrays emitted every flushIntervalMs or once maxBatchSize items are
+// queued. Each event name is its own stream: it is emitted only while JS listens to it, and JS
+// acknowledges its batches by name; while maxInFlight of a stream's batches are unacknowledged that
+// stream holds back and keeps accumulating, dropping the oldest beyond maxBuffered, without stalling
+// the others.
+public class EventBatcher<T> {
+    public static final String EVENT_MESSAGES = "BitchatMessages";
+    public static final String EVENT_DELIVERY_ACKS = "BitchatDeliveryAcks";
+    public static final String EVENT_READ_RECEIPTS = "BitchatReadReceipts";
+    public static final String EVENT_DELIVERY_STATUS = "BitchatDeliveryStatusUpdates";
+    public static final String EVENT_PEERS = "BitchatPeerChanges";
+    public static final String EVENT_METRICS = "BitchatMetrics";
+
+    static final long ACK_TIMEOUT_MS = 2000; // Unacknowledged batches are reclaimed after this
+
+    public interface Emitter<T> {
+        void emit(String eventName, List<T> batch);
+    }
+
+    public interface Scheduler {
+        void schedule(Runnable task, long delayMs);
+    }
+
+    private static final class Stream<T> {
+        final ArrayDeque<T> events = new ArrayDeque<>();
+        int listeners;
+        int inFlight;
+        long lastEmitTime;
+    }
+
+    private final Emitter<T> emitter;
+    private final ScheduledExecutorService executor; // Own thread unless a scheduler is given
+    private final Scheduler scheduler;
+    private final Clock clock;
+    private final long flushIntervalMs;
+    private final int maxBatchSize;
+    private final int maxInFlight;
+    private final int maxBuffered;
+    private final Map<String, Stream<T>> streams = new LinkedHashMap<>();
+    private int queued;
+    private int listenerCount;
+    private boolean flushScheduled;
+    private long droppedEvents;
+
+    public EventBatcher(Emitter<T> emitter, long flushIntervalMs, int maxBatchSize, int maxInFlight, int maxBuffered) {
+        this(emitter, null, Clock.SYSTEM, flushIntervalMs, maxBatchSize, maxInFlight, maxBuffered);
+    }
+
+    EventBatcher(Emitter<T> emitter, Scheduler scheduler, Clock clock, long flushIntervalMs, int maxBatchSize, int maxInFlight, int maxBuffered) {
+        this.emitter = emitter;
+        this.executor = scheduler != null ? null : Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "bitchat-events");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler = scheduler != null ? scheduler : (task, delayMs) -> executor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+        this.clock = clock;
+        this.flushIntervalMs = flushIntervalMs;
+        this.maxBatchSize = maxBatchSize;
+        this.maxInFlight = maxInFlight;
+        this.maxBuffered = maxBuffered;
+    }
+
+    public synchronized void enqueue(String eventName, T event) {
+        Stream<T> stream = stream(eventName);
+        if (stream.events.size() >= maxBuffered) {
+            stream.events.pollFirst(); // JS is too far behind, shed the oldest
+            queued--;
+            droppedEvents++;
+        }
+        stream.events.addLast(event);
+        queued++;
+        if (stream.events.size() >= maxBatchSize && stream.listeners > 0 && stream.inFlight < maxInFlight) {
+            scheduler.schedule(this::flush, 0);
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            scheduler.schedule(this::flush, flushIntervalMs);
+        }
+    }
+
+    public synchronized void acknowledge(String eventName, int batches) {
+        Stream<T> stream = streams.get(eventName);
+        if (stream == null) return;
+        stream.inFlight = Math.max(0, stream.inFlight - batches);
+        if (!stream.events.isEmpty()) scheduler.schedule(this::flush, 0);
+    }
+
+    public synchronized void addListener(String eventName) {
+        Stream<T> stream = stream(eventName);
+        stream.listeners++;
+        listenerCount++;
+        if (!stream.events.isEmpty()) scheduler.schedule(this::flush, 0);
+    }
+
+    // React Native removes listeners by count without naming the event, so a stream is only known to be
+    // unheard once every listener is gone. Batches a removed listener never acknowledges are reclaimed
+    // by the ack timeout.
+    public synchronized void removeListeners(int count) {
+        listenerCount = Math.max(0, listenerCount - count);
+        if (listenerCount > 0) return;
+        for (Stream<T> stream : streams.values()) {
+            stream.listeners = 0;
+            stream.inFlight = 0;
+        }
+    }
+
+    public synchronized int getQueuedCount() {
+        return queued;
+    }
+
+    public synchronized int getInFlight(String eventName) {
+        Stream<T> stream = streams.get(eventName);
+        return stream != null ? stream.inFlight : 0;
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedEvents;
+    }
+
+    public void shutdown() {
+        if (executor != null) executor.shutdownNow();
+    }
+
+    private Stream<T> stream(String eventName) {
+        Stream<T> stream = streams.get(eventName);
+        if (stream == null) {
+            stream = new Stream<>();
+            streams.put(eventName, stream);
+        }
+        return stream;
+    }
+
+    private void flush() {
+        Map<String, List<T>> batches = new LinkedHashMap<>();
+        synchronized (this) {
+            flushScheduled = false;
+            long now = clock.nowMillis();
+            boolean waiting = false; // Heard events still queued after this flush
+            for (Map.Entry<String, Stream<T>> entry : streams.entrySet()) {
+                Stream<T> stream = entry.getValue();
+                if (stream.events.isEmpty() || stream.listeners == 0) continue; // Keep buffering until JS subscribes
+                if (stream.inFlight >= maxInFlight && now - stream.lastEmitTime > ACK_TIMEOUT_MS) stream.inFlight = 0; // JS never acked, don't stall forever
+                if (stream.inFlight < maxInFlight) {
+                    List<T> batch = new ArrayList<>(Math.min(maxBatchSize, stream.events.size()));
+                    while (batch.size() < maxBatchSize && !stream.events.isEmpty()) batch.add(stream.events.pollFirst());
+                    queued -= batch.size();
+                    batches.put(entry.getKey(), batch);
+                    stream.inFlight++;
+                    stream.lastEmitTime = now;
+                }
+                waiting |= !stream.events.isEmpty();
+            }
+            if (waiting && !flushScheduled) {
+                flushScheduled = true;
+                scheduler.schedule(this::flush, flushIntervalMs);
+            }
+        }
+        for (Map.Entry<String, List<T>> batch : batches.entrySet()) {
+            emitter.emit(batch.getKey(), batch.getValue());
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.reactnativebitchat;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+public class EventBatcherTests {
+    private static final String A = EventBatcher.EVENT_MESSAGES;
+    private static final String B = EventBatcher.EVENT_PEERS;
+
+    // Runs scheduled tasks in time order when the test advances the clock.
+    private static final class ManualScheduler implements EventBatcher.Scheduler, Clock {
+        final PriorityQueue<long[]> due = new PriorityQueue<>((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        final List<Runnable> tasks = new ArrayList<>();
+        long now;
+
+        @Override
+        public void schedule(Runnable task, long delayMs) {
+            tasks.add(task);
+            due.add(new long[]{now + delayMs, tasks.size() - 1});
+        }
+
+        @Override
+        public long nowMillis() {
+            return now;
+        }
+
+        void advanceTo(long time) {
+            while (!due.isEmpty() && due.peek()[0] <= time) {
+                long[] next = due.poll();
+                now = next[0];
+                tasks.get((int) next[1]).run();
+            }
+            now = time;
+        }
+    }
+
+    private static final class RecordingEmitter implements EventBatcher.Emitter<Integer> {
+        final List<String> names = new ArrayList<>();
+        final List<List<Integer>> batches = new ArrayList<>();
+
+        @Override
+        public void emit(String eventName, List<Integer> batch) {
+            names.add(eventName);
+            batches.add(batch);
+        }
+    }
+
+    private static EventBatcher<Integer> batcher(ManualScheduler scheduler, RecordingEmitter emitter, int maxInFlight) {
+        return new EventBatcher<>(emitter, scheduler, scheduler, 50, 4, maxInFlight, 8);
+    }
+
+    @Test
+    public void testBatchesByIntervalAndSize() {
+        ManualScheduler scheduler = new ManualScheduler();
+        RecordingEmitter emitter = new RecordingEmitter();
+        EventBatcher<Integer> batcher = batcher(scheduler, emitter, 2);
+        batcher.addListener(A);
+        batcher.enqueue(A, 1);
+        batcher.enqueue(A, 2);
+        scheduler.advanceTo(49);
+        assertTrue(emitter.batches.isEmpty());
+        scheduler.advanceTo(50);
+        assertEquals(Arrays.asList(Arrays.asList(1, 2)), emitter.batches);
+
+        for (int i = 3; i <= 6; i++) batcher.enqueue(A, i);
+        scheduler.advanceTo(50); // A full batch goes out without waiting
+        assertEquals(Arrays.asList(3, 4, 5, 6), emitter.batches.get(1));
+        assertEquals(0, batcher.getQueuedCount());
+    }
+
+    @Test
+    public void testBuffersUntilSubscribed() {
+        ManualScheduler scheduler = new ManualScheduler();
+        RecordingEmitter emitter = new RecordingEmitter();
+        EventBatcher<Integer> batcher = batcher(scheduler, emitter, 2);
+        for (int i = 1; i <= 10; i++) batcher.enqueue(A, i);
+        batcher.enqueue(B, 100);
+        scheduler.advanceTo(1000);
+        assertTrue(emitter.batches.isEmpty());
+        assertEquals(2, batcher.getDroppedCount()); // Oldest beyond maxBuffered
+        assertEquals(9, batcher.getQueuedCount());
+
+        batcher.addListener(B); // Only the subscribed event is delivered
+        scheduler.advanceTo(1000);
+        assertEquals(Arrays.asList(B), emitter.names);
+        assertEquals(Arrays.asList(100), emitter.batches.get(0));
+        batcher.addListener(A);
+        scheduler.advanceTo(1000);
+        assertEquals(Arrays.asList(3, 4, 5, 6), emitter.batches.get(1));
+
+        batcher.removeListeners(2); // Everyone gone: back to buffering
+        batcher.enqueue(B, 101);
+        scheduler.advanceTo(2000);
+        assertEquals(2, emitter.batches.size());
+    }
+
+    @Test
+    public void testInFlightIsPerEvent() {
+        ManualScheduler scheduler = new ManualScheduler();
+        RecordingEmitter emitter = new RecordingEmitter();
+        EventBatcher<Integer> batcher = batcher(scheduler, emitter, 1);
+        batcher.addListener(A);
+        batcher.addListener(B);
+        batcher.enqueue(A, 1);
+        scheduler.advanceTo(50);
+        batcher.enqueue(A, 2); // Held: A's batch is unacknowledged
+        batcher.enqueue(B, 10); // Not held back by A
+        scheduler.advanceTo(100);
+        assertEquals(Arrays.asList(A, B), emitter.names);
+        assertEquals(1, batcher.getInFlight(A));
+
+        batcher.acknowledge(B, 1); // B's ack does not release A
+        scheduler.advanceTo(150);
+        assertEquals(2, emitter.batches.size());
+        batcher.acknowledge(A, 1);
+        scheduler.advanceTo(150);
+        assertEquals(Arrays.asList(2), emitter.batches.get(2));
+    }
+
+    @Test
+    public void testUnacknowledgedBatchesAreReclaimed() {
+        ManualScheduler scheduler = new ManualScheduler();
+        RecordingEmitter emitter = new RecordingEmitter();
+        EventBatcher<Integer> batcher = batcher(scheduler, emitter, 1);
+        batcher.addListener(A);
+        batcher.enqueue(A, 1);
+        scheduler.advanceTo(50);
+        batcher.enqueue(A, 2);
+        scheduler.advanceTo(50 + EventBatcher.ACK_TIMEOUT_MS);
+        assertEquals(1, emitter.batches.size()); // Still waiting for JS
+        scheduler.advanceTo(100 + EventBatcher.ACK_TIMEOUT_MS);
+        assertEquals(Arrays.asList(2), emitter.batches.get(1));
+    }
+}
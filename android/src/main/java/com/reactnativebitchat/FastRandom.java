@@ -0,0 +1,96 @@
+package com.reactnativebitchat;
+
+import java.security.SecureRandom;
+
+// Per-thread ChaCha20 keystream seeded from SecureRandom. Cheap enough for padding and cover bytes,
+// and fills arbitrary array regions without allocating.
+public final class FastRandom {
+    private static final int[] SIGMA = {0x61707865, 0x3320646e, 0x79622d32, 0x6b206574}; // "expand 32-byte k"
+    private static final SecureRandom seeder = new SecureRandom();
+    private static final ThreadLocal<FastRandom> instances = new ThreadLocal<FastRandom>() {
+        @Override
+        protected FastRandom initialValue() {
+            return new FastRandom();
+        }
+    };
+
+    private final int[] state = new int[16];
+    private final int[] working = new int[16];
+    private final byte[] block = new byte[64];
+    private int blockOffset = 64; // Forces a fresh block on first use
+
+    private FastRandom() {
+        rekey();
+    }
+
+    public static FastRandom current() {
+        return instances.get();
+    }
+
+    public void nextBytes(byte[] out) {
+        nextBytes(out, 0, out.length);
+    }
+
+    public void nextBytes(byte[] out, int offset, int length) {
+        while (length > 0) {
+            if (blockOffset == 64) nextBlock();
+            int n = Math.min(length, 64 - blockOffset);
+            System.arraycopy(block, blockOffset, out, offset, n);
+            blockOffset += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    public int nextInt(int bound) {
+        if (bound <= 0) throw new IllegalArgumentException("Bound must be positive");
+        if (blockOffset > 60) nextBlock();
+        int value = ((block[blockOffset] & 0xFF) << 24) | ((block[blockOffset + 1] & 0xFF) << 16)
+                | ((block[blockOffset + 2] & 0xFF) << 8) | (block[blockOffset + 3] & 0xFF);
+        blockOffset += 4;
+        return (int) (((value & 0xFFFFFFFFL) * bound) >>> 32);
+    }
+
+    private void rekey() {
+        byte[] seed = new byte[44]; // 32-byte key + 12-byte nonce
+        seeder.nextBytes(seed);
+        System.arraycopy(SIGMA, 0, state, 0, 4);
+        for (int i = 0; i < 8; i++) state[4 + i] = littleEndian(seed, i * 4);
+        state[12] = 0; // Block counter
+        for (int i = 0; i < 3; i++) state[13 + i] = littleEndian(seed, 32 + i * 4);
+    }
+
+    private void nextBlock() {
+        System.arraycopy(state, 0, working, 0, 16);
+        for (int i = 0; i < 10; i++) {
+            quarterRound(working, 0, 4, 8, 12);
+            quarterRound(working, 1, 5, 9, 13);
+            quarterRound(working, 2, 6, 10, 14);
+            quarterRound(working, 3, 7, 11, 15);
+            quarterRound(working, 0, 5, 10, 15);
+            quarterRound(working, 1, 6, 11, 12);
+            quarterRound(working, 2, 7, 8, 13);
+            quarterRound(working, 3, 4, 9, 14);
+        }
+        for (int i = 0; i < 16; i++) {
+            int v = working[i] + state[i];
+            block[i * 4] = (byte) v;
+            block[i * 4 + 1] = (byte) (v >>> 8);
+            block[i * 4 + 2] = (byte) (v >>> 16);
+            block[i * 4 + 3] = (byte) (v >>> 24);
+        }
+        blockOffset = 0;
+        if (++state[12] == 0) rekey(); // Never reuse a counter value under the same key
+    }
+
+    private static void quarterRound(int[] x, int a, int b, int c, int d) {
+        x[a] += x[b]; x[d] = Integer.rotateLeft(x[d] ^ x[a], 16);
+        x[c] += x[d]; x[b] = Integer.rotateLeft(x[b] ^ x[c], 12);
+        x[a] += x[b]; x[d] = Integer.rotateLeft(x[d] ^ x[a], 8);
+        x[c] += x[d]; x[b] = Integer.rotateLeft(x[b] ^ x[c], 7);
+    }
+
+    private static int littleEndian(byte[] b, int i) {
+        return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8) | ((b[i + 2] & 0xFF) << 16) | ((b[i + 3] & 0xFF) << 24);
+    }
+}
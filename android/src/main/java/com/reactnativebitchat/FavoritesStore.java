@@ -0,0 +1,107 @@
+package com.reactnativebitchat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Favorite peer fingerprints, loaded once into a concurrent hash set so lookups on the message path are
+// a lock-free probe with no I/O. Mutations update the set immediately and mark it dirty; one flush per
+// delay window writes the whole set back, so a burst of changes costs a single write.
+public class FavoritesStore {
+    public interface Backend {
+        Set<String> load();
+
+        void save(Set<String> favorites);
+    }
+
+    public interface Scheduler {
+        void schedule(Runnable task, long delayMs);
+    }
+
+    private final Backend backend;
+    private final Scheduler scheduler;
+    private final long flushDelayMs;
+    private final Set<String> favorites = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean flushPending = new AtomicBoolean();
+    private volatile boolean loaded;
+    private long writes;
+
+    public FavoritesStore(Backend backend, Scheduler scheduler, long flushDelayMs) {
+        this.backend = backend;
+        this.scheduler = scheduler;
+        this.flushDelayMs = flushDelayMs;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    // Reads the backend once; later calls return immediately.
+    public void load() {
+        if (loaded) return;
+        synchronized (this) {
+            if (loaded) return;
+            Set<String> stored = backend.load();
+            if (stored != null) favorites.addAll(stored);
+            loaded = true;
+        }
+    }
+
+    public boolean contains(String fingerprint) {
+        if (!loaded) load();
+        return favorites.contains(fingerprint);
+    }
+
+    public boolean add(String fingerprint) {
+        return update(Collections.singletonList(fingerprint), null) > 0;
+    }
+
+    public boolean remove(String fingerprint) {
+        return update(null, Collections.singletonList(fingerprint)) > 0;
+    }
+
+    // Applies additions then removals and returns how many fingerprints changed state.
+    public int update(Collection<String> additions, Collection<String> removals) {
+        load();
+        int changed = 0;
+        if (additions != null) {
+            for (String fingerprint : additions) {
+                if (fingerprint != null && !fingerprint.isEmpty() && favorites.add(fingerprint)) changed++;
+            }
+        }
+        if (removals != null) {
+            for (String fingerprint : removals) {
+                if (fingerprint != null && favorites.remove(fingerprint)) changed++;
+            }
+        }
+        if (changed > 0 && flushPending.compareAndSet(false, true)) scheduler.schedule(this::flush, flushDelayMs);
+        return changed;
+    }
+
+    public List<String> getAll() {
+        load();
+        return new ArrayList<>(favorites);
+    }
+
+    public int size() {
+        load();
+        return favorites.size();
+    }
+
+    // Writes the current set if anything changed since the last write. The pending flag is cleared before
+    // copying, so a mutation racing with the copy schedules another flush rather than being lost.
+    public synchronized void flush() {
+        if (!flushPending.getAndSet(false)) return;
+        backend.save(new HashSet<>(favorites));
+        writes++;
+    }
+
+    public synchronized long getWrites() {
+        return writes;
+    }
+}
@@ -0,0 +1,133 @@
+package com.reactnativebitchat;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class FavoritesStoreTests {
+    private static final class MemoryBackend implements FavoritesStore.Backend {
+        Set<String> stored = new HashSet<>();
+        int loads, saves;
+
+        @Override
+        public Set<String> load() {
+            loads++;
+            return new HashSet<>(stored);
+        }
+
+        @Override
+        public void save(Set<String> favorites) {
+            saves++;
+            stored = new HashSet<>(favorites);
+        }
+    }
+
+    private static final class ManualScheduler implements FavoritesStore.Scheduler {
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void schedule(Runnable task, long delayMs) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            List<Runnable> due = new ArrayList<>(tasks);
+            tasks.clear();
+            for (Runnable task : due) task.run();
+        }
+    }
+
+    @Test
+    public void testLoadsOnce() {
+        MemoryBackend backend = new MemoryBackend();
+        backend.stored.add("alice");
+        FavoritesStore store = new FavoritesStore(backend, new ManualScheduler(), 500);
+        assertFalse(store.isLoaded());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(store.contains("alice"));
+            assertFalse(store.contains("bob"));
+        }
+        assertTrue(store.isLoaded());
+        assertEquals(1, backend.loads);
+        assertEquals(0, backend.saves);
+    }
+
+    @Test
+    public void testWritesAreBatched() {
+        MemoryBackend backend = new MemoryBackend();
+        ManualScheduler scheduler = new ManualScheduler();
+        FavoritesStore store = new FavoritesStore(backend, scheduler, 500);
+        for (int i = 0; i < 100; i++) assertTrue(store.add("peer" + i));
+        assertFalse(store.add("peer7")); // Already a favorite
+        assertTrue(store.remove("peer99"));
+        assertEquals(1, scheduler.tasks.size());
+        assertEquals(0, backend.saves);
+        assertTrue(store.contains("peer42")); // Visible before the write
+
+        scheduler.runAll();
+        assertEquals(1, backend.saves);
+        assertEquals(99, backend.stored.size());
+        assertFalse(backend.stored.contains("peer99"));
+
+        store.flush(); // Nothing pending
+        assertEquals(1, backend.saves);
+        store.add("late");
+        assertEquals(1, scheduler.tasks.size());
+        scheduler.runAll();
+        assertEquals(2, backend.saves);
+        assertTrue(backend.stored.contains("late"));
+    }
+
+    @Test
+    public void testBulkUpdate() {
+        MemoryBackend backend = new MemoryBackend();
+        backend.stored.addAll(Arrays.asList("alice", "mallory"));
+        ManualScheduler scheduler = new ManualScheduler();
+        FavoritesStore store = new FavoritesStore(backend, scheduler, 500);
+        assertEquals(3, store.update(Arrays.asList("alice", "bob", "carol", "", null), Arrays.asList("mallory", "nobody")));
+        assertEquals(new HashSet<>(Arrays.asList("alice", "bob", "carol")), new HashSet<>(store.getAll()));
+        assertEquals(0, store.update(Arrays.asList("alice"), null));
+        assertEquals(1, scheduler.tasks.size());
+        scheduler.runAll();
+        assertEquals(3, backend.stored.size());
+
+        FavoritesStore reloaded = new FavoritesStore(backend, scheduler, 500);
+        assertTrue(reloaded.contains("carol"));
+        assertFalse(reloaded.contains("mallory"));
+    }
+
+    @Test
+    public void testConcurrentMutationsAreNotLost() throws Exception {
+        MemoryBackend backend = new MemoryBackend();
+        ManualScheduler scheduler = new ManualScheduler();
+        FavoritesStore store = new FavoritesStore(backend, (task, delayMs) -> {
+            synchronized (scheduler) {
+                scheduler.schedule(task, delayMs);
+            }
+        }, 0);
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            final int id = t;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < 2000; i++) store.add(id + ":" + i);
+            });
+            writers[t].start();
+        }
+        for (int round = 0; round < 50; round++) {
+            synchronized (scheduler) {
+                scheduler.runAll();
+            }
+        }
+        for (Thread writer : writers) writer.join();
+        synchronized (scheduler) {
+            scheduler.runAll();
+        }
+        assertEquals(8000, backend.stored.size());
+        assertTrue(backend.saves < 8000);
+    }
+}
@@ -0,0 +1,215 @@
+package com.reactnativebitchat;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// Link-layer framing with forward error correction. An encoded packet is cut into k equal data shards
+// and m Reed-Solomon repair shards are added (see ErasureCoder); each goes out as one radio frame with a
+// small header, and the receiver rebuilds the packet from any k frames of the group, so a lost frame
+// costs no retransmit round. m is sized per packet from the loss rate measured on the link it goes out
+// on: the fewest repair frames that still deliver 99% of packets at that loss.
+//
+// Frame: group(4) index(1) k(1) m(1) length(2) shard. Loss is measured on receive, from how many of a
+// group's frames up to the last one heard actually arrived, and is assumed to be the same both ways.
+public class FecFramer {
+    public static final int HEADER_SIZE = 9;
+    static final double TARGET_FAILURE = 0.01;
+    static final double DEFAULT_LOSS = 0.1; // Assumed for a link not measured yet
+    // Planned for even on a link measuring better. Only completed groups are measured, so a link planned
+    // at zero loss would send no repair frames and never see a group complete with a frame missing.
+    static final double MIN_LOSS = 0.01;
+    private static final double LOSS_SMOOTHING = 0.2; // Weight of a new group in the moving average
+    private static final long LOSS_MAX_AGE_MS = 5 * 60 * 1000;
+    private static final int NEIGHBOURS = 256;
+    private static final int MAX_GROUPS = 64; // Groups being reassembled, or recently completed
+    private static final long REASSEMBLY_TIMEOUT_MS = 30000;
+
+    public static final class Assembled {
+        public final byte[] data;
+        public final int framesReceived; // Of framesExpected sent up to the last frame heard
+        public final int framesExpected;
+
+        Assembled(byte[] data, int framesReceived, int framesExpected) {
+            this.data = data;
+            this.framesReceived = framesReceived;
+            this.framesExpected = framesExpected;
+        }
+    }
+
+    private static final class Group {
+        final long startedAt;
+        final int k, m, length, shardSize;
+        final byte[][] shards;
+        int received, highest;
+        boolean done; // Kept after completion so late frames of the group are ignored
+
+        Group(long startedAt, int k, int m, int length, int shardSize) {
+            this.startedAt = startedAt;
+            this.k = k;
+            this.m = m;
+            this.length = length;
+            this.shardSize = shardSize;
+            shards = new byte[k + m][];
+        }
+    }
+
+    private static final class Estimate {
+        double loss;
+        long updatedAt;
+    }
+
+    private final Clock clock;
+    private final LinkedHashMap<Integer, Group> groups = new LinkedHashMap<>(); // Oldest first
+    private final LongLruCache<Estimate> losses = new LongLruCache<>(NEIGHBOURS);
+
+    public FecFramer(Clock clock) {
+        this.clock = clock;
+    }
+
+    // Frames of at most frameSize bytes carrying data and the given number of repair shards.
+    public static byte[][] encode(byte[] data, int frameSize, int repair) {
+        int shardSize = frameSize - HEADER_SIZE;
+        if (shardSize <= 0 || data.length > 0xFFFF) throw new IllegalArgumentException("Cannot frame " + data.length + " bytes");
+        int k = Math.max(1, (data.length + shardSize - 1) / shardSize);
+        if (k >= ErasureCoder.MAX_SHARDS) throw new IllegalArgumentException("Packet needs " + k + " frames");
+        repair = Math.min(repair, ErasureCoder.MAX_SHARDS - k);
+        byte[][] shards = new byte[k][];
+        for (int i = 0; i < k; i++) {
+            shards[i] = Arrays.copyOfRange(data, i * shardSize, (i + 1) * shardSize); // Last one zero-padded
+        }
+        byte[][] parity = ErasureCoder.encode(shards, repair);
+        byte[] groupBytes = new byte[4];
+        FastRandom.current().nextBytes(groupBytes);
+        byte[][] frames = new byte[k + repair][];
+        for (int i = 0; i < frames.length; i++) {
+            ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + shardSize);
+            frame.put(groupBytes);
+            frame.put((byte) i);
+            frame.put((byte) k);
+            frame.put((byte) repair);
+            frame.putShort((short) data.length);
+            frame.put(i < k ? shards[i] : parity[i - k]);
+            frames[i] = frame.array();
+        }
+        return frames;
+    }
+
+    // Takes one received frame; returns the packet when this frame completes its group, null otherwise.
+    public synchronized Assembled accept(byte[] frame) {
+        if (frame == null || frame.length <= HEADER_SIZE) return null;
+        ByteBuffer in = ByteBuffer.wrap(frame);
+        int groupId = in.getInt();
+        int index = in.get() & 0xFF;
+        int k = in.get() & 0xFF;
+        int m = in.get() & 0xFF;
+        int length = in.getShort() & 0xFFFF;
+        int shardSize = frame.length - HEADER_SIZE;
+        // k is implied by the length, which also rejects nearly all cover frames before they take a slot
+        if (k == 0 || index >= k + m || length > k * shardSize || k > 1 && length <= (k - 1) * shardSize) return null;
+        long now = clock.nowMillis();
+        expire(now);
+        Group group = groups.get(groupId);
+        if (group == null) {
+            group = new Group(now, k, m, length, shardSize);
+            groups.put(groupId, group);
+            if (groups.size() > MAX_GROUPS) groups.remove(groups.keySet().iterator().next());
+        } else if (group.k != k || group.m != m || group.length != length || group.shardSize != shardSize) {
+            return null; // Group id collision or corruption
+        }
+        if (group.done || group.shards[index] != null) return null;
+        group.shards[index] = Arrays.copyOfRange(frame, HEADER_SIZE, frame.length);
+        group.received++;
+        group.highest = Math.max(group.highest, index);
+        if (group.received < k) return null;
+        boolean missingData = false;
+        for (int i = 0; i < k; i++) missingData |= group.shards[i] == null;
+        if (!ErasureCoder.decode(group.shards, k)) return null;
+        if (missingData) Metrics.increment(Metrics.Counter.FEC_RECOVERIES);
+        byte[] data = new byte[length];
+        for (int i = 0, offset = 0; offset < length; i++, offset += shardSize) {
+            System.arraycopy(group.shards[i], 0, data, offset, Math.min(shardSize, length - offset));
+        }
+        group.done = true;
+        Arrays.fill(group.shards, null);
+        return new Assembled(data, group.received, group.highest + 1);
+    }
+
+    // Folds a completed group into the loss estimate of the neighbour it came from.
+    public synchronized void observe(long neighbour, int framesReceived, int framesExpected) {
+        if (neighbour == 0 || framesExpected <= 0) return;
+        // A group is heard up to the frame that completes it, so the last frame counted always arrived;
+        // losses over the frames before it is the unbiased estimate, where losses over all is biased low
+        int lost = Math.max(0, framesExpected - framesReceived);
+        double sample = framesExpected > 1 ? (double) lost / (framesExpected - 1) : 0;
+        Estimate estimate = losses.get(neighbour);
+        if (estimate == null) {
+            estimate = new Estimate();
+            estimate.loss = sample;
+            losses.put(neighbour, estimate);
+        } else {
+            estimate.loss += LOSS_SMOOTHING * (sample - estimate.loss);
+        }
+        estimate.updatedAt = clock.nowMillis();
+    }
+
+    // Measured loss towards a neighbour, or for a broadcast (neighbour 0) the worst recently measured
+    // link, since every neighbour should be able to decode it.
+    public synchronized double getLoss(long neighbour) {
+        long now = clock.nowMillis();
+        if (neighbour != 0) {
+            Estimate estimate = losses.peek(neighbour);
+            return estimate != null && now - estimate.updatedAt < LOSS_MAX_AGE_MS ? estimate.loss : DEFAULT_LOSS;
+        }
+        double[] worst = {-1};
+        losses.forEach((id, estimate) -> {
+            if (now - estimate.updatedAt < LOSS_MAX_AGE_MS) worst[0] = Math.max(worst[0], estimate.loss);
+            return true;
+        });
+        return worst[0] < 0 ? DEFAULT_LOSS : worst[0];
+    }
+
+    // Repair frames for a packet of dataFrames frames sent towards neighbour (0 for broadcast).
+    public int repairFor(int dataFrames, long neighbour) {
+        int repair = repairFor(dataFrames, Math.max(MIN_LOSS, getLoss(neighbour)), TARGET_FAILURE);
+        Metrics.add(Metrics.Counter.FEC_REPAIR_FRAMES, repair);
+        return repair;
+    }
+
+    // Fewest repair frames m such that at least k of k + m frames arrive with probability 1 - failure
+    // when each is lost independently with probability loss. Capped at 2k + 2 for very lossy links.
+    public static int repairFor(int k, double loss, double failure) {
+        if (loss <= 0) return 0;
+        int cap = Math.min(2 * k + 2, ErasureCoder.MAX_SHARDS - k);
+        for (int m = 0; m < cap; m++) {
+            if (deliveryProbability(k, k + m, loss) >= 1 - failure) return m;
+        }
+        return cap;
+    }
+
+    // P(at least k of n arrive), each arriving with probability 1 - loss.
+    static double deliveryProbability(int k, int n, double loss) {
+        if (loss >= 1) return 0;
+        double logRatio = Math.log(1 - loss) - Math.log(loss);
+        double logTerm = n * Math.log(loss); // log P(none arrive), kept in logs so long groups do not underflow
+        double below = 0;
+        for (int i = 0; i < k; i++) {
+            below += Math.exp(logTerm);
+            logTerm += Math.log((double) (n - i) / (i + 1)) + logRatio;
+        }
+        return Math.max(0, 1 - below);
+    }
+
+    public static int dataFrames(int length, int frameSize) {
+        return Math.max(1, (length + frameSize - HEADER_SIZE - 1) / (frameSize - HEADER_SIZE));
+    }
+
+    private void expire(long now) {
+        Iterator<Group> iterator = groups.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().startedAt < REASSEMBLY_TIMEOUT_MS) break;
+            iterator.remove();
+        }
+    }
+}
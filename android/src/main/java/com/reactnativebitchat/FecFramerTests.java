@@ -0,0 +1,181 @@
+package com.reactnativebitchat;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+public class FecFramerTests {
+    private static final class ManualClock implements Clock {
+        long now = 1000;
+
+        @Override
+        public long nowMillis() {
+            return now;
+        }
+    }
+
+    private static byte[] packet(Random random, int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void testFramesRoundTripWithLoss() {
+        Random random = new Random(46);
+        FecFramer framer = new FecFramer(new ManualClock());
+        byte[] data = packet(random, 1000);
+        byte[][] frames = FecFramer.encode(data, AdvertisingPool.EXTENDED_FRAME_SIZE, 2);
+        assertEquals(FecFramer.dataFrames(1000, AdvertisingPool.EXTENDED_FRAME_SIZE) + 2, frames.length);
+        for (byte[] frame : frames) assertEquals(AdvertisingPool.EXTENDED_FRAME_SIZE, frame.length);
+        long recoveries = Metrics.get(Metrics.Counter.FEC_RECOVERIES);
+
+        // Lose a data frame and the first repair frame
+        for (int i : new int[]{0, 2, 3, 4}) assertNull(framer.accept(frames[i]));
+        FecFramer.Assembled assembled = framer.accept(frames[frames.length - 1]);
+        assertNotNull(assembled);
+        assertArrayEquals(data, assembled.data);
+        assertEquals(5, assembled.framesReceived);
+        assertEquals(frames.length, assembled.framesExpected);
+        assertEquals(recoveries + 1, Metrics.get(Metrics.Counter.FEC_RECOVERIES));
+        assertNull(framer.accept(frames[1])); // Late frame of a completed group
+
+        byte[] small = packet(random, 40);
+        FecFramer.Assembled single = framer.accept(FecFramer.encode(small, AdvertisingPool.LEGACY_FRAME_SIZE * 4, 0)[0]);
+        assertArrayEquals(small, single.data);
+    }
+
+    @Test
+    public void testRejectsCoverAndCorruptFrames() {
+        Random random = new Random(47);
+        FecFramer framer = new FecFramer(new ManualClock());
+        int accepted = 0;
+        for (int i = 0; i < 10000; i++) {
+            byte[] cover = packet(random, AdvertisingPool.EXTENDED_FRAME_SIZE);
+            if (framer.accept(cover) != null) accepted++;
+        }
+        assertEquals(0, accepted);
+        assertNull(framer.accept(new byte[FecFramer.HEADER_SIZE]));
+        byte[][] frames = FecFramer.encode(packet(random, 600), AdvertisingPool.EXTENDED_FRAME_SIZE, 1);
+        byte[] tampered = frames[1].clone();
+        tampered[5] = 7; // Different k for the same group
+        assertNull(framer.accept(frames[0]));
+        assertNull(framer.accept(tampered));
+    }
+
+    @Test
+    public void testRepairSizing() {
+        assertEquals(0, FecFramer.repairFor(4, 0, 0.01));
+        for (int k = 1; k <= 60; k++) {
+            int previous = 0;
+            for (double loss = 0.05; loss <= 0.3; loss += 0.05) {
+                int m = FecFramer.repairFor(k, loss, 0.01);
+                assertTrue(m >= previous); // More loss, more repair
+                if (m < 2 * k + 2) assertTrue(FecFramer.deliveryProbability(k, k + m, loss) >= 0.99);
+                if (m > 0) assertTrue(FecFramer.deliveryProbability(k, k + m - 1, loss) < 0.99);
+                previous = m;
+            }
+        }
+        assertEquals(1 - Math.pow(0.2, 3), FecFramer.deliveryProbability(1, 3, 0.2), 1e-12);
+    }
+
+    @Test
+    public void testLossEstimatePerNeighbour() {
+        ManualClock clock = new ManualClock();
+        FecFramer framer = new FecFramer(clock);
+        assertEquals(FecFramer.DEFAULT_LOSS, framer.getLoss(7), 0);
+        for (int i = 0; i < 50; i++) {
+            framer.observe(7, 8, 10);
+            framer.observe(9, 10, 10);
+        }
+        assertEquals(2.0 / 9, framer.getLoss(7), 0.001); // The completing frame is not a sample
+        assertEquals(0, framer.getLoss(9), 0.001);
+        assertEquals(2.0 / 9, framer.getLoss(0), 0.001); // Broadcasts plan for the worst neighbour
+        assertTrue(framer.repairFor(4, 7) > framer.repairFor(4, 9));
+        assertEquals(1, framer.repairFor(4, 9)); // Kept measuring on a clean link
+        assertEquals(0, framer.repairFor(1, 9));
+        clock.now += 10 * 60 * 1000;
+        assertEquals(FecFramer.DEFAULT_LOSS, framer.getLoss(7), 0); // Stale
+    }
+
+    // Packets of 100-1100 bytes over a link losing each frame independently. Without repair frames a
+    // packet with any lost frame waits a retransmission round for the missing ones (selective repeat,
+    // 2 s per round); with adaptive FEC the receiver measures the loss from completed groups and the
+    // sender sizes repair frames from it. Rounds past the first count as added latency.
+    @Test
+    public void testLossySimulation() {
+        int[] frameSizes = {AdvertisingPool.EXTENDED_FRAME_SIZE, AdvertisingPool.LEGACY_FRAME_SIZE};
+        for (int frameSize : frameSizes) {
+            for (double loss : new double[]{0.05, 0.1, 0.2, 0.3}) {
+                Random random = new Random(48);
+                long[] plain = simulate(frameSize, loss, false, random);
+                long[] coded = simulate(frameSize, loss, true, new Random(48));
+                assertTrue(coded[1] >= PACKETS * 0.95); // Nearly every packet without a retransmit
+                assertTrue(coded[0] * 4 < plain[0]);
+                assertTrue(coded[2] > coded[3]); // Paid for in repair frames
+            }
+        }
+    }
+
+    @Test
+    public void benchmarkLossySimulation() {
+        Benchmarks.assumeEnabled();
+        for (int frameSize : new int[]{AdvertisingPool.EXTENDED_FRAME_SIZE, AdvertisingPool.LEGACY_FRAME_SIZE}) {
+            for (double loss : new double[]{0.05, 0.1, 0.2, 0.3}) {
+                long[] plain = simulate(frameSize, loss, false, new Random(48));
+                long[] coded = simulate(frameSize, loss, true, new Random(48));
+                System.out.printf("FEC %3d-byte frames, %2.0f%% loss: retransmit %.2f s mean, %d%% first try, %.2fx frames;"
+                                + " adaptive FEC %.2f s mean, %d%% first try, %.2fx frames%n",
+                        frameSize, loss * 100, plain[0] / 1000.0 / PACKETS, plain[1] * 100 / PACKETS, plain[2] / (double) plain[3],
+                        coded[0] / 1000.0 / PACKETS, coded[1] * 100 / PACKETS, coded[2] / (double) coded[3]);
+            }
+        }
+    }
+
+    private static final int PACKETS = 500;
+    private static final long ROUND_TRIP_MS = 2000;
+
+    // Returns {total added latency ms, packets delivered first try, frames sent, data frames}.
+    private static long[] simulate(int frameSize, double loss, boolean fec, Random random) {
+        ManualClock clock = new ManualClock();
+        FecFramer sender = new FecFramer(clock); // Its loss estimates are fed by the receiver's, as on a symmetric link
+        FecFramer receiver = new FecFramer(clock);
+        long neighbour = 0x1234;
+        long latency = 0, firstTry = 0, sent = 0, dataFrames = 0;
+        for (int p = 0; p < PACKETS; p++) {
+            byte[] data = packet(random, 100 + random.nextInt(1000));
+            int k = FecFramer.dataFrames(data.length, frameSize);
+            int repair = fec ? sender.repairFor(k, neighbour) : 0;
+            byte[][] frames = FecFramer.encode(data, frameSize, repair);
+            dataFrames += k;
+            sent += frames.length;
+            FecFramer.Assembled assembled = null;
+            boolean[] delivered = new boolean[frames.length];
+            for (int i = 0; i < frames.length && assembled == null; i++) {
+                if (random.nextDouble() < loss) continue;
+                delivered[i] = true;
+                assembled = receiver.accept(frames[i]);
+            }
+            if (assembled != null) {
+                firstTry++;
+                sender.observe(neighbour, assembled.framesReceived, assembled.framesExpected);
+            }
+            int rounds = 0;
+            while (assembled == null) {
+                rounds++; // Receiver asks for what it is missing
+                for (int i = 0; i < frames.length && assembled == null; i++) {
+                    if (delivered[i]) continue;
+                    sent++;
+                    if (random.nextDouble() < loss) continue;
+                    delivered[i] = true;
+                    assembled = receiver.accept(frames[i]);
+                }
+            }
+            assertArrayEquals(data, assembled.data);
+            latency += rounds * ROUND_TRIP_MS;
+            clock.now += 1000;
+        }
+        return new long[]{latency, firstTry, sent, dataFrames};
+    }
+}
@@ -0,0 +1,198 @@
+package com.reactnativebitchat;
+
+import com.reactnativebitchat.Message.BitchatMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+// Catches a neighbour up on channel history it missed while out of range. When a neighbour is heard
+// again after a silence, the side with the lower ID offers, per joined channel, an Iblt of the message
+// keys it holds for the last day. The other side subtracts its own table and peels off the difference:
+// messages only it holds are sent straight to the neighbour, and the keys only the neighbour holds are
+// asked for in a WANT. A table too small for the difference comes back with an estimate of the
+// difference and is offered again at a size to match, with the time range split into parts once that
+// is past MAX_CELLS, so what goes on air grows with the difference, never with the history.
+//
+// Payloads: kind(1) channel from(8) to(8), then for OFFER cells(2) and the table, for WANT count(2) and
+// the keys, for RETRY the cells that failed(2) and the estimated difference(2).
+public class HistorySync {
+    static final long WINDOW_MS = 24 * 60 * 60 * 1000L;
+    static final long REJOIN_GAP_MS = 60000; // Silence after which a neighbour counts as rediscovered
+    static final long MIN_INTERVAL_MS = 5 * 60 * 1000; // Between syncs started with the same neighbour
+    static final int START_CELLS = 12;
+    static final int MAX_CELLS = 48; // Keeps an offer well inside one unfragmented packet
+    static final long MIN_RANGE_MS = 60000; // Ranges are not split finer than this
+    private static final double CELLS_PER_KEY = 2; // Tables this small peel nine times in ten at this load
+    private static final int NEIGHBOURS = 256;
+    private static final byte OFFER = 0, WANT = 1, RETRY = 2;
+
+    public interface Store {
+        boolean isJoined(String channel);
+
+        long[] keysBetween(String channel, long from, long to) throws IOException;
+
+        List<BitchatMessage> findByKeys(String channel, long from, long to, long[] sortedKeys) throws IOException;
+    }
+
+    public interface Transport {
+        void sendSync(long neighbour, String channel, byte[] payload);
+
+        void sendMessage(long neighbour, BitchatMessage message);
+    }
+
+    private static final class Neighbour {
+        long heardAt;
+        long syncedAt = Long.MIN_VALUE / 2;
+    }
+
+    private final Store store;
+    private final Transport transport;
+    private final Clock clock;
+    private final LongLruCache<Neighbour> neighbours = new LongLruCache<>(NEIGHBOURS);
+
+    public HistorySync(Store store, Transport transport, Clock clock) {
+        this.store = store;
+        this.transport = transport;
+        this.clock = clock;
+    }
+
+    // Called for every packet a neighbour transmits; returns true when a sync with it should start.
+    public synchronized boolean onNeighbourHeard(long neighbour, long localID) {
+        long now = clock.nowMillis();
+        Neighbour state = neighbours.get(neighbour);
+        boolean rediscovered = state == null || now - state.heardAt >= REJOIN_GAP_MS;
+        if (state == null) {
+            state = new Neighbour();
+            neighbours.put(neighbour, state);
+        }
+        state.heardAt = now;
+        if (!rediscovered || localID >= neighbour || now - state.syncedAt < MIN_INTERVAL_MS) return false;
+        state.syncedAt = now;
+        return true;
+    }
+
+    // Offers the recent history of each channel; the neighbour ignores channels it has not joined.
+    public void start(long neighbour, List<String> channels) throws IOException {
+        long now = clock.nowMillis();
+        for (String channel : channels) offer(neighbour, channel, now - WINDOW_MS, now, START_CELLS);
+    }
+
+    public void onPayload(long neighbour, byte[] payload) throws IOException {
+        if (payload == null) return;
+        try {
+            ByteBuffer in = ByteBuffer.wrap(payload);
+            byte kind = in.get();
+            String channel = MessageBatch.readString(in);
+            long from = in.getLong();
+            long to = in.getLong();
+            if (channel == null || from >= to || !store.isJoined(channel)) return;
+            if (kind == OFFER) {
+                int cells = in.getShort() & 0xFFFF;
+                if (!validCells(cells)) return;
+                reconcile(neighbour, channel, from, to, Iblt.read(in, cells));
+            } else if (kind == WANT) {
+                int count = in.getShort() & 0xFFFF;
+                if (count > MAX_CELLS) return;
+                long[] keys = new long[count];
+                for (int i = 0; i < count; i++) keys[i] = in.getLong();
+                send(neighbour, channel, from, to, keys);
+            } else if (kind == RETRY) {
+                int cells = in.getShort() & 0xFFFF;
+                int estimate = in.getShort() & 0xFFFF;
+                if (!validCells(cells)) return;
+                retry(neighbour, channel, from, to, cells, estimate);
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            // Truncated or malformed; the next rediscovery starts over
+        }
+    }
+
+    private void offer(long neighbour, String channel, long from, long to, int cells) throws IOException {
+        Iblt table = build(channel, from, to, cells);
+        ByteArrayOutputStream out = header(OFFER, channel, from, to);
+        out.write(cells >>> 8);
+        out.write(cells);
+        table.write(out);
+        Metrics.increment(Metrics.Counter.SYNC_OFFERS);
+        transport.sendSync(neighbour, channel, out.toByteArray());
+    }
+
+    private void reconcile(long neighbour, String channel, long from, long to, Iblt theirs) throws IOException {
+        Iblt ours = build(channel, from, to, theirs.getCells());
+        ours.subtract(theirs);
+        int estimate = Math.min(0xFFFF, ours.estimateSize());
+        Iblt.Difference difference = ours.decode();
+        if (difference == null) {
+            ByteArrayOutputStream out = header(RETRY, channel, from, to);
+            out.write(theirs.getCells() >>> 8);
+            out.write(theirs.getCells());
+            out.write(estimate >>> 8);
+            out.write(estimate);
+            transport.sendSync(neighbour, channel, out.toByteArray());
+            return;
+        }
+        send(neighbour, channel, from, to, difference.ours);
+        if (difference.theirs.length == 0) return;
+        ByteArrayOutputStream out = header(WANT, channel, from, to);
+        out.write(difference.theirs.length >>> 8);
+        out.write(difference.theirs.length);
+        for (long key : difference.theirs) MessageBatch.writeLong(out, key);
+        transport.sendSync(neighbour, channel, out.toByteArray());
+    }
+
+    // The neighbour could not peel our table: at least double the cells, enough for its estimate, and
+    // split the range when that no longer fits one offer. Parts assume the difference is spread evenly.
+    private void retry(long neighbour, String channel, long from, long to, int cells, int estimate) throws IOException {
+        int target = Math.max(2 * cells, (int) Math.ceil(estimate * CELLS_PER_KEY));
+        if (target <= MAX_CELLS) {
+            offer(neighbour, channel, from, to, roundCells(target));
+            return;
+        }
+        int parts = (int) Math.min((target + MAX_CELLS - 1) / MAX_CELLS, (to - from) / MIN_RANGE_MS);
+        if (parts < 2) {
+            Metrics.increment(Metrics.Counter.SYNC_FAILURES);
+            return;
+        }
+        int partCells = roundCells(Math.min(MAX_CELLS, (target + parts - 1) / parts));
+        for (int i = 0; i < parts; i++) {
+            offer(neighbour, channel, from + (to - from) * i / parts, from + (to - from) * (i + 1) / parts, partCells);
+        }
+    }
+
+    private static int roundCells(int cells) {
+        return Math.min(MAX_CELLS, (cells + Iblt.HASH_COUNT - 1) / Iblt.HASH_COUNT * Iblt.HASH_COUNT);
+    }
+
+    private void send(long neighbour, String channel, long from, long to, long[] keys) throws IOException {
+        if (keys.length == 0) return;
+        long[] sorted = keys.clone();
+        Arrays.sort(sorted);
+        for (BitchatMessage message : store.findByKeys(channel, from, to, sorted)) {
+            Metrics.increment(Metrics.Counter.SYNC_MESSAGES);
+            transport.sendMessage(neighbour, message);
+        }
+    }
+
+    private Iblt build(String channel, long from, long to, int cells) throws IOException {
+        Iblt table = new Iblt(cells);
+        for (long key : store.keysBetween(channel, from, to)) table.insert(key);
+        return table;
+    }
+
+    private static ByteArrayOutputStream header(byte kind, String channel, long from, long to) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(kind);
+        MessageBatch.writeString(out, channel);
+        MessageBatch.writeLong(out, from);
+        MessageBatch.writeLong(out, to);
+        return out;
+    }
+
+    private static boolean validCells(int cells) {
+        return cells >= Iblt.HASH_COUNT && cells <= MAX_CELLS && cells % Iblt.HASH_COUNT == 0;
+    }
+}
@@ -0,0 +1,209 @@
+package com.reactnativebitchat;
+
+import com.reactnativebitchat.Message.BitchatMessage;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class HistorySyncTests {
+    private static final long NOW = 1700000000000L;
+    private static final long ALICE = 1, BOB = 2;
+
+    private static final class ManualClock implements Clock {
+        long now = NOW;
+
+        @Override
+        public long nowMillis() {
+            return now;
+        }
+    }
+
+    // One peer's joined channels and message log, in memory.
+    private static final class Peer implements HistorySync.Store {
+        final Set<String> joined = new HashSet<>();
+        final List<BitchatMessage> log = new ArrayList<>();
+        HistorySync sync;
+
+        @Override
+        public boolean isJoined(String channel) {
+            return joined.contains(channel);
+        }
+
+        @Override
+        public long[] keysBetween(String channel, long from, long to) {
+            long[] keys = new long[log.size()];
+            int n = 0;
+            for (BitchatMessage message : log) {
+                if (matches(message, channel, from, to)) keys[n++] = Trace.messageKey(message.id);
+            }
+            return Arrays.copyOf(keys, n);
+        }
+
+        @Override
+        public List<BitchatMessage> findByKeys(String channel, long from, long to, long[] sortedKeys) {
+            List<BitchatMessage> result = new ArrayList<>();
+            for (BitchatMessage message : log) {
+                if (matches(message, channel, from, to) && Arrays.binarySearch(sortedKeys, Trace.messageKey(message.id)) >= 0) {
+                    result.add(message);
+                }
+            }
+            return result;
+        }
+
+        Set<String> ids() {
+            Set<String> ids = new HashSet<>();
+            for (BitchatMessage message : log) ids.add(message.id);
+            return ids;
+        }
+
+        private static boolean matches(BitchatMessage message, String channel, long from, long to) {
+            return channel.equals(message.channel) && message.timestamp >= from && message.timestamp < to;
+        }
+    }
+
+    // Delivers everything sent between two peers, counting what went on air.
+    private static final class Link {
+        final ArrayDeque<Runnable> pending = new ArrayDeque<>();
+        long syncBytes, messageBytes, messages;
+
+        HistorySync.Transport from(Peer sender, Peer receiver, long senderID) {
+            return new HistorySync.Transport() {
+                @Override
+                public void sendSync(long neighbour, String channel, byte[] payload) {
+                    syncBytes += payload.length;
+                    pending.add(() -> {
+                        try {
+                            receiver.sync.onPayload(senderID, payload);
+                        } catch (Exception e) {
+                            throw new AssertionError(e);
+                        }
+                    });
+                }
+
+                @Override
+                public void sendMessage(long neighbour, BitchatMessage message) {
+                    messageBytes += Protocol.encodeMessage(message).length;
+                    messages++;
+                    pending.add(() -> receiver.log.add(message));
+                }
+            };
+        }
+
+        void run() {
+            while (!pending.isEmpty()) pending.poll().run();
+        }
+    }
+
+    private static BitchatMessage message(Random random, String channel) {
+        BitchatMessage msg = new BitchatMessage();
+        msg.id = new java.util.UUID(random.nextLong(), random.nextLong()).toString();
+        msg.sender = "user";
+        msg.content = "message " + random.nextInt(1000000) + " about the weather and the meetup later";
+        msg.timestamp = NOW - 1 - random.nextInt((int) HistorySync.WINDOW_MS - 1);
+        msg.senderPeerID = "peer1234";
+        msg.channel = channel;
+        return msg;
+    }
+
+    private static Link connect(Peer alice, Peer bob, ManualClock clock) {
+        Link link = new Link();
+        alice.sync = new HistorySync(alice, link.from(alice, bob, ALICE), clock);
+        bob.sync = new HistorySync(bob, link.from(bob, alice, BOB), clock);
+        return link;
+    }
+
+    @Test
+    public void testRediscoveryTriggersOnce() {
+        ManualClock clock = new ManualClock();
+        Peer alice = new Peer(), bob = new Peer();
+        connect(alice, bob, clock);
+        assertTrue(alice.sync.onNeighbourHeard(BOB, ALICE));
+        assertFalse(bob.sync.onNeighbourHeard(ALICE, BOB)); // Only the lower ID offers
+        clock.now += 1000;
+        assertFalse(alice.sync.onNeighbourHeard(BOB, ALICE)); // Still in range
+        clock.now += HistorySync.REJOIN_GAP_MS;
+        assertFalse(alice.sync.onNeighbourHeard(BOB, ALICE)); // Back, but synced a minute ago
+        clock.now += HistorySync.MIN_INTERVAL_MS;
+        assertTrue(alice.sync.onNeighbourHeard(BOB, ALICE));
+    }
+
+    @Test
+    public void testIgnoresChannelsNotJoinedAndGarbage() throws Exception {
+        ManualClock clock = new ManualClock();
+        Peer alice = new Peer(), bob = new Peer();
+        Link link = connect(alice, bob, clock);
+        Random random = new Random(47);
+        alice.joined.add("#secret");
+        for (int i = 0; i < 5; i++) alice.log.add(message(random, "#secret"));
+        alice.sync.start(BOB, Collections.singletonList("#secret"));
+        link.run();
+        assertEquals(0, link.messages);
+        assertTrue(bob.log.isEmpty());
+        bob.sync.onPayload(ALICE, new byte[]{0, 0, 3, '#'});
+        bob.sync.onPayload(ALICE, null);
+    }
+
+    // Two peers sharing 5000 messages of the last day in a channel, each holding some the other missed.
+    // Both end with the union, every missing message crosses exactly once, and the reconciliation bytes
+    // track the difference rather than the shared history.
+    @Test
+    public void testConvergesWithCostOfTheDifference() throws Exception {
+        long[] syncBytes = new long[DIFFERENCES.length];
+        for (int d = 0; d < DIFFERENCES.length; d++) {
+            long[] result = reconcile(d);
+            assertEquals(DIFFERENCES[d], result[3]);
+            syncBytes[d] = result[0];
+            assertTrue(result[0] < 1000 + 60 * DIFFERENCES[d]);
+            assertTrue(result[0] * 10 < result[2]); // Far below re-flooding the history
+        }
+        assertTrue(syncBytes[0] < 250); // One small offer when nothing is missing
+    }
+
+    @Test
+    public void benchmarkSyncBytes() throws Exception {
+        Benchmarks.assumeEnabled();
+        for (int d = 0; d < DIFFERENCES.length; d++) {
+            long[] result = reconcile(d);
+            System.out.printf("History sync, %d of %d messages differ: %d bytes to reconcile, %d bytes of messages;"
+                    + " re-flooding history: %d bytes%n", DIFFERENCES[d], 5000 + DIFFERENCES[d], result[0], result[1], result[2]);
+        }
+    }
+
+    private static final int[] DIFFERENCES = {0, 4, 40, 400};
+
+    // Syncs two peers holding 5000 shared messages plus DIFFERENCES[d] the other lacks, checking they end with
+    // the union. Returns {sync bytes, message bytes, bytes to re-flood the history, messages sent}.
+    private static long[] reconcile(int d) throws Exception {
+        Random random = new Random(48 + d);
+        ManualClock clock = new ManualClock();
+        Peer alice = new Peer(), bob = new Peer();
+        Link link = connect(alice, bob, clock);
+        alice.joined.add("#town");
+        bob.joined.add("#town");
+        for (int i = 0; i < 5000; i++) {
+            BitchatMessage shared = message(random, "#town");
+            alice.log.add(shared);
+            bob.log.add(shared);
+        }
+        for (int i = 0; i < DIFFERENCES[d]; i++) (i % 4 == 0 ? alice : bob).log.add(message(random, "#town"));
+        long history = 0;
+        for (BitchatMessage m : bob.log) history += Protocol.encodeMessage(m).length;
+
+        assertTrue(alice.sync.onNeighbourHeard(BOB, ALICE));
+        alice.sync.start(BOB, Collections.singletonList("#town"));
+        link.run();
+        assertEquals(alice.ids(), bob.ids());
+        assertEquals(5000 + DIFFERENCES[d], alice.log.size());
+        assertEquals(5000 + DIFFERENCES[d], bob.log.size());
+        return new long[]{link.syncBytes, link.messageBytes, history, link.messages};
+    }
+}
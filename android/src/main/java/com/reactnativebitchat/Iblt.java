@@ -0,0 +1,148 @@
+package com.reactnativebitchat;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Invertible Bloom lookup table over 64-bit keys. Each key is added to one cell in each of HASH_COUNT
+// equal sub-tables. Subtracting a peer's table built over the same number of cells cancels the keys
+// both hold, and the keys left over are peeled off one pure cell at a time. Decoding succeeds with high
+// probability while the difference stays below about two thirds of the cell count, whatever the size
+// of the sets themselves.
+public class Iblt {
+    public static final int HASH_COUNT = 3;
+    public static final int CELL_SIZE = 14; // count(2) keySum(8) checkSum(4)
+    private final int cells;
+    private final int[] counts;
+    private final long[] keySums;
+    private final int[] checkSums;
+
+    // Keys only one side of a subtracted table holds.
+    public static final class Difference {
+        public final long[] ours;
+        public final long[] theirs;
+
+        Difference(long[] ours, long[] theirs) {
+            this.ours = ours;
+            this.theirs = theirs;
+        }
+
+        public int size() {
+            return ours.length + theirs.length;
+        }
+    }
+
+    public Iblt(int cells) {
+        if (cells < HASH_COUNT || cells % HASH_COUNT != 0) throw new IllegalArgumentException("Cells must be a multiple of " + HASH_COUNT);
+        this.cells = cells;
+        counts = new int[cells];
+        keySums = new long[cells];
+        checkSums = new int[cells];
+    }
+
+    public int getCells() {
+        return cells;
+    }
+
+    public void insert(long key) {
+        update(key, 1);
+    }
+
+    public void delete(long key) {
+        update(key, -1);
+    }
+
+    // Removes other's keys from this table; both must have the same number of cells.
+    public void subtract(Iblt other) {
+        if (other.cells != cells) throw new IllegalArgumentException("Tables differ in size");
+        for (int i = 0; i < cells; i++) {
+            counts[i] = (short) (counts[i] - other.counts[i]); // Counts travel as 16 bits
+            keySums[i] ^= other.keySums[i];
+            checkSums[i] ^= other.checkSums[i];
+        }
+    }
+
+    // Lists the keys left in a subtracted table, or returns null if they could not all be peeled. The
+    // table is emptied in the process.
+    public Difference decode() {
+        long[] ours = new long[8], theirs = new long[8];
+        int ourCount = 0, theirCount = 0;
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (int i = 0; i < cells; i++) {
+                int count = counts[i];
+                if (count != 1 && count != -1 || checkSums[i] != check(keySums[i])) continue;
+                long key = keySums[i];
+                if (count == 1) {
+                    if (ourCount == ours.length) ours = Arrays.copyOf(ours, ourCount * 2);
+                    ours[ourCount++] = key;
+                } else {
+                    if (theirCount == theirs.length) theirs = Arrays.copyOf(theirs, theirCount * 2);
+                    theirs[theirCount++] = key;
+                }
+                update(key, -count);
+                progress = true;
+            }
+        }
+        for (int i = 0; i < cells; i++) {
+            if (counts[i] != 0 || keySums[i] != 0 || checkSums[i] != 0) return null;
+        }
+        return new Difference(Arrays.copyOf(ours, ourCount), Arrays.copyOf(theirs, theirCount));
+    }
+
+    // Rough number of keys in a table, from how many cells of each sub-table are occupied; for sizing the
+    // next attempt after decode fails. A table with every cell occupied only says the keys are many.
+    public int estimateSize() {
+        int width = cells / HASH_COUNT, occupied = 0;
+        for (int i = 0; i < cells; i++) if (counts[i] != 0 || keySums[i] != 0) occupied++;
+        double perTable = (double) occupied / HASH_COUNT;
+        if (perTable >= width - 0.5) return 2 * cells;
+        return (int) Math.ceil(Math.log(1 - perTable / width) / Math.log(1 - 1.0 / width));
+    }
+
+    public void write(ByteArrayOutputStream out) {
+        for (int i = 0; i < cells; i++) {
+            out.write(counts[i] >>> 8);
+            out.write(counts[i]);
+            MessageBatch.writeLong(out, keySums[i]);
+            MessageBatch.writeInt(out, checkSums[i]);
+        }
+    }
+
+    public static Iblt read(ByteBuffer in, int cells) {
+        Iblt table = new Iblt(cells);
+        for (int i = 0; i < cells; i++) {
+            table.counts[i] = in.getShort();
+            table.keySums[i] = in.getLong();
+            table.checkSums[i] = in.getInt();
+        }
+        return table;
+    }
+
+    private void update(long key, int delta) {
+        int width = cells / HASH_COUNT;
+        int check = check(key);
+        long hash = mix(key);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int cell = i * width + (int) (((hash >>> (21 * i)) & 0x1FFFFF) % width);
+            counts[cell] = (short) (counts[cell] + delta);
+            keySums[cell] ^= key;
+            checkSums[cell] ^= check;
+        }
+    }
+
+    // Independent of the cell hash, so a cell holding several keys is not mistaken for a pure one.
+    private static int check(long key) {
+        return (int) (mix(key ^ 0x5DEECE66DL) >>> 32);
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb3e98a2b7c53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -0,0 +1,63 @@
+package com.reactnativebitchat;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class IbltTests {
+    @Test
+    public void testDifferenceOfLargeSets() {
+        Random random = new Random(45);
+        Iblt ours = new Iblt(48), theirs = new Iblt(48);
+        for (int i = 0; i < 10000; i++) {
+            long key = random.nextLong();
+            ours.insert(key);
+            theirs.insert(key);
+        }
+        long[] onlyOurs = {random.nextLong(), random.nextLong(), random.nextLong()};
+        long[] onlyTheirs = new long[20];
+        for (long key : onlyOurs) ours.insert(key);
+        for (int i = 0; i < onlyTheirs.length; i++) theirs.insert(onlyTheirs[i] = random.nextLong());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        theirs.write(out);
+        assertEquals(48 * Iblt.CELL_SIZE, out.size());
+        ours.subtract(Iblt.read(ByteBuffer.wrap(out.toByteArray()), 48));
+        Iblt.Difference difference = ours.decode();
+        assertNotNull(difference);
+        assertSortedEquals(onlyOurs, difference.ours);
+        assertSortedEquals(onlyTheirs, difference.theirs);
+    }
+
+    @Test
+    public void testOverloadedTableFailsToDecode() {
+        Random random = new Random(46);
+        Iblt table = new Iblt(12);
+        for (int i = 0; i < 40; i++) table.insert(random.nextLong());
+        assertNull(table.decode());
+
+        int decoded = 0;
+        for (int trial = 0; trial < 1000; trial++) {
+            Iblt small = new Iblt(12);
+            for (int i = 0; i < 3; i++) small.insert(random.nextLong());
+            if (small.decode() != null) decoded++;
+        }
+        assertTrue(decoded > 900); // Three keys in twelve cells nearly always peel
+        try {
+            new Iblt(10);
+            fail("Cells not a multiple of the hash count");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static void assertSortedEquals(long[] expected, long[] actual) {
+        long[] a = expected.clone(), b = actual.clone();
+        Arrays.sort(a);
+        Arrays.sort(b);
+        assertArrayEquals(a, b);
+    }
+}
@@ -0,0 +1,153 @@
+package com.reactnativebitchat;
+
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+// Keys in memory and at rest. Values are sealed with AES-GCM under a random data key, and only the data
+// key goes through the Android Keystore, wrapped by a non-exportable master key. Restoring any number of
+// channel keys therefore costs a single keystore operation, which matters on hardware-backed keystores.
+public class Keychain {
+    public interface Wrapper {
+        byte[] wrap(byte[] key) throws GeneralSecurityException;
+
+        byte[] unwrap(byte[] wrapped) throws GeneralSecurityException;
+    }
+
+    private static final String MASTER_KEY_ALIAS = "bitchat_master";
+    private static final int DATA_KEY_SIZE = 32;
+    private static final int IV_SIZE = 12;
+    private static final int TAG_BITS = 128;
+    private static final SecureRandom random = new SecureRandom();
+
+    private final Wrapper wrapper;
+    private final ConcurrentHashMap<String, byte[]> keys = new ConcurrentHashMap<>();
+    private SecretKey dataKey;
+    private byte[] wrappedDataKey;
+
+    public Keychain() {
+        this(new AndroidKeyStoreWrapper(MASTER_KEY_ALIAS));
+    }
+
+    public Keychain(Wrapper wrapper) {
+        this.wrapper = wrapper;
+    }
+
+    public void storeKey(byte[] key, String alias) {
+        keys.put(alias, key);
+    }
+
+    public byte[] retrieveKey(String alias) {
+        return keys.get(alias);
+    }
+
+    public void removeKey(String alias) {
+        keys.remove(alias);
+    }
+
+    // The data key as wrapped by the master key, generating both on first use. Persist it next to
+    // anything sealed so loadDataKey can open it after a restart.
+    public synchronized byte[] getWrappedDataKey() throws GeneralSecurityException {
+        if (dataKey == null) {
+            byte[] raw = new byte[DATA_KEY_SIZE];
+            random.nextBytes(raw);
+            wrappedDataKey = wrapper.wrap(raw);
+            dataKey = new SecretKeySpec(raw, "AES");
+        }
+        return wrappedDataKey;
+    }
+
+    public synchronized void loadDataKey(byte[] wrapped) throws GeneralSecurityException {
+        dataKey = new SecretKeySpec(wrapper.unwrap(wrapped), "AES");
+        wrappedDataKey = wrapped;
+    }
+
+    public synchronized boolean hasDataKey() {
+        return dataKey != null;
+    }
+
+    // iv(12) + ciphertext + tag(16). The context is authenticated but not stored, so a sealed value only
+    // opens under the name it was sealed for.
+    public byte[] seal(byte[] plaintext, String context) throws GeneralSecurityException {
+        byte[] iv = new byte[IV_SIZE];
+        random.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, requireDataKey(), new GCMParameterSpec(TAG_BITS, iv));
+        cipher.updateAAD(context.getBytes(StandardCharsets.UTF_8));
+        byte[] sealed = Arrays.copyOf(iv, IV_SIZE + cipher.getOutputSize(plaintext.length));
+        cipher.doFinal(plaintext, 0, plaintext.length, sealed, IV_SIZE);
+        return sealed;
+    }
+
+    public byte[] open(byte[] sealed, String context) throws GeneralSecurityException {
+        if (sealed.length < IV_SIZE + TAG_BITS / 8) throw new GeneralSecurityException("Sealed value too short");
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, requireDataKey(), new GCMParameterSpec(TAG_BITS, sealed, 0, IV_SIZE));
+        cipher.updateAAD(context.getBytes(StandardCharsets.UTF_8));
+        return cipher.doFinal(sealed, IV_SIZE, sealed.length - IV_SIZE);
+    }
+
+    private synchronized SecretKey requireDataKey() throws GeneralSecurityException {
+        if (dataKey == null) getWrappedDataKey();
+        return dataKey;
+    }
+
+    // AES-256-GCM master key held by the Android Keystore; the key material never enters the process.
+    static final class AndroidKeyStoreWrapper implements Wrapper {
+        private final String alias;
+
+        AndroidKeyStoreWrapper(String alias) {
+            this.alias = alias;
+        }
+
+        @Override
+        public byte[] wrap(byte[] key) throws GeneralSecurityException {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, masterKey()); // The keystore insists on choosing the IV
+            byte[] iv = cipher.getIV();
+            byte[] ciphertext = cipher.doFinal(key);
+            byte[] wrapped = Arrays.copyOf(iv, iv.length + ciphertext.length);
+            System.arraycopy(ciphertext, 0, wrapped, iv.length, ciphertext.length);
+            return wrapped;
+        }
+
+        @Override
+        public byte[] unwrap(byte[] wrapped) throws GeneralSecurityException {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, masterKey(), new GCMParameterSpec(TAG_BITS, wrapped, 0, IV_SIZE));
+            return cipher.doFinal(wrapped, IV_SIZE, wrapped.length - IV_SIZE);
+        }
+
+        private SecretKey masterKey() throws GeneralSecurityException {
+            KeyStore store = KeyStore.getInstance("AndroidKeyStore");
+            try {
+                store.load(null);
+            } catch (IOException e) {
+                throw new GeneralSecurityException("Keystore unavailable", e);
+            }
+            Key key = store.getKey(alias, null);
+            if (key instanceof SecretKey) return (SecretKey) key;
+            KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, "AndroidKeyStore");
+            generator.init(new KeyGenParameterSpec.Builder(alias, KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                    .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                    .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                    .setKeySize(256)
+                    .build());
+            return generator.generateKey();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.reactnativebitchat;
+
+import java.util.Arrays;
+
+// Bounded LRU map from primitive long keys (peer IDs) to values. Keys live in an open-addressing
+// table and recency in index-linked arrays, so lookups neither box keys nor allocate entries.
+// Not thread-safe; callers synchronize.
+public class LongLruCache<V> {
+    public interface Visitor<V> {
+        // Return false to remove the entry.
+        boolean visit(long key, V value);
+    }
+
+    private static final int NONE = -1;
+    private final int capacity;
+    private final long[] keys;
+    private final Object[] values;
+    private final int[] prev, next; // Recency list over entry slots, head is most recent
+    private final int[] table; // Hash slot -> entry slot + 1, 0 when empty
+    private final int mask;
+    private int head = NONE, tail = NONE, size, free = NONE, unused;
+
+    public LongLruCache(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive");
+        this.capacity = capacity;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        prev = new int[capacity];
+        next = new int[capacity];
+        int tableSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        table = new int[tableSize];
+        mask = tableSize - 1;
+    }
+
+    public V get(long key) {
+        int slot = find(key);
+        if (slot == NONE) return null;
+        moveToHead(slot);
+        return value(slot);
+    }
+
+    public V peek(long key) {
+        int slot = find(key);
+        return slot == NONE ? null : value(slot);
+    }
+
+    public boolean containsKey(long key) {
+        return find(key) != NONE;
+    }
+
+    // Inserts or replaces the value for key, evicting the least recently used entry when full.
+    public void put(long key, V value) {
+        int slot = find(key);
+        if (slot != NONE) {
+            values[slot] = value;
+            moveToHead(slot);
+            return;
+        }
+        if (size == capacity) remove(keys[tail]);
+        if (free != NONE) {
+            slot = free;
+            free = next[slot];
+        } else {
+            slot = unused++;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        prev[slot] = NONE;
+        next[slot] = head;
+        if (head != NONE) prev[head] = slot;
+        head = slot;
+        if (tail == NONE) tail = slot;
+        int index = hash(key);
+        while (table[index] != 0) index = (index + 1) & mask;
+        table[index] = slot + 1;
+        size++;
+    }
+
+    public V remove(long key) {
+        int index = hash(key);
+        while (table[index] != 0) {
+            int slot = table[index] - 1;
+            if (keys[slot] == key) {
+                V value = value(slot);
+                deleteIndex(index);
+                unlink(slot);
+                values[slot] = null;
+                next[slot] = free;
+                free = slot;
+                size--;
+                return value;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    // Visits entries from least to most recently used without changing their order.
+    public void forEach(Visitor<V> visitor) {
+        int slot = tail;
+        while (slot != NONE) {
+            int previous = prev[slot];
+            if (!visitor.visit(keys[slot], value(slot))) remove(keys[slot]);
+            slot = previous;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(table, 0);
+        Arrays.fill(values, null);
+        head = tail = free = NONE;
+        size = unused = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(int slot) {
+        return (V) values[slot];
+    }
+
+    private int find(long key) {
+        int index = hash(key);
+        while (table[index] != 0) {
+            int slot = table[index] - 1;
+            if (keys[slot] == key) return slot;
+            index = (index + 1) & mask;
+        }
+        return NONE;
+    }
+
+    // Backward-shift deletion keeps probe sequences intact without tombstones.
+    private void deleteIndex(int index) {
+        int hole = index;
+        int scan = (index + 1) & mask;
+        while (table[scan] != 0) {
+            int home = hash(keys[table[scan] - 1]);
+            if (((scan - home) & mask) >= ((scan - hole) & mask)) {
+                table[hole] = table[scan];
+                hole = scan;
+            }
+            scan = (scan + 1) & mask;
+        }
+        table[hole] = 0;
+    }
+
+    private void moveToHead(int slot) {
+        if (slot == head) return;
+        unlink(slot);
+        prev[slot] = NONE;
+        next[slot] = head;
+        if (head != NONE) prev[head] = slot;
+        head = slot;
+        if (tail == NONE) tail = slot;
+    }
+
+    private void unlink(int slot) {
+        int before = prev[slot], after = next[slot];
+        if (before != NONE) next[before] = after; else head = after;
+        if (after != NONE) prev[after] = before; else tail = before;
+    }
+
+    private int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -2,7 +2,6 @@ package com.reactnativebitchat;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Random;
 
 public class Message {
     public static class BitchatPacket {
@@ -14,6 +13,12 @@ public class Message {
         public byte[] payload;
         public byte[] signature; // Optional 64-byte
         public int ttl;
+        public int channelTag; // 0 when the packet is not channel traffic, see ChannelTag
+        public long lastHop; // Transmitting peer, 0 when unset; see Router
+        public long nextHop; // Peer expected to forward a directed packet, 0 to flood
+        public boolean traced; // Sampled for hop-by-hop tracing, see Trace
+        public long readKey; // Message the sender has read up to, as Trace.messageKey; see ReadWatermarks
+        public long readUpTo; // Its timestamp, 0 when the packet carries no read watermark
     }
 
     public static class BitchatMessage {
@@ -35,30 +40,17 @@ public class Message {
 
     public static byte[] pad(byte[] data, int targetSize) {
         if (data == null) return null;
-        int paddingSize = targetSize - (data.length % targetSize);
-        if (paddingSize > 255) paddingSize = 255; // Limit to 255 bytes
-        byte[] padding = new byte[paddingSize];
-        new Random().nextBytes(padding); // Random PKCS#7 padding
-        padding[padding.length - 1] = (byte) paddingSize; // Store padding size
-        byte[] padded = new byte[data.length + padding.length];
-        System.arraycopy(data, 0, padded, 0, data.length);
-        System.arraycopy(padding, 0, padded, data.length, padding.length);
-        return padded;
+        return Padding.pad(data, Padding.paddedLength(data.length, targetSize));
     }
 
     public static byte[] unpad(byte[] data) {
         if (data == null || data.length == 0) return data;
-        int paddingSize = data[data.length - 1] & 0xFF;
-        if (paddingSize > 255 || paddingSize > data.length) return data; // Invalid padding
-        return Arrays.copyOf(data, data.length - paddingSize);
+        int length = Padding.unpaddedLength(data, 0, data.length);
+        if (length < 0) return data; // Invalid padding
+        return Arrays.copyOf(data, length);
     }
 
     public static int optimalBlockSize(int dataSize) {
-        int[] blockSizes = {256, 512, 1024, 2048};
-        for (int size : blockSizes) {
-            int padding = size - (dataSize % size);
-            if (padding <= 255) return size;
-        }
-        return dataSize; // Return original if no suitable block size
+        return Padding.blockSizeFor(dataSize);
     }
 }
\ No newline at end of file
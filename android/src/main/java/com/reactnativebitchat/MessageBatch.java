@@ -0,0 +1,168 @@
+package com.reactnativebitchat;
+
+import com.reactnativebitchat.Message.BitchatMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Compact binary form used to move many messages across the bridge in one call and to store history.
+// batch := count(u32) entry*
+// entry := sequence(f64) flags(u8) timestamp(f64) id sender content originalSender recipientNickname
+//          senderPeerID channel deliveryStatus encryptedContent mentionCount(u16) mention*
+// Strings and byte fields are a u16 length (0xFFFF for null) followed by UTF-8 or raw bytes.
+public class MessageBatch {
+    private static final int NULL_LENGTH = 0xFFFF;
+    private static final int FLAG_RELAY = 0x01;
+    private static final int FLAG_PRIVATE = 0x02;
+    private static final int FLAG_ENCRYPTED = 0x04;
+    // Sealed for a peer (session id, IV and tag add 32 bytes) this still pads to one 2048-byte block, so the
+    // largest message is a packet that even legacy advertising frames can carry, see FecFramer.
+    static final int MAX_CONTENT_BYTES = 2000;
+    static final int MAX_NAME_BYTES = 256; // IDs, nicknames, peer IDs and channel names
+
+    public static class Entry {
+        public final long sequence;
+        public final BitchatMessage message;
+
+        public Entry(long sequence, BitchatMessage message) {
+            this.sequence = sequence;
+            this.message = message;
+        }
+    }
+
+    public static byte[] encode(List<Entry> entries) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * entries.size() + 4);
+        writeInt(out, entries.size());
+        for (Entry entry : entries) writeEntry(out, entry.sequence, entry.message);
+        return out.toByteArray();
+    }
+
+    public static byte[] encodeMessage(BitchatMessage message) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        writeEntry(out, 0, message);
+        return out.toByteArray();
+    }
+
+    public static List<Entry> decode(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int count = buffer.getInt();
+        if (count < 0 || count > data.length) throw new IllegalArgumentException("Invalid batch size " + count);
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) entries.add(readEntry(buffer));
+        return entries;
+    }
+
+    public static BitchatMessage decodeMessage(byte[] data, int offset, int length) {
+        return readEntry(ByteBuffer.wrap(data, offset, length)).message;
+    }
+
+    // Rejects a message from JS whose fields could not be sent or logged, before it is queued anywhere.
+    public static void validate(BitchatMessage msg) {
+        checkLength("content", msg.content, MAX_CONTENT_BYTES);
+        checkLength("id", msg.id, MAX_NAME_BYTES);
+        checkLength("sender", msg.sender, MAX_NAME_BYTES);
+        checkLength("originalSender", msg.originalSender, MAX_NAME_BYTES);
+        checkLength("recipientNickname", msg.recipientNickname, MAX_NAME_BYTES);
+        checkLength("senderPeerID", msg.senderPeerID, MAX_NAME_BYTES);
+        checkLength("channel", msg.channel, MAX_NAME_BYTES);
+        if (msg.encryptedContent != null && msg.encryptedContent.length > MAX_CONTENT_BYTES) {
+            throw new IllegalArgumentException("encryptedContent longer than " + MAX_CONTENT_BYTES + " bytes");
+        }
+    }
+
+    private static void checkLength(String field, String value, int max) {
+        // UTF-8 takes at most 3 bytes per char, so only long strings need encoding to check
+        if (value == null || value.length() * 3 <= max) return;
+        if (value.getBytes(StandardCharsets.UTF_8).length > max) {
+            throw new IllegalArgumentException(field + " longer than " + max + " bytes");
+        }
+    }
+
+    private static void writeEntry(ByteArrayOutputStream out, long sequence, BitchatMessage msg) {
+        writeLong(out, Double.doubleToLongBits(sequence));
+        out.write((msg.isRelay ? FLAG_RELAY : 0) | (msg.isPrivate ? FLAG_PRIVATE : 0) | (msg.isEncrypted ? FLAG_ENCRYPTED : 0));
+        writeLong(out, Double.doubleToLongBits(msg.timestamp));
+        writeString(out, msg.id);
+        writeString(out, msg.sender);
+        writeString(out, msg.content);
+        writeString(out, msg.originalSender);
+        writeString(out, msg.recipientNickname);
+        writeString(out, msg.senderPeerID);
+        writeString(out, msg.channel);
+        writeString(out, msg.deliveryStatus);
+        writeBytes(out, msg.encryptedContent);
+        int mentionCount = msg.mentions != null ? msg.mentions.size() : 0;
+        out.write(mentionCount >>> 8);
+        out.write(mentionCount);
+        for (int i = 0; i < mentionCount; i++) writeString(out, msg.mentions.get(i));
+    }
+
+    private static Entry readEntry(ByteBuffer buffer) {
+        long sequence = (long) buffer.getDouble();
+        BitchatMessage msg = new BitchatMessage();
+        int flags = buffer.get() & 0xFF;
+        msg.isRelay = (flags & FLAG_RELAY) != 0;
+        msg.isPrivate = (flags & FLAG_PRIVATE) != 0;
+        msg.isEncrypted = (flags & FLAG_ENCRYPTED) != 0;
+        msg.timestamp = buffer.getDouble();
+        msg.id = readString(buffer);
+        msg.sender = readString(buffer);
+        msg.content = readString(buffer);
+        msg.originalSender = readString(buffer);
+        msg.recipientNickname = readString(buffer);
+        msg.senderPeerID = readString(buffer);
+        msg.channel = readString(buffer);
+        msg.deliveryStatus = readString(buffer);
+        msg.encryptedContent = readBytes(buffer);
+        int mentionCount = buffer.getShort() & 0xFFFF;
+        for (int i = 0; i < mentionCount; i++) msg.mentions.add(readString(buffer));
+        return new Entry(sequence, msg);
+    }
+
+    static void writeString(ByteArrayOutputStream out, String value) {
+        writeBytes(out, value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    static void writeBytes(ByteArrayOutputStream out, byte[] value) {
+        if (value == null) {
+            out.write(NULL_LENGTH >>> 8);
+            out.write(NULL_LENGTH & 0xFF);
+            return;
+        }
+        if (value.length >= NULL_LENGTH) throw new IllegalArgumentException("Field too long: " + value.length + " bytes");
+        out.write(value.length >>> 8);
+        out.write(value.length);
+        out.write(value, 0, value.length);
+    }
+
+    static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        if (length == NULL_LENGTH) return null;
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    static byte[] readBytes(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        if (length == NULL_LENGTH) return null;
+        byte[] value = new byte[length];
+        buffer.get(value);
+        return value;
+    }
+
+    static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    static void writeLong(ByteArrayOutputStream out, long value) {
+        writeInt(out, (int) (value >>> 32));
+        writeInt(out, (int) value);
+    }
+}
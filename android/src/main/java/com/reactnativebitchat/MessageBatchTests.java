@@ -0,0 +1,197 @@
+package com.reactnativebitchat;
+
+import com.reactnativebitchat.Message.BitchatMessage;
+import com.reactnativebitchat.Message.BitchatPacket;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MessageBatchTests {
+    @Test
+    public void testBatchRoundTrip() {
+        List<MessageBatch.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 100; i++) entries.add(new MessageBatch.Entry(i + 1, message("msg" + i, i % 2 == 0 ? "#room" : null)));
+        entries.get(3).message.mentions.add("alice");
+        entries.get(3).message.content = "héllo 👋";
+        List<MessageBatch.Entry> decoded = MessageBatch.decode(MessageBatch.encode(entries));
+        assertEquals(100, decoded.size());
+        assertEquals(4, decoded.get(3).sequence);
+        assertEquals("héllo 👋", decoded.get(3).message.content);
+        assertEquals("alice", decoded.get(3).message.mentions.get(0));
+        assertEquals("#room", decoded.get(0).message.channel);
+        assertNull(decoded.get(1).message.channel);
+        assertTrue(decoded.get(5).message.isPrivate);
+    }
+
+    @Test
+    public void testHistoryLogReadAndReopen() throws Exception {
+        File path = File.createTempFile("bitchat", ".log");
+        path.deleteOnExit();
+        try (MessageLog log = new MessageLog(path)) {
+            for (int i = 0; i < 50; i++) log.append(message("msg" + i, i % 5 == 0 ? "#room" : "#other"));
+            assertEquals(50, log.getLastSequence());
+        }
+        try (MessageLog log = new MessageLog(path)) {
+            assertEquals(50, log.getLastSequence());
+            List<MessageBatch.Entry> room = log.read("#room", 0, 100);
+            assertEquals(10, room.size());
+            assertEquals(6, room.get(1).sequence);
+            List<MessageBatch.Entry> page = log.read(null, 45, 3);
+            assertEquals(3, page.size());
+            assertEquals("msg45", page.get(0).message.id);
+            long[] keys = log.keysBetween("#room", 0, 1700000000001L);
+            assertEquals(10, keys.length);
+            assertEquals(0, log.keysBetween("#room", 1700000000001L, Long.MAX_VALUE).length);
+            long[] wanted = {Trace.messageKey("msg5"), Trace.messageKey("msg6")};
+            Arrays.sort(wanted);
+            List<BitchatMessage> found = log.findByKeys("#room", 0, 1700000000001L, wanted);
+            assertEquals(1, found.size()); // msg6 is in #other
+            assertEquals("msg5", found.get(0).id);
+
+            log.append(message("msg5", "#room")); // Logged again, e.g. heard back through a relay
+            assertEquals(10, log.keysBetween("#room", 0, 1700000000001L).length);
+            assertEquals(1, log.findByKeys("#room", 0, 1700000000001L, wanted).size());
+        }
+    }
+
+    @Test
+    public void testPrivateMessagesSealedAtRest() throws Exception {
+        File path = File.createTempFile("bitchat", ".log");
+        path.deleteOnExit();
+        BitchatMessage secret = message("msg5", null);
+        secret.content = "meet at the north gate";
+        try (MessageLog log = new MessageLog(path, new Keychain(StateStoreTests.softwareWrapper(1)), 1000)) {
+            log.append(message("msg1", "#room"));
+            log.append(secret);
+        }
+        String raw = new String(java.nio.file.Files.readAllBytes(path.toPath()), "ISO-8859-1");
+        assertTrue(raw.contains("content of msg1"));
+        assertFalse(raw.contains("north gate"));
+
+        try (MessageLog log = new MessageLog(path, new Keychain(StateStoreTests.softwareWrapper(1)), 1000)) {
+            assertEquals("meet at the north gate", log.get(2).content);
+        }
+        try (MessageLog log = new MessageLog(path, new Keychain(StateStoreTests.softwareWrapper(2)), 1000)) {
+            assertNull(log.get(2)); // Keystore reset: the old key no longer unwraps
+            assertEquals(1, log.read(null, 0, 10).size());
+            log.append(secret);
+            assertEquals("meet at the north gate", log.get(3).content);
+        }
+    }
+
+    @Test
+    public void testCompactionKeepsSequences() throws Exception {
+        File path = File.createTempFile("bitchat", ".log");
+        path.deleteOnExit();
+        try (MessageLog log = new MessageLog(path, null, 100)) {
+            for (int i = 1; i <= 130; i++) assertEquals(i, log.append(message("msg" + i, "#room")));
+            assertEquals(27, log.getFirstSequence()); // Compacted at 126 down to the newest 100
+            assertEquals(130, log.getLastSequence());
+            assertNull(log.get(26));
+            assertEquals("msg27", log.get(27).id);
+            assertEquals(104, log.keysBetween("#room", 0, Long.MAX_VALUE).length);
+            assertEquals(41, log.read(null, 40, 1).get(0).sequence);
+        }
+        try (MessageLog log = new MessageLog(path, null, 100)) {
+            assertEquals(27, log.getFirstSequence());
+            assertEquals("msg130", log.get(130).id);
+        }
+        assertTrue(path.length() < 100 * 200);
+    }
+
+    @Test
+    public void testLegacyLogMigrated() throws Exception {
+        File path = File.createTempFile("bitchat", ".log");
+        path.deleteOnExit();
+        try (java.io.DataOutputStream out = new java.io.DataOutputStream(new java.io.FileOutputStream(path))) {
+            for (int i = 0; i < 20; i++) {
+                byte[] record = MessageBatch.encodeMessage(message("msg" + i, "#room"));
+                out.writeInt(record.length);
+                out.write(record);
+            }
+        }
+        try (MessageLog log = new MessageLog(path, new Keychain(StateStoreTests.softwareWrapper(1)), 1000)) {
+            assertEquals(20, log.getLastSequence());
+            assertEquals("msg0", log.get(1).id);
+            assertEquals("content of msg15", log.get(16).content); // Private, now sealed
+        }
+        assertFalse(new String(java.nio.file.Files.readAllBytes(path.toPath()), "ISO-8859-1").contains("content of msg15"));
+        assertFalse(new File(path.getPath() + ".v1").exists());
+    }
+
+    @Test
+    public void testValidateRejectsOversizedFields() {
+        BitchatMessage msg = message("msg1", "#room");
+        MessageBatch.validate(msg);
+        char[] big = new char[MessageBatch.MAX_CONTENT_BYTES / 2 + 1];
+        Arrays.fill(big, 'é'); // Two bytes each in UTF-8
+        msg.content = new String(big);
+        try {
+            MessageBatch.validate(msg);
+            fail("Content over the limit was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+        msg.content = "ok";
+        msg.channel = new String(new char[MessageBatch.MAX_NAME_BYTES + 1]).replace('\0', 'c');
+        try {
+            MessageBatch.validate(msg);
+            fail("Channel over the limit was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    // The longest content validate accepts, sealed for a peer, with every name at its limit and every header
+    // extension present, still frames on a legacy radio and decodes back.
+    @Test
+    public void testLargestMessageFitsOnePacket() throws Exception {
+        BitchatMessage msg = message(name('i'), name('c'));
+        msg.content = new String(new char[MessageBatch.MAX_CONTENT_BYTES]).replace('\0', 'x');
+        msg.sender = name('s');
+        msg.senderPeerID = name('p');
+        msg.recipientNickname = name('r');
+        MessageBatch.validate(msg);
+        byte[] box = Encryption.seal(new byte[32], msg.content.getBytes(StandardCharsets.UTF_8), null);
+        msg.encryptedContent = ByteBuffer.allocate(4 + box.length).putInt(1).put(box).array(); // As PrivateSessions seals it
+        msg.isEncrypted = true;
+
+        BitchatPacket packet = new BitchatPacket();
+        packet.senderID = new byte[8];
+        packet.recipientID = new byte[8];
+        packet.channelTag = 1;
+        packet.lastHop = 2;
+        packet.nextHop = 3;
+        packet.readKey = 4;
+        packet.readUpTo = 5;
+        packet.signature = new byte[64];
+        packet.payload = Protocol.encodeMessage(msg);
+        byte[] encoded = Protocol.encodePacket(packet);
+        FecFramer.encode(encoded, AdvertisingPool.LEGACY_FRAME_SIZE, 0); // Throws past 255 frames
+        BitchatMessage decoded = Protocol.decodeMessage(Protocol.decodePacket(encoded).payload);
+        assertArrayEquals(msg.encryptedContent, decoded.encryptedContent);
+        assertEquals(msg.channel, decoded.channel);
+    }
+
+    private static String name(char c) {
+        return new String(new char[MessageBatch.MAX_NAME_BYTES]).replace('\0', c);
+    }
+
+    private static BitchatMessage message(String id, String channel) {
+        BitchatMessage msg = new BitchatMessage();
+        msg.id = id;
+        msg.sender = "user";
+        msg.content = "content of " + id;
+        msg.timestamp = 1700000000000.0;
+        msg.isPrivate = id.endsWith("5");
+        msg.senderPeerID = "peer1234";
+        msg.channel = channel;
+        msg.deliveryStatus = "PENDING";
+        return msg;
+    }
+}
@@ -0,0 +1,267 @@
+package com.reactnativebitchat;
+
+import com.reactnativebitchat.Message.BitchatMessage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// Inverted index over the MessageLog for mention and keyword search. Terms are the lowercased words of
+// a message, "@name" for each mention and the channel name; each maps to the log sequence numbers that
+// hold it as an ascending int array, appended to as messages are logged. A query intersects its terms'
+// lists from the newest end, stepping through the shortest and binary searching the others, so it costs
+// about the rarest term and the results asked for, not the size of the history. Saved next to the log
+// as a snapshot with delta-coded postings; messages logged after the last save are indexed again from
+// the log when it is opened. Private messages are not indexed, as the log keeps them sealed.
+public class MessageIndex {
+    private static final int MAGIC = 0x42495831; // "BIX1"
+    static final int MAX_TERM_LENGTH = 32; // Longer runs are mostly encoded data, not words
+
+    private static final class Postings {
+        int[] sequences = new int[2];
+        int size;
+
+        void add(int sequence) {
+            if (size > 0 && sequences[size - 1] == sequence) return; // Term repeated within one message
+            if (size == sequences.length) sequences = Arrays.copyOf(sequences, size * 2);
+            sequences[size++] = sequence;
+        }
+    }
+
+    private final File path;
+    private final HashMap<String, Postings> terms = new HashMap<>();
+    private int lastSequence;
+    private int unsaved;
+
+    public MessageIndex(File path) throws IOException {
+        File parent = path.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) throw new IOException("Cannot create " + parent);
+        this.path = path;
+        load();
+    }
+
+    // Highest sequence indexed; the log is replayed from here on open.
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    // Messages indexed since the last save.
+    public synchronized int getUnsaved() {
+        return unsaved;
+    }
+
+    public synchronized int getTermCount() {
+        return terms.size();
+    }
+
+    // Indexes the message logged at sequence; sequences at or below the last one indexed are ignored.
+    public synchronized void add(long sequence, BitchatMessage message) {
+        if (sequence <= lastSequence || sequence > Integer.MAX_VALUE) return;
+        int seq = (int) sequence;
+        lastSequence = seq;
+        if (message.isPrivate) return;
+        if (message.channel != null) posting(message.channel.toLowerCase()).add(seq);
+        List<String> mentions = message.mentions != null && !message.mentions.isEmpty() ? message.mentions : parseMentions(message.content);
+        for (String mention : mentions) posting("@" + mention.toLowerCase()).add(seq);
+        if (message.content != null && !message.isEncrypted) {
+            for (String word : words(message.content)) posting(word).add(seq);
+        }
+        unsaved++;
+    }
+
+    // Sequences of the messages holding every term of query, newest first, below beforeSequence (0 for
+    // no bound). Terms are words, "@name" for a mention and "#channel".
+    public synchronized long[] search(String query, long beforeSequence, int limit) {
+        List<String> queryTerms = parseQuery(query);
+        if (queryTerms.isEmpty() || limit <= 0) return new long[0];
+        Postings[] lists = new Postings[queryTerms.size()];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = terms.get(queryTerms.get(i));
+            if (lists[i] == null) return new long[0];
+        }
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+        int[] bounds = new int[lists.length]; // Exclusive upper index still to search in each list
+        for (int i = 0; i < lists.length; i++) bounds[i] = lists[i].size;
+        int start = lists[0].size;
+        if (beforeSequence > 0 && beforeSequence <= Integer.MAX_VALUE) {
+            int position = Arrays.binarySearch(lists[0].sequences, 0, lists[0].size, (int) beforeSequence);
+            start = position >= 0 ? position : -position - 1;
+        }
+        long[] result = new long[Math.min(limit, start)];
+        int n = 0;
+        for (int i = start - 1; i >= 0 && n < result.length; i--) {
+            int sequence = lists[0].sequences[i];
+            boolean all = true;
+            for (int j = 1; j < lists.length && all; j++) {
+                int position = Arrays.binarySearch(lists[j].sequences, 0, bounds[j], sequence);
+                all = position >= 0;
+                bounds[j] = all ? position : -position - 1; // Later candidates are all smaller
+            }
+            if (all) result[n++] = sequence;
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    // Forgets the sequences below firstSequence, once the log has compacted them away.
+    public synchronized void dropBefore(long firstSequence) {
+        if (firstSequence <= 1) return;
+        int first = (int) Math.min(firstSequence, Integer.MAX_VALUE);
+        Iterator<Postings> iterator = terms.values().iterator();
+        while (iterator.hasNext()) {
+            Postings postings = iterator.next();
+            int position = Arrays.binarySearch(postings.sequences, 0, postings.size, first);
+            int dropped = position >= 0 ? position : -position - 1;
+            if (dropped == 0) continue;
+            if (dropped == postings.size) {
+                iterator.remove();
+                continue;
+            }
+            postings.size -= dropped;
+            System.arraycopy(postings.sequences, dropped, postings.sequences, 0, postings.size);
+        }
+        unsaved++;
+    }
+
+    // Drops everything, e.g. when the log was replaced and no longer matches the index.
+    public synchronized void clear() {
+        terms.clear();
+        lastSequence = 0;
+        unsaved = 0;
+    }
+
+    // Writes the snapshot to a temporary file and renames it over the old one, so a crash keeps the
+    // previous snapshot rather than a torn one.
+    public synchronized void save() throws IOException {
+        File temp = new File(path.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(lastSequence);
+            out.writeInt(terms.size());
+            for (Map.Entry<String, Postings> entry : terms.entrySet()) {
+                Postings postings = entry.getValue();
+                out.writeUTF(entry.getKey());
+                writeVarint(out, postings.size);
+                int previous = 0;
+                for (int i = 0; i < postings.size; i++) {
+                    writeVarint(out, postings.sequences[i] - previous);
+                    previous = postings.sequences[i];
+                }
+            }
+        }
+        if (!temp.renameTo(path)) throw new IOException("Cannot replace " + path);
+        unsaved = 0;
+    }
+
+    // Names after '@' in content, as typed: letters, digits, '_' and '-'.
+    public static List<String> parseMentions(String content) {
+        List<String> mentions = new ArrayList<>();
+        if (content == null) return mentions;
+        for (int i = content.indexOf('@'); i >= 0; i = content.indexOf('@', i + 1)) {
+            int end = i + 1;
+            while (end < content.length() && isNameChar(content.charAt(end))) end++;
+            if (end > i + 1 && end - i - 1 <= MAX_TERM_LENGTH) {
+                String name = content.substring(i + 1, end);
+                if (!mentions.contains(name)) mentions.add(name);
+            }
+            i = end - 1;
+        }
+        return mentions;
+    }
+
+    // Lowercased runs of letters and digits, without runs longer than MAX_TERM_LENGTH.
+    static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        int length = text.length();
+        for (int i = 0; i < length; ) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) i++;
+            int start = i;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) i++;
+            if (i > start && i - start <= MAX_TERM_LENGTH) words.add(text.substring(start, i).toLowerCase());
+        }
+        return words;
+    }
+
+    static List<String> parseQuery(String query) {
+        List<String> result = new ArrayList<>();
+        if (query == null) return result;
+        for (String part : query.trim().split("\\s+")) {
+            if (part.length() > 1 && part.charAt(0) == '@') {
+                for (String name : parseMentions(part)) result.add("@" + name.toLowerCase());
+            } else if (part.length() > 1 && part.charAt(0) == '#') {
+                result.add(part.toLowerCase());
+            } else if (!part.isEmpty()) {
+                result.addAll(words(part));
+            }
+        }
+        return result;
+    }
+
+    private Postings posting(String term) {
+        Postings postings = terms.get(term);
+        if (postings == null) {
+            postings = new Postings();
+            terms.put(term, postings);
+        }
+        return postings;
+    }
+
+    private void load() {
+        if (!path.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not an index");
+            int last = in.readInt();
+            int count = in.readInt();
+            for (int t = 0; t < count; t++) {
+                String term = in.readUTF();
+                Postings postings = new Postings();
+                postings.size = readVarint(in);
+                if (postings.size < 0 || postings.size > last) throw new IOException("Corrupt postings");
+                postings.sequences = new int[Math.max(2, postings.size)];
+                int previous = 0;
+                for (int i = 0; i < postings.size; i++) {
+                    int delta = readVarint(in);
+                    if (delta <= 0 || previous + delta > last) throw new IOException("Corrupt postings");
+                    previous += delta;
+                    postings.sequences[i] = previous;
+                }
+                terms.put(term, postings);
+            }
+            lastSequence = last;
+        } catch (IOException e) {
+            clear(); // Rebuilt from the log
+        }
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '-';
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Varint too long");
+    }
+}
@@ -0,0 +1,184 @@
+package com.reactnativebitchat;
+
+import com.reactnativebitchat.Message.BitchatMessage;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+public class MessageIndexTests {
+    private static BitchatMessage message(String channel, String content) {
+        BitchatMessage msg = new BitchatMessage();
+        msg.sender = "bob";
+        msg.content = content;
+        msg.channel = channel;
+        return msg;
+    }
+
+    private static File tempFile() throws IOException {
+        File path = File.createTempFile("bitchat", ".idx");
+        path.deleteOnExit();
+        assertTrue(path.delete());
+        return path;
+    }
+
+    @Test
+    public void testTermsAndMentions() throws Exception {
+        assertEquals(Arrays.asList("alice", "bob-2"), MessageIndex.parseMentions("@alice, ping @bob-2 and @alice@"));
+        assertEquals(Arrays.asList("café", "at", "8pm"), MessageIndex.words("Café at 8PM!"));
+        assertEquals(Arrays.asList("@alice", "#general", "lunch"), MessageIndex.parseQuery(" @Alice  #General lunch "));
+
+        Channel channel = new Channel();
+        channel.createChannel("#general", null, "creator");
+        BitchatMessage msg = message("#general", "@alice lunch?");
+        channel.receiveMessage(msg);
+        assertEquals(Arrays.asList("alice"), msg.mentions);
+
+        channel.createChannel("#secret", "pass", "creator");
+        BitchatMessage sealed = message("#secret", null);
+        sealed.isEncrypted = true;
+        sealed.encryptedContent = Encryption.encryptContent("@bob see you there", channel.getChannelKey("#secret"));
+        channel.receiveMessage(sealed);
+        assertEquals(Arrays.asList("bob"), sealed.mentions); // Read after decryption
+    }
+
+    @Test
+    public void testSearchIntersectsNewestFirst() throws IOException {
+        MessageIndex index = new MessageIndex(tempFile());
+        index.add(1, message("#general", "@alice lunch at noon?"));
+        index.add(2, message("#general", "Lunch sounds good"));
+        index.add(3, message("#random", "@Alice lunch tomorrow"));
+        index.add(4, message(null, "private lunch @alice"));
+        index.add(2, message("#general", "lunch again")); // Already indexed
+        assertArrayEquals(new long[]{4, 3, 1}, index.search("@alice lunch", 0, 10));
+        assertArrayEquals(new long[]{3, 1}, index.search("@alice lunch", 4, 10)); // Next page
+        assertArrayEquals(new long[]{4}, index.search("@alice", 0, 1));
+        assertArrayEquals(new long[]{2, 1}, index.search("#general lunch", 0, 10));
+        assertEquals(0, index.search("lunch dinner", 0, 10).length);
+        assertEquals(0, index.search("  ", 0, 10).length);
+
+        BitchatMessage sealed = message(null, "private dinner");
+        sealed.isPrivate = true;
+        index.add(5, sealed);
+        assertEquals(0, index.search("dinner", 0, 10).length); // Kept out of the snapshot on disk
+        assertEquals(5, index.getLastSequence());
+        index.dropBefore(3); // Compacted out of the log
+        assertArrayEquals(new long[]{4, 3}, index.search("@alice lunch", 0, 10));
+        assertEquals(0, index.search("#general", 0, 10).length);
+    }
+
+    @Test
+    public void testSnapshotRoundTrip() throws IOException {
+        File path = tempFile();
+        MessageIndex index = new MessageIndex(path);
+        for (int i = 1; i <= 300; i++) index.add(i, message("#general", "word" + i % 7 + (i % 10 == 0 ? " @me" : "")));
+        index.save();
+        assertEquals(0, index.getUnsaved());
+        index.add(301, message("#general", "unsaved @me"));
+
+        MessageIndex reopened = new MessageIndex(path);
+        assertEquals(300, reopened.getLastSequence()); // 301 comes back from the log
+        assertEquals(index.getTermCount() - 1, reopened.getTermCount());
+        assertArrayEquals(index.search("word3", 0, 100), reopened.search("word3", 0, 100));
+        assertEquals(30, reopened.search("@me", 0, 100).length);
+
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.setLength(file.length() / 2);
+        }
+        MessageIndex torn = new MessageIndex(path);
+        assertEquals(0, torn.getLastSequence()); // Rebuilt from the log
+        assertEquals(0, torn.getTermCount());
+    }
+
+    // 100,000 channel messages of eight words from a 5,000-word Zipf vocabulary, 2% mentioning @me.
+    // Index queries for the newest 50 mentions and for two-word searches, and the pages before them,
+    // return exactly what scanning the same messages held in memory finds.
+    @Test
+    public void testSearchMatchesScan() throws IOException {
+        Random random = new Random(47);
+        int count = 100000;
+        String[] contents = new String[count];
+        MessageIndex index = new MessageIndex(tempFile());
+        fill(index, contents, random);
+
+        for (int q = 0; q < 40; q++) {
+            String query = q % 2 == 0 ? "@me" : "w" + (2 + random.nextInt(20)) + " w" + (20 + random.nextInt(200));
+            String[] terms = query.split(" ");
+            long before = 0;
+            for (int page = 0; page < 2; page++) {
+                long[] expected = new long[50];
+                int found = 0;
+                for (int i = (before == 0 ? count : (int) before - 1) - 1; i >= 0 && found < 50; i--) {
+                    boolean all = true;
+                    for (String term : terms) all &= contents[i].contains(" " + term + " ");
+                    if (all) expected[found++] = i + 1;
+                }
+                long[] results = index.search(query, before, 50);
+                assertArrayEquals(query, Arrays.copyOf(expected, found), results);
+                if (results.length == 0) break;
+                before = results[results.length - 1];
+            }
+        }
+        assertEquals(50, index.search("@me", 0, 50).length);
+    }
+
+    // 300,000 messages from the same corpus: index queries against scanning the messages held in memory.
+    @Test
+    public void benchmarkSearchLatency() throws IOException {
+        Benchmarks.assumeEnabled();
+        Random random = new Random(47);
+        int count = 300000;
+        String[] contents = new String[count];
+        MessageIndex index = new MessageIndex(tempFile());
+        long buildStart = System.nanoTime();
+        fill(index, contents, random);
+        double buildMs = (System.nanoTime() - buildStart) / 1e6;
+
+        String[] queries = new String[200];
+        for (int i = 0; i < queries.length; i++) queries[i] = i % 2 == 0 ? "@me" : "w" + (2 + random.nextInt(20)) + " w" + (20 + random.nextInt(200));
+        long results = 0;
+        for (int round = 0; round < 5; round++) for (String query : queries) results += index.search(query, 0, 50).length; // Warm up
+        long start = System.nanoTime();
+        for (int round = 0; round < 5; round++) for (String query : queries) results += index.search(query, 0, 50).length;
+        double indexedUs = (System.nanoTime() - start) / 1e3 / (5 * queries.length);
+
+        int scanned = 0;
+        start = System.nanoTime();
+        for (int q = 0; q < 10; q++) {
+            String[] terms = queries[q].split(" ");
+            for (int i = count - 1, found = 0; i >= 0 && found < 50; i--) {
+                boolean all = true;
+                for (String term : terms) all &= contents[i].contains(" " + term + " ");
+                if (all) found++;
+                scanned++;
+            }
+        }
+        double scanUs = (System.nanoTime() - start) / 1e3 / 10;
+        assertTrue(results > 0);
+        System.out.printf("Search over %d messages (%d terms, built in %.0f ms): index %.1f us per query, scan %.1f us (%d messages read)%n",
+                count, index.getTermCount(), buildMs, indexedUs, scanUs, scanned / 10);
+    }
+
+    // Fills contents and the index with eight-word messages from a 5,000-word Zipf vocabulary, 2% mentioning @me.
+    private static void fill(MessageIndex index, String[] contents, Random random) {
+        int vocabulary = 5000;
+        double[] cumulative = new double[vocabulary];
+        double total = 0;
+        for (int i = 0; i < vocabulary; i++) cumulative[i] = total += 1.0 / (i + 1);
+        for (int i = 0; i < contents.length; i++) {
+            StringBuilder content = new StringBuilder(" ");
+            if (random.nextInt(50) == 0) content.append("@me ");
+            for (int w = 0; w < 8; w++) {
+                int word = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+                content.append('w').append(word >= 0 ? word : -word - 1).append(' ');
+            }
+            contents[i] = content.toString();
+            index.add(i + 1, message("#c" + random.nextInt(20), contents[i]));
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.reactnativebitchat;
+
+import com.reactnativebitchat.Message.BitchatMessage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Append-only message history. The file starts with a header, magic(u32) firstSequence(u64) and the
+// wrapped Keychain data key (u16 length, empty without a keychain), followed by records:
+//   length(u32) flags(u8) timestamp(u64) key(u64) channel body
+// The body is a MessageBatch entry, sealed by the Keychain for private messages. Opening the log reads
+// only the fields ahead of the body, so record offsets, channels, timestamps and message keys are
+// indexed in memory without decoding any message. Sequence numbers start at 1 and are kept across
+// compaction, which drops the oldest records once a quarter more than maxMessages are held.
+public class MessageLog implements Closeable {
+    private static final int MAGIC = 0x424D4C32; // "BML2"; older logs without it are migrated on open
+    private static final int FLAG_SEALED = 0x01;
+    private static final int META_SIZE = 1 + 8 + 8 + 2; // flags, timestamp, key and channel length
+
+    private final File path;
+    private final Keychain keychain; // Null keeps private messages in the clear
+    private final int maxMessages;
+    private RandomAccessFile file;
+    private long firstSequence = 1;
+    private byte[] wrappedKey = new byte[0];
+    private long[] offsets = new long[256];
+    private String[] channels = new String[256];
+    private long[] timestamps = new long[256];
+    private long[] keys = new long[256]; // Trace.messageKey of the message ID, 0 without one
+    private int count;
+
+    public MessageLog(File path) throws IOException {
+        this(path, null, Integer.MAX_VALUE);
+    }
+
+    // The keychain's data key is the log's own: it is kept in the header and loaded on open, so the
+    // keychain must not be shared with other stores.
+    public MessageLog(File path, Keychain keychain, int maxMessages) throws IOException {
+        File parent = path.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) throw new IOException("Cannot create " + parent);
+        this.path = path;
+        this.keychain = keychain;
+        this.maxMessages = maxMessages;
+        File legacy = new File(path.getPath() + ".v1");
+        if (path.length() > 0 && !hasMagic()) {
+            if (!path.renameTo(legacy)) throw new IOException("Cannot migrate " + path);
+        } else if (legacy.exists()) {
+            path.delete(); // An interrupted migration starts over
+        }
+        load();
+        file = new RandomAccessFile(path, "rw");
+        if (file.length() == 0) rewrite(0);
+        if (keychain != null) loadKey();
+        if (legacy.exists()) {
+            migrate(legacy);
+            legacy.delete();
+        }
+    }
+
+    public synchronized long append(BitchatMessage message) throws IOException {
+        long sequence = firstSequence + count;
+        byte[] body = MessageBatch.encodeMessage(message);
+        boolean sealed = keychain != null && message.isPrivate;
+        if (sealed) {
+            try {
+                body = keychain.seal(body, sealContext(sequence));
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Cannot seal message", e);
+            }
+        }
+        long timestamp = (long) message.timestamp;
+        long key = message.id != null ? Trace.messageKey(message.id) : 0;
+        String channel = message.channel != null ? message.channel.intern() : null;
+        long offset = file.length();
+        file.seek(offset);
+        file.write(record(sealed ? FLAG_SEALED : 0, timestamp, key, channel, body));
+        index(offset, channel, timestamp, key);
+        if (count - maxMessages > maxMessages / 4) rewrite(count - maxMessages);
+        return sequence;
+    }
+
+    // Oldest sequence still held; 1 until the log is first compacted.
+    public synchronized long getFirstSequence() {
+        return firstSequence;
+    }
+
+    public synchronized long getLastSequence() {
+        return firstSequence + count - 1;
+    }
+
+    // Null for a sequence that was never logged or has been compacted away, and for a sealed message
+    // that can no longer be opened, e.g. after the keystore was reset.
+    public synchronized BitchatMessage get(long sequence) throws IOException {
+        long i = sequence - firstSequence;
+        if (i < 0 || i >= count) return null;
+        return readRecord((int) i);
+    }
+
+    // Returns up to limit messages after afterSequence, optionally restricted to one channel.
+    public synchronized List<MessageBatch.Entry> read(String channel, long afterSequence, int limit) throws IOException {
+        List<MessageBatch.Entry> entries = new ArrayList<>(Math.min(limit, 256));
+        for (int i = (int) Math.max(0, afterSequence - firstSequence + 1); i < count && entries.size() < limit; i++) {
+            if (channel != null && !channel.equals(channels[i])) continue;
+            BitchatMessage message = readRecord(i);
+            if (message != null) entries.add(new MessageBatch.Entry(firstSequence + i, message));
+        }
+        return entries;
+    }
+
+    // Keys of a channel's messages with timestamps in [from, to), sorted and each once, for HistorySync.
+    // A message logged twice, e.g. sent and then heard back through a relay, would otherwise cancel
+    // itself out of the sync table.
+    public synchronized long[] keysBetween(String channel, long from, long to) {
+        long[] result = new long[64];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (keys[i] == 0 || timestamps[i] < from || timestamps[i] >= to || !channel.equals(channels[i])) continue;
+            if (n == result.length) result = Arrays.copyOf(result, n * 2);
+            result[n++] = keys[i];
+        }
+        Arrays.sort(result, 0, n);
+        int unique = 0;
+        for (int i = 0; i < n; i++) if (unique == 0 || result[i] != result[unique - 1]) result[unique++] = result[i];
+        return Arrays.copyOf(result, unique);
+    }
+
+    // A channel's messages in [from, to) whose keys are in sortedKeys, one per key; reads only the
+    // matching records.
+    public synchronized List<BitchatMessage> findByKeys(String channel, long from, long to, long[] sortedKeys) throws IOException {
+        List<BitchatMessage> result = new ArrayList<>(sortedKeys.length);
+        boolean[] found = new boolean[sortedKeys.length];
+        for (int i = 0; i < count && result.size() < sortedKeys.length; i++) {
+            if (timestamps[i] < from || timestamps[i] >= to || !channel.equals(channels[i])) continue;
+            int position = Arrays.binarySearch(sortedKeys, keys[i]);
+            if (position < 0 || found[position]) continue;
+            BitchatMessage message = readRecord(i);
+            if (message == null) continue;
+            found[position] = true;
+            result.add(message);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        file.close();
+    }
+
+    private boolean hasMagic() throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(path))) {
+            return path.length() >= 4 && in.readInt() == MAGIC;
+        }
+    }
+
+    // Reads the header and the fields ahead of each body, skipping the bodies themselves, and drops a
+    // record torn by a crash mid-append.
+    private void load() throws IOException {
+        long length = path.length();
+        if (length == 0) return;
+        long offset;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 64 * 1024))) {
+            in.readInt(); // Magic, checked before
+            firstSequence = in.readLong();
+            wrappedKey = new byte[in.readUnsignedShort()];
+            in.readFully(wrappedKey);
+            offset = 4 + 8 + 2 + wrappedKey.length;
+            while (offset + 4 + META_SIZE <= length) {
+                int recordLength = in.readInt();
+                if (recordLength < META_SIZE || offset + 4 + recordLength > length) break;
+                in.readUnsignedByte();
+                long timestamp = in.readLong();
+                long key = in.readLong();
+                int channelLength = in.readUnsignedShort();
+                String channel = null;
+                int skip = recordLength - META_SIZE;
+                if (channelLength != 0xFFFF) {
+                    if (channelLength > skip) break;
+                    byte[] name = new byte[channelLength];
+                    in.readFully(name);
+                    channel = new String(name, StandardCharsets.UTF_8).intern();
+                    skip -= channelLength;
+                }
+                skipFully(in, skip);
+                index(offset, channel, timestamp, key);
+                offset += 4 + recordLength;
+            }
+        } catch (EOFException e) {
+            throw new IOException("Corrupt header in " + path, e);
+        }
+        if (offset < length) {
+            try (RandomAccessFile torn = new RandomAccessFile(path, "rw")) {
+                torn.setLength(offset);
+            }
+        }
+    }
+
+    // Unwraps the data key kept in the header, or starts a new one if there is none or it no longer
+    // unwraps; sealed messages from before a new key read as null.
+    private void loadKey() throws IOException {
+        try {
+            if (wrappedKey.length > 0) {
+                try {
+                    keychain.loadDataKey(wrappedKey);
+                    return;
+                } catch (GeneralSecurityException ignored) {
+                }
+            }
+            wrappedKey = keychain.getWrappedDataKey();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot load history key", e);
+        }
+        rewrite(0);
+    }
+
+    // Copies records from..count behind a fresh header into a temporary file and renames it over the
+    // log, so a crash leaves either the old or the new log whole.
+    private void rewrite(int from) throws IOException {
+        File temp = new File(path.getPath() + ".tmp");
+        long[] moved = new long[count - from];
+        try (RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+            out.setLength(0);
+            ByteArrayOutputStream header = new ByteArrayOutputStream(64);
+            MessageBatch.writeInt(header, MAGIC);
+            MessageBatch.writeLong(header, firstSequence + from);
+            MessageBatch.writeBytes(header, wrappedKey);
+            out.write(header.toByteArray());
+            byte[] buffer = new byte[4096];
+            for (int i = from; i < count; i++) {
+                moved[i - from] = out.getFilePointer();
+                file.seek(offsets[i]);
+                int remaining = 4 + file.readInt();
+                file.seek(offsets[i]);
+                while (remaining > 0) {
+                    int n = file.read(buffer, 0, Math.min(buffer.length, remaining));
+                    if (n < 0) throw new EOFException();
+                    out.write(buffer, 0, n);
+                    remaining -= n;
+                }
+            }
+            out.getFD().sync();
+        }
+        file.close();
+        if (!temp.renameTo(path)) throw new IOException("Cannot replace " + path);
+        file = new RandomAccessFile(path, "rw");
+        count -= from;
+        firstSequence += from;
+        System.arraycopy(moved, 0, offsets, 0, count);
+        System.arraycopy(channels, from, channels, 0, count);
+        System.arraycopy(timestamps, from, timestamps, 0, count);
+        System.arraycopy(keys, from, keys, 0, count);
+        Arrays.fill(channels, count, count + from, null);
+    }
+
+    // Appends the records of a log from before the header, a u32 length and a MessageBatch entry each,
+    // keeping their sequence numbers. Every record is decoded once here and never again on later opens.
+    private void migrate(File legacy) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(legacy, "r")) {
+            long length = in.length(), offset = 0;
+            while (offset + 4 <= length) {
+                in.seek(offset);
+                int recordLength = in.readInt();
+                if (recordLength < 0 || offset + 4 + recordLength > length) break;
+                byte[] entry = new byte[recordLength];
+                in.readFully(entry);
+                append(MessageBatch.decodeMessage(entry, 0, recordLength));
+                offset += 4 + recordLength;
+            }
+        } catch (RuntimeException e) {
+            // A corrupt record ends the old log, like a torn one
+        }
+    }
+
+    private BitchatMessage readRecord(int i) throws IOException {
+        file.seek(offsets[i]);
+        byte[] record = new byte[file.readInt()];
+        file.readFully(record);
+        int channelLength = ((record[META_SIZE - 2] & 0xFF) << 8) | (record[META_SIZE - 1] & 0xFF);
+        int body = META_SIZE + (channelLength != 0xFFFF ? channelLength : 0);
+        if ((record[0] & FLAG_SEALED) == 0) return MessageBatch.decodeMessage(record, body, record.length - body);
+        if (keychain == null) return null;
+        try {
+            byte[] opened = keychain.open(Arrays.copyOfRange(record, body, record.length), sealContext(firstSequence + i));
+            return MessageBatch.decodeMessage(opened, 0, opened.length);
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+    }
+
+    private static byte[] record(int flags, long timestamp, long key, String channel, byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4 + META_SIZE + body.length + 16);
+        MessageBatch.writeInt(out, 0); // Length, patched below
+        out.write(flags);
+        MessageBatch.writeLong(out, timestamp);
+        MessageBatch.writeLong(out, key);
+        MessageBatch.writeString(out, channel);
+        out.write(body, 0, body.length);
+        byte[] record = out.toByteArray();
+        int length = record.length - 4;
+        record[0] = (byte) (length >>> 24);
+        record[1] = (byte) (length >>> 16);
+        record[2] = (byte) (length >>> 8);
+        record[3] = (byte) length;
+        return record;
+    }
+
+    // Binds a sealed body to its sequence, so records cannot be swapped within the log.
+    private static String sealContext(long sequence) {
+        return "history:" + sequence;
+    }
+
+    private static void skipFully(DataInputStream in, int n) throws IOException {
+        while (n > 0) {
+            int skipped = in.skipBytes(n);
+            if (skipped <= 0) throw new EOFException();
+            n -= skipped;
+        }
+    }
+
+    private void index(long offset, String channel, long timestamp, long key) {
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+            channels = Arrays.copyOf(channels, count * 2);
+            timestamps = Arrays.copyOf(timestamps, count * 2);
+            keys = Arrays.copyOf(keys, count * 2);
+        }
+        offsets[count] = offset;
+        channels[count] = channel;
+        timestamps[count] = timestamp;
+        keys[count] = key;
+        count++;
+    }
+}
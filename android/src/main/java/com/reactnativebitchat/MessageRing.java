@@ -0,0 +1,81 @@
+package com.reactnativebitchat;
+
+// Fixed-capacity ring of system and event messages. Entries are stored as parallel arrays rather than
+// BitchatMessage objects, and readers page through them with a sequence cursor instead of copying the
+// whole history. Entries that fall off the end can be handed to a Spill, e.g. a MessageLog.
+public class MessageRing {
+    public interface Visitor {
+        void visit(long sequence, long timestamp, String content);
+    }
+
+    public interface Spill {
+        void onEvicted(long sequence, long timestamp, String content);
+    }
+
+    private final int capacity;
+    private final long[] timestamps;
+    private final String[] contents;
+    private long lastSequence; // Sequences start at 1; entry n lives in slot (n - 1) % capacity
+    private volatile Spill spill;
+
+    public MessageRing(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive");
+        this.capacity = capacity;
+        timestamps = new long[capacity];
+        contents = new String[capacity];
+    }
+
+    public void setSpill(Spill spill) {
+        this.spill = spill;
+    }
+
+    public long add(long timestamp, String content) {
+        long sequence, evictedSequence = 0, evictedTimestamp = 0;
+        String evictedContent = null;
+        synchronized (this) {
+            sequence = ++lastSequence;
+            int slot = (int) ((sequence - 1) % capacity);
+            if (sequence > capacity) {
+                evictedSequence = sequence - capacity;
+                evictedTimestamp = timestamps[slot];
+                evictedContent = contents[slot];
+            }
+            timestamps[slot] = timestamp;
+            contents[slot] = content;
+        }
+        Spill current = spill;
+        if (evictedSequence != 0 && current != null) current.onEvicted(evictedSequence, evictedTimestamp, evictedContent);
+        return sequence;
+    }
+
+    // Visits up to limit entries with a sequence above afterSequence, oldest first, and returns the last
+    // sequence visited (afterSequence if none). Entries already evicted are skipped. The visitor runs
+    // under the ring's lock, so it should only copy out what it needs.
+    public synchronized long read(long afterSequence, int limit, Visitor visitor) {
+        long from = Math.max(afterSequence + 1, getFirstSequence());
+        long to = Math.min(lastSequence, from + limit - 1);
+        long cursor = afterSequence;
+        for (long sequence = from; sequence <= to; sequence++) {
+            int slot = (int) ((sequence - 1) % capacity);
+            visitor.visit(sequence, timestamps[slot], contents[slot]);
+            cursor = sequence;
+        }
+        return cursor;
+    }
+
+    public synchronized long getFirstSequence() {
+        return Math.max(1, lastSequence - capacity + 1);
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    public synchronized int size() {
+        return (int) Math.min(lastSequence, capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,54 @@
+package com.reactnativebitchat;
+
+import com.reactnativebitchat.Message.BitchatMessage;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MessageRingTests {
+    @Test
+    public void testCursorReadAcrossWrap() {
+        MessageRing ring = new MessageRing(4);
+        for (int i = 1; i <= 10; i++) assertEquals(i, ring.add(i, "msg" + i));
+        assertEquals(4, ring.size());
+        assertEquals(7, ring.getFirstSequence());
+        assertEquals(10, ring.getLastSequence());
+
+        List<String> seen = new ArrayList<>();
+        long cursor = ring.read(0, 2, (sequence, timestamp, content) -> seen.add(content));
+        assertEquals(8, cursor); // Evicted entries are skipped, not waited for
+        assertEquals("msg7", seen.get(0));
+        cursor = ring.read(cursor, 100, (sequence, timestamp, content) -> seen.add(content));
+        assertEquals(10, cursor);
+        assertEquals(4, seen.size());
+        assertEquals("msg10", seen.get(3));
+        assertEquals(10, ring.read(cursor, 100, (sequence, timestamp, content) -> fail()));
+    }
+
+    @Test
+    public void testSpillReceivesEvictedEntries() {
+        MessageRing ring = new MessageRing(3);
+        List<Long> spilled = new ArrayList<>();
+        ring.setSpill((sequence, timestamp, content) -> {
+            assertEquals("msg" + sequence, content);
+            spilled.add(sequence);
+        });
+        for (int i = 1; i <= 5; i++) ring.add(i, "msg" + i);
+        assertEquals(2, spilled.size());
+        assertEquals(Long.valueOf(1), spilled.get(0));
+        assertEquals(Long.valueOf(2), spilled.get(1));
+    }
+
+    @Test
+    public void testChannelSystemMessagesStayBounded() {
+        Channel channel = new Channel();
+        for (int i = 0; i < 5000; i++) channel.processCommand("/unknown" + i, "peer");
+        assertEquals(5000, channel.getLastSystemSequence());
+        ArrayList<BitchatMessage> retained = channel.getSystemMessages();
+        assertTrue(retained.size() < 5000);
+        assertEquals("Unknown command: /unknown4999", retained.get(retained.size() - 1).content);
+    }
+}
@@ -3,6 +3,8 @@ package com.reactnativebitchat;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+
 public class MessageTests {
     @Test
     public void testMessageEncodingDecoding() {
@@ -70,4 +72,28 @@ public class MessageTests {
         BitchatMessage longDecoded = Protocol.decodeMessage(longEncoded);
         assertEquals(longContent, longDecoded.content);
     }
+
+    @Test
+    public void testTruncatedAndMalformedInput() {
+        BitchatMessage msg = new BitchatMessage();
+        msg.id = "id-1";
+        msg.sender = "alice";
+        msg.senderPeerID = "peer1234";
+        msg.recipientNickname = "bob";
+        msg.content = "meet at the north gate";
+        byte[] encoded = Protocol.encodeMessage(msg);
+        int contentEnd = encoded.length - (2 + 4) - (2 + 5) - 2; // Trailing id, sender and empty channel
+        for (int cut = 0; cut < encoded.length; cut++) {
+            BitchatMessage decoded = Protocol.decodeMessage(Arrays.copyOf(encoded, cut));
+            if (cut < contentEnd) assertNull(decoded);
+            else assertEquals(msg.content, decoded.content); // Only optional trailing fields lost
+        }
+
+        byte[] header = new byte[17];
+        Arrays.fill(header, 11, 13, (byte) 0xFF); // Recipient claims 65535 bytes
+        assertNull(Protocol.decodeMessage(header));
+        header[11] = header[12] = 0;
+        header[15] = (byte) 0x80; // Content claims 32768 bytes
+        assertNull(Protocol.decodeMessage(header));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,152 @@
+package com.reactnativebitchat;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide counters and latency histograms for the mesh pipeline. Counters are striped LongAdders so
+// hot-path increments from the radio, crypto and state threads do not contend; histograms use
+// log-linear buckets (8 per power of two, about 12% precision) in the spirit of HdrHistogram.
+public final class Metrics {
+    public enum Counter {
+        PACKETS_ENCODED, PACKETS_DECODED, PACKETS_INVALID, FRAGMENTS_SENT,
+        REASSEMBLIES_COMPLETED, REASSEMBLIES_EXPIRED, RELAYS, RAW_RELAYS, DIRECTED_SENDS, FLOODED_SENDS,
+        DROP_ORIGIN_RATE, DROP_RELAY_RATE, DROP_NEW_PEER_RATE, DROP_MALFORMED, DROP_DUPLICATE,
+        ACKS_PROCESSED, ACKS_UNMATCHED, CHANNEL_MESSAGES, COMMITMENT_CHECKS, KEY_DERIVATIONS,
+        FEC_REPAIR_FRAMES, FEC_RECOVERIES, SYNC_OFFERS, SYNC_MESSAGES, SYNC_FAILURES, READ_MARKS_SENT,
+        READ_MARKS_PIGGYBACKED, HANDSHAKES_SENT, SESSIONS_ESTABLISHED, SESSION_MISSES, SESSION_FAILURES,
+        PRESENCE_FAILURES
+    }
+
+    public enum Timer { KEY_DERIVATION, DELIVERY_LATENCY, SHAPING_DELAY }
+
+    public static final class Histogram {
+        private static final int SUB_BUCKETS = 8;
+        private static final int BUCKETS = 62 * SUB_BUCKETS;
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private volatile long max;
+
+        public void record(long value) {
+            if (value < 0) value = 0;
+            counts.incrementAndGet(bucket(value));
+            count.increment();
+            sum.add(value);
+            if (value > max) max = value; // Racy but monotone enough for reporting
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        // Lower bound of the bucket holding the given percentile (0-100).
+        public long getPercentile(double percentile) {
+            long n = count.sum();
+            if (n == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(n * percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= rank) return Math.min(lowerBound(i), max);
+            }
+            return max;
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+            count.reset();
+            sum.reset();
+            max = 0;
+        }
+
+        static int bucket(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            return (exponent - 2) * SUB_BUCKETS + (int) ((value >>> (exponent - 3)) & (SUB_BUCKETS - 1));
+        }
+
+        static long lowerBound(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int exponent = bucket / SUB_BUCKETS + 2;
+            return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - 3);
+        }
+    }
+
+    private static final LongAdder[] COUNTERS = new LongAdder[Counter.values().length];
+    private static final Histogram[] TIMERS = new Histogram[Timer.values().length];
+    private static volatile boolean enabled = true;
+
+    static {
+        for (int i = 0; i < COUNTERS.length; i++) COUNTERS[i] = new LongAdder();
+        for (int i = 0; i < TIMERS.length; i++) TIMERS[i] = new Histogram();
+    }
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean value) {
+        enabled = value;
+    }
+
+    public static void increment(Counter counter) {
+        if (enabled) COUNTERS[counter.ordinal()].increment();
+    }
+
+    public static void add(Counter counter, long amount) {
+        if (enabled) COUNTERS[counter.ordinal()].add(amount);
+    }
+
+    public static long get(Counter counter) {
+        return COUNTERS[counter.ordinal()].sum();
+    }
+
+    public static void record(Timer timer, long nanos) {
+        if (enabled) TIMERS[timer.ordinal()].record(nanos);
+    }
+
+    public static Histogram histogram(Timer timer) {
+        return TIMERS[timer.ordinal()];
+    }
+
+    // Counters keyed by lower-case name, and per timer count, mean, p50, p90, p99 and max in microseconds.
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        Map<String, Long> counters = new LinkedHashMap<>();
+        for (Counter counter : Counter.values()) counters.put(counter.name().toLowerCase(), get(counter));
+        result.put("counters", counters);
+        Map<String, Map<String, Double>> timers = new LinkedHashMap<>();
+        for (Timer timer : Timer.values()) {
+            Histogram histogram = histogram(timer);
+            Map<String, Double> summary = new LinkedHashMap<>();
+            summary.put("count", (double) histogram.getCount());
+            summary.put("meanUs", histogram.getMean() / 1000.0);
+            summary.put("p50Us", histogram.getPercentile(50) / 1000.0);
+            summary.put("p90Us", histogram.getPercentile(90) / 1000.0);
+            summary.put("p99Us", histogram.getPercentile(99) / 1000.0);
+            summary.put("maxUs", histogram.getMax() / 1000.0);
+            timers.put(timer.name().toLowerCase(), summary);
+        }
+        result.put("timers", timers);
+        return result;
+    }
+
+    public static void reset() {
+        for (LongAdder counter : COUNTERS) counter.reset();
+        for (Histogram timer : TIMERS) timer.reset();
+    }
+}
@@ -0,0 +1,115 @@
+package com.reactnativebitchat;
+
+import com.reactnativebitchat.Message.BitchatMessage;
+import com.reactnativebitchat.Message.BitchatPacket;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+public class MetricsTests {
+    @Test
+    public void testHistogramPercentiles() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        for (long value = 1; value <= 10000; value++) histogram.record(value * 1000);
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000000, histogram.getMax());
+        assertEquals(5000500, histogram.getMean(), 1);
+        assertEquals(5000000, histogram.getPercentile(50), 5000000 * 0.125);
+        assertEquals(9900000, histogram.getPercentile(99), 9900000 * 0.125);
+        for (long value = 0; value < 1L << 40; value = value * 3 + 1) {
+            int bucket = Metrics.Histogram.bucket(value);
+            assertTrue(Metrics.Histogram.lowerBound(bucket) <= value);
+            assertTrue(Metrics.Histogram.lowerBound(bucket + 1) > value);
+        }
+    }
+
+    @Test
+    public void testProtocolCountersAndSnapshot() {
+        Metrics.reset();
+        BitchatPacket packet = new BitchatPacket();
+        packet.payload = new byte[]{1, 2, 3};
+        byte[] encoded = Protocol.encodePacket(packet);
+        for (int i = 0; i < 3; i++) assertNotNull(Protocol.decodePacket(encoded));
+        assertNull(Protocol.decodePacket(new byte[4]));
+        assertEquals(1, Metrics.get(Metrics.Counter.PACKETS_ENCODED));
+        assertEquals(3, Metrics.get(Metrics.Counter.PACKETS_DECODED));
+        assertEquals(1, Metrics.get(Metrics.Counter.PACKETS_INVALID));
+
+        DeliveryTracker tracker = new DeliveryTracker();
+        tracker.trackMessage("msg1", "PENDING");
+        tracker.processAck(tracker.generateAck("msg1", "rec1", "nick", 0));
+        tracker.processAck(tracker.generateAck("unknown", "rec1", "nick", 0));
+        assertEquals(1, Metrics.get(Metrics.Counter.ACKS_PROCESSED));
+        assertEquals(1, Metrics.get(Metrics.Counter.ACKS_UNMATCHED));
+        assertEquals(1, Metrics.histogram(Metrics.Timer.DELIVERY_LATENCY).getCount());
+
+        Map<String, Object> snapshot = Metrics.snapshot();
+        assertEquals(3L, ((Map<?, ?>) snapshot.get("counters")).get("packets_decoded"));
+        assertEquals(1.0, ((Map<?, ?>) ((Map<?, ?>) snapshot.get("timers")).get("delivery_latency")).get("count"));
+    }
+
+    @Test
+    public void testDisabledMetricsCountNothing() {
+        // The receive path as BleService runs it: packet decode and message decode
+        byte[] encoded = receivedPacket();
+        long decoded = Metrics.get(Metrics.Counter.PACKETS_DECODED);
+        for (int enabled = 0; enabled < 2; enabled++) {
+            Metrics.setEnabled(enabled == 1);
+            try {
+                for (int i = 0; i < 100; i++) {
+                    assertEquals("meet at the north gate at nine, bring the spare batteries",
+                            Protocol.decodeMessage(Protocol.decodePacket(encoded).payload).content);
+                }
+            } finally {
+                Metrics.setEnabled(true);
+            }
+            assertEquals(decoded + 100 * enabled, Metrics.get(Metrics.Counter.PACKETS_DECODED));
+        }
+    }
+
+    // Receive path cost with and without counters; the counters should add under 1%.
+    @Test
+    public void benchmarkHotPathOverhead() {
+        Benchmarks.assumeEnabled();
+        // The receive path as BleService runs it: header peeks, packet decode and message decode
+        byte[] encoded = receivedPacket();
+        int iterations = 100000;
+        long best[] = {Long.MAX_VALUE, Long.MAX_VALUE}, sink = 0;
+        try {
+            for (int round = 0; round < 10; round++) {
+                for (int enabled = 0; enabled < 2; enabled++) {
+                    Metrics.setEnabled(enabled == 1);
+                    long start = System.nanoTime();
+                    for (int i = 0; i < iterations; i++) {
+                        if (Protocol.peekTtl(encoded) < 0) fail();
+                        sink += Protocol.peekSenderID(encoded) + Protocol.peekPacketId(encoded);
+                        if (Protocol.decodeMessage(Protocol.decodePacket(encoded).payload) == null) fail();
+                    }
+                    best[enabled] = Math.min(best[enabled], System.nanoTime() - start);
+                }
+            }
+        } finally {
+            Metrics.setEnabled(true);
+        }
+        assertNotEquals(0, sink);
+        double overhead = (best[1] - best[0]) * 100.0 / best[0];
+        System.out.println("Metrics: receive path " + (best[0] / iterations) + " ns without, " + (best[1] / iterations)
+                + " ns with counters (" + String.format("%.2f", overhead) + "% overhead)");
+    }
+
+    private static byte[] receivedPacket() {
+        BitchatMessage msg = new BitchatMessage();
+        msg.id = "id-1";
+        msg.sender = "alice";
+        msg.content = "meet at the north gate at nine, bring the spare batteries";
+        msg.channel = "#room";
+        BitchatPacket packet = new BitchatPacket();
+        packet.senderID = new byte[]{1, 2, 3, 4, 5, 6, 7, 8};
+        packet.timestamp = 1700000000000L;
+        packet.payload = Protocol.encodeMessage(msg);
+        packet.ttl = 5;
+        return Protocol.encodePacket(packet);
+    }
+}
@@ -0,0 +1,130 @@
+package com.reactnativebitchat;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Threads owned by BitchatModule so that radio, crypto and state work never runs on the shared native
+// modules queue. Radio and state lanes are serial; crypto is a small pool for key derivation.
+public class ModuleExecutors {
+    public enum Lane { RADIO, CRYPTO, STATE }
+
+    private static final int MAX_QUEUED = 1024; // Per lane, beyond this calls are rejected as busy
+
+    private final ScheduledThreadPoolExecutor radio;
+    private final ThreadPoolExecutor crypto;
+    private final ThreadPoolExecutor state;
+    private final AtomicInteger radioPending = new AtomicInteger(); // Queued or running radio work, not timers
+
+    public ModuleExecutors() {
+        radio = new ScheduledThreadPoolExecutor(1, threadFactory("bitchat-radio"));
+        radio.setRemoveOnCancelPolicy(true);
+        int cryptoThreads = Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
+        crypto = new ThreadPoolExecutor(cryptoThreads, cryptoThreads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(MAX_QUEUED), threadFactory("bitchat-crypto"));
+        crypto.allowCoreThreadTimeOut(true);
+        state = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(MAX_QUEUED), threadFactory("bitchat-state"));
+    }
+
+    public void execute(Lane lane, Runnable task) {
+        if (lane == Lane.RADIO && radio.getQueue().size() >= MAX_QUEUED) {
+            throw new RejectedExecutionException("Radio queue is full");
+        }
+        if (lane != Lane.RADIO) {
+            executor(lane).execute(task);
+            return;
+        }
+        radioPending.incrementAndGet();
+        try {
+            radio.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    radioPending.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            radioPending.decrementAndGet();
+            throw e;
+        }
+    }
+
+    // Runs task on the given lane every periodMs; the radio scheduler only enqueues it, and a beat is
+    // skipped while the lane is full.
+    public ScheduledFuture<?> scheduleAtFixedRate(Lane lane, Runnable task, long periodMs) {
+        return radio.scheduleAtFixedRate(() -> {
+            try {
+                execute(lane, task);
+            } catch (RejectedExecutionException ignored) {
+            }
+        }, periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Runs task once on the given lane after delayMs, retrying a delay later while the lane is full.
+    public void schedule(Lane lane, Runnable task, long delayMs) {
+        radio.schedule(() -> {
+            try {
+                execute(lane, task);
+            } catch (RejectedExecutionException e) {
+                if (!radio.isShutdown()) schedule(lane, task, delayMs);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    public ScheduledThreadPoolExecutor radio() {
+        return radio;
+    }
+
+    // Sends and other radio calls not yet finished. Unlike the radio queue depth this leaves out delayed
+    // timer tasks, so it is zero whenever there is nothing to transmit.
+    public int getPendingRadioTasks() {
+        return radioPending.get();
+    }
+
+    public int getQueueDepth(Lane lane) {
+        return executor(lane).getQueue().size();
+    }
+
+    public Map<Lane, long[]> snapshot() {
+        Map<Lane, long[]> result = new EnumMap<>(Lane.class);
+        for (Lane lane : Lane.values()) {
+            ThreadPoolExecutor executor = executor(lane);
+            result.put(lane, new long[]{executor.getQueue().size(), executor.getActiveCount(), executor.getCompletedTaskCount()});
+        }
+        return result;
+    }
+
+    public void shutdown() {
+        radio.shutdownNow();
+        crypto.shutdownNow();
+        state.shutdownNow();
+    }
+
+    private ThreadPoolExecutor executor(Lane lane) {
+        switch (lane) {
+            case RADIO:
+                return radio;
+            case CRYPTO:
+                return crypto;
+            default:
+                return state;
+        }
+    }
+
+    private static ThreadFactory threadFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
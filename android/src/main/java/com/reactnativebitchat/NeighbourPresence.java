@@ -0,0 +1,56 @@
+package com.reactnativebitchat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Which neighbours are in range, from the packets heard from them: one counts as connected when first
+// heard and as gone after silenceMs without a packet. Neighbours beyond capacity are forgotten oldest
+// first without being reported.
+public class NeighbourPresence {
+    public interface Listener {
+        void onPresenceChanged(long neighbour, boolean connected);
+    }
+
+    private final Listener listener;
+    private final Clock clock;
+    private final long silenceMs;
+    private final LongLruCache<long[]> heardAt; // Boxed in a one-element array to update in place
+
+    public NeighbourPresence(Listener listener, Clock clock, long silenceMs, int capacity) {
+        this.listener = listener;
+        this.clock = clock;
+        this.silenceMs = silenceMs;
+        this.heardAt = new LongLruCache<>(capacity);
+    }
+
+    public void onNeighbourHeard(long neighbour) {
+        synchronized (this) {
+            long now = clock.nowMillis();
+            long[] state = heardAt.get(neighbour);
+            if (state != null) {
+                state[0] = now;
+                return;
+            }
+            heardAt.put(neighbour, new long[]{now});
+        }
+        listener.onPresenceChanged(neighbour, true);
+    }
+
+    // Reports and forgets the neighbours silent for silenceMs or longer.
+    public void expire() {
+        List<Long> gone = new ArrayList<>();
+        synchronized (this) {
+            long now = clock.nowMillis();
+            heardAt.forEach((neighbour, state) -> {
+                if (now - state[0] < silenceMs) return true;
+                gone.add(neighbour);
+                return false;
+            });
+        }
+        for (long neighbour : gone) listener.onPresenceChanged(neighbour, false);
+    }
+
+    public synchronized int size() {
+        return heardAt.size();
+    }
+}
@@ -0,0 +1,49 @@
+package com.reactnativebitchat;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class NeighbourPresenceTests {
+    private static final class ManualClock implements Clock {
+        long now;
+
+        @Override
+        public long nowMillis() {
+            return now;
+        }
+    }
+
+    @Test
+    public void testReportsArrivalAndSilence() {
+        ManualClock clock = new ManualClock();
+        List<String> changes = new ArrayList<>();
+        NeighbourPresence presence = new NeighbourPresence((neighbour, connected) -> changes.add(neighbour + (connected ? "+" : "-")), clock, 60000, 16);
+        presence.onNeighbourHeard(1);
+        presence.onNeighbourHeard(2);
+        clock.now = 30000;
+        presence.onNeighbourHeard(1); // Already present
+        assertEquals(Arrays.asList("1+", "2+"), changes);
+
+        clock.now = 60000;
+        presence.expire();
+        assertEquals(Arrays.asList("1+", "2+", "2-"), changes);
+        assertEquals(1, presence.size());
+
+        clock.now = 70000;
+        presence.onNeighbourHeard(2); // Back in range
+        clock.now = 90000;
+        presence.expire();
+        assertEquals(Arrays.asList("1+", "2+", "2-", "2+", "1-"), changes);
+    }
+
+    @Test
+    public void testBoundedByCapacity() {
+        NeighbourPresence presence = new NeighbourPresence((neighbour, connected) -> { }, new ManualClock(), 60000, 16);
+        for (int i = 1; i <= 100; i++) presence.onNeighbourHeard(i);
+        assertEquals(16, presence.size());
+    }
+}
@@ -0,0 +1,84 @@
+package com.reactnativebitchat;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Single padding scheme for message content: data || random bytes || 2-byte padding length.
+// Content is rounded up to a multiple of the largest bucket not exceeding its size, so the padded
+// length only reveals a size class, including for messages larger than every bucket.
+public class Padding {
+    public static final int TRAILER_SIZE = 2;
+    private static final int MAX_PADDING = 0xFFFF;
+    private static final int[] DEFAULT_BUCKETS = {32, 64, 128, 256, 512, 1024, 2048};
+
+    private static volatile int[] buckets = DEFAULT_BUCKETS;
+
+    public static int[] getBuckets() {
+        return buckets.clone();
+    }
+
+    public static void setBuckets(int... sizes) {
+        if (sizes == null || sizes.length == 0) throw new IllegalArgumentException("At least one bucket is required");
+        int[] sorted = sizes.clone();
+        Arrays.sort(sorted);
+        if (sorted[0] <= TRAILER_SIZE || sorted[sorted.length - 1] > MAX_PADDING) {
+            throw new IllegalArgumentException("Bucket sizes must be between " + (TRAILER_SIZE + 1) + " and " + MAX_PADDING);
+        }
+        buckets = sorted;
+    }
+
+    public static void resetBuckets() {
+        buckets = DEFAULT_BUCKETS;
+    }
+
+    public static int blockSizeFor(int length) {
+        int[] current = buckets;
+        int block = current[0];
+        for (int size : current) {
+            if (size > length) break;
+            block = size;
+        }
+        return block;
+    }
+
+    public static int paddedLength(int length) {
+        return paddedLength(length, blockSizeFor(length));
+    }
+
+    public static int paddedLength(int length, int blockSize) {
+        int needed = length + TRAILER_SIZE;
+        return ((needed + blockSize - 1) / blockSize) * blockSize;
+    }
+
+    // Writes data, random filler and the trailer straight into out's backing array.
+    public static void padInto(ByteBuffer out, byte[] data, int offset, int length, int paddedLength) {
+        int start = out.arrayOffset() + out.position();
+        padInto(out.array(), start, data, offset, length, paddedLength);
+        out.position(out.position() + paddedLength);
+    }
+
+    public static void padInto(byte[] out, int outOffset, byte[] data, int offset, int length, int paddedLength) {
+        int paddingSize = paddedLength - length;
+        if (paddingSize < TRAILER_SIZE || paddingSize > MAX_PADDING) {
+            throw new IllegalArgumentException("Invalid padded length " + paddedLength + " for " + length + " bytes");
+        }
+        System.arraycopy(data, offset, out, outOffset, length);
+        FastRandom.current().nextBytes(out, outOffset + length, paddingSize - TRAILER_SIZE);
+        out[outOffset + paddedLength - 2] = (byte) (paddingSize >>> 8);
+        out[outOffset + paddedLength - 1] = (byte) paddingSize;
+    }
+
+    public static byte[] pad(byte[] data, int paddedLength) {
+        byte[] padded = new byte[paddedLength];
+        padInto(padded, 0, data, 0, data.length, paddedLength);
+        return padded;
+    }
+
+    // Returns the content length inside a padded region, or -1 if the trailer is invalid.
+    public static int unpaddedLength(byte[] data, int offset, int length) {
+        if (length < TRAILER_SIZE) return -1;
+        int paddingSize = ((data[offset + length - 2] & 0xFF) << 8) | (data[offset + length - 1] & 0xFF);
+        if (paddingSize < TRAILER_SIZE || paddingSize > length) return -1;
+        return length - paddingSize;
+    }
+}
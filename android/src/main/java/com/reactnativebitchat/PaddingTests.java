@@ -3,6 +3,8 @@ package com.reactnativebitchat;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+
 public class PaddingTests {
     @Test
     public void testBasicPadding() {
@@ -48,4 +50,92 @@ public class PaddingTests {
         byte[] padded2 = Message.pad(data2, targetSize);
         assertNotEquals(Arrays.hashCode(padded1), Arrays.hashCode(padded2)); // Random padding differs
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testLargeDataDoesNotLeakLength() {
+        assertEquals(Padding.paddedLength(5000), Padding.paddedLength(5100));
+        assertEquals(0, Padding.paddedLength(5000) % 2048);
+    }
+
+    @Test
+    public void testConfigurableBuckets() {
+        try {
+            Padding.setBuckets(100, 400);
+            assertEquals(100, Padding.paddedLength(10));
+            assertEquals(200, Padding.paddedLength(120));
+            assertEquals(800, Padding.paddedLength(450));
+            byte[] data = new byte[120];
+            assertArrayEquals(data, Message.unpad(Padding.pad(data, Padding.paddedLength(data.length))));
+        } finally {
+            Padding.resetBuckets();
+        }
+    }
+
+    // Chat-sized messages padded under coarse to fine bucket settings: every setting yields valid padding,
+    // and the finest wastes less bandwidth than a single 256-byte bucket.
+    @Test
+    public void testFinerBucketsCostLessBandwidth() {
+        int[][] settings = BUCKET_SETTINGS;
+        int[] lengths = chatLengths();
+        byte[] content = new byte[4001];
+        byte[] out = new byte[16384];
+        long[] paddedBytes = new long[settings.length];
+        try {
+            for (int s = 0; s < settings.length; s++) {
+                Padding.setBuckets(settings[s]);
+                for (int length : lengths) {
+                    int padded = Padding.paddedLength(length);
+                    assertTrue(padded > length);
+                    Padding.padInto(out, 0, content, 0, length, padded);
+                    paddedBytes[s] += padded;
+                }
+            }
+        } finally {
+            Padding.resetBuckets();
+        }
+        assertTrue(paddedBytes[settings.length - 1] < paddedBytes[0]);
+    }
+
+    @Test
+    public void benchmarkPadding() {
+        Benchmarks.assumeEnabled();
+        int[] lengths = chatLengths();
+        byte[] content = new byte[4001];
+        byte[] out = new byte[16384];
+        for (int round = 0; round < 10; round++) {
+            for (int length : lengths) Padding.padInto(out, 0, content, 0, length, Padding.paddedLength(length)); // Warm up
+        }
+        try {
+            for (int[] setting : BUCKET_SETTINGS) {
+                Padding.setBuckets(setting);
+                long contentBytes = 0;
+                long paddedBytes = 0;
+                long start = System.nanoTime();
+                for (int round = 0; round < 10; round++) {
+                    for (int length : lengths) {
+                        int padded = Padding.paddedLength(length);
+                        Padding.padInto(out, 0, content, 0, length, padded);
+                        contentBytes += length;
+                        paddedBytes += padded;
+                    }
+                }
+                long elapsed = System.nanoTime() - start;
+                System.out.printf("Padding %s: %.0f ns/message, %.1f%% bandwidth overhead%n", Arrays.toString(setting),
+                        elapsed / (10.0 * lengths.length), 100.0 * (paddedBytes - contentBytes) / contentBytes);
+            }
+        } finally {
+            Padding.resetBuckets();
+        }
+    }
+
+    private static final int[][] BUCKET_SETTINGS = {{256}, {64, 256, 1024}, {32, 64, 128, 256, 512, 1024, 2048},
+            {16, 32, 64, 128, 256, 512, 1024, 2048}};
+
+    // Chat-sized content lengths, mostly under 200 bytes with a long tail.
+    private static int[] chatLengths() {
+        java.util.Random sizes = new java.util.Random(7);
+        int[] lengths = new int[10000];
+        for (int i = 0; i < lengths.length; i++) lengths[i] = 1 + (int) Math.min(4000, Math.abs(sizes.nextGaussian() * 120 + 60));
+        return lengths;
+    }
+}
@@ -0,0 +1,385 @@
+package com.reactnativebitchat;
+
+import com.reactnativebitchat.Message.BitchatMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.crypto.KeyAgreement;
+
+// End-to-end encryption of private messages with one key agreement per peer pair rather than one per
+// message. Each side holds an ephemeral P-256 key pair, replaced every SESSION_LIFETIME_MS. A handshake
+// swaps public keys, and ECDH plus HKDF over the two gives a session: one AES-GCM key per direction,
+// cached per peer for SESSION_LIFETIME_MS, so a message costs one AEAD seal. Sessions are set up before
+// the first message where possible: neighbours heard without one are answered by a broadcast HELLO,
+// debounced so one packet covers every neighbour that turned up together, and each replies directly.
+// Peers out of radio range handshake on the first message, which waits in a short queue meanwhile.
+// Handshakes are not bound to an identity, so one claiming to come from a peer we hold a valid session
+// with is ignored rather than allowed to replace it: a spoofed HELLO or REPLY cannot take a session
+// over. A peer that lost its sessions, e.g. to a restart, gets a new one once ours expires.
+//
+// Handshake payload: kind(1) answeredKey(4) publicKey(X.509). answeredKey is the ID of the key a REPLY
+// answers, 0 in a HELLO. Sealed content: sessionID(4) iv(12) ciphertext tag(16), with the message ID
+// as associated data.
+public class PrivateSessions {
+    static final long SESSION_LIFETIME_MS = 60 * 60 * 1000L;
+    static final long RECEIVE_GRACE_MS = 5 * 60 * 1000L; // Messages sealed just before the sender rekeyed
+    static final long HANDSHAKE_RETRY_MS = 5000;
+    static final long DISCOVERY_RETRY_MS = 60000; // Between announces prompted by the same neighbour
+    static final long ANNOUNCE_DELAY_MS = 500; // Gathers neighbours discovered together into one HELLO
+    static final int MAX_ATTEMPTS = 3;
+    static final int MAX_QUEUED = 32; // Messages per peer waiting for a session
+    private static final int PEERS = 256;
+    private static final byte HELLO = 0, REPLY = 1;
+    private static final byte[] INFO = "bitchat private session".getBytes(StandardCharsets.UTF_8);
+
+    public interface Transport {
+        // Peer 0 reaches every neighbour in range and is not relayed.
+        void sendHandshake(long peer, byte[] payload);
+
+        void sendMessage(long peer, BitchatMessage sealed);
+    }
+
+    public interface Scheduler {
+        void schedule(Runnable task, long delayMs);
+    }
+
+    private static final class LocalKey {
+        final KeyPair pair;
+        final byte[] encoded;
+        final int id;
+        final long createdAt;
+
+        LocalKey(KeyPair pair, long createdAt) {
+            this.pair = pair;
+            this.encoded = pair.getPublic().getEncoded();
+            this.id = keyID(encoded);
+            this.createdAt = createdAt;
+        }
+    }
+
+    private static final class Session {
+        final int id;
+        final byte[] sendKey;
+        final byte[] receiveKey;
+        final int localKey;
+        final byte[] theirKey;
+        final long createdAt;
+
+        Session(int id, byte[] sendKey, byte[] receiveKey, int localKey, byte[] theirKey, long createdAt) {
+            this.id = id;
+            this.sendKey = sendKey;
+            this.receiveKey = receiveKey;
+            this.localKey = localKey;
+            this.theirKey = theirKey;
+            this.createdAt = createdAt;
+        }
+    }
+
+    private static final class Peer {
+        Session current;
+        Session previous; // Still opens messages sealed before the last handshake
+        long handshakeAt = Long.MIN_VALUE / 2;
+        int attempts;
+        ArrayDeque<BitchatMessage> queued;
+    }
+
+    private final Clock clock;
+    private final Transport transport;
+    private final Scheduler scheduler;
+    private final LongLruCache<Peer> peers = new LongLruCache<>(PEERS);
+    private LocalKey localKey, previousKey;
+    private boolean announcePending;
+
+    public PrivateSessions(Clock clock, Transport transport, Scheduler scheduler) {
+        this.clock = clock;
+        this.transport = transport;
+        this.scheduler = scheduler;
+    }
+
+    // Seals message for peer and sends it, or queues it behind a handshake when no session is up.
+    // Returns false if too many messages already wait for peer.
+    public boolean send(long peer, BitchatMessage message) {
+        Session session;
+        boolean handshake = false, first = false;
+        synchronized (this) {
+            long now = clock.nowMillis();
+            Peer state = peer(peer);
+            session = sendable(state.current, now);
+            if (session == null) {
+                if (state.queued == null) state.queued = new ArrayDeque<>();
+                if (state.queued.size() >= MAX_QUEUED) return false;
+                first = state.queued.isEmpty();
+                state.queued.add(message);
+                if (now - state.handshakeAt >= HANDSHAKE_RETRY_MS) { // Otherwise one is already under way
+                    state.handshakeAt = now;
+                    handshake = true;
+                }
+                if (first) state.attempts = handshake ? 1 : 0;
+            }
+        }
+        if (session != null) {
+            transport.sendMessage(peer, seal(session, message));
+            return true;
+        }
+        if (handshake) hello(peer);
+        if (first) scheduler.schedule(() -> retry(peer), HANDSHAKE_RETRY_MS);
+        return true;
+    }
+
+    // Opens a sealed private message from peer in place. Returns false if it cannot be opened; when no
+    // session matches and none is valid, the peer is asked for a new handshake.
+    public boolean open(long peer, BitchatMessage message) {
+        byte[] sealed = message.encryptedContent;
+        if (sealed == null || sealed.length < 4 + Encryption.IV_SIZE + Encryption.TAG_SIZE) return false;
+        int id = ByteBuffer.wrap(sealed).getInt();
+        Session session = null;
+        boolean handshake = false;
+        synchronized (this) {
+            long now = clock.nowMillis();
+            Peer state = peers.get(peer);
+            if (state != null) session = openable(state.current, id, now) != null ? state.current : openable(state.previous, id, now);
+            if (session == null) {
+                Metrics.increment(Metrics.Counter.SESSION_MISSES);
+                if (state == null) {
+                    state = new Peer();
+                    peers.put(peer, state);
+                }
+                if (now - state.handshakeAt >= HANDSHAKE_RETRY_MS && sendable(state.current, now) == null) {
+                    state.handshakeAt = now; // With a valid session a handshake could not replace it
+                    handshake = true;
+                }
+            }
+        }
+        if (session == null) {
+            if (handshake) hello(peer);
+            return false;
+        }
+        try {
+            byte[] content = Encryption.open(session.receiveKey, sealed, 4, sealed.length - 4, aad(message));
+            message.content = new String(content, StandardCharsets.UTF_8);
+            message.encryptedContent = null;
+            message.isEncrypted = false;
+            return true;
+        } catch (GeneralSecurityException e) {
+            return false; // Altered in transit
+        }
+    }
+
+    public void onHandshake(long peer, byte[] payload, boolean broadcast) {
+        if (payload == null || payload.length < 6 || (payload[0] != HELLO && payload[0] != REPLY)) return;
+        boolean hello = payload[0] == HELLO;
+        int answered = ByteBuffer.wrap(payload, 1, 4).getInt();
+        byte[] theirKey = Arrays.copyOfRange(payload, 5, payload.length);
+        LocalKey local = hello ? localKey() : keyByID(answered);
+        if (local == null) return; // Answers a key we no longer hold
+        long now = clock.nowMillis();
+        boolean known;
+        synchronized (this) {
+            Session current = peer(peer).current;
+            boolean valid = sendable(current, now) != null;
+            known = valid && current.localKey == local.id && Arrays.equals(current.theirKey, theirKey);
+            if (valid && !known) return; // Never replaced by an unauthenticated handshake, see above
+        }
+        if (!known) {
+            Session session;
+            try {
+                session = derive(local, theirKey, now);
+            } catch (GeneralSecurityException e) {
+                return; // Not a P-256 key
+            }
+            install(peer, session);
+        }
+        if (hello && (!known || !broadcast)) {
+            Metrics.increment(Metrics.Counter.HANDSHAKES_SENT);
+            transport.sendHandshake(peer, handshake(REPLY, keyID(theirKey), localKey()));
+        }
+    }
+
+    // Called for every packet a neighbour transmits; neighbours without a session are announced to.
+    public void onNeighbourHeard(long neighbour) {
+        synchronized (this) {
+            long now = clock.nowMillis();
+            Peer state = peers.get(neighbour);
+            if (state != null && sendable(state.current, now) != null) return;
+            if (state == null) {
+                state = new Peer();
+                peers.put(neighbour, state);
+            }
+            if (now - state.handshakeAt < DISCOVERY_RETRY_MS) return;
+            state.handshakeAt = now;
+            if (announcePending) return;
+            announcePending = true;
+        }
+        scheduler.schedule(this::announce, ANNOUNCE_DELAY_MS);
+    }
+
+    public synchronized boolean hasSession(long peer) {
+        Peer state = peers.peek(peer);
+        return state != null && sendable(state.current, clock.nowMillis()) != null;
+    }
+
+    private void announce() {
+        synchronized (this) {
+            announcePending = false;
+        }
+        hello(0);
+    }
+
+    // Resends a HELLO while messages still wait for peer, and gives them up after MAX_ATTEMPTS.
+    private void retry(long peer) {
+        synchronized (this) {
+            Peer state = peers.peek(peer);
+            if (state == null || state.queued == null || state.queued.isEmpty()) return;
+            if (sendable(state.current, clock.nowMillis()) != null) return;
+            if (state.attempts >= MAX_ATTEMPTS) {
+                Metrics.add(Metrics.Counter.SESSION_FAILURES, state.queued.size());
+                state.queued = null;
+                return;
+            }
+            state.attempts++;
+            state.handshakeAt = clock.nowMillis();
+        }
+        hello(peer);
+        scheduler.schedule(() -> retry(peer), HANDSHAKE_RETRY_MS);
+    }
+
+    private void hello(long peer) {
+        Metrics.increment(Metrics.Counter.HANDSHAKES_SENT);
+        transport.sendHandshake(peer, handshake(HELLO, 0, localKey()));
+    }
+
+    private void install(long peer, Session session) {
+        List<BitchatMessage> ready = null;
+        synchronized (this) {
+            Peer state = peer(peer);
+            if (state.current != null && state.current.id != session.id) state.previous = state.current;
+            state.current = session;
+            state.attempts = 0;
+            if (state.queued != null) {
+                ready = new ArrayList<>(state.queued);
+                state.queued = null;
+            }
+        }
+        Metrics.increment(Metrics.Counter.SESSIONS_ESTABLISHED);
+        if (ready != null) for (BitchatMessage message : ready) transport.sendMessage(peer, seal(session, message));
+    }
+
+    private Peer peer(long peer) {
+        Peer state = peers.get(peer);
+        if (state == null) {
+            state = new Peer();
+            peers.put(peer, state);
+        }
+        return state;
+    }
+
+    // The current key pair, replaced once it is SESSION_LIFETIME_MS old; the one before still answers
+    // handshakes in flight.
+    private synchronized LocalKey localKey() {
+        long now = clock.nowMillis();
+        if (localKey == null || now - localKey.createdAt >= SESSION_LIFETIME_MS) {
+            try {
+                KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+                generator.initialize(new ECGenParameterSpec("secp256r1"));
+                previousKey = localKey;
+                localKey = new LocalKey(generator.generateKeyPair(), now);
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException("P-256 key generation failed", e);
+            }
+        }
+        return localKey;
+    }
+
+    private synchronized LocalKey keyByID(int id) {
+        if (localKey != null && localKey.id == id) return localKey;
+        if (previousKey != null && previousKey.id == id) return previousKey;
+        return null;
+    }
+
+    // Both sides order the two public keys the same way, so they derive the same keys, and each sends
+    // with the key the other receives with.
+    private static Session derive(LocalKey local, byte[] theirKey, long now) throws GeneralSecurityException {
+        PublicKey theirs = KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(theirKey));
+        KeyAgreement agreement = KeyAgreement.getInstance("ECDH");
+        agreement.init(local.pair.getPrivate());
+        agreement.doPhase(theirs, true);
+        byte[] secret = agreement.generateSecret();
+        boolean low = compare(local.encoded, theirKey) < 0;
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(low ? local.encoded : theirKey);
+        digest.update(low ? theirKey : local.encoded);
+        byte[] keys = Encryption.hkdf(digest.digest(), secret, INFO, 68);
+        Arrays.fill(secret, (byte) 0);
+        byte[] lowToHigh = Arrays.copyOfRange(keys, 0, 32);
+        byte[] highToLow = Arrays.copyOfRange(keys, 32, 64);
+        int id = ByteBuffer.wrap(keys, 64, 4).getInt();
+        return new Session(id, low ? lowToHigh : highToLow, low ? highToLow : lowToHigh, local.id, theirKey, now);
+    }
+
+    private static BitchatMessage seal(Session session, BitchatMessage message) {
+        BitchatMessage sealed = new BitchatMessage();
+        sealed.id = message.id;
+        sealed.sender = message.sender;
+        sealed.timestamp = message.timestamp;
+        sealed.isRelay = message.isRelay;
+        sealed.originalSender = message.originalSender;
+        sealed.isPrivate = true;
+        sealed.recipientNickname = message.recipientNickname;
+        sealed.senderPeerID = message.senderPeerID;
+        sealed.isEncrypted = true;
+        sealed.deliveryStatus = message.deliveryStatus;
+        byte[] content = message.content != null ? message.content.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        try {
+            byte[] box = Encryption.seal(session.sendKey, content, aad(message));
+            sealed.encryptedContent = ByteBuffer.allocate(4 + box.length).putInt(session.id).put(box).array();
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("AES-GCM seal failed", e);
+        }
+        return sealed;
+    }
+
+    private static byte[] aad(BitchatMessage message) {
+        return message.id != null ? message.id.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static Session sendable(Session session, long now) {
+        return session != null && now - session.createdAt < SESSION_LIFETIME_MS ? session : null;
+    }
+
+    private static Session openable(Session session, int id, long now) {
+        return session != null && session.id == id && now - session.createdAt < SESSION_LIFETIME_MS + RECEIVE_GRACE_MS ? session : null;
+    }
+
+    private static byte[] handshake(byte kind, int answered, LocalKey local) {
+        return ByteBuffer.allocate(5 + local.encoded.length).put(kind).putInt(answered).put(local.encoded).array();
+    }
+
+    private static int keyID(byte[] encoded) {
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(encoded)).getInt();
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("SHA-256 algorithm not available", e);
+        }
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (diff != 0) return diff;
+        }
+        return a.length - b.length;
+    }
+}
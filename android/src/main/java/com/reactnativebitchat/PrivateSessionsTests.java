@@ -0,0 +1,330 @@
+package com.reactnativebitchat;
+
+import com.reactnativebitchat.Message.BitchatMessage;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import javax.crypto.KeyAgreement;
+
+public class PrivateSessionsTests {
+    private static final class ManualClock implements Clock {
+        long now = 1000;
+
+        @Override
+        public long nowMillis() {
+            return now;
+        }
+    }
+
+    // Peers on one shared clock, with packets delivered in order through a queue and scheduled tasks
+    // run when time is advanced. Broadcast handshakes reach every neighbour of the sender.
+    private static final class Mesh {
+        final ManualClock clock = new ManualClock();
+        final Map<Long, PrivateSessions> nodes = new HashMap<>();
+        final Map<Long, List<Long>> neighbours = new HashMap<>();
+        final Map<Long, List<BitchatMessage>> inbox = new HashMap<>();
+        final ArrayDeque<Runnable> packets = new ArrayDeque<>();
+        final PriorityQueue<long[]> due = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+        final List<Runnable> tasks = new ArrayList<>();
+        final List<BitchatMessage> sealed = new ArrayList<>();
+        final List<byte[]> handshakePayloads = new ArrayList<>();
+        int handshakes;
+        boolean dropHandshakes;
+
+        PrivateSessions add(long id, long... near) {
+            List<Long> list = new ArrayList<>();
+            for (long peer : near) list.add(peer);
+            neighbours.put(id, list);
+            inbox.put(id, new ArrayList<>());
+            PrivateSessions node = new PrivateSessions(clock, new PrivateSessions.Transport() {
+                @Override
+                public void sendHandshake(long peer, byte[] payload) {
+                    handshakes++;
+                    handshakePayloads.add(payload.clone());
+                    if (dropHandshakes) return;
+                    for (long to : peer == 0 ? neighbours.get(id) : list(peer)) {
+                        packets.add(() -> nodes.get(to).onHandshake(id, payload.clone(), peer == 0));
+                    }
+                }
+
+                @Override
+                public void sendMessage(long peer, BitchatMessage sealed) {
+                    Mesh.this.sealed.add(sealed);
+                    BitchatMessage received = Protocol.decodeMessage(Protocol.encodeMessage(sealed)); // As on air
+                    packets.add(() -> {
+                        if (nodes.get(peer).open(id, received)) inbox.get(peer).add(received);
+                    });
+                }
+            }, (task, delayMs) -> {
+                tasks.add(task);
+                due.add(new long[]{clock.now + delayMs, tasks.size() - 1});
+            });
+            nodes.put(id, node);
+            return node;
+        }
+
+        private List<Long> list(long peer) {
+            List<Long> list = new ArrayList<>();
+            list.add(peer);
+            return list;
+        }
+
+        void deliver() {
+            while (!packets.isEmpty()) packets.poll().run();
+        }
+
+        void advance(long ms) {
+            long until = clock.now + ms;
+            deliver();
+            while (!due.isEmpty() && due.peek()[0] <= until) {
+                long[] next = due.poll();
+                clock.now = Math.max(clock.now, next[0]);
+                tasks.get((int) next[1]).run();
+                deliver();
+            }
+            clock.now = until;
+        }
+    }
+
+    private static BitchatMessage message(String id, String content) {
+        BitchatMessage msg = new BitchatMessage();
+        msg.id = id;
+        msg.sender = "alice";
+        msg.content = content;
+        msg.isPrivate = true;
+        msg.recipientNickname = "bob";
+        return msg;
+    }
+
+    @Test
+    public void testHandshakeOnFirstMessage() {
+        Mesh mesh = new Mesh();
+        PrivateSessions alice = mesh.add(1);
+        mesh.add(2);
+        BitchatMessage first = message("m1", "meet at the gate");
+        assertTrue(alice.send(2, first));
+        assertTrue(alice.send(2, message("m2", "in ten minutes")));
+        assertEquals("meet at the gate", first.content); // The caller's copy stays plaintext
+        mesh.deliver();
+        assertEquals(2, mesh.handshakes); // HELLO and REPLY
+        List<BitchatMessage> inbox = mesh.inbox.get(2L);
+        assertEquals(2, inbox.size());
+        assertEquals("meet at the gate", inbox.get(0).content);
+        assertEquals("in ten minutes", inbox.get(1).content);
+        assertFalse(inbox.get(0).isEncrypted);
+
+        for (int i = 0; i < 20; i++) alice.send(2, message("r" + i, "reply " + i));
+        mesh.nodes.get(2L).send(1, message("b1", "on my way"));
+        mesh.deliver();
+        assertEquals(2, mesh.handshakes); // Both directions reuse the session
+        assertEquals(22, inbox.size());
+        assertEquals("on my way", mesh.inbox.get(1L).get(0).content);
+    }
+
+    @Test
+    public void testDiscoveryAnnouncesOnce() {
+        Mesh mesh = new Mesh();
+        PrivateSessions alice = mesh.add(1, 2, 3, 4);
+        mesh.add(2, 1);
+        mesh.add(3, 1);
+        mesh.add(4, 1);
+        for (int i = 0; i < 10; i++) for (long peer = 2; peer <= 4; peer++) alice.onNeighbourHeard(peer);
+        mesh.advance(PrivateSessions.ANNOUNCE_DELAY_MS);
+        assertEquals(1 + 3, mesh.handshakes); // One broadcast HELLO, one REPLY from each neighbour
+        for (long peer = 2; peer <= 4; peer++) {
+            assertTrue(alice.hasSession(peer));
+            assertTrue(mesh.nodes.get(peer).hasSession(1));
+        }
+        alice.send(3, message("m1", "hi"));
+        mesh.deliver();
+        assertEquals(4, mesh.handshakes); // The first message goes without waiting for a handshake
+        assertEquals("hi", mesh.inbox.get(3L).get(0).content);
+        alice.onNeighbourHeard(2);
+        mesh.advance(PrivateSessions.ANNOUNCE_DELAY_MS);
+        assertEquals(4, mesh.handshakes);
+    }
+
+    @Test
+    public void testExpiryAndGrace() {
+        Mesh mesh = new Mesh();
+        PrivateSessions alice = mesh.add(1);
+        PrivateSessions bob = mesh.add(2);
+        alice.send(2, message("m1", "one"));
+        mesh.deliver();
+        mesh.advance(PrivateSessions.SESSION_LIFETIME_MS - 1);
+        // Sealed just before expiry, delivered after it: the old session still opens it
+        alice.send(2, message("m2", "two"));
+        mesh.clock.now += 2;
+        mesh.deliver();
+        assertEquals(2, mesh.inbox.get(2L).size());
+        assertFalse(alice.hasSession(2));
+        int before = mesh.handshakes;
+        alice.send(2, message("m3", "three")); // New keys on both sides
+        mesh.deliver();
+        assertEquals(before + 2, mesh.handshakes);
+        assertEquals("three", mesh.inbox.get(2L).get(2).content);
+        assertTrue(bob.hasSession(1));
+    }
+
+    @Test
+    public void testRejectsTamperingAndRecoversFromLostSession() {
+        Mesh mesh = new Mesh();
+        PrivateSessions alice = mesh.add(1);
+        PrivateSessions bob = mesh.add(2);
+        alice.send(2, message("m1", "one"));
+        mesh.deliver();
+        alice.send(2, message("m2", "secret"));
+        mesh.packets.clear();
+        BitchatMessage sealed = Protocol.decodeMessage(Protocol.encodeMessage(mesh.sealed.get(mesh.sealed.size() - 1)));
+        assertNull(sealed.content); // Only ciphertext on air
+        assertFalse(new String(sealed.encryptedContent, StandardCharsets.ISO_8859_1).contains("secret"));
+
+        BitchatMessage altered = Protocol.decodeMessage(Protocol.encodeMessage(sealed));
+        altered.encryptedContent[altered.encryptedContent.length - 1] ^= 1;
+        assertFalse(bob.open(1, altered));
+        BitchatMessage renamed = Protocol.decodeMessage(Protocol.encodeMessage(sealed));
+        renamed.id = "m3"; // Moved onto another message ID
+        assertFalse(bob.open(1, renamed));
+        assertTrue(bob.open(1, sealed));
+        assertEquals("secret", sealed.content);
+
+        // A restarted peer has lost its sessions. The handshake it asks for cannot replace ours while that
+        // is valid, so it reads us again once our session has expired
+        long misses = Metrics.get(Metrics.Counter.SESSION_MISSES);
+        PrivateSessions restarted = mesh.add(2);
+        alice.send(2, message("m4", "lost"));
+        mesh.deliver();
+        assertEquals(misses + 1, Metrics.get(Metrics.Counter.SESSION_MISSES));
+        assertFalse(restarted.hasSession(1));
+        mesh.advance(PrivateSessions.SESSION_LIFETIME_MS);
+        alice.send(2, message("m5", "after restart"));
+        mesh.deliver();
+        assertTrue(restarted.hasSession(1));
+        List<BitchatMessage> inbox = mesh.inbox.get(2L);
+        assertEquals("after restart", inbox.get(inbox.size() - 1).content);
+    }
+
+    // Handshakes carry no identity, so anyone can claim a peer's ID; one that would replace a valid
+    // session is ignored and not answered.
+    @Test
+    public void testSpoofedHandshakesCannotTakeOverSession() {
+        Mesh mesh = new Mesh();
+        PrivateSessions alice = mesh.add(1);
+        mesh.add(2);
+        alice.send(2, message("m1", "one"));
+        mesh.deliver();
+        List<byte[]> forged = new ArrayList<>();
+        PrivateSessions mallory = new PrivateSessions(mesh.clock, new PrivateSessions.Transport() {
+            @Override
+            public void sendHandshake(long peer, byte[] payload) {
+                forged.add(payload);
+            }
+
+            @Override
+            public void sendMessage(long peer, BitchatMessage sealed) {
+            }
+        }, (task, delayMs) -> {
+        });
+        mallory.send(1, message("x", "x")); // Her own HELLO
+        mallory.onHandshake(1, mesh.handshakePayloads.get(0), false); // Her REPLY to alice's overheard HELLO
+        assertEquals(2, forged.size());
+        int handshakes = mesh.handshakes;
+        alice.onHandshake(2, forged.get(0), false); // Both claiming to come from bob
+        alice.onHandshake(2, forged.get(1), false);
+        mesh.deliver();
+        assertEquals(handshakes, mesh.handshakes);
+
+        alice.send(2, message("m2", "still for bob"));
+        mesh.deliver();
+        List<BitchatMessage> inbox = mesh.inbox.get(2L);
+        assertEquals("still for bob", inbox.get(inbox.size() - 1).content);
+    }
+
+    @Test
+    public void testGivesUpAfterUnansweredHandshakes() {
+        Mesh mesh = new Mesh();
+        PrivateSessions alice = mesh.add(1);
+        mesh.add(2);
+        mesh.dropHandshakes = true;
+        long failures = Metrics.get(Metrics.Counter.SESSION_FAILURES);
+        for (int i = 0; i < PrivateSessions.MAX_QUEUED; i++) assertTrue(alice.send(2, message("m" + i, "x")));
+        assertFalse(alice.send(2, message("over", "x"))); // Queue full
+        mesh.advance(PrivateSessions.HANDSHAKE_RETRY_MS * (PrivateSessions.MAX_ATTEMPTS + 1));
+        assertEquals(PrivateSessions.MAX_ATTEMPTS, mesh.handshakes);
+        assertEquals(failures + PrivateSessions.MAX_QUEUED, Metrics.get(Metrics.Counter.SESSION_FAILURES));
+        mesh.dropHandshakes = false;
+        assertTrue(alice.send(2, message("later", "y")));
+        mesh.deliver();
+        assertEquals("y", mesh.inbox.get(2L).get(0).content);
+    }
+
+    // A long conversation pays for one key agreement, not one per message.
+    @Test
+    public void testOneHandshakeForManyMessages() {
+        Mesh mesh = new Mesh();
+        PrivateSessions alice = mesh.add(1);
+        mesh.add(2);
+        long handshakes = Metrics.get(Metrics.Counter.HANDSHAKES_SENT);
+        long established = Metrics.get(Metrics.Counter.SESSIONS_ESTABLISHED);
+        int messages = 20000;
+        for (int i = 0; i < messages; i++) {
+            assertTrue(alice.send(2, message("m" + i, "does anyone have a charger? mine is dead")));
+            if (i % 1000 == 0) mesh.deliver();
+        }
+        mesh.deliver();
+        assertEquals(messages, mesh.inbox.get(2L).size());
+        assertEquals(2, mesh.handshakes);
+        assertEquals(handshakes + 2, Metrics.get(Metrics.Counter.HANDSHAKES_SENT));
+        assertEquals(established + 2, Metrics.get(Metrics.Counter.SESSIONS_ESTABLISHED));
+    }
+
+    // Cost of a private message with a key agreement each (fresh P-256 key pair, ECDH, HKDF, AES-GCM)
+    // against one sealed under a cached session.
+    @Test
+    public void benchmarkSessionCost() throws Exception {
+        Benchmarks.assumeEnabled();
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair peer = generator.generateKeyPair();
+        byte[] content = "does anyone have a charger? mine is dead".getBytes(StandardCharsets.UTF_8);
+        int rounds = 200;
+        long start = 0;
+        for (int i = 0; i < 2 * rounds; i++) {
+            if (i == rounds) start = System.nanoTime(); // First half warms up
+            KeyPair ephemeral = generator.generateKeyPair();
+            KeyAgreement agreement = KeyAgreement.getInstance("ECDH");
+            agreement.init(ephemeral.getPrivate());
+            agreement.doPhase(peer.getPublic(), true);
+            byte[] key = Encryption.hkdf(null, agreement.generateSecret(), new byte[0], 32);
+            Encryption.seal(key, content, null);
+        }
+        double perMessageUs = (System.nanoTime() - start) / 1e3 / rounds;
+
+        Mesh mesh = new Mesh();
+        PrivateSessions alice = mesh.add(1);
+        mesh.add(2);
+        alice.send(2, message("m0", "hello"));
+        mesh.deliver();
+        int messages = 20000;
+        for (int i = 0; i < 2 * messages; i++) {
+            if (i == messages) start = System.nanoTime();
+            alice.send(2, message("m", "does anyone have a charger? mine is dead"));
+        }
+        double sessionUs = (System.nanoTime() - start) / 1e3 / messages;
+        mesh.packets.clear();
+        System.out.printf("Private message crypto: %.1f us with a key agreement each, %.2f us under a cached session (%.0fx)%n",
+                perMessageUs, sessionUs, perMessageUs / sessionUs);
+    }
+}
@@ -1,117 +1,216 @@
 package com.reactnativebitchat;
 
+import com.reactnativebitchat.Message.BitchatMessage;
+import com.reactnativebitchat.Message.BitchatPacket;
+
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.zip.DataFormatException;
 
 public class Protocol {
-    private static final int VERSION = 1;
+    // 2: channel tag, route, trace and read-mark header flags, fragment types 0x0D-0x0F, delivery acks, the
+    // message flags byte and padded content, all carried in FEC frames. Packets of any other version are dropped
+    // unread, so nodes still on version 1 (including the iOS module) are not misparsed.
+    static final int VERSION = 2;
     private static final int HEADER_SIZE = 29; // version(1) + type(1) + senderID(8) + recipientID(8) + timestamp(8) + ttl(1) + payloadLength(2)
-    private static final byte FRAGMENT_START = 0x01;
-    private static final byte FRAGMENT_CONTINUE = 0x02;
-    private static final byte FRAGMENT_END = 0x03;
-    private static final Map<String, byte[]> fragmentBuffer = new HashMap<>();
+    public static final int TYPE_MASK = 0x0F; // Packet type lives in the low nibble, flags in the high nibble
+    public static final int TYPE_FLAG_CHANNEL_TAG = 0x80; // A 4-byte channel tag follows the type byte
+    public static final int CHANNEL_TAG_SIZE = 4;
+    public static final int TYPE_FLAG_ROUTE = 0x40; // lastHop(8) + nextHop(8) follow the channel tag
+    public static final int ROUTE_SIZE = 16;
+    public static final int TYPE_FLAG_TRACE = 0x20; // Sampled for hop-by-hop tracing, see Trace; no extra bytes
+    public static final int TYPE_FLAG_READ = 0x10; // readKey(8) + readUpTo(8) follow the route, see ReadWatermarks
+    public static final int READ_SIZE = 16;
+    private static final int MAX_PAYLOAD_SIZE = 0xFFFF; // payloadLength is a u16; FecFramer splits the packet for the radio
+    static final byte SYNC = 0x02; // HistorySync payload, sent to a neighbour only
+    static final byte READ_RECEIPT = 0x03; // No payload, only a read watermark in the header
+    static final byte HANDSHAKE = 0x04; // PrivateSessions key exchange
+    static final byte DELIVERY_ACK = 0x05; // Trace.messageKey(8) of a private message that reached its recipient
+    // Fragments sent as separate packets are reassembled on receive; encodePacket never splits a packet, as
+    // FecFramer frames it whole. Kept clear of the message types so a type 1 channel message is not mistaken
+    // for a fragment.
+    static final byte FRAGMENT_START = 0x0D;
+    static final byte FRAGMENT_CONTINUE = 0x0E;
+    static final byte FRAGMENT_END = 0x0F;
+    private static final int MESSAGE_HEADER_SIZE = 17; // timestamp(8) + relay, private and flags (3) + three u16 lengths
+    private static final byte MESSAGE_FLAG_ENCRYPTED = 0x01;
+    private static final byte MESSAGE_FLAG_COMPRESSED = 0x02; // Content is raw deflate with the static chat dictionary
+    private static final byte MESSAGE_FLAG_SEALED = 0x04; // Content is encryptedContent as is, see PrivateSessions
+    private static final long REASSEMBLY_TIMEOUT_MS = 30000; // Partial packets older than this are discarded
+    private static final LinkedHashMap<String, Reassembly> fragmentBuffer = new LinkedHashMap<>(); // Oldest first
 
-    public static byte[] encodePacket(BitchatPacket packet) {
-        if (packet.ttl <= 0) packet.ttl = 1; // Ensure TTL is at least 1
-        packet.ttl--; // Decrement TTL for routing
+    private static final class Reassembly {
+        final long startedAt;
+        byte[] data = new byte[0];
+
+        Reassembly(long startedAt) {
+            this.startedAt = startedAt;
+        }
+    }
 
+    public static byte[] encodePacket(BitchatPacket packet) {
+        int ttl = Math.max(packet.ttl, 1) - 1; // Decrement TTL for routing
         int payloadLength = packet.payload != null ? packet.payload.length : 0;
         int signatureLength = packet.signature != null ? 64 : 0;
-        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payloadLength + signatureLength);
+        int headerSize = HEADER_SIZE + (packet.channelTag != 0 ? CHANNEL_TAG_SIZE : 0) + (hasRoute(packet) ? ROUTE_SIZE : 0)
+                + (packet.readUpTo != 0 ? READ_SIZE : 0);
 
-        buffer.put((byte) VERSION);
-        if (payloadLength > 0) {
-            if (payloadLength > 1024) { // Arbitrary max fragment size
-                byte fragmentType = FRAGMENT_START;
-                int offset = 0;
-                while (offset < payloadLength) {
-                    int chunkSize = Math.min(1024, payloadLength - offset);
-                    byte[] chunk = new byte[chunkSize];
-                    System.arraycopy(packet.payload, offset, chunk, 0, chunkSize);
-                    BitchatPacket fragmentPacket = new BitchatPacket();
-                    fragmentPacket.version = VERSION;
-                    fragmentPacket.type = fragmentType;
-                    fragmentPacket.senderID = packet.senderID;
-                    fragmentPacket.recipientID = packet.recipientID;
-                    fragmentPacket.timestamp = packet.timestamp;
-                    fragmentPacket.ttl = packet.ttl;
-                    fragmentPacket.payload = chunk;
-                    fragmentPacket.signature = packet.signature;
-                    buffer.put((byte) fragmentPacket.type);
-                    buffer.put(padOrTruncate(fragmentPacket.senderID, 8));
-                    buffer.put(padOrTruncate(fragmentPacket.recipientID, 8));
-                    buffer.putLong(fragmentPacket.timestamp);
-                    buffer.put((byte) fragmentPacket.ttl);
-                    buffer.putShort((short) chunkSize);
-                    buffer.put(chunk);
-                    if (fragmentPacket.signature != null) buffer.put(fragmentPacket.signature);
-                    offset += chunkSize;
-                    fragmentType = FRAGMENT_CONTINUE;
-                }
-                buffer.put(FRAGMENT_END); // Mark end of fragments
-            } else {
-                buffer.put((byte) packet.type);
-                buffer.put(padOrTruncate(packet.senderID, 8));
-                buffer.put(padOrTruncate(packet.recipientID, 8));
-                buffer.putLong(packet.timestamp);
-                buffer.put((byte) packet.ttl);
-                buffer.putShort((short) payloadLength);
-                if (packet.payload != null) buffer.put(packet.payload);
-                if (packet.signature != null) buffer.put(packet.signature);
+        if (payloadLength > MAX_PAYLOAD_SIZE) throw new IllegalArgumentException("Payload of " + payloadLength + " bytes");
+
+        Metrics.increment(Metrics.Counter.PACKETS_ENCODED);
+        ByteBuffer buffer = ByteBuffer.allocate(headerSize + payloadLength + signatureLength);
+        buffer.put((byte) (packet.version != 0 ? packet.version : VERSION));
+        putHeader(buffer, packet, packet.type, ttl, payloadLength);
+        if (packet.payload != null) buffer.put(packet.payload);
+        if (packet.signature != null) buffer.put(packet.signature);
+        if (packet.traced) Trace.record(Trace.Event.ENCODE, packetId(packet), buffer.capacity());
+        return buffer.array();
+    }
+
+    // Reads the channel tag straight from encoded packet bytes, 0 when the packet is untagged. Lets a relay
+    // decide whether to parse a packet at all.
+    public static int peekChannelTag(byte[] data) {
+        if (data == null || data.length < 2 + CHANNEL_TAG_SIZE || data[0] != VERSION) return 0;
+        if ((data[1] & TYPE_FLAG_CHANNEL_TAG) == 0) return 0;
+        return ((data[2] & 0xFF) << 24) | ((data[3] & 0xFF) << 16) | ((data[4] & 0xFF) << 8) | (data[5] & 0xFF);
+    }
+
+    // Whether encoded packet bytes carry the trace flag.
+    public static boolean peekTraced(byte[] data) {
+        return data != null && data.length >= 2 && data[0] == VERSION && (data[1] & TYPE_FLAG_TRACE) != 0;
+    }
+
+    // Decrements the TTL of an encoded packet in place for raw forwarding. Returns false if the packet
+    // is malformed or has no hops left.
+    public static boolean decrementTtl(byte[] data) {
+        int offset = idOffset(data);
+        if (offset < 0) return false;
+        int ttl = data[offset + 24] & 0xFF;
+        if (ttl == 0) return false;
+        data[offset + 24] = (byte) (ttl - 1);
+        return true;
+    }
+
+    // Prepares encoded packet bytes to be forwarded unparsed by localID: TTL is decremented and the
+    // last hop, if present, rewritten so receivers learn routes through us rather than our neighbour.
+    public static boolean relayInPlace(byte[] data, long localID) {
+        if (!decrementTtl(data)) return false;
+        if ((data[1] & TYPE_FLAG_ROUTE) != 0) {
+            int offset = 2 + ((data[1] & TYPE_FLAG_CHANNEL_TAG) != 0 ? CHANNEL_TAG_SIZE : 0);
+            for (int i = 7; i >= 0; i--) {
+                data[offset + i] = (byte) localID;
+                localID >>>= 8;
             }
-        } else {
-            buffer.put((byte) packet.type);
-            buffer.put(padOrTruncate(packet.senderID, 8));
-            buffer.put(padOrTruncate(packet.recipientID, 8));
-            buffer.putLong(packet.timestamp);
-            buffer.put((byte) packet.ttl);
-            buffer.putShort((short) 0);
-            if (packet.signature != null) buffer.put(packet.signature);
         }
+        return true;
+    }
 
-        return buffer.array();
+    // Sender of encoded packet bytes as a long, 0 if malformed.
+    public static long peekSenderID(byte[] data) {
+        int offset = idOffset(data);
+        return offset < 0 ? 0 : readLong(data, offset);
+    }
+
+    // Neighbour that transmitted encoded packet bytes: the last hop when the route extension is present,
+    // else the sender. 0 if malformed.
+    public static long peekLastHop(byte[] data) {
+        int offset = idOffset(data);
+        if (offset < 0) return 0;
+        if ((data[1] & TYPE_FLAG_ROUTE) == 0) return readLong(data, offset);
+        return readLong(data, 2 + ((data[1] & TYPE_FLAG_CHANNEL_TAG) != 0 ? CHANNEL_TAG_SIZE : 0));
+    }
+
+    // Designated next hop of encoded packet bytes, 0 when the packet is flooded or malformed.
+    public static long peekNextHop(byte[] data) {
+        if (idOffset(data) < 0 || (data[1] & TYPE_FLAG_ROUTE) == 0) return 0;
+        return readLong(data, 2 + ((data[1] & TYPE_FLAG_CHANNEL_TAG) != 0 ? CHANNEL_TAG_SIZE : 0) + 8);
+    }
+
+    // Remaining TTL of encoded packet bytes, -1 if malformed.
+    public static int peekTtl(byte[] data) {
+        int offset = idOffset(data);
+        return offset < 0 ? -1 : data[offset + 24] & 0xFF;
+    }
+
+    // Identity of a packet across relays (sender and timestamp), for duplicate suppression.
+    public static long packetId(long senderID, long timestamp) {
+        return senderID * 0x9E3779B97F4A7C15L ^ timestamp;
+    }
+
+    public static long packetId(BitchatPacket packet) {
+        return packetId(Router.idToLong(packet.senderID), packet.timestamp);
+    }
+
+    // packetId read straight from encoded bytes, 0 if malformed.
+    public static long peekPacketId(byte[] data) {
+        int offset = idOffset(data);
+        if (offset < 0) return 0;
+        return packetId(readLong(data, offset), readLong(data, offset + 16));
     }
 
     public static BitchatPacket decodePacket(byte[] data) {
-        if (data == null || data.length < HEADER_SIZE) return null;
+        if (data == null || data.length < HEADER_SIZE) return invalid();
 
         ByteBuffer buffer = ByteBuffer.wrap(data);
         byte version = buffer.get();
-        if (version != VERSION) return null; // Validate version
+        if (version != VERSION) return invalid(); // Validate version
 
         BitchatPacket packet = new BitchatPacket();
         packet.version = version;
-        packet.type = buffer.get();
+        int type = buffer.get() & 0xFF;
+        packet.type = type & TYPE_MASK;
+        packet.traced = (type & TYPE_FLAG_TRACE) != 0;
+        if (idOffset(data) < 0) return invalid();
+        if ((type & TYPE_FLAG_CHANNEL_TAG) != 0) packet.channelTag = buffer.getInt();
+        if ((type & TYPE_FLAG_ROUTE) != 0) {
+            packet.lastHop = buffer.getLong();
+            packet.nextHop = buffer.getLong();
+        }
+        if ((type & TYPE_FLAG_READ) != 0) {
+            packet.readKey = buffer.getLong();
+            packet.readUpTo = buffer.getLong();
+        }
         packet.senderID = new byte[8];
         buffer.get(packet.senderID);
         packet.recipientID = new byte[8];
         buffer.get(packet.recipientID);
         packet.timestamp = buffer.getLong();
         packet.ttl = buffer.get();
-        short payloadLength = buffer.getShort();
+        int payloadLength = buffer.getShort() & 0xFFFF;
+        if (payloadLength > buffer.remaining()) return invalid(); // Truncated packet
 
         // Handle fragmentation
-        String key = new String(packet.senderID) + "_" + packet.timestamp;
         if (packet.type == FRAGMENT_START || packet.type == FRAGMENT_CONTINUE || packet.type == FRAGMENT_END) {
+            String key = new String(packet.senderID) + "_" + packet.timestamp;
             byte[] fragmentData = new byte[payloadLength];
             buffer.get(fragmentData);
-            byte[] existing = fragmentBuffer.getOrDefault(key, new byte[0]);
-            byte[] newData = new byte[existing.length + fragmentData.length];
-            System.arraycopy(existing, 0, newData, 0, existing.length);
-            System.arraycopy(fragmentData, 0, newData, existing.length, fragmentData.length);
-            fragmentBuffer.put(key, newData);
-
-            if (packet.type == FRAGMENT_END) {
-                packet.payload = fragmentBuffer.remove(key);
-                if (buffer.remaining() >= 64) {
-                    packet.signature = new byte[64];
-                    buffer.get(packet.signature);
+            byte[] assembled;
+            synchronized (fragmentBuffer) {
+                long now = System.currentTimeMillis();
+                expireReassemblies(now);
+                Reassembly reassembly = fragmentBuffer.get(key);
+                if (reassembly == null) {
+                    reassembly = new Reassembly(now);
+                    fragmentBuffer.put(key, reassembly);
                 }
-                return packet;
+                byte[] newData = Arrays.copyOf(reassembly.data, reassembly.data.length + fragmentData.length);
+                System.arraycopy(fragmentData, 0, newData, reassembly.data.length, fragmentData.length);
+                reassembly.data = newData;
+                if (packet.type != FRAGMENT_END) return null; // Wait for more fragments
+                assembled = fragmentBuffer.remove(key).data;
             }
-            return null; // Wait for more fragments
+            packet.payload = assembled;
+            if (buffer.remaining() >= 64) {
+                packet.signature = new byte[64];
+                buffer.get(packet.signature);
+            }
+            Metrics.increment(Metrics.Counter.REASSEMBLIES_COMPLETED);
+            if (packet.traced) Trace.record(Trace.Event.REASSEMBLE, packetId(packet), assembled.length);
+            Metrics.increment(Metrics.Counter.PACKETS_DECODED);
+            return packet;
         }
 
         if (payloadLength > 0) {
@@ -123,87 +222,176 @@ public class Protocol {
             buffer.get(packet.signature);
         }
 
+        Metrics.increment(Metrics.Counter.PACKETS_DECODED);
         return packet;
     }
 
+    private static BitchatPacket invalid() {
+        Metrics.increment(Metrics.Counter.PACKETS_INVALID);
+        return null;
+    }
+
+    // Caller holds the fragmentBuffer lock.
+    private static void expireReassemblies(long now) {
+        Iterator<Reassembly> iterator = fragmentBuffer.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().startedAt < REASSEMBLY_TIMEOUT_MS) break;
+            iterator.remove();
+            Metrics.increment(Metrics.Counter.REASSEMBLIES_EXPIRED);
+        }
+    }
+
     public static byte[] encodeMessage(BitchatMessage message) {
-        ByteBuffer buffer = ByteBuffer.allocate(1024); // Adjust size as needed
         byte[] contentBytes = (message.content != null ? message.content.getBytes() : new byte[0]);
-        int paddingSize = calculatePadding(contentBytes.length);
-        byte[] paddedContent = padContent(contentBytes, paddingSize);
+        byte flags = message.isEncrypted ? MESSAGE_FLAG_ENCRYPTED : 0;
+        if (message.isEncrypted && message.encryptedContent != null) {
+            contentBytes = message.encryptedContent; // Ciphertext does not compress
+            flags |= MESSAGE_FLAG_SEALED;
+        } else if (Compression.isEnabled()) {
+            byte[] compressed = Compression.compress(contentBytes); // Before padding, so the padded length still hides it
+            if (compressed != null) {
+                contentBytes = compressed;
+                flags |= MESSAGE_FLAG_COMPRESSED;
+            }
+        }
+        byte[] recipientBytes = message.recipientNickname != null ? message.recipientNickname.getBytes() : new byte[0];
+        byte[] senderBytes = message.senderPeerID != null ? message.senderPeerID.getBytes() : new byte[0];
+        byte[] idBytes = message.id != null ? message.id.getBytes() : new byte[0];
+        byte[] nicknameBytes = message.sender != null ? message.sender.getBytes() : new byte[0];
+        byte[] channelBytes = message.channel != null ? message.channel.getBytes() : new byte[0];
+        int paddedLength = Padding.paddedLength(contentBytes.length);
+        if (paddedLength > 0xFFFF) throw new IllegalArgumentException("Content of " + contentBytes.length + " bytes");
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 3 + 2 + recipientBytes.length + 2 + senderBytes.length + 2 + paddedLength
+                + 2 + idBytes.length + 2 + nicknameBytes.length + 2 + channelBytes.length);
 
-        buffer.putLong(message.timestamp);
+        buffer.putLong((long) message.timestamp);
         buffer.put((byte) (message.isRelay ? 1 : 0));
         buffer.put((byte) (message.isPrivate ? 1 : 0));
-        buffer.put((byte) (message.isEncrypted ? 1 : 0));
-        buffer.putShort((short) (message.recipientNickname != null ? message.recipientNickname.length() : 0));
-        if (message.recipientNickname != null) buffer.put(message.recipientNickname.getBytes());
-        buffer.putShort((short) (message.senderPeerID != null ? message.senderPeerID.length() : 0));
-        if (message.senderPeerID != null) buffer.put(message.senderPeerID.getBytes());
-        buffer.putShort((short) paddedContent.length);
-        buffer.put(paddedContent);
+        buffer.put(flags);
+        buffer.putShort((short) recipientBytes.length);
+        buffer.put(recipientBytes);
+        buffer.putShort((short) senderBytes.length);
+        buffer.put(senderBytes);
+        buffer.putShort((short) paddedLength);
+        Padding.padInto(buffer, contentBytes, 0, contentBytes.length, paddedLength);
+        // Trailing fields; older encoders stop after the content, so the decoder treats them as optional
+        buffer.putShort((short) idBytes.length);
+        buffer.put(idBytes);
+        buffer.putShort((short) nicknameBytes.length);
+        buffer.put(nicknameBytes);
+        buffer.putShort((short) channelBytes.length);
+        buffer.put(channelBytes);
 
-        return Arrays.copyOf(buffer.array(), buffer.position());
+        return buffer.array();
     }
 
     public static BitchatMessage decodeMessage(byte[] data) {
-        if (data == null || data.length < 12) return null; // Minimum header size
+        if (data == null || data.length < MESSAGE_HEADER_SIZE) return null;
 
         ByteBuffer buffer = ByteBuffer.wrap(data);
         BitchatMessage message = new BitchatMessage();
-        message.timestamp = buffer.getLong();
-        message.isRelay = buffer.get() == 1;
-        message.isPrivate = buffer.get() == 1;
-        message.isEncrypted = buffer.get() == 1;
-        short recipientLength = buffer.getShort();
-        if (recipientLength > 0 && buffer.remaining() >= recipientLength) {
-            byte[] recipientBytes = new byte[recipientLength];
-            buffer.get(recipientBytes);
-            message.recipientNickname = new String(recipientBytes);
-        }
-        short senderLength = buffer.getShort();
-        if (senderLength > 0 && buffer.remaining() >= senderLength) {
-            byte[] senderBytes = new byte[senderLength];
-            buffer.get(senderBytes);
-            message.senderPeerID = new String(senderBytes);
-        }
-        short contentLength = buffer.getShort();
-        if (contentLength > 0 && buffer.remaining() >= contentLength) {
-            byte[] contentBytes = new byte[contentLength];
-            buffer.get(contentBytes);
-            message.content = new String(unpadContent(contentBytes));
-        } else {
-            return null; // Invalid message due to insufficient data
+        try {
+            message.timestamp = buffer.getLong();
+            message.isRelay = buffer.get() == 1;
+            message.isPrivate = buffer.get() == 1;
+            byte flags = buffer.get();
+            message.isEncrypted = (flags & MESSAGE_FLAG_ENCRYPTED) != 0;
+            int recipientLength = buffer.getShort() & 0xFFFF;
+            if (recipientLength > buffer.remaining()) return null;
+            if (recipientLength > 0) {
+                byte[] recipientBytes = new byte[recipientLength];
+                buffer.get(recipientBytes);
+                message.recipientNickname = new String(recipientBytes);
+            }
+            int senderLength = buffer.getShort() & 0xFFFF;
+            if (senderLength > buffer.remaining()) return null;
+            if (senderLength > 0) {
+                byte[] senderBytes = new byte[senderLength];
+                buffer.get(senderBytes);
+                message.senderPeerID = new String(senderBytes);
+            }
+            int contentLength = buffer.getShort() & 0xFFFF;
+            if (contentLength == 0 || contentLength > buffer.remaining()) return null; // Invalid message due to insufficient data
+            int offset = buffer.position();
+            int length = Padding.unpaddedLength(data, offset, contentLength);
+            if (length < 0) return null; // Invalid padding
+            if ((flags & MESSAGE_FLAG_SEALED) != 0) {
+                message.encryptedContent = Arrays.copyOfRange(data, offset, offset + length);
+            } else if ((flags & MESSAGE_FLAG_COMPRESSED) != 0) {
+                try {
+                    message.content = new String(Compression.decompress(data, offset, length));
+                } catch (DataFormatException e) {
+                    return null; // Corrupt compressed content
+                }
+            } else {
+                message.content = new String(data, offset, length);
+            }
+            buffer.position(offset + contentLength);
+        } catch (BufferUnderflowException e) {
+            return null; // Truncated in transit or by a peer
         }
+        message.id = readOptionalString(buffer, message.id);
+        message.sender = readOptionalString(buffer, message.sender);
+        message.channel = readOptionalString(buffer, message.channel);
 
         return message;
     }
 
-    private static byte[] padOrTruncate(byte[] data, int targetLength) {
-        if (data.length == targetLength) return data;
-        byte[] result = new byte[targetLength];
-        Arrays.fill(result, (byte) 0);
-        System.arraycopy(data, 0, result, 0, Math.min(data.length, targetLength));
-        return result;
+    private static String readOptionalString(ByteBuffer buffer, String fallback) {
+        if (buffer.remaining() < 2) return fallback;
+        int length = buffer.getShort() & 0xFFFF;
+        if (length == 0 || length > buffer.remaining()) return fallback;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes);
     }
 
-    private static int calculatePadding(int length) {
-        int blockSize = 256; // Adjustable block size
-        int remainder = length % blockSize;
-        return remainder == 0 ? 0 : blockSize - remainder;
+    private static boolean hasRoute(BitchatPacket packet) {
+        return packet.lastHop != 0 || packet.nextHop != 0;
     }
 
-    private static byte[] padContent(byte[] content, int paddingSize) {
-        byte[] padded = new byte[content.length + paddingSize];
-        System.arraycopy(content, 0, padded, 0, content.length);
-        Arrays.fill(padded, content.length, padded.length, (byte) paddingSize);
-        return padded;
+    // Offset of senderID in encoded packet bytes, after the optional header extensions; -1 if the bytes
+    // are too short or not this version.
+    private static int idOffset(byte[] data) {
+        if (data == null || data.length < 2 || data[0] != VERSION) return -1;
+        int offset = 2 + ((data[1] & TYPE_FLAG_CHANNEL_TAG) != 0 ? CHANNEL_TAG_SIZE : 0) + ((data[1] & TYPE_FLAG_ROUTE) != 0 ? ROUTE_SIZE : 0)
+                + ((data[1] & TYPE_FLAG_READ) != 0 ? READ_SIZE : 0);
+        return data.length >= offset + HEADER_SIZE - 2 ? offset : -1;
     }
 
-    private static byte[] unpadContent(byte[] padded) {
-        if (padded.length == 0) return padded;
-        int paddingSize = padded[padded.length - 1] & 0xFF;
-        if (paddingSize > padded.length) return padded;
-        return Arrays.copyOf(padded, padded.length - paddingSize);
+    private static long readLong(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) value = (value << 8) | (data[offset + i] & 0xFF);
+        return value;
+    }
+
+    private static void putHeader(ByteBuffer buffer, BitchatPacket packet, int type, int ttl, int payloadLength) {
+        int tag = packet.channelTag;
+        boolean route = hasRoute(packet);
+        boolean read = packet.readUpTo != 0;
+        buffer.put((byte) ((type & TYPE_MASK) | (tag != 0 ? TYPE_FLAG_CHANNEL_TAG : 0) | (route ? TYPE_FLAG_ROUTE : 0)
+                | (packet.traced ? TYPE_FLAG_TRACE : 0) | (read ? TYPE_FLAG_READ : 0)));
+        if (tag != 0) buffer.putInt(tag);
+        if (route) {
+            buffer.putLong(packet.lastHop);
+            buffer.putLong(packet.nextHop);
+        }
+        if (read) {
+            buffer.putLong(packet.readKey);
+            buffer.putLong(packet.readUpTo);
+        }
+        buffer.put(padOrTruncate(packet.senderID, 8));
+        buffer.put(padOrTruncate(packet.recipientID, 8));
+        buffer.putLong(packet.timestamp);
+        buffer.put((byte) ttl);
+        buffer.putShort((short) payloadLength);
+    }
+
+    private static byte[] padOrTruncate(byte[] data, int targetLength) {
+        if (data.length == targetLength) return data;
+        byte[] result = new byte[targetLength];
+        Arrays.fill(result, (byte) 0);
+        System.arraycopy(data, 0, result, 0, Math.min(data.length, targetLength));
+        return result;
     }
 }
\ No newline at end of file
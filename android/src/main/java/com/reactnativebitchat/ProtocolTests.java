@@ -1,5 +1,8 @@
 package com.reactnativebitchat;
 
+import com.reactnativebitchat.Message.BitchatMessage;
+import com.reactnativebitchat.Message.BitchatPacket;
+
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -7,7 +10,7 @@ public class ProtocolTests {
     @Test
     public void testPacketEncodingDecoding() {
         BitchatPacket packet = new BitchatPacket();
-        packet.version = 1;
+        packet.version = Protocol.VERSION;
         packet.type = 0;
         packet.senderID = new byte[]{1, 2, 3, 4, 5, 6, 7, 8};
         packet.recipientID = new byte[]{0, 0, 0, 0, 0, 0, 0, 0}; // Broadcast
@@ -27,6 +30,32 @@ public class ProtocolTests {
         assertEquals(packet.ttl - 1, decoded.ttl); // TTL decremented
     }
 
+    // Padded content above 1 KB used to be split into fragments inside one buffer that decodePacket could not
+    // put back together.
+    @Test
+    public void testLongMessagesRoundTrip() {
+        Compression.setEnabled(false);
+        try {
+            for (int length : new int[]{600, 5 * 1024, 32000}) { // 32000 pads to 32768, over a signed short
+                BitchatMessage msg = new BitchatMessage();
+                msg.id = "long-" + length;
+                msg.sender = "alice";
+                msg.content = new String(new char[length]).replace('\0', 'x');
+                BitchatPacket packet = new BitchatPacket();
+                packet.senderID = new byte[]{1, 2, 3, 4, 5, 6, 7, 8};
+                packet.payload = Protocol.encodeMessage(msg);
+                packet.ttl = 5;
+                assertTrue(packet.payload.length > 1024);
+                BitchatPacket decoded = Protocol.decodePacket(Protocol.encodePacket(packet));
+                assertNotNull(decoded);
+                assertArrayEquals(packet.payload, decoded.payload);
+                assertEquals(msg.content, Protocol.decodeMessage(decoded.payload).content);
+            }
+        } finally {
+            Compression.setEnabled(true);
+        }
+    }
+
     @Test
     public void testBroadcastPacket() {
         BitchatPacket packet = new BitchatPacket();
@@ -51,8 +80,109 @@ public class ProtocolTests {
         assertNull(Protocol.decodePacket(new byte[10])); // Too short
         assertNull(Protocol.decodePacket(null));
         BitchatPacket packet = new BitchatPacket();
-        packet.version = 2; // Invalid version
+        packet.version = 1; // Format before the header flags
         byte[] encoded = Protocol.encodePacket(packet);
         assertNull(Protocol.decodePacket(encoded));
+        assertEquals(-1, Protocol.peekTtl(encoded)); // Dropped before any other header field is read
+    }
+
+    @Test
+    public void testChannelTagHeader() {
+        BitchatPacket packet = new BitchatPacket();
+        packet.type = 1;
+        packet.channelTag = ChannelTag.compute("#room", null);
+        packet.payload = new byte[]{1, 2, 3};
+        packet.ttl = 5;
+        byte[] encoded = Protocol.encodePacket(packet);
+        assertEquals(packet.channelTag, Protocol.peekChannelTag(encoded));
+
+        BitchatPacket decoded = Protocol.decodePacket(encoded);
+        assertNotNull(decoded);
+        assertEquals(1, decoded.type);
+        assertEquals(packet.channelTag, decoded.channelTag);
+        assertArrayEquals(packet.payload, decoded.payload);
+
+        assertTrue(Protocol.decrementTtl(encoded));
+        assertEquals(3, Protocol.decodePacket(encoded).ttl);
+
+        packet.channelTag = 0;
+        assertEquals(0, Protocol.peekChannelTag(Protocol.encodePacket(packet)));
+    }
+
+    @Test
+    public void testReadWatermarkHeader() {
+        BitchatPacket packet = new BitchatPacket();
+        packet.type = 0;
+        packet.channelTag = ChannelTag.compute("#room", null);
+        packet.senderID = new byte[]{1, 2, 3, 4, 5, 6, 7, 8};
+        packet.lastHop = 11;
+        packet.nextHop = 12;
+        packet.readKey = Trace.messageKey("msg1");
+        packet.readUpTo = 1700000000000L;
+        packet.payload = new byte[]{1, 2, 3};
+        packet.ttl = 5;
+        byte[] encoded = Protocol.encodePacket(packet);
+        assertEquals(11, Protocol.peekLastHop(encoded)); // Fields before the watermark are where they were
+        assertEquals(12, Protocol.peekNextHop(encoded));
+        assertEquals(Router.idToLong(packet.senderID), Protocol.peekSenderID(encoded));
+        assertEquals(4, Protocol.peekTtl(encoded));
+
+        BitchatPacket decoded = Protocol.decodePacket(encoded);
+        assertNotNull(decoded);
+        assertEquals(packet.readKey, decoded.readKey);
+        assertEquals(packet.readUpTo, decoded.readUpTo);
+        assertArrayEquals(packet.payload, decoded.payload);
+
+        packet.readUpTo = 0;
+        assertEquals(encoded.length - Protocol.READ_SIZE, Protocol.encodePacket(packet).length);
+    }
+
+    @Test
+    public void testEarlyFilterReadsTagFromHeader() {
+        BitchatPacket packet = foreignChannelPacket();
+        byte[] encoded = Protocol.encodePacket(packet);
+        ChannelTagSet joined = new ChannelTagSet();
+        joined.add(ChannelTag.compute("#room", null));
+
+        assertFalse(joined.contains(Protocol.peekChannelTag(encoded))); // Skipped without decoding
+        assertEquals(packet.channelTag, Protocol.peekChannelTag(encoded));
+        assertEquals("meet at the north gate at nine, bring the spare batteries",
+                Protocol.decodeMessage(Protocol.decodePacket(encoded).payload).content);
+    }
+
+    @Test
+    public void benchmarkEarlyFilter() {
+        Benchmarks.assumeEnabled();
+        byte[] encoded = Protocol.encodePacket(foreignChannelPacket());
+        ChannelTagSet joined = new ChannelTagSet();
+        joined.add(ChannelTag.compute("#room", null));
+
+        int iterations = 200000, skipped = 0, decoded = 0;
+        for (int i = 0; i < iterations; i++) if (!joined.contains(Protocol.peekChannelTag(encoded))) skipped++;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) if (!joined.contains(Protocol.peekChannelTag(encoded))) skipped++;
+        long peekNs = System.nanoTime() - start;
+        for (int i = 0; i < iterations; i++) if (Protocol.decodeMessage(Protocol.decodePacket(encoded).payload) != null) decoded++;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) if (Protocol.decodeMessage(Protocol.decodePacket(encoded).payload) != null) decoded++;
+        long decodeNs = System.nanoTime() - start;
+        assertEquals(2 * iterations, skipped);
+        assertEquals(2 * iterations, decoded);
+        System.out.println("Foreign channel packet: tag check " + (peekNs / iterations) + " ns, full decode " + (decodeNs / iterations) + " ns");
+    }
+
+    // A channel message for a channel this device has not joined.
+    private static BitchatPacket foreignChannelPacket() {
+        BitchatMessage msg = new BitchatMessage();
+        msg.id = "id-1";
+        msg.sender = "alice";
+        msg.content = "meet at the north gate at nine, bring the spare batteries";
+        msg.channel = "#elsewhere";
+        BitchatPacket packet = new BitchatPacket();
+        packet.type = 1;
+        packet.channelTag = ChannelTag.compute(msg.channel, null);
+        packet.payload = Protocol.encodeMessage(msg);
+        packet.ttl = 5;
+        return packet;
     }
-}
\ No newline at end of file
+}
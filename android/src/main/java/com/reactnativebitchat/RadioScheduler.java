@@ -0,0 +1,205 @@
+package com.reactnativebitchat;
+
+// Picks advertise and scan settings, TX power and a radio duty cycle from what the node is doing:
+// bursts at full power while packets are pending or shortly after traffic, and otherwise idles at a
+// level set by foreground state, charging, battery and how many neighbours can relay for it. Pure
+// policy on a Clock, so it runs in the JVM; BleService maps a Mode onto AdvertiseSettings and ScanSettings.
+public class RadioScheduler {
+    // Values match AdvertiseSettings.ADVERTISE_MODE_*, ADVERTISE_TX_POWER_* and ScanSettings.SCAN_MODE_*
+    public static final int MODE_LOW_POWER = 0;
+    public static final int MODE_BALANCED = 1;
+    public static final int MODE_LOW_LATENCY = 2;
+    public static final int TX_POWER_ULTRA_LOW = 0;
+    public static final int TX_POWER_LOW = 1;
+    public static final int TX_POWER_MEDIUM = 2;
+    public static final int TX_POWER_HIGH = 3;
+
+    public static final class Mode {
+        public final String name;
+        public final int advertiseMode;
+        public final int txPower;
+        public final int scanMode;
+        public final long onMs; // Radio on for onMs out of every onMs + offMs; offMs 0 is always on
+        public final long offMs;
+
+        Mode(String name, int advertiseMode, int txPower, int scanMode, long onMs, long offMs) {
+            this.name = name;
+            this.advertiseMode = advertiseMode;
+            this.txPower = txPower;
+            this.scanMode = scanMode;
+            this.onMs = onMs;
+            this.offMs = offMs;
+        }
+
+        public double getDutyCycle() {
+            return offMs == 0 ? 1 : (double) onMs / (onMs + offMs);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    public static final Mode BURST = new Mode("burst", MODE_LOW_LATENCY, TX_POWER_HIGH, MODE_LOW_LATENCY, 1000, 0);
+    public static final Mode ACTIVE = new Mode("active", MODE_BALANCED, TX_POWER_MEDIUM, MODE_BALANCED, 1000, 0);
+    public static final Mode ACTIVE_DENSE = new Mode("active-dense", MODE_BALANCED, TX_POWER_LOW, MODE_BALANCED, 1000, 0);
+    public static final Mode IDLE = new Mode("idle", MODE_LOW_POWER, TX_POWER_MEDIUM, MODE_LOW_POWER, 2000, 8000);
+    public static final Mode SAVER = new Mode("saver", MODE_LOW_POWER, TX_POWER_LOW, MODE_LOW_POWER, 1000, 29000);
+    static final Mode[] MODES = {BURST, ACTIVE, ACTIVE_DENSE, IDLE, SAVER};
+
+    static final long BURST_HOLD_MS = 3000; // Stay in burst this long after the last packet, for replies and acks
+    static final int LOW_BATTERY_PERCENT = 20;
+    static final int DENSE_NEIGHBOURS = 8; // Enough relays nearby to spend less range and listen less
+
+    // Rough radio energy model for a phone. Continuous scanning includes the host wakeups to deliver
+    // results; advertising is per-event charge at the mode's interval, scaled by TX power.
+    private static final double SCAN_CONTINUOUS_MA = 30;
+    private static final double[] SCAN_WINDOW_MS = {512, 1024, 4096}; // Per 5120, 4096, 4096 ms interval
+    private static final double[] SCAN_INTERVAL_MS = {5120, 4096, 4096};
+    private static final double[] ADVERTISE_INTERVAL_MS = {1000, 250, 100};
+    private static final double ADVERTISE_EVENT_MA_MS = 150; // Charge per event at high power, mA x ms
+    private static final double[] TX_POWER_FACTOR = {0.6, 0.7, 0.85, 1.0};
+
+    private final Clock clock;
+    private volatile long lastTraffic = Long.MIN_VALUE / 2;
+    private int pendingPackets;
+    private int neighbours;
+    private int batteryPercent = 100;
+    private boolean charging;
+    private boolean foreground = true;
+    private Mode mode;
+    private long modeSince;
+    private final Report report = new Report();
+
+    public RadioScheduler(Clock clock) {
+        this.clock = clock;
+        modeSince = clock.nowMillis();
+        mode = evaluate(modeSince);
+    }
+
+    // Called for every packet sent or received; lock-free because it sits on the packet path.
+    public void onTraffic() {
+        lastTraffic = clock.nowMillis();
+    }
+
+    public synchronized void setPendingPackets(int pending) {
+        pendingPackets = pending;
+    }
+
+    public synchronized void setNeighbourCount(int count) {
+        neighbours = count;
+    }
+
+    public synchronized void setBattery(int percent, boolean charging) {
+        batteryPercent = percent;
+        this.charging = charging;
+    }
+
+    public synchronized void setForeground(boolean foreground) {
+        this.foreground = foreground;
+    }
+
+    // Current mode; switching is accounted in the report at the time it is observed.
+    public synchronized Mode getMode() {
+        long now = clock.nowMillis();
+        Mode next = evaluate(now);
+        if (next != mode) {
+            report.account(mode, now - modeSince);
+            mode = next;
+            modeSince = now;
+        }
+        return mode;
+    }
+
+    // Whether the duty cycle has the radio on right now. Phases are aligned to the clock so that nodes
+    // with synchronised clocks tend to listen at the same time.
+    public synchronized boolean isRadioOn() {
+        Mode current = getMode();
+        return current.offMs == 0 || clock.nowMillis() % (current.onMs + current.offMs) < current.onMs;
+    }
+
+    public synchronized Report getReport() {
+        long now = clock.nowMillis();
+        getMode();
+        Report snapshot = report.copy();
+        snapshot.account(mode, now - modeSince);
+        return snapshot;
+    }
+
+    private Mode evaluate(long now) {
+        if (pendingPackets > 0 || now - lastTraffic < BURST_HOLD_MS) return BURST;
+        if (charging) return ACTIVE;
+        if (batteryPercent < LOW_BATTERY_PERCENT) return SAVER;
+        if (foreground) return neighbours >= DENSE_NEIGHBOURS ? ACTIVE_DENSE : ACTIVE;
+        return neighbours >= DENSE_NEIGHBOURS ? SAVER : IDLE;
+    }
+
+    // Average radio current in a mode, in mA.
+    public static double currentMilliamps(Mode mode) {
+        double scan = SCAN_CONTINUOUS_MA * SCAN_WINDOW_MS[mode.scanMode] / SCAN_INTERVAL_MS[mode.scanMode];
+        double advertise = ADVERTISE_EVENT_MA_MS * TX_POWER_FACTOR[mode.txPower] / ADVERTISE_INTERVAL_MS[mode.advertiseMode];
+        return (scan + advertise) * mode.getDutyCycle();
+    }
+
+    // Delay from time t until a receiver in the given mode next has its scanner open; the sender's own
+    // advertising interval adds to this. Scan windows start at the beginning of each scan interval,
+    // and scan intervals restart with each duty cycle.
+    public static long listenDelay(Mode mode, long t) {
+        long cycle = mode.onMs + mode.offMs;
+        long phase = mode.offMs == 0 ? t : t % cycle;
+        if (mode.offMs != 0 && phase >= mode.onMs) return cycle - phase;
+        long window = (long) SCAN_WINDOW_MS[mode.scanMode];
+        long interval = (long) SCAN_INTERVAL_MS[mode.scanMode];
+        long inInterval = phase % interval;
+        if (inInterval < window) return 0;
+        long nextWindow = interval - inInterval;
+        if (mode.offMs != 0 && phase + nextWindow >= mode.onMs) return cycle - phase; // Next window is in the next cycle
+        return nextWindow;
+    }
+
+    public static long advertiseIntervalMs(Mode mode) {
+        return (long) ADVERTISE_INTERVAL_MS[mode.advertiseMode];
+    }
+
+    // Time spent and energy used per mode.
+    public static final class Report {
+        private final long[] millis = new long[MODES.length];
+
+        void account(Mode mode, long durationMs) {
+            if (durationMs > 0) millis[indexOf(mode)] += durationMs;
+        }
+
+        Report copy() {
+            Report copy = new Report();
+            System.arraycopy(millis, 0, copy.millis, 0, millis.length);
+            return copy;
+        }
+
+        public long getMillis(Mode mode) {
+            return millis[indexOf(mode)];
+        }
+
+        public long getTotalMillis() {
+            long total = 0;
+            for (long value : millis) total += value;
+            return total;
+        }
+
+        public double getMilliampHours() {
+            double total = 0;
+            for (int i = 0; i < MODES.length; i++) total += currentMilliamps(MODES[i]) * millis[i] / 3600000.0;
+            return total;
+        }
+
+        public double getAverageMilliamps() {
+            long total = getTotalMillis();
+            return total == 0 ? 0 : getMilliampHours() * 3600000.0 / total;
+        }
+
+        private static int indexOf(Mode mode) {
+            for (int i = 0; i < MODES.length; i++) if (MODES[i] == mode) return i;
+            throw new IllegalArgumentException("Unknown mode " + mode);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.reactnativebitchat;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+public class RadioSchedulerTests {
+    private static final class ManualClock implements Clock {
+        long now = 1_000_000;
+
+        @Override
+        public long nowMillis() {
+            return now;
+        }
+    }
+
+    @Test
+    public void testPolicyTransitions() {
+        ManualClock clock = new ManualClock();
+        RadioScheduler scheduler = new RadioScheduler(clock);
+        assertSame(RadioScheduler.ACTIVE, scheduler.getMode());
+
+        scheduler.onTraffic();
+        assertSame(RadioScheduler.BURST, scheduler.getMode());
+        clock.now += RadioScheduler.BURST_HOLD_MS;
+        assertSame(RadioScheduler.ACTIVE, scheduler.getMode());
+        scheduler.setPendingPackets(3);
+        assertSame(RadioScheduler.BURST, scheduler.getMode());
+        scheduler.setPendingPackets(0);
+
+        scheduler.setNeighbourCount(RadioScheduler.DENSE_NEIGHBOURS);
+        assertSame(RadioScheduler.ACTIVE_DENSE, scheduler.getMode());
+        scheduler.setForeground(false);
+        assertSame(RadioScheduler.SAVER, scheduler.getMode());
+        scheduler.setNeighbourCount(2);
+        assertSame(RadioScheduler.IDLE, scheduler.getMode());
+        scheduler.setBattery(15, false);
+        assertSame(RadioScheduler.SAVER, scheduler.getMode());
+        scheduler.setBattery(15, true);
+        assertSame(RadioScheduler.ACTIVE, scheduler.getMode());
+        scheduler.setBattery(15, false);
+        scheduler.onTraffic(); // Traffic wins even on a low battery
+        assertSame(RadioScheduler.BURST, scheduler.getMode());
+    }
+
+    @Test
+    public void testDutyCycleAndReport() {
+        ManualClock clock = new ManualClock();
+        clock.now = 0;
+        RadioScheduler scheduler = new RadioScheduler(clock);
+        scheduler.setForeground(false);
+        assertSame(RadioScheduler.IDLE, scheduler.getMode());
+        int on = 0;
+        for (int i = 0; i < 100; i++) {
+            if (scheduler.isRadioOn()) on++;
+            clock.now += 100;
+        }
+        assertEquals(20, on); // 2 s in every 10 s
+
+        RadioScheduler.Report report = scheduler.getReport();
+        assertEquals(10000, report.getMillis(RadioScheduler.IDLE));
+        assertEquals(10000, report.getTotalMillis());
+        assertEquals(RadioScheduler.currentMilliamps(RadioScheduler.IDLE), report.getAverageMilliamps(), 1e-9);
+        assertTrue(RadioScheduler.currentMilliamps(RadioScheduler.BURST) > RadioScheduler.currentMilliamps(RadioScheduler.ACTIVE));
+        assertTrue(RadioScheduler.currentMilliamps(RadioScheduler.ACTIVE) > RadioScheduler.currentMilliamps(RadioScheduler.IDLE));
+        assertTrue(RadioScheduler.currentMilliamps(RadioScheduler.IDLE) > RadioScheduler.currentMilliamps(RadioScheduler.SAVER));
+    }
+
+    // A day of use: two hours in the foreground chatting every 30 s on average, the rest in the background
+    // with a message every 10 min, among a few neighbours. Energy is compared with staying in burst all
+    // day, and delivery latency is the time from a neighbour's send until this node's scanner hears it.
+    @Test
+    public void testDaySimulation() {
+        Day day = simulateDay();
+        double burstMah = RadioScheduler.currentMilliamps(RadioScheduler.BURST) * 24;
+        int messages = day.foregroundMessages + day.backgroundMessages;
+        assertEquals(24 * 3600 * 1000L, day.report.getTotalMillis());
+        assertTrue(day.report.getMilliampHours() < burstMah * 0.25);
+        assertTrue(day.foregroundDelay / day.foregroundMessages < 3000);
+        assertTrue(day.backgroundDelay / day.backgroundMessages < 10000); // Bounded by the idle cycle
+        assertTrue(day.burstDelay / messages <= day.foregroundDelay / day.foregroundMessages); // What the savings cost
+    }
+
+    @Test
+    public void benchmarkDaySimulation() {
+        Benchmarks.assumeEnabled();
+        Day day = simulateDay();
+        double burstMah = RadioScheduler.currentMilliamps(RadioScheduler.BURST) * 24;
+        int messages = day.foregroundMessages + day.backgroundMessages;
+        System.out.printf("Radio over 24 h: %.1f mAh scheduled vs %.1f mAh always in burst (%.0f%% saved)%n",
+                day.report.getMilliampHours(), burstMah, 100 * (1 - day.report.getMilliampHours() / burstMah));
+        for (RadioScheduler.Mode mode : RadioScheduler.MODES) {
+            System.out.printf("  %-12s %6.2f h at %5.2f mA%n", mode.name, day.report.getMillis(mode) / 3600000.0,
+                    RadioScheduler.currentMilliamps(mode));
+        }
+        System.out.printf("Mean delivery latency: %d ms foreground (%d msgs), %d ms background (%d msgs), %d ms always in burst%n",
+                day.foregroundDelay / day.foregroundMessages, day.foregroundMessages, day.backgroundDelay / day.backgroundMessages,
+                day.backgroundMessages, day.burstDelay / messages);
+    }
+
+    private static final class Day {
+        RadioScheduler.Report report;
+        long foregroundDelay, backgroundDelay, burstDelay;
+        int foregroundMessages, backgroundMessages;
+    }
+
+    private static Day simulateDay() {
+        ManualClock clock = new ManualClock();
+        clock.now = 0;
+        RadioScheduler scheduler = new RadioScheduler(clock);
+        scheduler.setNeighbourCount(3);
+        scheduler.setBattery(80, false);
+        Random random = new Random(41);
+        long day = 24 * 3600 * 1000L;
+        long foregroundStart = 9 * 3600 * 1000L, foregroundEnd = 11 * 3600 * 1000L;
+        long nextMessage = 0;
+        Day result = new Day();
+        for (long t = 0; t < day; t += 50) {
+            clock.now = t;
+            boolean foreground = t >= foregroundStart && t < foregroundEnd;
+            scheduler.setForeground(foreground);
+            scheduler.getMode(); // The module's tick
+            if (t < nextMessage) continue;
+            long delay = RadioScheduler.listenDelay(scheduler.getMode(), t) + RadioScheduler.advertiseIntervalMs(RadioScheduler.BURST);
+            result.burstDelay += RadioScheduler.listenDelay(RadioScheduler.BURST, t) + RadioScheduler.advertiseIntervalMs(RadioScheduler.BURST);
+            if (foreground) {
+                result.foregroundDelay += delay;
+                result.foregroundMessages++;
+            } else {
+                result.backgroundDelay += delay;
+                result.backgroundMessages++;
+            }
+            clock.now = t + delay;
+            scheduler.onTraffic(); // Heard it, and replies with an ack
+            long mean = foreground ? 30000 : 600000;
+            nextMessage = t + delay + (long) (-Math.log(1 - random.nextDouble()) * mean);
+            t = (t + delay) / 50 * 50;
+        }
+        clock.now = day;
+        result.report = scheduler.getReport();
+        return result;
+    }
+}
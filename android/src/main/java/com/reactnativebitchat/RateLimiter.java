@@ -0,0 +1,89 @@
+package com.reactnativebitchat;
+
+// Per-sender token buckets checked on raw packet bytes before any decoding. Each sender has one bucket
+// for packets heard first-hand and one for packets relayed on its behalf; senders live in a bounded
+// LRU, and a global bucket caps how fast new senders may claim entries, so rotating sender IDs cannot
+// flush the table or bypass the per-sender limits.
+public class RateLimiter {
+    public enum DropReason {
+        ORIGIN_RATE(Metrics.Counter.DROP_ORIGIN_RATE),
+        RELAY_RATE(Metrics.Counter.DROP_RELAY_RATE),
+        NEW_PEER_RATE(Metrics.Counter.DROP_NEW_PEER_RATE),
+        MALFORMED(Metrics.Counter.DROP_MALFORMED),
+        DUPLICATE(Metrics.Counter.DROP_DUPLICATE);
+
+        public final Metrics.Counter counter;
+
+        DropReason(Metrics.Counter counter) {
+            this.counter = counter;
+        }
+    }
+
+    public static final class Limit {
+        final double perSecond;
+        final double burst;
+
+        public Limit(double perSecond, double burst) {
+            this.perSecond = perSecond;
+            this.burst = burst;
+        }
+    }
+
+    private static final class Peer {
+        double originTokens, relayTokens;
+        long originRefill, relayRefill;
+    }
+
+    private final LongLruCache<Peer> peers;
+    private final Limit origin, relay, newPeers;
+    private final Clock clock;
+    private double newPeerTokens;
+    private long newPeerRefill;
+
+    public RateLimiter(int capacity, Limit origin, Limit relay, Limit newPeers, Clock clock) {
+        peers = new LongLruCache<>(capacity);
+        this.origin = origin;
+        this.relay = relay;
+        this.newPeers = newPeers;
+        this.clock = clock;
+        newPeerTokens = newPeers.burst;
+        newPeerRefill = clock.nowMillis();
+    }
+
+    // Takes a token for a packet from senderID and returns null, or the reason the packet must be dropped.
+    public synchronized DropReason acquire(long senderID, boolean relayed) {
+        long now = clock.nowMillis();
+        Peer peer = peers.get(senderID);
+        if (peer == null) {
+            newPeerTokens = refill(newPeerTokens, newPeerRefill, now, newPeers);
+            newPeerRefill = now;
+            if (newPeerTokens < 1) return DropReason.NEW_PEER_RATE;
+            newPeerTokens--;
+            peer = new Peer();
+            peer.originTokens = origin.burst;
+            peer.relayTokens = relay.burst;
+            peer.originRefill = peer.relayRefill = now;
+            peers.put(senderID, peer);
+        }
+        if (relayed) {
+            peer.relayTokens = refill(peer.relayTokens, peer.relayRefill, now, relay);
+            peer.relayRefill = now;
+            if (peer.relayTokens < 1) return DropReason.RELAY_RATE;
+            peer.relayTokens--;
+        } else {
+            peer.originTokens = refill(peer.originTokens, peer.originRefill, now, origin);
+            peer.originRefill = now;
+            if (peer.originTokens < 1) return DropReason.ORIGIN_RATE;
+            peer.originTokens--;
+        }
+        return null;
+    }
+
+    public synchronized int getTrackedPeers() {
+        return peers.size();
+    }
+
+    private static double refill(double tokens, long last, long now, Limit limit) {
+        return Math.min(limit.burst, tokens + (now - last) * limit.perSecond / 1000.0);
+    }
+}
@@ -0,0 +1,79 @@
+package com.reactnativebitchat;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RateLimiterTests {
+    private static final class ManualClock implements Clock {
+        long now = 1000;
+
+        @Override
+        public long nowMillis() {
+            return now;
+        }
+    }
+
+    private static RateLimiter limiter(ManualClock clock) {
+        return new RateLimiter(64, new RateLimiter.Limit(10, 20), new RateLimiter.Limit(30, 60), new RateLimiter.Limit(5, 10), clock);
+    }
+
+    @Test
+    public void testBurstThenRefill() {
+        ManualClock clock = new ManualClock();
+        RateLimiter limiter = limiter(clock);
+        for (int i = 0; i < 20; i++) assertNull(limiter.acquire(1, false));
+        assertEquals(RateLimiter.DropReason.ORIGIN_RATE, limiter.acquire(1, false));
+        assertNull(limiter.acquire(1, true)); // Relayed traffic has its own bucket
+        clock.now += 500; // Five tokens back at 10 per second
+        for (int i = 0; i < 5; i++) assertNull(limiter.acquire(1, false));
+        assertEquals(RateLimiter.DropReason.ORIGIN_RATE, limiter.acquire(1, false));
+    }
+
+    @Test
+    public void testNewPeerChurnIsBounded() {
+        ManualClock clock = new ManualClock();
+        RateLimiter limiter = limiter(clock);
+        int admitted = 0;
+        for (long sender = 1; sender <= 1000; sender++) if (limiter.acquire(sender, false) == null) admitted++;
+        assertEquals(10, admitted); // Rotating sender IDs only gets the new-peer burst
+        assertEquals(RateLimiter.DropReason.NEW_PEER_RATE, limiter.acquire(5000, false));
+        assertNull(limiter.acquire(1, false)); // Known peers are unaffected
+    }
+
+    @Test
+    public void testAbusiveSenderDoesNotStarveOthers() {
+        int[] result = floodFromOnePeer();
+        assertEquals(result[2], result[1]);
+        assertTrue(result[0] <= 30 + 10 * 10 + 1);
+    }
+
+    @Test
+    public void benchmarkAbusiveSender() {
+        Benchmarks.assumeEnabled();
+        floodFromOnePeer(); // Warm up
+        long start = System.nanoTime();
+        int[] result = floodFromOnePeer();
+        long elapsed = System.nanoTime() - start;
+        System.out.println("Rate limiter: abuser got " + result[0] + " of 100000 packets through, honest peers "
+                + result[1] + "/" + result[2] + ", " + (elapsed / (100000 + result[2])) + " ns per check");
+    }
+
+    // Ten seconds in which one peer sends 10 packets per ms and 50 others one per second.
+    // Returns {abuser packets accepted, honest packets accepted, honest packets sent}.
+    private static int[] floodFromOnePeer() {
+        ManualClock clock = new ManualClock();
+        RateLimiter limiter = new RateLimiter(1024, new RateLimiter.Limit(10, 30), new RateLimiter.Limit(30, 90), new RateLimiter.Limit(50, 200), clock);
+        int honestPeers = 50, abusiveAccepted = 0, honestAccepted = 0, honestSent = 0;
+        for (int ms = 0; ms < 10000; ms++) {
+            clock.now++;
+            for (int i = 0; i < 10; i++) if (limiter.acquire(999, false) == null) abusiveAccepted++;
+            if (ms % 1000 == 0) {
+                for (long peer = 1; peer <= honestPeers; peer++) {
+                    honestSent++;
+                    if (limiter.acquire(peer, false) == null) honestAccepted++;
+                }
+            }
+        }
+        return new int[]{abusiveAccepted, honestAccepted, honestSent};
+    }
+}
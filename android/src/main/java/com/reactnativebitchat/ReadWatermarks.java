@@ -0,0 +1,78 @@
+package com.reactnativebitchat;
+
+// Outgoing read state as one watermark per conversation, "read everything you sent me up to this
+// message", rather than one receipt per message. Marks only move forward. A new mark waits out the
+// debounce for a packet to the same peer to carry it in its header (Protocol.TYPE_FLAG_READ), typically
+// a reply or the delivery ack for the peer's next message, and is sent alone only if none goes out, so
+// scrolling through a conversation costs at most one receipt.
+public class ReadWatermarks {
+    private static final int CONVERSATIONS = 1024;
+
+    public interface Sender {
+        void sendReadReceipt(long peer, long messageKey, long readUpTo);
+    }
+
+    public interface Scheduler {
+        void schedule(Runnable task, long delayMs);
+    }
+
+    private static final class Mark {
+        long messageKey;
+        long readUpTo;
+        boolean pending; // Not yet sent or carried by another packet
+    }
+
+    private final Sender sender;
+    private final Scheduler scheduler;
+    private final long debounceMs;
+    private final LongLruCache<Mark> marks = new LongLruCache<>(CONVERSATIONS);
+
+    public ReadWatermarks(Sender sender, Scheduler scheduler, long debounceMs) {
+        this.sender = sender;
+        this.scheduler = scheduler;
+        this.debounceMs = debounceMs;
+    }
+
+    // Records that the conversation with peer has been read up to the given message. Returns false if
+    // an equal or later mark was already recorded.
+    public boolean markRead(long peer, long messageKey, long readUpTo) {
+        boolean schedule;
+        synchronized (this) {
+            Mark mark = marks.get(peer);
+            if (mark == null) {
+                mark = new Mark();
+                marks.put(peer, mark);
+            } else if (readUpTo <= mark.readUpTo) {
+                return false;
+            }
+            mark.messageKey = messageKey;
+            mark.readUpTo = readUpTo;
+            schedule = !mark.pending;
+            mark.pending = true;
+        }
+        if (schedule) scheduler.schedule(() -> flush(peer), debounceMs);
+        return true;
+    }
+
+    // Hands the pending mark for peer to a packet about to be sent there; null if none is pending.
+    public synchronized long[] take(long peer) {
+        Mark mark = marks.peek(peer);
+        if (mark == null || !mark.pending) return null;
+        mark.pending = false;
+        Metrics.increment(Metrics.Counter.READ_MARKS_PIGGYBACKED);
+        return new long[]{mark.messageKey, mark.readUpTo};
+    }
+
+    private void flush(long peer) {
+        long messageKey, readUpTo;
+        synchronized (this) {
+            Mark mark = marks.peek(peer);
+            if (mark == null || !mark.pending) return; // Carried by another packet meanwhile
+            mark.pending = false;
+            messageKey = mark.messageKey;
+            readUpTo = mark.readUpTo;
+        }
+        Metrics.increment(Metrics.Counter.READ_MARKS_SENT);
+        sender.sendReadReceipt(peer, messageKey, readUpTo);
+    }
+}
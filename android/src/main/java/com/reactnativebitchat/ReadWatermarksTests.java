@@ -0,0 +1,143 @@
+package com.reactnativebitchat;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+public class ReadWatermarksTests {
+    // Runs scheduled tasks when the test advances time.
+    private static final class ManualScheduler implements ReadWatermarks.Scheduler {
+        final PriorityQueue<long[]> due = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+        final List<Runnable> tasks = new ArrayList<>();
+        long now;
+
+        @Override
+        public void schedule(Runnable task, long delayMs) {
+            tasks.add(task);
+            due.add(new long[]{now + delayMs, tasks.size() - 1});
+        }
+
+        void advanceTo(long time) {
+            while (!due.isEmpty() && due.peek()[0] <= time) {
+                long[] next = due.poll();
+                now = next[0];
+                tasks.get((int) next[1]).run();
+            }
+            now = time;
+        }
+    }
+
+    private static final class RecordingSender implements ReadWatermarks.Sender {
+        final List<long[]> sent = new ArrayList<>();
+
+        @Override
+        public void sendReadReceipt(long peer, long messageKey, long readUpTo) {
+            sent.add(new long[]{peer, messageKey, readUpTo});
+        }
+    }
+
+    @Test
+    public void testDebouncedToOneReceipt() {
+        ManualScheduler scheduler = new ManualScheduler();
+        RecordingSender sender = new RecordingSender();
+        ReadWatermarks watermarks = new ReadWatermarks(sender, scheduler, 2000);
+        for (int i = 1; i <= 50; i++) assertTrue(watermarks.markRead(7, i, 1000 + i));
+        assertFalse(watermarks.markRead(7, 3, 1003)); // Behind the mark
+        assertEquals(1, scheduler.tasks.size());
+        scheduler.advanceTo(1999);
+        assertTrue(sender.sent.isEmpty());
+        scheduler.advanceTo(2000);
+        assertEquals(1, sender.sent.size());
+        assertArrayEquals(new long[]{7, 50, 1050}, sender.sent.get(0));
+        assertNull(watermarks.take(7)); // Nothing pending after the flush
+    }
+
+    @Test
+    public void testPiggybackReplacesReceipt() {
+        ManualScheduler scheduler = new ManualScheduler();
+        RecordingSender sender = new RecordingSender();
+        ReadWatermarks watermarks = new ReadWatermarks(sender, scheduler, 2000);
+        watermarks.markRead(7, 1, 1001);
+        watermarks.markRead(8, 2, 1002);
+        assertArrayEquals(new long[]{1, 1001}, watermarks.take(7));
+        assertNull(watermarks.take(7));
+        assertNull(watermarks.take(9));
+        scheduler.advanceTo(5000);
+        assertEquals(1, sender.sent.size()); // Only peer 8's went out alone
+        assertEquals(8, sender.sent.get(0)[0]);
+    }
+
+    // Ten minutes of private chat with five peers, each sending bursts of one to six lines. The user
+    // opens a conversation 1-60 s after its first unread line and scrolls through the unread lines,
+    // one markRead every 300 ms, and replies to 30% of conversations opened 3-20 s later. One receipt
+    // per line read is compared with watermarks: receipts sent alone, plus those carried at no extra
+    // packets by replies and by the delivery acks for the peer's next burst.
+    @Test
+    public void testReceiptTrafficVersusPerMessage() {
+        int[] traffic = receiptTraffic();
+        int read = traffic[0], sent = traffic[1], carried = traffic[2], replies = traffic[3], bursts = traffic[4];
+        assertTrue(sent + carried <= read);
+        assertTrue(carried > 0); // The hold outlasts the gap to the next packet often enough
+        assertTrue(carried <= replies + bursts); // At most one per outgoing packet
+        assertTrue(sent * 2 < read);
+    }
+
+    @Test
+    public void benchmarkReceiptTraffic() {
+        Benchmarks.assumeEnabled();
+        int[] traffic = receiptTraffic();
+        System.out.printf("Read receipts for %d lines read: %d per message; %d watermarks sent alone, %d carried by %d replies and %d acked bursts%n",
+                traffic[0], traffic[0], traffic[1], traffic[2], traffic[3], traffic[4]);
+    }
+
+    // Returns {lines read, watermarks sent alone, watermarks carried, replies, acked bursts}.
+    private static int[] receiptTraffic() {
+        ManualScheduler scheduler = new ManualScheduler();
+        RecordingSender sender = new RecordingSender();
+        ReadWatermarks watermarks = new ReadWatermarks(sender, scheduler, 10000);
+        Random random = new Random(46);
+        PriorityQueue<long[]> events = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0])); // time, kind, peer, key
+        long key = 0;
+        for (long t = 0; t < 600000; t += 2000 + random.nextInt(20000)) {
+            long peer = 1 + random.nextInt(5);
+            events.add(new long[]{t, 0, peer, 0});
+        }
+        long[] unreadFrom = new long[6], unreadTo = new long[6];
+        boolean[] opening = new boolean[6];
+        int read = 0, replies = 0, carried = 0, bursts = 0;
+        while (!events.isEmpty()) {
+            long[] event = events.poll();
+            scheduler.advanceTo(event[0]);
+            int peer = (int) event[2];
+            if (event[1] == 0) { // A burst arrives and is acked
+                if (watermarks.take(peer) != null) carried++;
+                bursts++;
+                if (unreadTo[peer] <= unreadFrom[peer]) unreadFrom[peer] = key + 1;
+                key += 1 + random.nextInt(6);
+                unreadTo[peer] = key + 1;
+                if (!opening[peer]) {
+                    opening[peer] = true;
+                    events.add(new long[]{event[0] + 1000 + random.nextInt(59000), 1, peer, 0});
+                }
+            } else if (event[1] == 1) { // Conversation opened
+                opening[peer] = false;
+                long at = event[0];
+                for (long k = unreadFrom[peer]; k < unreadTo[peer]; k++, at += 300) events.add(new long[]{at, 2, peer, k});
+                if (random.nextInt(10) < 3) events.add(new long[]{at + 3000 + random.nextInt(17000), 3, peer, 0});
+                unreadFrom[peer] = unreadTo[peer];
+            } else if (event[1] == 2) {
+                watermarks.markRead(peer, event[3], event[3]);
+                read++;
+            } else {
+                replies++;
+                if (watermarks.take(peer) != null) carried++;
+            }
+        }
+        scheduler.advanceTo(Long.MAX_VALUE);
+        return new int[]{read, sender.sent.size(), carried, replies, bursts};
+    }
+}
@@ -0,0 +1,153 @@
+package com.reactnativebitchat;
+
+// Unicast routes learned from observed traffic, AODV-lite style. Every packet teaches the receiver a
+// reverse path: its source is reachable through the neighbour that transmitted it, at the hop count
+// implied by the TTL it has used up. Routes expire unless refreshed, and a miss means flooding.
+public class Router {
+    public static final int DEFAULT_TTL = 5;
+
+    public interface RouteVisitor {
+        void visit(long destination, long nextHop, int hops, long expiresAt);
+    }
+
+    static final class Route {
+        long nextHop;
+        int hops;
+        long expiresAt;
+    }
+
+    private final LongLruCache<Route> routes;
+    private final long routeLifetimeMs;
+    private final Clock clock;
+    private long hits, misses;
+    private long changes; // Bumped whenever the table changes, so snapshots can skip an unchanged one
+
+    public Router(int capacity, long routeLifetimeMs, Clock clock) {
+        routes = new LongLruCache<>(capacity);
+        this.routeLifetimeMs = routeLifetimeMs;
+        this.clock = clock;
+    }
+
+    // A packet from source arrived via lastHop with ttl hops remaining.
+    public void observe(long source, long lastHop, int ttl) {
+        learn(source, lastHop, Math.max(1, DEFAULT_TTL - ttl));
+    }
+
+    // A delivery ack from recipient arrived via lastHop after hopCount relays.
+    public void observeAck(long recipient, long lastHop, int hopCount) {
+        learn(recipient, lastHop, hopCount + 1);
+    }
+
+    // Keeps the shorter of the current and offered route; an equal or expired one is replaced, which is
+    // how live routes are refreshed.
+    public synchronized void learn(long destination, long nextHop, int hops) {
+        if (destination == 0 || nextHop == 0) return;
+        long now = clock.nowMillis();
+        Route route = routes.peek(destination);
+        if (route != null && route.expiresAt > now && route.hops < hops) return;
+        if (route == null) {
+            route = new Route();
+            routes.put(destination, route);
+        }
+        route.nextHop = nextHop;
+        route.hops = hops;
+        route.expiresAt = now + routeLifetimeMs;
+        changes++;
+    }
+
+    // Reinstates a route from a snapshot with its original expiry; expired or worse routes are ignored.
+    public synchronized void restore(long destination, long nextHop, int hops, long expiresAt) {
+        if (destination == 0 || nextHop == 0 || expiresAt <= clock.nowMillis()) return;
+        Route route = routes.peek(destination);
+        if (route != null && route.expiresAt > clock.nowMillis() && route.hops <= hops) return;
+        if (route == null) {
+            route = new Route();
+            routes.put(destination, route);
+        }
+        route.nextHop = nextHop;
+        route.hops = hops;
+        route.expiresAt = expiresAt;
+        changes++;
+    }
+
+    // Visits live routes without touching their recency.
+    public synchronized void forEachRoute(RouteVisitor visitor) {
+        long now = clock.nowMillis();
+        routes.forEach((destination, route) -> {
+            if (route.expiresAt > now) visitor.visit(destination, route.nextHop, route.hops, route.expiresAt);
+            return true;
+        });
+    }
+
+    public synchronized long getChanges() {
+        return changes;
+    }
+
+    // Next hop towards destination, or 0 when the packet has to be flooded.
+    public synchronized long nextHop(long destination) {
+        Route route = routes.get(destination);
+        if (route == null || route.expiresAt <= clock.nowMillis()) {
+            if (route != null) routes.remove(destination);
+            misses++;
+            return 0;
+        }
+        hits++;
+        return route.nextHop;
+    }
+
+    public synchronized int hopsTo(long destination) {
+        Route route = routes.peek(destination);
+        return route != null && route.expiresAt > clock.nowMillis() ? route.hops : -1;
+    }
+
+    // Drops the route after a directed send went unanswered, so the next attempt floods.
+    public synchronized void forget(long destination) {
+        if (routes.remove(destination) != null) changes++;
+    }
+
+    public synchronized int purgeExpired() {
+        long now = clock.nowMillis();
+        int before = routes.size();
+        routes.forEach((destination, route) -> route.expiresAt > now);
+        return before - routes.size();
+    }
+
+    // Live routes one hop away, i.e. neighbours in radio range that can relay for us.
+    public synchronized int countNeighbours() {
+        long now = clock.nowMillis();
+        int[] count = new int[1];
+        routes.forEach((destination, route) -> {
+            if (route.expiresAt > now && route.hops == 1) count[0]++;
+            return true;
+        });
+        return count[0];
+    }
+
+    public synchronized int size() {
+        return routes.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    // Peer IDs are 8 bytes on the wire; as a big-endian long they key the table without allocation.
+    public static long idToLong(byte[] id) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) value = (value << 8) | (id != null && i < id.length ? id[i] & 0xFF : 0);
+        return value;
+    }
+
+    public static byte[] longToId(long value) {
+        byte[] id = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            id[i] = (byte) value;
+            value >>>= 8;
+        }
+        return id;
+    }
+}
@@ -0,0 +1,175 @@
+package com.reactnativebitchat;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class RoutingTests {
+    private static final class ManualClock implements Clock {
+        long now = 1000;
+
+        @Override
+        public long nowMillis() {
+            return now;
+        }
+    }
+
+    @Test
+    public void testReversePathLearningAndExpiry() {
+        ManualClock clock = new ManualClock();
+        Router router = new Router(16, 1000, clock);
+        assertEquals(0, router.nextHop(42)); // Miss floods
+        router.observe(42, 7, Router.DEFAULT_TTL - 3); // Heard after three hops via 7
+        assertEquals(7, router.nextHop(42));
+        assertEquals(3, router.hopsTo(42));
+        router.observe(42, 8, Router.DEFAULT_TTL - 4); // Longer path is ignored
+        assertEquals(7, router.nextHop(42));
+        router.observeAck(42, 9, 1); // Ack relayed once: two hops via 9
+        assertEquals(9, router.nextHop(42));
+        clock.now += 1001;
+        assertEquals(0, router.nextHop(42));
+        router.observe(43, 7, Router.DEFAULT_TTL - 1);
+        clock.now += 1001;
+        assertEquals(1, router.purgeExpired());
+        assertEquals(0, router.size());
+    }
+
+    @Test
+    public void testLongLruCacheEvictionAndRemoval() {
+        LongLruCache<String> cache = new LongLruCache<>(3);
+        cache.put(1, "a");
+        cache.put(2, "b");
+        cache.put(3, "c");
+        assertEquals("a", cache.get(1)); // 2 is now least recently used
+        cache.put(4, "d");
+        assertNull(cache.peek(2));
+        assertEquals(3, cache.size());
+        assertEquals("c", cache.remove(3));
+        assertFalse(cache.containsKey(3));
+        for (long key = 100; key < 10000; key++) {
+            cache.put(key, "v" + key);
+            assertEquals("v" + key, cache.peek(key));
+        }
+        assertEquals(3, cache.size());
+        assertEquals("v9997", cache.peek(9997));
+        List<Long> order = new ArrayList<>();
+        cache.forEach((key, value) -> order.add(key) && key != 9998);
+        assertEquals(Long.valueOf(9997), order.get(0));
+        assertFalse(cache.containsKey(9998));
+    }
+
+    // Mesh of nodes on a unit square; a transmission reaches every node within radio range. Relays apply
+    // the same rules as BleService: dedup, reverse-path learning, next-hop filtering and flood on a miss.
+    private static final class Mesh {
+        final int size;
+        final List<List<Integer>> neighbours = new ArrayList<>();
+        final Router[] routers;
+        final boolean routed;
+        long transmissions;
+        private long nextPacketId;
+
+        Mesh(int size, double range, long seed, boolean routed) {
+            this.size = size;
+            this.routed = routed;
+            Random random = new Random(seed);
+            double[] x = new double[size], y = new double[size];
+            routers = new Router[size];
+            for (int i = 0; i < size; i++) {
+                x[i] = random.nextDouble();
+                y[i] = random.nextDouble();
+                routers[i] = new Router(size, 60000, Clock.SYSTEM);
+                neighbours.add(new ArrayList<>());
+            }
+            for (int i = 0; i < size; i++) {
+                for (int j = i + 1; j < size; j++) {
+                    if (Math.hypot(x[i] - x[j], y[i] - y[j]) <= range) {
+                        neighbours.get(i).add(j);
+                        neighbours.get(j).add(i);
+                    }
+                }
+            }
+        }
+
+        static long id(int node) {
+            return node + 1;
+        }
+
+        // Delivers from source to destination (-1 broadcasts); returns whether the destination got it.
+        boolean send(int source, int destination) {
+            List<Set<Long>> seen = new ArrayList<>();
+            for (int i = 0; i < size; i++) seen.add(new HashSet<>());
+            long packetId = ++nextPacketId;
+            seen.get(source).add(packetId);
+            ArrayDeque<long[]> queue = new ArrayDeque<>(); // {transmitter, ttl, nextHop}
+            long nextHop = routed && destination >= 0 ? routers[source].nextHop(id(destination)) : 0;
+            queue.add(new long[]{source, Router.DEFAULT_TTL - 1, nextHop});
+            boolean delivered = false;
+            while (!queue.isEmpty()) {
+                long[] tx = queue.poll();
+                int transmitter = (int) tx[0];
+                transmissions++;
+                for (int node : neighbours.get(transmitter)) {
+                    if (seen.get(node).contains(packetId)) continue;
+                    routers[node].observe(id(source), id(transmitter), (int) tx[1]);
+                    if (tx[2] != 0 && tx[2] != id(node) && node != destination) continue;
+                    seen.get(node).add(packetId);
+                    if (node == destination) {
+                        delivered = true;
+                        continue;
+                    }
+                    if (tx[1] <= 0) continue;
+                    long hop = routed && destination >= 0 ? routers[node].nextHop(id(destination)) : 0;
+                    queue.add(new long[]{node, tx[1] - 1, hop});
+                }
+            }
+            return delivered;
+        }
+    }
+
+    @Test
+    public void testDirectedRoutingSimulation() {
+        long[] flooded = simulate(false);
+        long[] routed = simulate(true);
+        assertTrue(routed[0] >= flooded[0] * 0.95); // Directing must not cost deliveries
+        assertTrue(routed[1] / (double) routed[0] < 0.5 * flooded[1] / (double) flooded[0]);
+    }
+
+    @Test
+    public void benchmarkDirectedRouting() {
+        Benchmarks.assumeEnabled();
+        for (int mode = 0; mode < 2; mode++) {
+            long[] result = simulate(mode == 1);
+            System.out.println((mode == 1 ? "Routed" : "Flooded") + ": " + result[0] + "/" + SIMULATED_MESSAGES + " delivered, "
+                    + String.format("%.1f", (double) result[1] / Math.max(1, result[0])) + " transmissions per delivered DM+ack"
+                    + (mode == 1 ? ", learning " + result[2] + " transmissions" : ""));
+        }
+    }
+
+    private static final int SIMULATED_MESSAGES = 300;
+
+    // {delivered DMs, transmissions for the DMs and their acks, transmissions spent learning paths} on a 60-node mesh.
+    private static long[] simulate(boolean routed) {
+        int nodes = 60;
+        Mesh mesh = new Mesh(nodes, 0.22, 42, routed);
+        for (int i = 0; i < nodes; i++) mesh.send(i, -1); // Presence announcements teach reverse paths
+        long learning = mesh.transmissions;
+        mesh.transmissions = 0;
+        Random random = new Random(7);
+        int delivered = 0;
+        for (int m = 0; m < SIMULATED_MESSAGES; m++) {
+            int from = random.nextInt(nodes), to = random.nextInt(nodes);
+            if (from == to) to = (to + 1) % nodes;
+            if (mesh.send(from, to)) {
+                delivered++;
+                mesh.send(to, from); // Delivery ack travels back and refreshes the path
+            }
+        }
+        return new long[]{delivered, mesh.transmissions, learning};
+    }
+}
@@ -0,0 +1,252 @@
+package com.reactnativebitchat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Channel, key and route state that survives a restart, kept as an append-only journal like MessageLog:
+// each change appends the new state of one channel, or of the whole route table, and a restore replays
+// the journal keeping the latest record of each. Passwords and keys are sealed by the Keychain, so a cold
+// start costs one keystore unwrap instead of a PBKDF2 run per protected channel. The journal is rewritten
+// once superseded records outweigh live ones.
+public class StateStore implements Closeable {
+    static final byte RECORD_DATA_KEY = 1; // wrappedKey
+    static final byte RECORD_CHANNEL = 2; // name flags creator [sealed commitment]
+    static final byte RECORD_ROUTES = 3; // count(u16) (destination(8) nextHop(8) hops(u8) expiresAt(8))*
+    private static final int FLAG_JOINED = 0x01;
+    private static final int FLAG_CURRENT = 0x02; // The latest record with this flag names the current channel
+    private static final int FLAG_SEALED = 0x04;
+    private static final int COMPACT_SLACK = 16 * 1024;
+
+    private final File path;
+    private final Keychain keychain;
+    private RandomAccessFile file;
+    // Latest record body of each kind, in journal order, which is what a compaction writes back
+    private final LinkedHashMap<String, byte[]> channelRecords = new LinkedHashMap<>();
+    private byte[] dataKeyRecord, routesRecord;
+    private String currentChannel;
+    private long routeChanges = -1;
+
+    public StateStore(File path, Keychain keychain) throws IOException {
+        File parent = path.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) throw new IOException("Cannot create " + parent);
+        this.path = path;
+        this.keychain = keychain;
+        file = new RandomAccessFile(path, "rw");
+    }
+
+    // Replays the journal into channel and router and returns the number of channels restored. Channels
+    // whose sealed secret cannot be opened, e.g. after the keystore was reset, are left out.
+    public synchronized int restore(Channel channel, Router router) throws IOException {
+        load();
+        boolean unsealed = false;
+        if (dataKeyRecord != null) {
+            try {
+                keychain.loadDataKey(MessageBatch.readBytes(input(dataKeyRecord)));
+                unsealed = true;
+            } catch (GeneralSecurityException ignored) {
+                dataKeyRecord = null; // A fresh data key is persisted with the next sealed record
+            }
+        }
+        int restored = 0;
+        Iterator<Map.Entry<String, byte[]>> iterator = channelRecords.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, byte[]> entry = iterator.next();
+            Channel.Snapshot snapshot = decodeChannel(entry.getValue(), unsealed);
+            if (snapshot == null) iterator.remove(); // Unrecoverable; the next compaction drops it
+            else if (channel.restore(snapshot, entry.getKey().equals(currentChannel))) restored++;
+        }
+        if (routesRecord != null) {
+            ByteBuffer in = input(routesRecord);
+            for (int i = in.getShort() & 0xFFFF; i > 0; i--) {
+                router.restore(in.getLong(), in.getLong(), in.get() & 0xFF, in.getLong());
+            }
+        }
+        return restored;
+    }
+
+    public synchronized void saveChannel(Channel channel, String name) throws IOException {
+        Channel.Snapshot snapshot = channel.snapshot(name);
+        if (snapshot == null) return;
+        boolean current = name.equals(channel.getCurrentChannel());
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(RECORD_CHANNEL);
+        MessageBatch.writeString(out, name);
+        out.write((snapshot.joined ? FLAG_JOINED : 0) | (current ? FLAG_CURRENT : 0) | (snapshot.key != null ? FLAG_SEALED : 0));
+        MessageBatch.writeString(out, snapshot.creator);
+        if (snapshot.key != null) {
+            ByteArrayOutputStream secret = new ByteArrayOutputStream(64);
+            MessageBatch.writeString(secret, snapshot.password);
+            secret.write(snapshot.key, 0, snapshot.key.length);
+            try {
+                if (dataKeyRecord == null) {
+                    ByteArrayOutputStream key = new ByteArrayOutputStream(64);
+                    key.write(RECORD_DATA_KEY);
+                    MessageBatch.writeBytes(key, keychain.getWrappedDataKey());
+                    dataKeyRecord = key.toByteArray();
+                    append(dataKeyRecord);
+                }
+                MessageBatch.writeBytes(out, keychain.seal(secret.toByteArray(), sealContext(name)));
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Cannot seal key for " + name, e);
+            }
+            MessageBatch.writeBytes(out, snapshot.commitment);
+        }
+        byte[] record = out.toByteArray();
+        channelRecords.remove(name); // Re-inserted last so journal order is kept for compaction
+        channelRecords.put(name, record);
+        if (current) currentChannel = name;
+        append(record);
+        compactIfNeeded();
+    }
+
+    // Appends the route table if it changed since the last call; returns whether it wrote.
+    public synchronized boolean saveRoutes(Router router) throws IOException {
+        long changes = router.getChanges();
+        if (changes == routeChanges) return false;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+        out.write(RECORD_ROUTES);
+        out.write(0); // Count, patched below
+        out.write(0);
+        int[] count = new int[1];
+        router.forEachRoute((destination, nextHop, hops, expiresAt) -> {
+            MessageBatch.writeLong(out, destination);
+            MessageBatch.writeLong(out, nextHop);
+            out.write(hops);
+            MessageBatch.writeLong(out, expiresAt);
+            count[0]++;
+        });
+        routesRecord = out.toByteArray();
+        routesRecord[1] = (byte) (count[0] >>> 8);
+        routesRecord[2] = (byte) count[0];
+        routeChanges = changes;
+        append(routesRecord);
+        compactIfNeeded();
+        return true;
+    }
+
+    public synchronized long getLength() throws IOException {
+        return file.length();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        file.close();
+    }
+
+    private void load() throws IOException {
+        long length = file.length();
+        long offset = 0;
+        while (offset + 4 <= length) {
+            file.seek(offset);
+            int recordLength = file.readInt();
+            if (recordLength <= 0 || offset + 4 + recordLength > length) break;
+            byte[] record = new byte[recordLength];
+            file.readFully(record);
+            try {
+                index(record);
+            } catch (BufferUnderflowException ignored) {
+                // Corrupt record; later ones are still usable
+            }
+            offset += 4 + recordLength;
+        }
+        if (offset < length) file.setLength(offset); // Drop a record torn by a crash mid-append
+    }
+
+    private void index(byte[] record) {
+        switch (record[0]) {
+            case RECORD_DATA_KEY:
+                dataKeyRecord = record;
+                break;
+            case RECORD_CHANNEL: {
+                ByteBuffer in = input(record);
+                String name = MessageBatch.readString(in);
+                int flags = in.get() & 0xFF;
+                channelRecords.remove(name);
+                channelRecords.put(name, record);
+                if ((flags & FLAG_CURRENT) != 0) currentChannel = name;
+                break;
+            }
+            case RECORD_ROUTES:
+                routesRecord = record;
+                break;
+            default:
+                break; // Written by a newer version; skipped
+        }
+    }
+
+    private Channel.Snapshot decodeChannel(byte[] record, boolean unsealed) {
+        ByteBuffer in = input(record);
+        String name = MessageBatch.readString(in);
+        int flags = in.get() & 0xFF;
+        String creator = MessageBatch.readString(in);
+        if ((flags & FLAG_SEALED) == 0) return new Channel.Snapshot(name, (flags & FLAG_JOINED) != 0, creator, null, null, null);
+        if (!unsealed) return null;
+        byte[] sealed = MessageBatch.readBytes(in);
+        byte[] commitment = MessageBatch.readBytes(in);
+        try {
+            ByteBuffer secret = ByteBuffer.wrap(keychain.open(sealed, sealContext(name)));
+            String password = MessageBatch.readString(secret);
+            byte[] key = new byte[secret.remaining()];
+            secret.get(key);
+            return new Channel.Snapshot(name, (flags & FLAG_JOINED) != 0, creator, password, key, commitment);
+        } catch (GeneralSecurityException | BufferUnderflowException e) {
+            return null; // Sealed under an older data key, or tampered with
+        }
+    }
+
+    private void append(byte[] record) throws IOException {
+        long offset = file.length();
+        file.seek(offset);
+        file.writeInt(record.length);
+        file.write(record);
+    }
+
+    // Rewrites the live records to a temporary file and renames it over the journal.
+    private void compactIfNeeded() throws IOException {
+        long live = 0;
+        for (byte[] record : channelRecords.values()) live += 4 + record.length;
+        if (dataKeyRecord != null) live += 4 + dataKeyRecord.length;
+        if (routesRecord != null) live += 4 + routesRecord.length;
+        if (file.length() <= 2 * live + COMPACT_SLACK) return;
+        File temp = new File(path.getPath() + ".tmp");
+        try (RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+            out.setLength(0);
+            if (dataKeyRecord != null) writeRecord(out, dataKeyRecord);
+            byte[] current = null;
+            for (Map.Entry<String, byte[]> entry : channelRecords.entrySet()) {
+                if (entry.getKey().equals(currentChannel)) current = entry.getValue();
+                else writeRecord(out, entry.getValue());
+            }
+            if (current != null) writeRecord(out, current); // Last, so replay still finds it current
+            if (routesRecord != null) writeRecord(out, routesRecord);
+            out.getFD().sync();
+        }
+        file.close();
+        if (!temp.renameTo(path)) throw new IOException("Cannot replace " + path);
+        file = new RandomAccessFile(path, "rw");
+    }
+
+    private static void writeRecord(RandomAccessFile out, byte[] record) throws IOException {
+        out.writeInt(record.length);
+        out.write(record);
+    }
+
+    private static String sealContext(String channel) {
+        return "channel:" + channel;
+    }
+
+    private static ByteBuffer input(byte[] record) {
+        ByteBuffer in = ByteBuffer.wrap(record);
+        in.get(); // Record type
+        return in;
+    }
+}
@@ -0,0 +1,236 @@
+package com.reactnativebitchat;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+public class StateStoreTests {
+    // Stands in for the Android Keystore: AES-GCM under a fixed master key.
+    static Keychain.Wrapper softwareWrapper(int seed) {
+        byte[] master = new byte[32];
+        Arrays.fill(master, (byte) seed);
+        SecretKeySpec key = new SecretKeySpec(master, "AES");
+        return new Keychain.Wrapper() {
+            @Override
+            public byte[] wrap(byte[] value) throws GeneralSecurityException {
+                byte[] iv = new byte[12];
+                Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+                cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv));
+                byte[] ciphertext = cipher.doFinal(value);
+                byte[] wrapped = Arrays.copyOf(iv, 12 + ciphertext.length);
+                System.arraycopy(ciphertext, 0, wrapped, 12, ciphertext.length);
+                return wrapped;
+            }
+
+            @Override
+            public byte[] unwrap(byte[] wrapped) throws GeneralSecurityException {
+                Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+                cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(128, wrapped, 0, 12));
+                return cipher.doFinal(wrapped, 12, wrapped.length - 12);
+            }
+        };
+    }
+
+    private static File tempFile() throws IOException {
+        File file = File.createTempFile("state", ".bin");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static Router router() {
+        return new Router(64, 60000, Clock.SYSTEM);
+    }
+
+    @Test
+    public void testRestoreChannelsKeysAndRoutes() throws Exception {
+        File path = tempFile();
+        Keychain keychain = new Keychain(softwareWrapper(1));
+        Channel channel = new Channel(keychain);
+        Router router = router();
+        StateStore store = new StateStore(path, keychain);
+        assertEquals(0, store.restore(channel, router));
+        channel.setStateListener(name -> {
+            try {
+                store.saveChannel(channel, name);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        channel.createChannel("#open", null, "alice");
+        channel.createChannel("#secret", "hunter2", "alice");
+        channel.transferOwnership("#secret", "bob", "alice");
+        channel.joinChannel("#open", null, "alice"); // Current again
+        router.learn(0x1111, 0x2222, 2);
+        router.learn(0x3333, 0x2222, 1);
+        assertTrue(store.saveRoutes(router));
+        assertFalse(store.saveRoutes(router)); // Unchanged
+        store.close();
+
+        long derivations = Metrics.get(Metrics.Counter.KEY_DERIVATIONS);
+        Keychain restartedKeychain = new Keychain(softwareWrapper(1));
+        Channel restarted = new Channel(restartedKeychain);
+        Router restartedRouter = router();
+        StateStore reopened = new StateStore(path, restartedKeychain);
+        assertEquals(2, reopened.restore(restarted, restartedRouter));
+        assertEquals(derivations, Metrics.get(Metrics.Counter.KEY_DERIVATIONS)); // No PBKDF2 on restore
+        assertTrue(restarted.isJoined("#open"));
+        assertTrue(restarted.isJoined("#secret"));
+        assertEquals("#open", restarted.getCurrentChannel());
+        assertEquals("bob", restarted.getChannelCreator("#secret"));
+        assertEquals("hunter2", restarted.getChannelPassword("#secret"));
+        assertArrayEquals(channel.getChannelKey("#secret"), restarted.getChannelKey("#secret"));
+        assertArrayEquals(channel.getChannelKey("#secret"), restartedKeychain.retrieveKey("channel_#secret"));
+        assertEquals(channel.tagFor("#secret"), restarted.tagFor("#secret"));
+        assertTrue(restarted.acceptsTag(channel.tagFor("#secret")));
+        assertTrue(restarted.joinChannel("#secret", "hunter2", "alice"));
+        assertFalse(restarted.joinChannel("#secret", "wrong", "alice"));
+        assertEquals(0x2222, restartedRouter.nextHop(0x1111));
+        assertEquals(1, restartedRouter.hopsTo(0x3333));
+        reopened.close();
+    }
+
+    @Test
+    public void testKeystoreResetDropsOnlySealedChannels() throws Exception {
+        File path = tempFile();
+        Keychain keychain = new Keychain(softwareWrapper(1));
+        Channel channel = new Channel(keychain);
+        StateStore store = new StateStore(path, keychain);
+        store.restore(channel, router());
+        channel.createChannel("#open", null, "alice");
+        channel.createChannel("#secret", "pw", "alice");
+        store.saveChannel(channel, "#open");
+        store.saveChannel(channel, "#secret");
+        store.close();
+
+        Keychain resetKeychain = new Keychain(softwareWrapper(2)); // Master key is gone
+        Channel restarted = new Channel(resetKeychain);
+        StateStore reopened = new StateStore(path, resetKeychain);
+        assertEquals(1, reopened.restore(restarted, router()));
+        assertTrue(restarted.isJoined("#open"));
+        assertFalse(restarted.isJoined("#secret"));
+
+        restarted.createChannel("#secret", "pw2", "carol"); // Sealed under the new data key
+        reopened.saveChannel(restarted, "#secret");
+        reopened.close();
+        Keychain again = new Keychain(softwareWrapper(2));
+        Channel third = new Channel(again);
+        assertEquals(2, new StateStore(path, again).restore(third, router()));
+        assertEquals("pw2", third.getChannelPassword("#secret"));
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        File path = tempFile();
+        Keychain keychain = new Keychain(softwareWrapper(1));
+        Channel channel = new Channel(keychain);
+        StateStore store = new StateStore(path, keychain);
+        store.restore(channel, router());
+        channel.createChannel("#a", "pw", "alice");
+        channel.createChannel("#b", null, "alice");
+        store.saveChannel(channel, "#a");
+        for (int i = 0; i < 4000; i++) {
+            channel.transferOwnership("#b", i % 2 == 0 ? "bob" : "alice", i % 2 == 0 ? "alice" : "bob");
+            store.saveChannel(channel, "#b");
+        }
+        assertTrue(store.getLength() < 20 * 1024); // Superseded records were rewritten away
+        store.close();
+
+        Channel restarted = new Channel(new Keychain(softwareWrapper(1)));
+        assertEquals(2, new StateStore(path, new Keychain(softwareWrapper(1))).restore(restarted, router()));
+        assertEquals("alice", restarted.getChannelCreator("#b"));
+        assertEquals("#b", restarted.getCurrentChannel());
+        assertArrayEquals(channel.getChannelKey("#a"), restarted.getChannelKey("#a"));
+    }
+
+    @Test
+    public void testTornTailIsDropped() throws Exception {
+        File path = tempFile();
+        Keychain keychain = new Keychain(softwareWrapper(1));
+        Channel channel = new Channel(keychain);
+        StateStore store = new StateStore(path, keychain);
+        store.restore(channel, router());
+        channel.createChannel("#b", null, "alice");
+        store.saveChannel(channel, "#b");
+        channel.transferOwnership("#b", "bob", "alice");
+        store.saveChannel(channel, "#b");
+        store.close();
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.setLength(file.length() - 3); // A crash mid-append of the last record
+        }
+
+        Channel restarted = new Channel(new Keychain(softwareWrapper(1)));
+        StateStore reopened = new StateStore(path, new Keychain(softwareWrapper(1)));
+        assertEquals(1, reopened.restore(restarted, router()));
+        assertEquals("alice", restarted.getChannelCreator("#b"));
+        restarted.transferOwnership("#b", "carol", "alice");
+        reopened.saveChannel(restarted, "#b"); // Appends after the truncated record, not after garbage
+        reopened.close();
+        Channel third = new Channel(new Keychain(softwareWrapper(1)));
+        new StateStore(path, new Keychain(softwareWrapper(1))).restore(third, router());
+        assertEquals("carol", third.getChannelCreator("#b"));
+    }
+
+    // Cold start with 20 password-protected channels: one keystore unwrap and 20 AES-GCM opens instead of
+    // 20 PBKDF2 derivations for rejoining them.
+    @Test
+    public void testColdStartSkipsKeyDerivation() throws Exception {
+        File path = tempFile();
+        Keychain keychain = new Keychain(softwareWrapper(1));
+        Channel channel = new Channel(keychain);
+        StateStore store = new StateStore(path, keychain);
+        store.restore(channel, router());
+        long derivations = Metrics.get(Metrics.Counter.KEY_DERIVATIONS);
+        for (int i = 0; i < 20; i++) {
+            channel.createChannel("#room-" + i, "password-" + i, "alice");
+            store.saveChannel(channel, "#room-" + i);
+        }
+        assertEquals(derivations + 20, Metrics.get(Metrics.Counter.KEY_DERIVATIONS));
+        store.close();
+
+        Keychain restartedKeychain = new Keychain(softwareWrapper(1));
+        Channel restarted = new Channel(restartedKeychain);
+        StateStore reopened = new StateStore(path, restartedKeychain);
+        assertEquals(20, reopened.restore(restarted, router()));
+        reopened.close();
+        assertEquals(derivations + 20, Metrics.get(Metrics.Counter.KEY_DERIVATIONS));
+        for (int i = 0; i < 20; i++) assertArrayEquals(channel.getChannelKey("#room-" + i), restarted.getChannelKey("#room-" + i));
+    }
+
+    @Test
+    public void benchmarkColdStart() throws Exception {
+        Benchmarks.assumeEnabled();
+        File path = tempFile();
+        Keychain keychain = new Keychain(softwareWrapper(1));
+        Channel channel = new Channel(keychain);
+        StateStore store = new StateStore(path, keychain);
+        store.restore(channel, router());
+        long start = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            channel.createChannel("#room-" + i, "password-" + i, "alice");
+            store.saveChannel(channel, "#room-" + i);
+        }
+        long deriveMs = (System.nanoTime() - start) / 1000000;
+        store.close();
+
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            Keychain restartedKeychain = new Keychain(softwareWrapper(1));
+            Channel restarted = new Channel(restartedKeychain);
+            long t0 = System.nanoTime();
+            StateStore reopened = new StateStore(path, restartedKeychain);
+            assertEquals(20, reopened.restore(restarted, router()));
+            best = Math.min(best, System.nanoTime() - t0);
+            reopened.close();
+        }
+        System.out.println("Cold start, 20 protected channels: " + deriveMs + " ms deriving, " + best / 1000 + " us restoring");
+    }
+}
@@ -0,0 +1,147 @@
+package com.reactnativebitchat;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Hop-by-hop events for the sample of packets carrying Protocol.TYPE_FLAG_TRACE. Writers claim a slot
+// with one getAndIncrement and never block; the oldest events are overwritten once the ring is full.
+// Each slot is stamp, packet id, time and argument, and the stamp is cleared before and set after the
+// other fields, so a reader skips slots that were rewritten while it copied them out. Only a writer
+// stalled for a whole lap of the ring can leave a mixed event behind, which diagnostics can live with.
+public final class Trace {
+    public enum Event {
+        SEND,       // arg: message key, see messageKey
+        ENCODE,     // arg: encoded length
+        FRAGMENT,   // Not recorded since packets are framed whole; kept so the event numbers stay stable
+        RECEIVE,    // arg: remaining TTL
+        REASSEMBLE, // arg: payload length
+        RELAY,      // arg: next hop, 0 when flooded
+        TRANSMIT,   // arg: link-layer fragments handed to the radio
+        ACK         // arg: hop count; the packet id field holds the message key
+    }
+
+    static final int CAPACITY = 4096; // Power of two
+    private static final int MASK = CAPACITY - 1;
+    private static final int FIELDS = 4;
+    static final int MAGIC = 0x42545243; // "BTRC"
+    static final int FORMAT_VERSION = 1;
+    static final int EXPORT_HEADER_SIZE = 4 + 1 + 8 + 4;
+    static final int EXPORT_EVENT_SIZE = 8 + 8 + 1 + 8; // packet id, time (us), event, arg
+    private static final int TRACED_MESSAGES = 256;
+
+    private static final AtomicLong cursor = new AtomicLong();
+    private static final AtomicLongArray slots = new AtomicLongArray(CAPACITY * FIELDS);
+    private static final LongLruCache<Boolean> tracedMessages = new LongLruCache<>(TRACED_MESSAGES);
+    private static volatile int sampleThreshold; // Out of 1 << 16; 0 disables sampling
+
+    // Wall clock in microseconds, advanced by nanoTime so events on one node are strictly ordered
+    private static final long EPOCH_MICROS = System.currentTimeMillis() * 1000;
+    private static final long EPOCH_NANOS = System.nanoTime();
+
+    private Trace() {
+    }
+
+    // Fraction of originated packets to trace, 0 to 1.
+    public static void setSampleRate(double rate) {
+        if (rate < 0 || rate > 1 || Double.isNaN(rate)) throw new IllegalArgumentException("Sample rate must be between 0 and 1");
+        sampleThreshold = (int) Math.round(rate * (1 << 16));
+    }
+
+    public static double getSampleRate() {
+        return sampleThreshold / (double) (1 << 16);
+    }
+
+    public static boolean sample() {
+        int threshold = sampleThreshold;
+        return threshold != 0 && (threshold >= 1 << 16 || FastRandom.current().nextInt(1 << 16) < threshold);
+    }
+
+    public static void record(Event event, long packetId, long arg) {
+        long sequence = cursor.getAndIncrement();
+        int base = (int) (sequence & MASK) * FIELDS;
+        slots.set(base, 0); // Readers treat the slot as torn until the stamp is back
+        slots.lazySet(base + 1, packetId);
+        slots.lazySet(base + 2, nowMicros());
+        slots.lazySet(base + 3, arg);
+        slots.lazySet(base, stamp(sequence, event));
+    }
+
+    // Stable 64-bit key for a message ID, so acks can be joined to the SEND event of the traced packet.
+    public static long messageKey(String messageID) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < messageID.length(); i++) {
+            hash ^= messageID.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    // Records SEND for a traced packet and remembers the message so its acks are traced too.
+    public static void recordSend(long packetId, String messageID) {
+        long key = messageID != null ? messageKey(messageID) : 0;
+        if (key != 0) {
+            synchronized (tracedMessages) {
+                tracedMessages.put(key, Boolean.TRUE);
+            }
+        }
+        record(Event.SEND, packetId, key);
+    }
+
+    public static void recordAck(String messageID, int hopCount) {
+        long key = messageKey(messageID);
+        synchronized (tracedMessages) {
+            if (tracedMessages.size() == 0 || tracedMessages.remove(key) == null) return;
+        }
+        record(Event.ACK, key, hopCount);
+    }
+
+    // Retained events, oldest first: a header of magic(4) version(1) nodeID(8) count(4), then per event
+    // packetId(8) timeMicros(8) event(1) arg(8), big-endian.
+    public static byte[] export(long nodeID) {
+        long last = cursor.get();
+        long first = Math.max(0, last - CAPACITY);
+        ByteBuffer buffer = ByteBuffer.allocate(EXPORT_HEADER_SIZE + (int) (last - first) * EXPORT_EVENT_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.put((byte) FORMAT_VERSION);
+        buffer.putLong(nodeID);
+        buffer.putInt(0); // Count, patched below
+        int count = 0;
+        for (long sequence = first; sequence < last; sequence++) {
+            int base = (int) (sequence & MASK) * FIELDS;
+            long stamp = slots.get(base);
+            long packetId = slots.get(base + 1);
+            long time = slots.get(base + 2);
+            long arg = slots.get(base + 3);
+            if (stamp == 0 || stamp != slots.get(base) || stamp >>> 8 != sequence + 1) continue; // Empty, torn or lapped
+            buffer.putLong(packetId);
+            buffer.putLong(time);
+            buffer.put((byte) stamp); // Event ordinal
+            buffer.putLong(arg);
+            count++;
+        }
+        buffer.putInt(EXPORT_HEADER_SIZE - 4, count);
+        byte[] result = new byte[buffer.position()];
+        System.arraycopy(buffer.array(), 0, result, 0, result.length);
+        return result;
+    }
+
+    public static long getRecorded() {
+        return cursor.get();
+    }
+
+    public static void clear() {
+        for (int i = 0; i < CAPACITY; i++) slots.set(i * FIELDS, 0);
+        synchronized (tracedMessages) {
+            tracedMessages.clear();
+        }
+    }
+
+    private static long stamp(long sequence, Event event) {
+        return (sequence + 1) << 8 | event.ordinal();
+    }
+
+    private static long nowMicros() {
+        return EPOCH_MICROS + (System.nanoTime() - EPOCH_NANOS) / 1000;
+    }
+}
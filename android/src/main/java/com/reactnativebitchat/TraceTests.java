@@ -0,0 +1,157 @@
+package com.reactnativebitchat;
+
+import com.reactnativebitchat.Message.BitchatPacket;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class TraceTests {
+    private static final class Event {
+        final long packetId;
+        final long time;
+        final Trace.Event type;
+        final long arg;
+
+        Event(long packetId, long time, Trace.Event type, long arg) {
+            this.packetId = packetId;
+            this.time = time;
+            this.type = type;
+            this.arg = arg;
+        }
+    }
+
+    private static List<Event> parse(byte[] export, long nodeID) {
+        ByteBuffer buffer = ByteBuffer.wrap(export);
+        assertEquals(Trace.MAGIC, buffer.getInt());
+        assertEquals(Trace.FORMAT_VERSION, buffer.get());
+        assertEquals(nodeID, buffer.getLong());
+        int count = buffer.getInt();
+        assertEquals(Trace.EXPORT_HEADER_SIZE + count * Trace.EXPORT_EVENT_SIZE, export.length);
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            events.add(new Event(buffer.getLong(), buffer.getLong(), Trace.Event.values()[buffer.get()], buffer.getLong()));
+        }
+        return events;
+    }
+
+    private static BitchatPacket packet(int type, byte[] payload, boolean traced) {
+        BitchatPacket packet = new BitchatPacket();
+        packet.type = type;
+        packet.senderID = "tracer01".getBytes();
+        packet.timestamp = 1234567;
+        packet.ttl = 5;
+        packet.payload = payload;
+        packet.traced = traced;
+        return packet;
+    }
+
+    @Test
+    public void testTraceFlagRoundTrip() {
+        byte[] traced = Protocol.encodePacket(packet(0, new byte[]{1, 2, 3}, true));
+        byte[] plain = Protocol.encodePacket(packet(0, new byte[]{1, 2, 3}, false));
+        assertTrue(Protocol.peekTraced(traced));
+        assertFalse(Protocol.peekTraced(plain));
+        assertEquals(traced.length, plain.length); // The flag costs no header bytes
+        assertTrue(Protocol.decodePacket(traced).traced);
+        assertFalse(Protocol.decodePacket(plain).traced);
+        assertEquals(0, Protocol.decodePacket(traced).type);
+    }
+
+    @Test
+    public void testPipelineEvents() {
+        Trace.clear();
+        BitchatPacket big = packet(0, new byte[3000], true);
+        long id = Protocol.packetId(big);
+        Protocol.encodePacket(big);
+        Protocol.encodePacket(packet(0, new byte[10], false)); // Untraced packets record nothing
+
+        long fragmentTimestamp = 7654321;
+        int[] fragmentTypes = {Protocol.FRAGMENT_START, Protocol.FRAGMENT_CONTINUE, Protocol.FRAGMENT_END};
+        for (int type : fragmentTypes) {
+            BitchatPacket fragment = packet(type, new byte[100], true);
+            fragment.timestamp = fragmentTimestamp;
+            Protocol.decodePacket(Protocol.encodePacket(fragment));
+        }
+        long fragmentId = Protocol.packetId(Router.idToLong("tracer01".getBytes()), fragmentTimestamp);
+
+        DeliveryTracker tracker = new DeliveryTracker();
+        tracker.trackMessage("traced-msg", "PENDING");
+        tracker.trackMessage("plain-msg", "PENDING");
+        Trace.recordSend(id, "traced-msg");
+        tracker.processAck(tracker.generateAck("traced-msg", "peer", "nick", 2));
+        tracker.processAck(tracker.generateAck("plain-msg", "peer", "nick", 2));
+
+        List<Event> events = parse(Trace.export(42), 42);
+        List<Trace.Event> types = new ArrayList<>();
+        for (Event event : events) types.add(event.type);
+        assertEquals(Trace.Event.ENCODE, types.get(0));
+        assertEquals(id, events.get(0).packetId);
+        assertTrue(events.get(0).arg > 3000); // One packet, not split into fragments
+        assertFalse(types.contains(Trace.Event.FRAGMENT));
+        Event reassemble = events.get(types.indexOf(Trace.Event.REASSEMBLE));
+        assertEquals(fragmentId, reassemble.packetId);
+        assertEquals(300, reassemble.arg);
+        Event send = events.get(types.indexOf(Trace.Event.SEND));
+        Event ack = events.get(types.indexOf(Trace.Event.ACK));
+        assertEquals(Trace.messageKey("traced-msg"), send.arg);
+        assertEquals(send.arg, ack.packetId);
+        assertEquals(2, ack.arg);
+        assertEquals(types.indexOf(Trace.Event.ACK), types.lastIndexOf(Trace.Event.ACK)); // Untraced message's ack skipped
+        for (int i = 1; i < events.size(); i++) assertTrue(events.get(i).time >= events.get(i - 1).time);
+    }
+
+    @Test
+    public void testSampleRate() {
+        Trace.setSampleRate(0);
+        for (int i = 0; i < 1000; i++) assertFalse(Trace.sample());
+        Trace.setSampleRate(1);
+        for (int i = 0; i < 1000; i++) assertTrue(Trace.sample());
+        Trace.setSampleRate(0.25);
+        int sampled = 0;
+        for (int i = 0; i < 100000; i++) if (Trace.sample()) sampled++;
+        assertEquals(25000, sampled, 1000);
+        Trace.setSampleRate(0);
+        try {
+            Trace.setSampleRate(1.5);
+            fail("Rate above 1 accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    // Writers lap the ring many times while a reader exports; every exported event must be one that was
+    // written whole, never fields from two different writes.
+    @Test
+    public void testConcurrentWritersNeverTear() throws Exception {
+        Trace.clear();
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final long thread = t;
+            Thread writer = new Thread(() -> {
+                for (long i = 0; running.get(); i++) {
+                    long id = thread << 40 | i;
+                    Trace.record(Trace.Event.RELAY, id, ~id);
+                }
+            });
+            writers.add(writer);
+            writer.start();
+        }
+        int exported = 0;
+        for (int round = 0; round < 200; round++) {
+            for (Event event : parse(Trace.export(1), 1)) {
+                assertEquals(Trace.Event.RELAY, event.type);
+                assertEquals(~event.packetId, event.arg);
+                exported++;
+            }
+        }
+        running.set(false);
+        for (Thread writer : writers) writer.join();
+        assertTrue(exported > 0);
+        assertTrue(Trace.getRecorded() > Trace.CAPACITY);
+    }
+}
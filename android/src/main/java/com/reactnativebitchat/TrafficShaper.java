@@ -0,0 +1,107 @@
+package com.reactnativebitchat;
+
+import java.util.ArrayDeque;
+
+// Releases link frames at a fixed cadence so that when, and how much, this node sends is not visible on
+// air. Each slot carries the oldest queued fragment when there is one and random cover bytes otherwise,
+// and every frame is padded to the full frame size, so real and cover frames look alike. Under load the
+// slots simply fill with real data; airtime stays at one frame per slot instead of data plus cover.
+// Packets are admitted whole or not at all, and only while the queue holds fewer than maxQueued frames,
+// so a frame waits at most about maxQueued slots; the wait is recorded as Metrics.Timer.SHAPING_DELAY.
+public class TrafficShaper {
+    private static final class Queued {
+        final byte[] fragment;
+        final long enqueuedAt; // System.nanoTime
+
+        Queued(byte[] fragment, long enqueuedAt) {
+            this.fragment = fragment;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    private final int frameSize;
+    private final ArrayDeque<Queued> queue = new ArrayDeque<>();
+    private int maxQueued;
+    private long realFrames, coverFrames, dropped;
+
+    public TrafficShaper(int frameSize, int maxQueued) {
+        this.frameSize = frameSize;
+        this.maxQueued = maxQueued;
+    }
+
+    // Queues the frames of one packet, each at most frameSize bytes. Returns false, dropping the whole
+    // packet, if they do not fit under maxQueued; a packet longer than that is still taken into an
+    // empty queue, or it could never be sent.
+    public synchronized boolean enqueue(byte[]... fragments) {
+        for (byte[] fragment : fragments) {
+            if (fragment.length > frameSize) throw new IllegalArgumentException("Fragment larger than a frame");
+        }
+        if (!queue.isEmpty() && queue.size() + fragments.length > maxQueued) {
+            dropped++;
+            return false;
+        }
+        long now = System.nanoTime();
+        for (byte[] fragment : fragments) queue.addLast(new Queued(fragment, now));
+        return true;
+    }
+
+    // Frames the queue may hold before packets are turned away, e.g. the slots in the longest wait
+    // acceptable at the current interval.
+    public synchronized void setMaxQueued(int maxQueued) {
+        this.maxQueued = maxQueued;
+    }
+
+    // Frame for the current slot: the next fragment padded with random bytes, or, when nothing is queued,
+    // a cover frame if cover is allowed and null otherwise.
+    public byte[] next(boolean cover) {
+        byte[] fragment = null;
+        synchronized (this) {
+            Queued queued = queue.pollFirst();
+            if (queued != null) {
+                fragment = queued.fragment;
+                realFrames++;
+                Metrics.record(Metrics.Timer.SHAPING_DELAY, System.nanoTime() - queued.enqueuedAt);
+            } else if (cover) {
+                coverFrames++;
+            } else {
+                return null;
+            }
+        }
+        byte[] frame = new byte[frameSize];
+        if (fragment == null) {
+            FastRandom.current().nextBytes(frame);
+        } else {
+            System.arraycopy(fragment, 0, frame, 0, fragment.length);
+            FastRandom.current().nextBytes(frame, fragment.length, frameSize - fragment.length);
+        }
+        return frame;
+    }
+
+    // Removes and returns everything queued, for when shaping is turned off.
+    public synchronized byte[][] drain() {
+        byte[][] fragments = new byte[queue.size()][];
+        for (int i = 0; i < fragments.length; i++) fragments[i] = queue.pollFirst().fragment;
+        return fragments;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    public synchronized long getRealFrames() {
+        return realFrames;
+    }
+
+    public synchronized long getCoverFrames() {
+        return coverFrames;
+    }
+
+    // Packets turned away because the queue was full.
+    public synchronized long getDropped() {
+        return dropped;
+    }
+}
@@ -0,0 +1,92 @@
+package com.reactnativebitchat;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class TrafficShaperTests {
+    @Test
+    public void testRealFramesFirstThenCover() {
+        TrafficShaper shaper = new TrafficShaper(8, 16);
+        assertNull(shaper.next(false)); // Idle and no cover allowed
+        assertTrue(shaper.enqueue(new byte[]{1, 2, 3}));
+        assertTrue(shaper.enqueue(new byte[]{4, 5, 6, 7, 8, 9, 10, 11}));
+        byte[] first = shaper.next(true);
+        assertEquals(8, first.length);
+        assertArrayEquals(new byte[]{1, 2, 3}, Arrays.copyOf(first, 3)); // Padded after the fragment
+        assertArrayEquals(new byte[]{4, 5, 6, 7, 8, 9, 10, 11}, shaper.next(false));
+        byte[] cover = shaper.next(true);
+        assertEquals(8, cover.length);
+        assertNull(shaper.next(false));
+        assertEquals(2, shaper.getRealFrames());
+        assertEquals(1, shaper.getCoverFrames());
+    }
+
+    @Test
+    public void testQueueLimitAndDrain() {
+        TrafficShaper shaper = new TrafficShaper(4, 3);
+        assertTrue(shaper.enqueue(new byte[]{1}));
+        assertTrue(shaper.enqueue(new byte[]{2}));
+        assertFalse(shaper.enqueue(new byte[]{3}, new byte[]{4})); // Not half a packet
+        assertEquals(2, shaper.getQueued());
+        assertTrue(shaper.enqueue(new byte[]{3}));
+        assertEquals(1, shaper.getDropped());
+        byte[][] drained = shaper.drain();
+        assertEquals(3, drained.length);
+        assertEquals(2, drained[1][0]);
+        assertEquals(0, shaper.getQueued());
+        assertTrue(shaper.enqueue(new byte[4][1])); // Longer than the limit, but the queue is empty
+        assertEquals(4, shaper.getQueued());
+        try {
+            shaper.enqueue(new byte[5]);
+            fail("Oversized fragment accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    // Ten minutes of 100 ms slots with a quiet phase, a chat phase and a file-sized burst, with room for
+    // 5 s of frames. Shaped airtime is one frame per slot however busy the node is; sending data alongside
+    // fixed-rate cover, as the ad-hoc cover traffic did, costs data + slots frames and shows on air exactly
+    // when data is sent. Packets of three frames that would wait longer than the bound are turned away
+    // whole instead of queueing behind the burst.
+    @Test
+    public void testAirtimeStaysConstantUnderLoad() {
+        int maxQueued = 50;
+        TrafficShaper shaper = new TrafficShaper(AdvertisingPool.EXTENDED_FRAME_SIZE, maxQueued);
+        Random random = new Random(43);
+        int slots = 6000;
+        long dataFrames = 0, shapedFrames = 0, rejected = 0, maxWait = 0;
+        long[] enqueuedAt = new long[100000];
+        int head = 0, tail = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            int packets;
+            if (slot < 2000) packets = 0;
+            else if (slot < 4000) packets = random.nextInt(30) == 0 ? 1 : 0; // Chat
+            else packets = slot < 4300 ? 1 : 0; // 900 frames at once, three times the slot rate
+            for (int i = 0; i < packets; i++) {
+                if (!shaper.enqueue(new byte[]{1}, new byte[]{2}, new byte[]{3})) {
+                    assertTrue(slot >= 4000); // Chat alone never fills the queue
+                    rejected++;
+                    continue;
+                }
+                for (int f = 0; f < 3; f++) enqueuedAt[tail++] = slot;
+                dataFrames += 3;
+            }
+            int before = shaper.getQueued();
+            byte[] frame = shaper.next(true);
+            assertNotNull(frame);
+            assertEquals(AdvertisingPool.EXTENDED_FRAME_SIZE, frame.length);
+            shapedFrames++;
+            if (shaper.getQueued() < before) maxWait = Math.max(maxWait, slot - enqueuedAt[head++]);
+        }
+        assertEquals(slots, shapedFrames);
+        assertEquals(dataFrames, shaper.getRealFrames()); // Everything admitted was sent
+        assertEquals(slots - dataFrames, shaper.getCoverFrames());
+        assertEquals(rejected, shaper.getDropped());
+        assertTrue(rejected > 0);
+        assertTrue(maxWait <= maxQueued);
+        assertTrue(dataFrames + slots > shapedFrames); // Cover alongside data would cost more airtime
+    }
+}
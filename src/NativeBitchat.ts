@@ -0,0 +1,57 @@
+import type { TurboModule } from 'react-native';
+import { TurboModuleRegistry } from 'react-native';
+
+export interface Spec extends TurboModule {
+  getConstants(): {
+    EVENT_MESSAGES: string;
+    EVENT_DELIVERY_ACKS: string;
+    EVENT_READ_RECEIPTS: string;
+    EVENT_DELIVERY_STATUS: string;
+    EVENT_PEERS: string;
+    EVENT_METRICS: string;
+  };
+  startAdvertising(peerID: string): Promise<void>;
+  scanPeers(): Promise<string[]>;
+  sendMessage(message: Object, recipient: string | null): Promise<void>;
+  // Base64 MessageBatch payloads, see src/messageBatch.ts.
+  sendMessages(batch: string): Promise<number>;
+  getHistory(
+    channel: string | null,
+    afterSequence: number,
+    limit: number
+  ): Promise<string>;
+  searchHistory(
+    query: string,
+    beforeSequence: number,
+    limit: number
+  ): Promise<string>;
+  sendEncryptedChannelMessage(message: Object, channel: string): Promise<void>;
+  markRead(peerID: string, messageID: string, timestamp: number): void;
+  addListener(eventName: string): void;
+  removeListeners(count: number): void;
+  acknowledgeEvents(eventName: string, batches: number): void;
+  decryptChannelMessage(
+    encryptedContent: string,
+    channel: string
+  ): Promise<string>;
+  isFavorite(fingerprint: string): Promise<boolean>;
+  addFavorite(fingerprint: string): Promise<boolean>;
+  removeFavorite(fingerprint: string): Promise<boolean>;
+  updateFavorites(add: string[], remove: string[]): Promise<number>;
+  getFavorites(): Promise<string[]>;
+  joinChannel(channel: string, password: string | null): Promise<boolean>;
+  setChannelPassword(channel: string, password: string): Promise<void>;
+  removeChannelPassword(channel: string): Promise<void>;
+  transferChannelOwnership(channel: string, newOwnerID: string): Promise<void>;
+  getQueueMetrics(): Promise<Object>;
+  getMetrics(): Promise<Object>;
+  setMetricsInterval(intervalMs: number): void;
+  setTrafficShapingInterval(intervalMs: number): void;
+  setErrorCorrection(enabled: boolean): void;
+  setSystemLogEnabled(enabled: boolean): void;
+  setTraceSampleRate(rate: number): Promise<void>;
+  exportTraces(): Promise<string>;
+  getRadioReport(): Promise<Object>;
+}
+
+export default TurboModuleRegistry.getEnforcing<Spec>('Bitchat');
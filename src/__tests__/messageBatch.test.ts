@@ -0,0 +1,27 @@
+import { decodeMessageBatch, encodeMessageBatch } from '../messageBatch';
+import type { BitchatMessage } from '../types';
+
+const message: BitchatMessage = {
+  id: 'msg1',
+  sender: 'user',
+  content: 'héllo 👋',
+  timestamp: 1700000000000,
+  isRelay: false,
+  isPrivate: true,
+  recipientNickname: 'friend',
+  senderPeerID: 'peer1234',
+  mentions: ['alice', 'bob'],
+  channel: '#room',
+  isEncrypted: false,
+  deliveryStatus: 'PENDING',
+};
+
+it('round-trips a message batch', () => {
+  const decoded = decodeMessageBatch(encodeMessageBatch([message, message]));
+  expect(decoded).toHaveLength(2);
+  expect(decoded[0]?.message).toEqual({
+    ...message,
+    originalSender: undefined,
+    encryptedContent: undefined,
+  });
+});
@@ -1,5 +1,155 @@
-import { NativeModules } from 'react-native';
+import { NativeEventEmitter } from 'react-native';
+import type { EmitterSubscription } from 'react-native';
+import Bitchat from './NativeBitchat';
+import { decodeMessageBatch, encodeMessageBatch } from './messageBatch';
+import type { HistoryEntry } from './messageBatch';
+import type { BitchatMessage, DeliveryAck, ReadReceipt } from './types';
 
-const { Bitchat } = NativeModules;
+export const BitchatEvents = {
+  messages: 'BitchatMessages',
+  deliveryAcks: 'BitchatDeliveryAcks',
+  readReceipts: 'BitchatReadReceipts',
+  deliveryStatusUpdates: 'BitchatDeliveryStatusUpdates',
+  peerChanges: 'BitchatPeerChanges',
+  metrics: 'BitchatMetrics',
+} as const;
 
+export interface DeliveryStatusUpdate {
+  messageID: string;
+  status: string;
+}
+
+export interface PeerChange {
+  peerID: string;
+  connected: boolean;
+}
+
+export interface TimerSummary {
+  count: number;
+  meanUs: number;
+  p50Us: number;
+  p90Us: number;
+  p99Us: number;
+  maxUs: number;
+}
+
+export interface MetricsSnapshot {
+  counters: Record<string, number>;
+  timers: Record<string, TimerSummary>;
+}
+
+interface BatchPayloads {
+  BitchatMessages: BitchatMessage;
+  BitchatDeliveryAcks: DeliveryAck;
+  BitchatReadReceipts: ReadReceipt;
+  BitchatDeliveryStatusUpdates: DeliveryStatusUpdate;
+  BitchatPeerChanges: PeerChange;
+  BitchatMetrics: MetricsSnapshot;
+}
+
+const emitter = new NativeEventEmitter(Bitchat);
+
+// Subscribes to a batched native event. Each batch is acknowledged once the listener returns,
+// which lets the native side hold back further batches while JS is busy.
+export function addBatchListener<E extends keyof BatchPayloads>(
+  event: E,
+  listener: (batch: BatchPayloads[E][]) => void
+): EmitterSubscription {
+  return emitter.addListener(event, (batch: BatchPayloads[E][]) => {
+    try {
+      listener(batch);
+    } finally {
+      Bitchat.acknowledgeEvents(event, 1);
+    }
+  });
+}
+
+// Calls callback once per event of a batched native event, for the single-event listeners below.
+function addEventListener<E extends keyof BatchPayloads>(
+  event: E,
+  callback: (item: BatchPayloads[E]) => void
+): EmitterSubscription {
+  return addBatchListener(event, (batch) => batch.forEach((item) => callback(item)));
+}
+
+/** @deprecated Use addBatchListener(BitchatEvents.messages, ...). */
+export function onMessageReceived(
+  callback: (message: BitchatMessage) => void
+): EmitterSubscription {
+  return addEventListener(BitchatEvents.messages, callback);
+}
+
+/** @deprecated Use addBatchListener(BitchatEvents.peerChanges, ...). */
+export function onPeerConnected(
+  callback: (peerID: string) => void
+): EmitterSubscription {
+  return addEventListener(BitchatEvents.peerChanges, (change) => {
+    if (change.connected) callback(change.peerID);
+  });
+}
+
+/** @deprecated Use addBatchListener(BitchatEvents.peerChanges, ...). */
+export function onPeerDisconnected(
+  callback: (peerID: string) => void
+): EmitterSubscription {
+  return addEventListener(BitchatEvents.peerChanges, (change) => {
+    if (!change.connected) callback(change.peerID);
+  });
+}
+
+/** @deprecated Use addBatchListener(BitchatEvents.deliveryAcks, ...). */
+export function onDeliveryAck(
+  callback: (ack: DeliveryAck) => void
+): EmitterSubscription {
+  return addEventListener(BitchatEvents.deliveryAcks, callback);
+}
+
+/** @deprecated Use addBatchListener(BitchatEvents.readReceipts, ...). */
+export function onReadReceipt(
+  callback: (receipt: ReadReceipt) => void
+): EmitterSubscription {
+  return addEventListener(BitchatEvents.readReceipts, callback);
+}
+
+/** @deprecated Use addBatchListener(BitchatEvents.deliveryStatusUpdates, ...). */
+export function onDeliveryStatusUpdate(
+  callback: (update: DeliveryStatusUpdate) => void
+): EmitterSubscription {
+  return addEventListener(BitchatEvents.deliveryStatusUpdates, callback);
+}
+
+// Sends many messages in one bridge call; resolves with the number sent, leaving out private messages
+// dropped because too many were already waiting for that peer's session.
+export function sendMessages(messages: BitchatMessage[]): Promise<number> {
+  return Bitchat.sendMessages(encodeMessageBatch(messages));
+}
+
+// Reads stored messages after a sequence number, optionally for one channel only.
+export async function getHistory(
+  channel: string | null,
+  afterSequence = 0,
+  limit = 500
+): Promise<HistoryEntry[]> {
+  return decodeMessageBatch(
+    await Bitchat.getHistory(channel, afterSequence, limit)
+  );
+}
+
+// Newest stored messages holding every term of query: words, "@name" mentions and "#channel" names.
+export async function searchHistory(
+  query: string,
+  beforeSequence = 0,
+  limit = 50
+): Promise<HistoryEntry[]> {
+  return decodeMessageBatch(
+    await Bitchat.searchHistory(query, beforeSequence, limit)
+  );
+}
+
+// Counters and latency summaries of the native mesh pipeline.
+export function getMetrics(): Promise<MetricsSnapshot> {
+  return Bitchat.getMetrics() as Promise<MetricsSnapshot>;
+}
+
+export type { HistoryEntry };
 export default Bitchat;
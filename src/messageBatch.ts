@@ -0,0 +1,276 @@
+import type { BitchatMessage } from './types';
+
+// Binary batch format shared with android/.../MessageBatch.java:
+// batch := count(u32) entry*
+// entry := sequence(f64) flags(u8) timestamp(f64) id sender content originalSender recipientNickname
+//          senderPeerID channel deliveryStatus encryptedContent mentionCount(u16) mention*
+// Strings are a u16 length (0xFFFF for null) followed by UTF-8 bytes.
+
+const NULL_LENGTH = 0xffff;
+const FLAG_RELAY = 0x01;
+const FLAG_PRIVATE = 0x02;
+const FLAG_ENCRYPTED = 0x04;
+const BASE64 =
+  'ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/';
+
+export interface HistoryEntry {
+  sequence: number;
+  message: BitchatMessage;
+}
+
+class Writer {
+  private bytes = new Uint8Array(256);
+  private view = new DataView(this.bytes.buffer);
+  length = 0;
+
+  private reserve(size: number) {
+    if (this.length + size <= this.bytes.length) return;
+    let capacity = this.bytes.length * 2;
+    while (capacity < this.length + size) capacity *= 2;
+    const grown = new Uint8Array(capacity);
+    grown.set(this.bytes.subarray(0, this.length));
+    this.bytes = grown;
+    this.view = new DataView(grown.buffer);
+  }
+
+  u8(value: number) {
+    this.reserve(1);
+    this.view.setUint8(this.length, value);
+    this.length += 1;
+  }
+
+  u16(value: number) {
+    this.reserve(2);
+    this.view.setUint16(this.length, value);
+    this.length += 2;
+  }
+
+  u32(value: number) {
+    this.reserve(4);
+    this.view.setUint32(this.length, value);
+    this.length += 4;
+  }
+
+  f64(value: number) {
+    this.reserve(8);
+    this.view.setFloat64(this.length, value);
+    this.length += 8;
+  }
+
+  string(value: string | undefined | null) {
+    if (value == null) {
+      this.u16(NULL_LENGTH);
+      return;
+    }
+    const encoded = utf8Encode(value);
+    if (encoded.length >= NULL_LENGTH) throw new Error('Field too long');
+    this.u16(encoded.length);
+    this.reserve(encoded.length);
+    this.bytes.set(encoded, this.length);
+    this.length += encoded.length;
+  }
+
+  toBytes(): Uint8Array {
+    return this.bytes.subarray(0, this.length);
+  }
+}
+
+class Reader {
+  private view: DataView;
+  offset = 0;
+
+  constructor(private bytes: Uint8Array) {
+    this.view = new DataView(bytes.buffer, bytes.byteOffset, bytes.byteLength);
+  }
+
+  u8(): number {
+    return this.view.getUint8(this.offset++);
+  }
+
+  u16(): number {
+    const value = this.view.getUint16(this.offset);
+    this.offset += 2;
+    return value;
+  }
+
+  u32(): number {
+    const value = this.view.getUint32(this.offset);
+    this.offset += 4;
+    return value;
+  }
+
+  f64(): number {
+    const value = this.view.getFloat64(this.offset);
+    this.offset += 8;
+    return value;
+  }
+
+  string(): string | undefined {
+    const length = this.u16();
+    if (length === NULL_LENGTH) return undefined;
+    const value = utf8Decode(
+      this.bytes.subarray(this.offset, this.offset + length)
+    );
+    this.offset += length;
+    return value;
+  }
+}
+
+export function encodeMessageBatch(messages: BitchatMessage[]): string {
+  const writer = new Writer();
+  writer.u32(messages.length);
+  for (const message of messages) {
+    writer.f64(0);
+    writer.u8(
+      (message.isRelay ? FLAG_RELAY : 0) |
+        (message.isPrivate ? FLAG_PRIVATE : 0) |
+        (message.isEncrypted ? FLAG_ENCRYPTED : 0)
+    );
+    writer.f64(message.timestamp);
+    writer.string(message.id);
+    writer.string(message.sender);
+    writer.string(message.content);
+    writer.string(message.originalSender);
+    writer.string(message.recipientNickname);
+    writer.string(message.senderPeerID);
+    writer.string(message.channel);
+    writer.string(message.deliveryStatus);
+    writer.string(message.encryptedContent);
+    const mentions = message.mentions ?? [];
+    writer.u16(mentions.length);
+    for (const mention of mentions) writer.string(mention);
+  }
+  return base64Encode(writer.toBytes());
+}
+
+export function decodeMessageBatch(batch: string): HistoryEntry[] {
+  const reader = new Reader(base64Decode(batch));
+  const count = reader.u32();
+  const entries: HistoryEntry[] = [];
+  for (let i = 0; i < count; i++) {
+    const sequence = reader.f64();
+    const flags = reader.u8();
+    const timestamp = reader.f64();
+    const id = reader.string() ?? '';
+    const sender = reader.string() ?? '';
+    const content = reader.string() ?? '';
+    const originalSender = reader.string();
+    const recipientNickname = reader.string();
+    const senderPeerID = reader.string() ?? '';
+    const channel = reader.string();
+    const deliveryStatus = reader.string() ?? 'PENDING';
+    const encryptedContent = reader.string();
+    const mentions: string[] = [];
+    const mentionCount = reader.u16();
+    for (let m = 0; m < mentionCount; m++) mentions.push(reader.string() ?? '');
+    entries.push({
+      sequence,
+      message: {
+        id,
+        sender,
+        content,
+        timestamp,
+        isRelay: (flags & FLAG_RELAY) !== 0,
+        originalSender,
+        isPrivate: (flags & FLAG_PRIVATE) !== 0,
+        recipientNickname,
+        senderPeerID,
+        mentions,
+        channel,
+        encryptedContent,
+        isEncrypted: (flags & FLAG_ENCRYPTED) !== 0,
+        deliveryStatus,
+      },
+    });
+  }
+  return entries;
+}
+
+function utf8Encode(value: string): Uint8Array {
+  const out: number[] = [];
+  for (let i = 0; i < value.length; i++) {
+    let code = value.charCodeAt(i);
+    if (code >= 0xd800 && code < 0xdc00 && i + 1 < value.length) {
+      const low = value.charCodeAt(i + 1);
+      if (low >= 0xdc00 && low < 0xe000) {
+        code = 0x10000 + ((code - 0xd800) << 10) + (low - 0xdc00);
+        i++;
+      }
+    }
+    if (code < 0x80) {
+      out.push(code);
+    } else if (code < 0x800) {
+      out.push(0xc0 | (code >> 6), 0x80 | (code & 0x3f));
+    } else if (code < 0x10000) {
+      out.push(
+        0xe0 | (code >> 12),
+        0x80 | ((code >> 6) & 0x3f),
+        0x80 | (code & 0x3f)
+      );
+    } else {
+      out.push(
+        0xf0 | (code >> 18),
+        0x80 | ((code >> 12) & 0x3f),
+        0x80 | ((code >> 6) & 0x3f),
+        0x80 | (code & 0x3f)
+      );
+    }
+  }
+  return Uint8Array.from(out);
+}
+
+function utf8Decode(bytes: Uint8Array): string {
+  let result = '';
+  for (let i = 0; i < bytes.length; ) {
+    const byte = bytes[i++]!;
+    let code: number;
+    if (byte < 0x80) {
+      code = byte;
+    } else if (byte < 0xe0) {
+      code = ((byte & 0x1f) << 6) | (bytes[i++]! & 0x3f);
+    } else if (byte < 0xf0) {
+      code =
+        ((byte & 0x0f) << 12) |
+        ((bytes[i++]! & 0x3f) << 6) |
+        (bytes[i++]! & 0x3f);
+    } else {
+      code =
+        ((byte & 0x07) << 18) |
+        ((bytes[i++]! & 0x3f) << 12) |
+        ((bytes[i++]! & 0x3f) << 6) |
+        (bytes[i++]! & 0x3f);
+    }
+    result += String.fromCodePoint(code);
+  }
+  return result;
+}
+
+function base64Encode(bytes: Uint8Array): string {
+  let result = '';
+  for (let i = 0; i < bytes.length; i += 3) {
+    const a = bytes[i]!;
+    const b = i + 1 < bytes.length ? bytes[i + 1]! : 0;
+    const c = i + 2 < bytes.length ? bytes[i + 2]! : 0;
+    result += BASE64[a >> 2];
+    result += BASE64[((a & 0x03) << 4) | (b >> 4)];
+    result += i + 1 < bytes.length ? BASE64[((b & 0x0f) << 2) | (c >> 6)] : '=';
+    result += i + 2 < bytes.length ? BASE64[c & 0x3f] : '=';
+  }
+  return result;
+}
+
+function base64Decode(value: string): Uint8Array {
+  const clean = value.replace(/[^A-Za-z0-9+/]/g, '');
+  const out = new Uint8Array(Math.floor((clean.length * 3) / 4));
+  let length = 0;
+  for (let i = 0; i < clean.length; i += 4) {
+    const a = BASE64.indexOf(clean[i]!);
+    const b = BASE64.indexOf(clean[i + 1] ?? 'A');
+    const c = i + 2 < clean.length ? BASE64.indexOf(clean[i + 2]!) : -1;
+    const d = i + 3 < clean.length ? BASE64.indexOf(clean[i + 3]!) : -1;
+    out[length++] = (a << 2) | (b >> 4);
+    if (c >= 0) out[length++] = ((b & 0x0f) << 4) | (c >> 2);
+    if (d >= 0) out[length++] = ((c & 0x03) << 6) | d;
+  }
+  return out.subarray(0, length);
+}